@@ -0,0 +1,414 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.io.IOUtil
+import org.jetbrains.kotlin.incremental.storage.ConstantsMapExternalizer
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValueExternalizer
+import org.jetbrains.kotlin.incremental.storage.StringToLongMapExternalizer
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.resolve.jvm.JvmClassName
+import org.jetbrains.kotlin.serialization.jvm.BitEncoding
+import org.jetbrains.org.objectweb.asm.*
+import java.io.*
+import java.util.*
+import java.util.zip.ZipFile
+
+/**
+ * ABI of the classes on the compilation classpath, saved after a successful incremental build.
+ *
+ * Comparing it with the snapshot of the current classpath gives the changes of dependencies in the same form as
+ * the changes of recompiled classes, so only the sources which use changed declarations have to be recompiled
+ * instead of the whole module.
+ */
+class ClasspathSnapshot(val entries: List<ClasspathEntrySnapshot>) {
+    /**
+     * Writes the snapshot to a temporary file first and then renames it, so the snapshot is never seen partially written.
+     */
+    fun write(file: File) {
+        val dir = file.absoluteFile.parentFile
+        dir.mkdirs()
+        val temp = File.createTempFile(file.name, ".tmp", dir)
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+                output.writeInt(VERSION)
+                output.writeInt(entries.size)
+                for (entry in entries) {
+                    entry.write(output)
+                }
+            }
+            FileUtil.rename(temp, file)
+        }
+        finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * Classes visible through the classpath: when several entries contain the same class, the first one is used.
+     */
+    val classes: Map<String, ClasspathClassAbi> by lazy {
+        val result = HashMap<String, ClasspathClassAbi>()
+        for (entry in entries) {
+            for ((internalName, abi) in entry.classes) {
+                if (internalName !in result) {
+                    result[internalName] = abi
+                }
+            }
+        }
+        result
+    }
+
+    companion object {
+        private val VERSION = 1
+
+        /**
+         * Returns null if there is no snapshot or it can't be read, in which case all sources should be recompiled.
+         */
+        fun read(file: File): ClasspathSnapshot? {
+            if (!file.exists()) return null
+
+            try {
+                return DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                    if (input.readInt() != VERSION) return null
+
+                    val size = readSize(input)
+                    val entries = ArrayList<ClasspathEntrySnapshot>()
+                    repeat(size) {
+                        entries.add(ClasspathEntrySnapshot.read(input))
+                    }
+                    ClasspathSnapshot(entries)
+                }
+            }
+            catch (e: IOException) {
+                return null
+            }
+            catch (e: RuntimeException) {
+                // a corrupted size read by the externalizers of the incremental cache, e.g. NegativeArraySizeException
+                return null
+            }
+            catch (e: OutOfMemoryError) {
+                // a corrupted size which is too large to allocate an array for
+                return null
+            }
+        }
+    }
+}
+
+/**
+ * Classes of a jar or a directory of the classpath.
+ * [stamp] identifies the version of a jar, the classes of a directory are read every time.
+ */
+class ClasspathEntrySnapshot(val path: String, val stamp: Long, val classes: Map<String, ClasspathClassAbi>) {
+    fun write(output: DataOutput) {
+        IOUtil.writeString(path, output)
+        output.writeLong(stamp)
+        output.writeInt(classes.size)
+        for ((internalName, abi) in classes) {
+            IOUtil.writeString(internalName, output)
+            abi.write(output)
+        }
+    }
+
+    companion object {
+        fun read(input: DataInput): ClasspathEntrySnapshot {
+            val path = IOUtil.readString(input)!!
+            val stamp = input.readLong()
+            val size = readSize(input)
+            val classes = HashMap<String, ClasspathClassAbi>()
+            repeat(size) {
+                val internalName = IOUtil.readString(input)!!
+                classes[internalName] = ClasspathClassAbi.read(input)
+            }
+            return ClasspathEntrySnapshot(path, stamp, classes)
+        }
+    }
+}
+
+// collections are not presized by the sizes read, so a corrupted size makes reading fail at the end of the file
+private fun readSize(input: DataInput): Int {
+    val size = input.readInt()
+    if (size < 0) throw IOException("Corrupted classpath snapshot: size $size")
+    return size
+}
+
+sealed class ClasspathClassAbi {
+    /**
+     * The same data the incremental cache keeps for compiled classes. [proto] is null for multifile class facades.
+     */
+    class KotlinClass(
+            val isPackage: Boolean,
+            val proto: ProtoMapValue?,
+            val constants: Map<String, Any>,
+            val inlineFunctions: Map<String, Long>
+    ) : ClasspathClassAbi()
+
+    /**
+     * Hashes of the declaration of a class (its supertypes, modifiers, annotations and constructors)
+     * and of its non-private fields and methods with the same name.
+     */
+    class JavaClass(val headerHash: Long, val memberHashes: Map<String, Long>) : ClasspathClassAbi()
+
+    fun write(output: DataOutput) {
+        when (this) {
+            is KotlinClass -> {
+                output.writeBoolean(true)
+                output.writeBoolean(isPackage)
+                output.writeBoolean(proto != null)
+                proto?.let { ProtoMapValueExternalizer.save(output, it) }
+                ConstantsMapExternalizer.save(output, constants)
+                StringToLongMapExternalizer.save(output, inlineFunctions)
+            }
+            is JavaClass -> {
+                output.writeBoolean(false)
+                output.writeLong(headerHash)
+                StringToLongMapExternalizer.save(output, memberHashes)
+            }
+        }
+    }
+
+    companion object {
+        fun read(input: DataInput): ClasspathClassAbi {
+            if (input.readBoolean()) {
+                val isPackage = input.readBoolean()
+                val proto = if (input.readBoolean()) ProtoMapValueExternalizer.read(input) else null
+                val constants = ConstantsMapExternalizer.read(input)!!
+                val inlineFunctions = StringToLongMapExternalizer.read(input)!!
+                return KotlinClass(isPackage, proto, constants, inlineFunctions)
+            }
+
+            val headerHash = input.readLong()
+            val memberHashes = StringToLongMapExternalizer.read(input)!!
+            return JavaClass(headerHash, memberHashes)
+        }
+    }
+}
+
+/**
+ * Reads the ABI of the classes in [classpath]. Snapshots of the jars which weren't changed since [previous] are reused.
+ */
+fun snapshotClasspath(classpath: Iterable<File>, previous: ClasspathSnapshot?): ClasspathSnapshot {
+    val previousEntries = previous?.entries?.associateBy { it.path } ?: emptyMap()
+    val entries = ArrayList<ClasspathEntrySnapshot>()
+
+    for (file in classpath) {
+        val path = file.absolutePath
+        when {
+            file.isDirectory -> {
+                val classes = HashMap<String, ClasspathClassAbi>()
+                file.walk().filter { it.isFile && it.extension == "class" }.forEach {
+                    val internalName = it.toRelativeString(file).replace(File.separatorChar, '/').removeSuffix(".class")
+                    readClassAbi(it, it.readBytes())?.let { classes[internalName] = it }
+                }
+                entries.add(ClasspathEntrySnapshot(path, 0, classes))
+            }
+            file.isFile -> {
+                val stamp = file.lastModified() * 31 + file.length()
+                val previousEntry = previousEntries[path]
+                if (previousEntry != null && previousEntry.stamp == stamp) {
+                    entries.add(previousEntry)
+                }
+                else {
+                    entries.add(ClasspathEntrySnapshot(path, stamp, readJarClasses(file)))
+                }
+            }
+        }
+    }
+
+    return ClasspathSnapshot(entries)
+}
+
+private fun readJarClasses(jar: File): Map<String, ClasspathClassAbi> {
+    val classes = HashMap<String, ClasspathClassAbi>()
+
+    try {
+        ZipFile(jar).use { zip ->
+            for (entry in zip.entries()) {
+                if (entry.isDirectory || !entry.name.endsWith(".class")) continue
+
+                val bytes = zip.getInputStream(entry).use { it.readBytes() }
+                readClassAbi(File(jar.path + "!/" + entry.name), bytes)?.let { classes[entry.name.removeSuffix(".class")] = it }
+            }
+        }
+    }
+    catch (e: IOException) {
+        // not a jar, so there are no classes for the compiler either
+    }
+
+    return classes
+}
+
+private fun readClassAbi(location: File, bytes: ByteArray): ClasspathClassAbi? {
+    val kotlinClass = LocalFileKotlinClass.create(location, bytes) ?: return readJavaClassAbi(bytes)
+    if (kotlinClass.classId.isLocal) return null
+
+    val header = kotlinClass.classHeader
+    val isPackage = when (header.kind) {
+        KotlinClassHeader.Kind.CLASS -> false
+        KotlinClassHeader.Kind.FILE_FACADE, KotlinClassHeader.Kind.MULTIFILE_CLASS, KotlinClassHeader.Kind.MULTIFILE_CLASS_PART -> true
+        else -> return null
+    }
+
+    val proto = if (header.kind != KotlinClassHeader.Kind.MULTIFILE_CLASS) {
+        // no data means the class was compiled by an incompatible compiler and can't be used anyway
+        val data = header.data ?: return null
+        ProtoMapValue(isPackage, BitEncoding.decodeBytes(data), header.strings ?: return null)
+    }
+    else null
+
+    return ClasspathClassAbi.KotlinClass(isPackage, proto, getConstantsMap(bytes) ?: emptyMap(), getInlineFunctionsMap(bytes))
+}
+
+private fun readJavaClassAbi(bytes: ByteArray): ClasspathClassAbi? {
+    val header = ArrayList<String>()
+    val members = HashMap<String, MutableList<String>>()
+    var isLocal = false
+
+    ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
+        override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?) {
+            header.add("$access $signature $superName ${interfaces?.joinToString()}")
+        }
+
+        override fun visitOuterClass(owner: String, name: String?, desc: String?) {
+            isLocal = true
+        }
+
+        override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor? {
+            header.add(desc)
+            return null
+        }
+
+        override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+            if (access and (Opcodes.ACC_PRIVATE or Opcodes.ACC_SYNTHETIC) == 0) {
+                members.getOrPut(name) { ArrayList() }.add("$access $desc $signature $value")
+            }
+            return null
+        }
+
+        override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+            if (access and (Opcodes.ACC_PRIVATE or Opcodes.ACC_SYNTHETIC) == 0 && name != "<clinit>") {
+                val method = "$access $desc $signature ${exceptions?.joinToString()}"
+                if (name == "<init>") header.add(method) else members.getOrPut(name) { ArrayList() }.add(method)
+            }
+            return null
+        }
+    }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+    if (isLocal) return null
+
+    return ClasspathClassAbi.JavaClass(header.hash(), members.mapValues { it.value.hash() })
+}
+
+private fun List<String>.hash(): Long = sorted().joinToString("\n").toByteArray().md5()
+
+/**
+ * Changes of the classpath ABI since [old] snapshot. They are processed like the changes of the classes of the module:
+ * see [getDirtyData].
+ */
+fun ClasspathSnapshot.getChanges(old: ClasspathSnapshot): CompilationResult {
+    val oldClasses = old.classes
+    val newClasses = classes
+    val changes = ArrayList<ChangeInfo>()
+
+    for (internalName in oldClasses.keys + newClasses.keys) {
+        val oldAbi = oldClasses[internalName]
+        val newAbi = newClasses[internalName]
+        if (oldAbi === newAbi) continue
+
+        val className = JvmClassName.byInternalName(internalName)
+        if (oldAbi != null && newAbi != null && oldAbi.isPackage == newAbi.isPackage) {
+            changes.addChanges(className, oldAbi, newAbi)
+        }
+        else {
+            oldAbi?.let { changes.addAddedOrRemoved(className, it, isRemoved = true) }
+            newAbi?.let { changes.addAddedOrRemoved(className, it, isRemoved = false) }
+        }
+    }
+
+    return CompilationResult(protoChanged = changes.isNotEmpty(), changes = changes.asSequence())
+}
+
+private val ClasspathClassAbi.isPackage: Boolean
+    get() = this is ClasspathClassAbi.KotlinClass && isPackage
+
+private fun ClasspathClassAbi.fqName(className: JvmClassName): FqName =
+        if (isPackage) className.packageFqName else className.fqNameForClassNameWithoutDollars
+
+private fun MutableList<ChangeInfo>.addAddedOrRemoved(className: JvmClassName, abi: ClasspathClassAbi, isRemoved: Boolean) {
+    val fqName = abi.fqName(className)
+
+    if (!abi.isPackage) {
+        add(ChangeInfo.SignatureChanged(fqName, areSubclassesAffected = isRemoved))
+        return
+    }
+
+    abi as ClasspathClassAbi.KotlinClass
+    val names = (abi.proto?.getNonPrivateMemberNames() ?: emptySet()) + abi.constants.keys + abi.inlineFunctions.keys.map { it.substringBefore('(') }
+    if (names.isEmpty()) return
+
+    add(if (isRemoved) ChangeInfo.Removed(fqName, names) else ChangeInfo.MembersChanged(fqName, names))
+}
+
+private fun MutableList<ChangeInfo>.addChanges(className: JvmClassName, oldAbi: ClasspathClassAbi, newAbi: ClasspathClassAbi) {
+    val fqName = newAbi.fqName(className)
+
+    if (oldAbi is ClasspathClassAbi.JavaClass && newAbi is ClasspathClassAbi.JavaClass) {
+        if (oldAbi.headerHash != newAbi.headerHash) {
+            add(ChangeInfo.SignatureChanged(fqName, areSubclassesAffected = true))
+        }
+
+        val changedMembers = oldAbi.memberHashes.changedKeys(newAbi.memberHashes)
+        if (changedMembers.isNotEmpty()) {
+            add(ChangeInfo.MembersChanged(fqName, changedMembers))
+        }
+    }
+    else if (oldAbi is ClasspathClassAbi.KotlinClass && newAbi is ClasspathClassAbi.KotlinClass) {
+        val oldProto = oldAbi.proto
+        val newProto = newAbi.proto
+        val changedMembers = HashSet<String>()
+
+        if (oldProto != null && newProto != null) {
+            if (!Arrays.equals(oldProto.bytes, newProto.bytes) || !Arrays.equals(oldProto.strings, newProto.strings)) {
+                val difference = difference(oldProto, newProto)
+                if (difference.isClassAffected) {
+                    add(ChangeInfo.SignatureChanged(fqName, difference.areSubclassesAffected))
+                }
+                changedMembers.addAll(difference.changedMembersNames)
+            }
+        }
+        else if (oldProto != null || newProto != null) {
+            add(ChangeInfo.SignatureChanged(fqName, areSubclassesAffected = true))
+        }
+
+        changedMembers.addAll(oldAbi.constants.changedKeys(newAbi.constants))
+        changedMembers.addAll(oldAbi.inlineFunctions.changedKeys(newAbi.inlineFunctions).map { it.substringBefore('(') })
+
+        if (changedMembers.isNotEmpty()) {
+            add(ChangeInfo.MembersChanged(fqName, changedMembers))
+        }
+    }
+    else {
+        // a Kotlin class was replaced with a Java one or vice versa
+        add(ChangeInfo.SignatureChanged(fqName, areSubclassesAffected = true))
+    }
+}
+
+private fun <V> Map<String, V>.changedKeys(other: Map<String, V>): Set<String> =
+        (keys + other.keys).filterTo(HashSet()) { this[it] != other[it] }
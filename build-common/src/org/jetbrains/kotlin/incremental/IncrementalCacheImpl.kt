@@ -59,6 +59,7 @@ open class IncrementalCacheImpl<Target>(
         private val SOURCE_TO_CLASSES = "source-to-classes"
         private val DIRTY_OUTPUT_CLASSES = "dirty-output-classes"
         private val INLINE_FUNCTIONS = "inline-functions"
+        private val MEMBER_FINGERPRINTS = "member-fingerprints"
         private val SUBTYPES = "subtypes"
         private val SUPERTYPES = "supertypes"
         private val CLASS_FQ_NAME_TO_SOURCE = "class-fq-name-to-source"
@@ -85,6 +86,7 @@ open class IncrementalCacheImpl<Target>(
     private val sourceToClassesMap = registerMap(SourceToClassesMap(SOURCE_TO_CLASSES.storageFile))
     private val dirtyOutputClassesMap = registerMap(DirtyOutputClassesMap(DIRTY_OUTPUT_CLASSES.storageFile))
     private val inlineFunctionsMap = registerMap(InlineFunctionsMap(INLINE_FUNCTIONS.storageFile))
+    private val memberFingerprintsMap = registerMap(MemberFingerprintsMap(MEMBER_FINGERPRINTS.storageFile))
     private val subtypesMap = registerExperimentalMap(SubtypesMap(SUBTYPES.storageFile))
     private val supertypesMap = registerExperimentalMap(SupertypesMap(SUPERTYPES.storageFile))
     private val classFqNameToSourceMap = registerExperimentalMap(ClassFqNameToSourceMap(CLASS_FQ_NAME_TO_SOURCE.storageFile))
@@ -209,41 +211,13 @@ open class IncrementalCacheImpl<Target>(
 
     fun clearCacheForRemovedClasses(): CompilationResult {
 
-        fun <T> T.getNonPrivateNames(nameResolver: NameResolver, vararg members: T.() -> List<MessageLite>): Set<String> =
-                members.flatMap { this.it().filterNot { it.isPrivate }.names(nameResolver) }.toSet()
-
         fun createChangeInfo(className: JvmClassName): ChangeInfo? {
             if (className.internalName == MODULE_MAPPING_FILE_NAME) return null
 
             val mapValue = protoMap.get(className) ?: return null
 
-            return when {
-                mapValue.isPackageFacade -> {
-                    val packageData = JvmProtoBufUtil.readPackageDataFrom(mapValue.bytes, mapValue.strings)
-
-                    val memberNames =
-                            packageData.packageProto.getNonPrivateNames(
-                                    packageData.nameResolver,
-                                    ProtoBuf.Package::getFunctionList,
-                                    ProtoBuf.Package::getPropertyList
-                            )
-
-                    ChangeInfo.Removed(className.packageFqName, memberNames)
-                }
-                else -> {
-                    val classData = JvmProtoBufUtil.readClassDataFrom(mapValue.bytes, mapValue.strings)
-
-                    val memberNames =
-                            classData.classProto.getNonPrivateNames(
-                                    classData.nameResolver,
-                                    ProtoBuf.Class::getConstructorList,
-                                    ProtoBuf.Class::getFunctionList,
-                                    ProtoBuf.Class::getPropertyList
-                            ) + classData.classProto.enumEntryList.map { classData.nameResolver.getString(it.name) }
-
-                    ChangeInfo.Removed(className.fqNameForClassNameWithoutDollars, memberNames)
-                }
-            }
+            val fqName = if (mapValue.isPackageFacade) className.packageFqName else className.fqNameForClassNameWithoutDollars
+            return ChangeInfo.Removed(fqName, mapValue.getNonPrivateMemberNames())
         }
 
         val dirtyClasses = dirtyOutputClassesMap
@@ -349,7 +323,9 @@ open class IncrementalCacheImpl<Target>(
     fun classesBySources(sources: Iterable<File>): Iterable<JvmClassName> =
             sources.flatMap { sourceToClassesMap[it] }
 
-    private inner class ProtoMap(storageFile: File) : BasicStringMap<ProtoMapValue>(storageFile, ProtoMapValueExternalizer) {
+    private inner class ProtoMap(storageFile: File) : BasicStringMap<ProtoMapValue>(
+            storageFile, ProtoMapValueExternalizer, useReadSnapshot = IncrementalCompilation.useReadSnapshots()
+    ) {
 
         fun process(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CompilationResult {
             val header = kotlinClass.classHeader
@@ -368,17 +344,27 @@ open class IncrementalCacheImpl<Target>(
             val oldData = storage[key]
             val data = ProtoMapValue(isPackage, bytes, strings)
 
-            if (oldData == null ||
-                !Arrays.equals(bytes, oldData.bytes) ||
-                !Arrays.equals(strings, oldData.strings) ||
-                isPackage != oldData.isPackageFacade
-            ) {
+            val isSameData = oldData != null &&
+                             Arrays.equals(bytes, oldData.bytes) &&
+                             Arrays.equals(strings, oldData.strings) &&
+                             isPackage == oldData.isPackageFacade
+            if (!isSameData) {
                 storage[key] = data
             }
 
-            if (oldData == null || !checkChangesIsOpenPart) return CompilationResult(protoChanged = true)
+            if (!checkChangesIsOpenPart) return CompilationResult(protoChanged = true)
+
+            // Most recompiled classes don't change, and equal data has no difference, so there is nothing to deserialize
+            if (isSameData) return CompilationResult.NO_CHANGES
+
+            val newFingerprints = data.memberFingerprints(memberHashing)
+            // caches written before the fingerprints were stored don't have them
+            val oldFingerprints = memberFingerprintsMap[className] ?: oldData?.memberFingerprints(memberHashing)
+            memberFingerprintsMap[className] = newFingerprints
 
-            val difference = difference(oldData, data)
+            if (oldData == null) return CompilationResult(protoChanged = true)
+
+            val difference = difference(oldData, data, oldFingerprints, newFingerprints, memberHashing)
             val fqName = if (isPackage) className.packageFqName else className.fqNameForClassNameWithoutDollars
             val changeList = SmartList<ChangeInfo>()
 
@@ -401,6 +387,7 @@ open class IncrementalCacheImpl<Target>(
 
         fun remove(className: JvmClassName) {
             storage.remove(className.internalName)
+            memberFingerprintsMap.remove(className)
         }
 
         override fun dumpValue(value: ProtoMapValue): String {
@@ -408,23 +395,9 @@ open class IncrementalCacheImpl<Target>(
         }
     }
 
-    private inner class ConstantsMap(storageFile: File) : BasicStringMap<Map<String, Any>>(storageFile, ConstantsMapExternalizer) {
-        private fun getConstantsMap(bytes: ByteArray): Map<String, Any>? {
-            val result = HashMap<String, Any>()
-
-            ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
-                override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
-                    val staticFinal = Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or Opcodes.ACC_PRIVATE
-                    if (value != null && access and staticFinal == Opcodes.ACC_STATIC or Opcodes.ACC_FINAL) {
-                        result[name] = value
-                    }
-                    return null
-                }
-            }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
-
-            return if (result.isEmpty()) null else result
-        }
-
+    private inner class ConstantsMap(storageFile: File) : BasicStringMap<Map<String, Any>>(
+            storageFile, ConstantsMapExternalizer, useReadSnapshot = IncrementalCompilation.useReadSnapshots()
+    ) {
         operator fun contains(className: JvmClassName): Boolean =
                 className.internalName in storage
 
@@ -619,34 +592,9 @@ open class IncrementalCacheImpl<Target>(
         override fun dumpValue(value: Boolean) = ""
     }
 
-    private inner class InlineFunctionsMap(storageFile: File) : BasicStringMap<Map<String, Long>>(storageFile, StringToLongMapExternalizer) {
-        private fun getInlineFunctionsMap(bytes: ByteArray): Map<String, Long> {
-            val result = HashMap<String, Long>()
-
-            val inlineFunctions = inlineFunctionsJvmNames(bytes)
-            if (inlineFunctions.isEmpty()) return emptyMap()
-
-            ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
-                override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
-                    val dummyClassWriter = ClassWriter(Opcodes.ASM5)
-
-                    return object : MethodVisitor(Opcodes.ASM5, dummyClassWriter.visitMethod(0, name, desc, null, exceptions)) {
-                        override fun visitEnd() {
-                            val jvmName = name + desc
-                            if (jvmName !in inlineFunctions) return
-
-                            val dummyBytes = dummyClassWriter.toByteArray()!!
-                            val hash = dummyBytes.md5()
-                            result[jvmName] = hash
-                        }
-                    }
-                }
-
-            }, 0)
-
-            return result
-        }
-
+    private inner class InlineFunctionsMap(storageFile: File) : BasicStringMap<Map<String, Long>>(
+            storageFile, StringToLongMapExternalizer, useReadSnapshot = IncrementalCompilation.useReadSnapshots()
+    ) {
         fun process(kotlinClass: LocalFileKotlinClass, isPackage: Boolean): CompilationResult {
             return put(kotlinClass.className, getInlineFunctionsMap(kotlinClass.fileContents), isPackage)
         }
@@ -698,6 +646,28 @@ open class IncrementalCacheImpl<Target>(
                 value.dumpMap { java.lang.Long.toHexString(it) }
     }
 
+    // fingerprints of the members of the classes in protoMap, to compare a class with its next version without deserializing both
+    private inner class MemberFingerprintsMap(storageFile: File) : BasicStringMap<Map<String, Long>>(
+            storageFile, StringToLongMapExternalizer, useReadSnapshot = IncrementalCompilation.useReadSnapshots()
+    ) {
+        operator fun get(className: JvmClassName): Map<String, Long>? =
+                storage[className.internalName]
+
+        operator fun set(className: JvmClassName, fingerprints: Map<String, Long>) {
+            storage[className.internalName] = fingerprints
+        }
+
+        fun remove(className: JvmClassName) {
+            storage.remove(className.internalName)
+        }
+
+        override fun dumpValue(value: Map<String, Long>): String =
+                value.dumpMap { java.lang.Long.toHexString(it) }
+    }
+
+    protected open val memberHashing: MemberHashing
+        get() = ProtoMemberHashing
+
     protected open fun processChangedInlineFunctions(
             className: JvmClassName,
             changedFunctions: Collection<String>
@@ -741,6 +711,74 @@ data class CompilationResult(
                               changes + other.changes)
 }
 
+internal fun getConstantsMap(bytes: ByteArray): Map<String, Any>? {
+    val result = HashMap<String, Any>()
+
+    ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
+        override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+            val staticFinal = Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or Opcodes.ACC_PRIVATE
+            if (value != null && access and staticFinal == Opcodes.ACC_STATIC or Opcodes.ACC_FINAL) {
+                result[name] = value
+            }
+            return null
+        }
+    }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+    return if (result.isEmpty()) null else result
+}
+
+internal fun getInlineFunctionsMap(bytes: ByteArray): Map<String, Long> {
+    val result = HashMap<String, Long>()
+
+    val inlineFunctions = inlineFunctionsJvmNames(bytes)
+    if (inlineFunctions.isEmpty()) return emptyMap()
+
+    ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
+        override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+            val dummyClassWriter = ClassWriter(Opcodes.ASM5)
+
+            return object : MethodVisitor(Opcodes.ASM5, dummyClassWriter.visitMethod(0, name, desc, null, exceptions)) {
+                override fun visitEnd() {
+                    val jvmName = name + desc
+                    if (jvmName !in inlineFunctions) return
+
+                    val dummyBytes = dummyClassWriter.toByteArray()!!
+                    val hash = dummyBytes.md5()
+                    result[jvmName] = hash
+                }
+            }
+        }
+
+    }, 0)
+
+    return result
+}
+
+internal fun ProtoMapValue.getNonPrivateMemberNames(): Set<String> {
+    fun <T> T.getNonPrivateNames(nameResolver: NameResolver, vararg members: T.() -> List<MessageLite>): Set<String> =
+            members.flatMap { this.it().filterNot { it.isPrivate }.names(nameResolver) }.toSet()
+
+    return if (isPackageFacade) {
+        val packageData = JvmProtoBufUtil.readPackageDataFrom(bytes, strings)
+
+        packageData.packageProto.getNonPrivateNames(
+                packageData.nameResolver,
+                ProtoBuf.Package::getFunctionList,
+                ProtoBuf.Package::getPropertyList
+        )
+    }
+    else {
+        val classData = JvmProtoBufUtil.readClassDataFrom(bytes, strings)
+
+        classData.classProto.getNonPrivateNames(
+                classData.nameResolver,
+                ProtoBuf.Class::getConstructorList,
+                ProtoBuf.Class::getFunctionList,
+                ProtoBuf.Class::getPropertyList
+        ) + classData.classProto.enumEntryList.map { classData.nameResolver.getString(it.name) }
+    }
+}
+
 fun ByteArray.md5(): Long {
     val d = MessageDigest.getInstance("MD5").digest(this)!!
     return ((d[0].toLong() and 0xFFL)
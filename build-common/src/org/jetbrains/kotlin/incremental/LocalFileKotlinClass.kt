@@ -31,8 +31,9 @@ class LocalFileKotlinClass private constructor(
 ) : FileBasedKotlinClass(className, classHeader, innerClasses) {
 
     companion object {
-        fun create(file: File): LocalFileKotlinClass? {
-            val fileContents = file.readBytes()
+        fun create(file: File): LocalFileKotlinClass? = create(file, file.readBytes())
+
+        fun create(file: File, fileContents: ByteArray): LocalFileKotlinClass? {
             return FileBasedKotlinClass.create(fileContents) {
                 className, classHeader, innerClasses ->
                 LocalFileKotlinClass(file, fileContents, className, classHeader, innerClasses)
@@ -27,9 +27,20 @@ import org.jetbrains.kotlin.utils.Printer
 import org.jetbrains.kotlin.utils.keysToMap
 import java.io.File
 import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 
-open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
+/**
+ * If [writeBehind] is true, lookups passed to [addAll] are written (and garbage is collected if needed) on a separate thread,
+ * and any other access to the storage waits until that is finished. A failure of such a write is thrown by the next [flush] or [close].
+ */
+open class LookupStorage @JvmOverloads constructor(
+        private val targetDataDir: File,
+        private val writeBehind: Boolean = false
+) : BasicMapsOwner() {
     companion object {
         private val DELETED_TO_SIZE_TRESHOLD = 0.5
         private val MINIMUM_GARBAGE_COLLECTIBLE_SIZE = 10000
@@ -49,6 +60,10 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
     @Volatile
     private var deletedCount: Int = 0
 
+    private var writer: ExecutorService? = null
+    private var pendingWrite: Future<*>? = null
+    private var writeFailure: Throwable? = null
+
     init {
         if (countersFile.exists()) {
             val lines = countersFile.readLines()
@@ -59,6 +74,8 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
 
     @Synchronized
     fun get(lookupSymbol: LookupSymbol): Collection<String> {
+        waitForPendingWrite()
+
         val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
         val fileIds = lookupMap[key] ?: return emptySet()
 
@@ -68,20 +85,46 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         }
     }
 
+    // in write-behind mode the given collections must not be changed after the call
     @Synchronized
     fun addAll(lookups: Set<Map.Entry<LookupSymbol, Collection<String>>>, allPaths: Set<String>) {
+        waitForPendingWrite()
+
+        if (!writeBehind) {
+            doAddAll(lookups, allPaths)
+            return
+        }
+
+        val executor = writer ?: Executors.newSingleThreadExecutor { runnable ->
+            val thread = Thread(runnable, "Kotlin lookup storage writer")
+            thread.isDaemon = true
+            thread
+        }
+        writer = executor
+        pendingWrite = executor.submit(Runnable {
+            doAddAll(lookups, allPaths)
+            removeGarbageIfNeeded()
+        })
+    }
+
+    private fun doAddAll(lookups: Set<Map.Entry<LookupSymbol, Collection<String>>>, allPaths: Set<String>) {
         val pathToId = allPaths.keysToMap { addFileIfNeeded(File(it)) }
 
         for ((lookupSymbol, paths) in lookups) {
             val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
-            val fileIds = paths.mapTo(HashSet<Int>()) { pathToId[it]!! }
-            fileIds.addAll(lookupMap[key] ?: emptySet())
-            lookupMap[key] = fileIds
+            val fileIds = IntArray(paths.size)
+            var i = 0
+            for (path in paths) {
+                fileIds[i++] = pathToId[path]!!
+            }
+            lookupMap.append(key, fileIds)
         }
     }
 
     @Synchronized
     fun removeLookupsFrom(files: Sequence<File>) {
+        waitForPendingWrite()
+
         for (file in files) {
             val id = fileToId[file] ?: continue
             idToFile.remove(id)
@@ -92,6 +135,10 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
 
     @Synchronized
     override fun clean() {
+        // the storage is cleaned anyway, so a failed write doesn't matter
+        waitForPendingWrite()
+        writeFailure = null
+
         if (countersFile.exists()) {
             countersFile.delete()
         }
@@ -102,9 +149,24 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         super.clean()
     }
 
+    @Synchronized
+    override fun close() {
+        try {
+            waitForPendingWrite()
+            rethrowWriteFailure()
+        }
+        finally {
+            writer?.shutdown()
+            writer = null
+            super.close()
+        }
+    }
+
     @Synchronized
     override fun flush(memoryCachesOnly: Boolean) {
         try {
+            waitForPendingWrite()
+            rethrowWriteFailure()
             removeGarbageIfNeeded()
 
             if (size > 0) {
@@ -121,6 +183,27 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         }
     }
 
+    // a failed write is kept for flush or close, so that it isn't thrown from an unrelated call
+    private fun waitForPendingWrite() {
+        val write = pendingWrite ?: return
+        pendingWrite = null
+
+        try {
+            write.get()
+        }
+        catch (e: ExecutionException) {
+            if (writeFailure == null) {
+                writeFailure = e.cause ?: e
+            }
+        }
+    }
+
+    private fun rethrowWriteFailure() {
+        val failure = writeFailure ?: return
+        writeFailure = null
+        throw failure
+    }
+
     private fun addFileIfNeeded(file: File): Int {
         val existing = fileToId[file]
         if (existing != null) return existing
@@ -138,10 +221,6 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
     }
 
     private fun doRemoveGarbage() {
-        for (hash in lookupMap.keys) {
-            lookupMap[hash] = lookupMap[hash]!!.filter { it in idToFile }.toSet()
-        }
-
         val oldFileToId = fileToId.toMap()
         val oldIdToNewId = HashMap<Int, Int>(oldFileToId.size)
         idToFile.clean()
@@ -154,6 +233,7 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
             oldIdToNewId[oldId] = newId
         }
 
+        // ids of removed files have no new id, so every value is rewritten once, which also merges its batches into one
         for (lookup in lookupMap.keys) {
             val fileIds = lookupMap[lookup]!!.mapNotNull { oldIdToNewId[it] }.toSet()
 
@@ -166,7 +246,10 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         }
     }
 
-    @TestOnly fun forceGC() {
+    @TestOnly
+    @Synchronized
+    fun forceGC() {
+        waitForPendingWrite()
         removeGarbageIfNeeded(force = true)
         flush(false)
     }
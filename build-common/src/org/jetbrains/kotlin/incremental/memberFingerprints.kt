@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import com.google.protobuf.MessageLite
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.serialization.ProtoBuf
+import org.jetbrains.kotlin.serialization.deserialization.NameResolver
+import org.jetbrains.kotlin.serialization.jvm.JvmProtoBufUtil
+import java.util.*
+
+/**
+ * Hashes a constructor, function or property of a class or a package facade.
+ *
+ * Equal members must have equal hashes in different versions of a class, so the hash must depend on the names
+ * a member refers to rather than on their indices in the string table, which change when other members are added or removed.
+ */
+interface MemberHashing {
+    fun hash(member: MessageLite, nameResolver: NameResolver): Long
+}
+
+/**
+ * Joins two hashes computed by the generated [hashCode] functions with different hashes of names into a 64-bit one.
+ */
+object ProtoMemberHashing : MemberHashing {
+    override fun hash(member: MessageLite, nameResolver: NameResolver): Long {
+        val high = member.protoHashCode({ nameResolver.getString(it).hashCode() },
+                                        { nameResolver.getClassId(it).asString().hashCode() })
+        val low = member.protoHashCode({ fnvHash(nameResolver.getString(it)) },
+                                       { fnvHash(nameResolver.getClassId(it).asString()) })
+        return (high.toLong() shl 32) or (low.toLong() and 0xFFFFFFFFL)
+    }
+
+    // FNV-1a, which is independent of String.hashCode
+    private fun fnvHash(string: String): Int {
+        var hash = -2128831035
+        for (char in string) {
+            hash = (hash xor char.toInt()) * 16777619
+        }
+        return hash
+    }
+}
+
+/**
+ * Returns hashes of the non-private members by their names (constructors are named "<init>"),
+ * the hashes of overloads are combined regardless of their order.
+ */
+fun ProtoMapValue.memberFingerprints(hashing: MemberHashing = ProtoMemberHashing): Map<String, Long> {
+    return if (isPackageFacade) {
+        val packageData = JvmProtoBufUtil.readPackageDataFrom(bytes, strings)
+        memberFingerprints(packageData.packageProto.members, packageData.nameResolver, hashing)
+    }
+    else {
+        val classData = JvmProtoBufUtil.readClassDataFrom(bytes, strings)
+        memberFingerprints(classData.classProto.members, classData.nameResolver, hashing)
+    }
+}
+
+internal fun memberFingerprints(members: List<MessageLite>, nameResolver: NameResolver, hashing: MemberHashing): Map<String, Long> {
+    val result = HashMap<String, Long>()
+
+    for (member in members) {
+        if (member.isPrivate) continue
+
+        val name = member.name(nameResolver)
+        result[name] = (result[name] ?: 0L) + hashing.hash(member, nameResolver)
+    }
+
+    return result
+}
+
+internal val ProtoBuf.Class.members: List<MessageLite>
+    get() = constructorList + functionList + propertyList
+
+internal val ProtoBuf.Package.members: List<MessageLite>
+    get() = functionList + propertyList
+
+private fun MessageLite.protoHashCode(stringIndexes: (Int) -> Int, fqNameIndexes: (Int) -> Int): Int {
+    return when (this) {
+        is ProtoBuf.Constructor -> hashCode(stringIndexes, fqNameIndexes)
+        is ProtoBuf.Function -> hashCode(stringIndexes, fqNameIndexes)
+        is ProtoBuf.Property -> hashCode(stringIndexes, fqNameIndexes)
+        else -> error("Unknown message: $this")
+    }
+}
@@ -35,17 +35,27 @@ data class Difference(
         val changedMembersNames: Set<String> = emptySet()
 )
 
-fun difference(oldData: ProtoMapValue, newData: ProtoMapValue): Difference {
+/**
+ * Members of the classes are compared by their fingerprints (see [memberFingerprints]). Fingerprints which are not passed
+ * are computed with [hashing], [IncrementalCacheImpl] passes the stored fingerprints of the old version instead.
+ */
+fun difference(
+        oldData: ProtoMapValue,
+        newData: ProtoMapValue,
+        oldFingerprints: Map<String, Long>? = null,
+        newFingerprints: Map<String, Long>? = null,
+        hashing: MemberHashing = ProtoMemberHashing
+): Difference {
     if (!oldData.isPackageFacade && newData.isPackageFacade) return Difference(isClassAffected = true, areSubclassesAffected = true)
 
     if (oldData.isPackageFacade && !newData.isPackageFacade) return Difference(isClassAffected = true)
 
     val differenceObject =
             if (oldData.isPackageFacade) {
-                DifferenceCalculatorForPackageFacade(oldData, newData)
+                DifferenceCalculatorForPackageFacade(oldData, newData, oldFingerprints, newFingerprints, hashing)
             }
             else {
-                DifferenceCalculatorForClass(oldData, newData)
+                DifferenceCalculatorForClass(oldData, newData, oldFingerprints, newFingerprints, hashing)
             }
 
     return differenceObject.difference()
@@ -60,9 +70,11 @@ internal val MessageLite.isPrivate: Boolean
                 else -> error("Unknown message: $this")
             }))
 
-private fun MessageLite.name(nameResolver: NameResolver): String {
+internal val CONSTRUCTOR_NAME = "<init>"
+
+internal fun MessageLite.name(nameResolver: NameResolver): String {
     return when (this) {
-        is ProtoBuf.Constructor -> "<init>"
+        is ProtoBuf.Constructor -> CONSTRUCTOR_NAME
         is ProtoBuf.Function -> nameResolver.getString(name)
         is ProtoBuf.Property -> nameResolver.getString(name)
         else -> error("Unknown message: $this")
@@ -71,60 +83,27 @@ private fun MessageLite.name(nameResolver: NameResolver): String {
 
 internal fun List<MessageLite>.names(nameResolver: NameResolver): List<String> = map { it.name(nameResolver) }
 
-private abstract class DifferenceCalculator() {
+private abstract class DifferenceCalculator(
+        private val knownOldFingerprints: Map<String, Long>?,
+        private val knownNewFingerprints: Map<String, Long>?,
+        private val hashing: MemberHashing
+) {
     protected abstract val oldNameResolver: NameResolver
     protected abstract val newNameResolver: NameResolver
 
-    protected val compareObject by lazy { ProtoCompareGenerated(oldNameResolver, newNameResolver) }
-
-    abstract fun difference(): Difference
+    protected abstract val oldMembers: List<MessageLite>
+    protected abstract val newMembers: List<MessageLite>
 
-    protected fun calcDifferenceForMembers(oldList: List<MessageLite>, newList: List<MessageLite>): Collection<String> {
-        val result = hashSetOf<String>()
-
-        val oldMap =
-                oldList.groupBy { it.getHashCode({ compareObject.oldGetIndexOfString(it) }, { compareObject.oldGetIndexOfClassId(it) }) }
-        val newMap =
-                newList.groupBy { it.getHashCode({ compareObject.newGetIndexOfString(it) }, { compareObject.newGetIndexOfClassId(it) }) }
-
-        val hashes = oldMap.keys + newMap.keys
-        for (hash in hashes) {
-            val oldMembers = oldMap[hash]
-            val newMembers = newMap[hash]
-
-            val differentMembers = when {
-                newMembers == null -> oldMembers!!.names(compareObject.oldNameResolver)
-                oldMembers == null -> newMembers.names(compareObject.newNameResolver)
-                else -> calcDifferenceForEqualHashes(oldMembers, newMembers)
-            }
-            result.addAll(differentMembers)
-        }
-
-        return result
-    }
-
-    private fun calcDifferenceForEqualHashes(
-            oldList: List<MessageLite>,
-            newList: List<MessageLite>
-    ): Collection<String> {
-        val result = hashSetOf<String>()
-        val newSet = HashSet(newList)
+    protected val compareObject by lazy { ProtoCompareGenerated(oldNameResolver, newNameResolver) }
 
-        oldList.forEach { oldMember ->
-            val newMember = newSet.firstOrNull { compareObject.checkEquals(oldMember, it) }
-            if (newMember != null) {
-                newSet.remove(newMember)
-            }
-            else {
-                result.add(oldMember.name(compareObject.oldNameResolver))
-            }
-        }
+    private val oldFingerprints by lazy { knownOldFingerprints ?: memberFingerprints(oldMembers, oldNameResolver, hashing) }
+    private val newFingerprints by lazy { knownNewFingerprints ?: memberFingerprints(newMembers, newNameResolver, hashing) }
 
-        newSet.forEach { newMember ->
-            result.add(newMember.name(compareObject.newNameResolver))
-        }
+    abstract fun difference(): Difference
 
-        return result
+    // names of the non-private members which were added, removed or changed, constructors are named CONSTRUCTOR_NAME
+    protected val changedMembersNames by lazy {
+        (oldFingerprints.keys + newFingerprints.keys).filterTo(HashSet()) { oldFingerprints[it] != newFingerprints[it] }
     }
 
     protected fun calcDifferenceForNames(
@@ -135,27 +114,15 @@ private abstract class DifferenceCalculator() {
         val newNames = newList.map { compareObject.newNameResolver.getString(it) }.toSet()
         return HashSetUtil.symmetricDifference(oldNames, newNames)
     }
-
-    private fun MessageLite.getHashCode(stringIndexes: (Int) -> Int, fqNameIndexes: (Int) -> Int): Int {
-        return when (this) {
-            is ProtoBuf.Constructor -> hashCode(stringIndexes, fqNameIndexes)
-            is ProtoBuf.Function -> hashCode(stringIndexes, fqNameIndexes)
-            is ProtoBuf.Property -> hashCode(stringIndexes, fqNameIndexes)
-            else -> error("Unknown message: $this")
-        }
-    }
-
-    private fun ProtoCompareGenerated.checkEquals(old: MessageLite, new: MessageLite): Boolean {
-        return when {
-            old is ProtoBuf.Constructor && new is ProtoBuf.Constructor -> checkEquals(old, new)
-            old is ProtoBuf.Function && new is ProtoBuf.Function -> checkEquals(old, new)
-            old is ProtoBuf.Property && new is ProtoBuf.Property -> checkEquals(old, new)
-            else -> error("Unknown message: $this")
-        }
-    }
 }
 
-private class DifferenceCalculatorForClass(oldData: ProtoMapValue, newData: ProtoMapValue) : DifferenceCalculator() {
+private class DifferenceCalculatorForClass(
+        oldData: ProtoMapValue,
+        newData: ProtoMapValue,
+        oldFingerprints: Map<String, Long>?,
+        newFingerprints: Map<String, Long>?,
+        hashing: MemberHashing
+) : DifferenceCalculator(oldFingerprints, newFingerprints, hashing) {
     val oldClassData = JvmProtoBufUtil.readClassDataFrom(oldData.bytes, oldData.strings)
     val newClassData = JvmProtoBufUtil.readClassDataFrom(newData.bytes, newData.strings)
 
@@ -165,6 +132,9 @@ private class DifferenceCalculatorForClass(oldData: ProtoMapValue, newData: Prot
     override val oldNameResolver = oldClassData.nameResolver
     override val newNameResolver = newClassData.nameResolver
 
+    override val oldMembers: List<MessageLite> get() = oldProto.members
+    override val newMembers: List<MessageLite> get() = newProto.members
+
     val diff = compareObject.difference(oldProto, newProto)
 
     override fun difference(): Difference {
@@ -176,12 +146,6 @@ private class DifferenceCalculatorForClass(oldData: ProtoMapValue, newData: Prot
         fun Int.oldToNames() = names.add(oldNameResolver.getString(this))
         fun Int.newToNames() = names.add(newNameResolver.getString(this))
 
-        fun calcDifferenceForNonPrivateMembers(members: (ProtoBuf.Class) -> List<MessageLite>): Collection<String> {
-            val oldMembers = members(oldProto).filterNot { it.isPrivate }
-            val newMembers = members(newProto).filterNot { it.isPrivate }
-            return calcDifferenceForMembers(oldMembers, newMembers)
-        }
-
         for (kind in diff) {
             when (kind!!) {
                 ProtoBufClassKind.COMPANION_OBJECT_NAME -> {
@@ -198,16 +162,13 @@ private class DifferenceCalculatorForClass(oldData: ProtoMapValue, newData: Prot
                     names.addAll(calcDifferenceForNames(oldProto.nestedClassNameList, newProto.nestedClassNameList))
                 }
                 ProtoBufClassKind.CONSTRUCTOR_LIST -> {
-                    val differentNonPrivateConstructors = calcDifferenceForNonPrivateMembers(ProtoBuf.Class::getConstructorList)
-
-                    if (differentNonPrivateConstructors.isNotEmpty()) {
+                    if (CONSTRUCTOR_NAME in changedMembersNames) {
                         isClassAffected = true
                     }
                 }
-                ProtoBufClassKind.FUNCTION_LIST ->
-                    names.addAll(calcDifferenceForNonPrivateMembers(ProtoBuf.Class::getFunctionList))
+                ProtoBufClassKind.FUNCTION_LIST,
                 ProtoBufClassKind.PROPERTY_LIST ->
-                    names.addAll(calcDifferenceForNonPrivateMembers(ProtoBuf.Class::getPropertyList))
+                    names.addAll(changedMembersNames.filter { it != CONSTRUCTOR_NAME })
                 ProtoBufClassKind.ENUM_ENTRY_LIST -> {
                     isClassAffected = true
                 }
@@ -232,7 +193,13 @@ private class DifferenceCalculatorForClass(oldData: ProtoMapValue, newData: Prot
     }
 }
 
-private class DifferenceCalculatorForPackageFacade(oldData: ProtoMapValue, newData: ProtoMapValue) : DifferenceCalculator() {
+private class DifferenceCalculatorForPackageFacade(
+        oldData: ProtoMapValue,
+        newData: ProtoMapValue,
+        oldFingerprints: Map<String, Long>?,
+        newFingerprints: Map<String, Long>?,
+        hashing: MemberHashing
+) : DifferenceCalculator(oldFingerprints, newFingerprints, hashing) {
     val oldPackageData = JvmProtoBufUtil.readPackageDataFrom(oldData.bytes, oldData.strings)
     val newPackageData = JvmProtoBufUtil.readPackageDataFrom(newData.bytes, newData.strings)
 
@@ -242,23 +209,19 @@ private class DifferenceCalculatorForPackageFacade(oldData: ProtoMapValue, newDa
     override val oldNameResolver = oldPackageData.nameResolver
     override val newNameResolver = newPackageData.nameResolver
 
+    override val oldMembers: List<MessageLite> get() = oldProto.members
+    override val newMembers: List<MessageLite> get() = newProto.members
+
     val diff = compareObject.difference(oldProto, newProto)
 
     override fun difference(): Difference {
         val names = hashSetOf<String>()
 
-        fun calcDifferenceForNonPrivateMembers(members: (ProtoBuf.Package) -> List<MessageLite>): Collection<String> {
-            val oldMembers = members(oldProto).filterNot { it.isPrivate }
-            val newMembers = members(newProto).filterNot { it.isPrivate }
-            return calcDifferenceForMembers(oldMembers, newMembers)
-        }
-
         for (kind in diff) {
             when (kind!!) {
-                ProtoBufPackageKind.FUNCTION_LIST ->
-                    names.addAll(calcDifferenceForNonPrivateMembers(ProtoBuf.Package::getFunctionList))
+                ProtoBufPackageKind.FUNCTION_LIST,
                 ProtoBufPackageKind.PROPERTY_LIST ->
-                    names.addAll(calcDifferenceForNonPrivateMembers(ProtoBuf.Package::getPropertyList))
+                    names.addAll(changedMembersNames)
                 ProtoBufPackageKind.TYPE_TABLE,
                 ProtoBufPackageKind.PACKAGE_MODULE_NAME -> {
                     // TODO
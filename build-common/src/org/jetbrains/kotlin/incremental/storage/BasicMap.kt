@@ -26,9 +26,10 @@ import java.io.File
 abstract class BasicMap<K : Comparable<K>, V>(
         storageFile: File,
         keyDescriptor: KeyDescriptor<K>,
-        valueExternalizer: DataExternalizer<V>
+        valueExternalizer: DataExternalizer<V>,
+        useReadSnapshot: Boolean = false
 ) {
-    protected val storage = LazyStorage(storageFile, keyDescriptor, valueExternalizer)
+    protected val storage = LazyStorage(storageFile, keyDescriptor, valueExternalizer, useReadSnapshot)
 
     fun clean() {
         storage.clean()
@@ -70,12 +71,14 @@ abstract class BasicMap<K : Comparable<K>, V>(
 abstract class BasicStringMap<V>(
         storageFile: File,
         keyDescriptor: KeyDescriptor<String>,
-        valueExternalizer: DataExternalizer<V>
-) : BasicMap<String, V>(storageFile, keyDescriptor, valueExternalizer) {
+        valueExternalizer: DataExternalizer<V>,
+        useReadSnapshot: Boolean = false
+) : BasicMap<String, V>(storageFile, keyDescriptor, valueExternalizer, useReadSnapshot) {
     constructor(
             storageFile: File,
-            valueExternalizer: DataExternalizer<V>
-    ) : this(storageFile, EnumeratorStringDescriptor.INSTANCE, valueExternalizer)
+            valueExternalizer: DataExternalizer<V>,
+            useReadSnapshot: Boolean = false
+    ) : this(storageFile, EnumeratorStringDescriptor.INSTANCE, valueExternalizer, useReadSnapshot)
 
     override fun dumpKey(key: String): String = key
 }
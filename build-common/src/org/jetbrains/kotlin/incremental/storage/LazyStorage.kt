@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.incremental.storage
 
+import com.intellij.openapi.util.io.FileUtil
 import com.intellij.util.io.DataExternalizer
 import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
@@ -23,19 +24,45 @@ import com.intellij.util.io.PersistentHashMap
 import java.io.DataOutput
 import java.io.File
 import java.io.IOException
+import java.nio.ByteBuffer
+import java.util.*
 
 
 /**
  * It's lazy in a sense that PersistentHashMap is created only on write
+ *
+ * If useReadSnapshot is true, the map is written to a [MappedSnapshot] on flush, and reads are served from it
+ * until the next write. The marker file contains the name of the snapshot file and is only present while the snapshot
+ * has the same contents as the map. Entries which weren't changed since the previous snapshot are copied from it.
+ *
+ * Every snapshot is written to a new file, because a mapped file can't be replaced or deleted on Windows,
+ * and a file stays mapped until its buffer is collected. Files of previous snapshots are deleted when possible.
  */
 class LazyStorage<K, V>(
         private val storageFile: File,
         private val keyDescriptor: KeyDescriptor<K>,
-        private val valueExternalizer: DataExternalizer<V>
+        private val valueExternalizer: DataExternalizer<V>,
+        private val useReadSnapshot: Boolean = false
 ) {
     @Volatile
     private var storage: PersistentHashMap<K, V>? = null
 
+    private val snapshotFilePrefix = storageFile.name + ".snapshot"
+    private val snapshotMarkerFile = File(storageFile.path + ".snapshot.valid")
+
+    private var snapshotFile: File? = if (useReadSnapshot && snapshotMarkerFile.exists()) readSnapshotMarker() else null
+
+    @Volatile
+    private var snapshot: MappedSnapshot<K, V>? =
+            snapshotFile?.let { MappedSnapshot.open(it, keyDescriptor, valueExternalizer) }
+
+    @Volatile
+    private var modifiedSinceSnapshot = snapshot == null
+
+    // the last snapshot which was written, and the keys changed since then by their serialized form
+    private var previousSnapshot: MappedSnapshot<K, V>? = snapshot
+    private val changedKeys = HashMap<ByteBuffer, K>()
+
     @Synchronized
     private fun getStorageIfExists(): PersistentHashMap<K, V>? {
         if (storage != null) return storage
@@ -58,19 +85,29 @@ class LazyStorage<K, V>(
     }
 
     val keys: Collection<K>
-        get() = getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
+        get() = snapshot?.keys ?: getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
+
+    operator fun contains(key: K): Boolean {
+        val snapshot = snapshot
+        if (snapshot != null) return key in snapshot
+
+        return getStorageIfExists()?.containsMapping(key) ?: false
+    }
 
-    operator fun contains(key: K): Boolean =
-            getStorageIfExists()?.containsMapping(key) ?: false
+    operator fun get(key: K): V? {
+        val snapshot = snapshot
+        if (snapshot != null) return snapshot[key]
 
-    operator fun get(key: K): V? =
-            getStorageIfExists()?.get(key)
+        return getStorageIfExists()?.get(key)
+    }
 
     operator fun set(key: K, value: V) {
+        invalidateSnapshot(key)
         getStorageOrCreateNew().put(key, value)
     }
 
     fun remove(key: K) {
+        invalidateSnapshot(key)
         getStorageIfExists()?.remove(key)
     }
 
@@ -90,6 +127,12 @@ class LazyStorage<K, V>(
         catch (ignored: IOException) {
         }
 
+        snapshot = null
+        snapshotFile = null
+        previousSnapshot = null
+        changedKeys.clear()
+        modifiedSinceSnapshot = true
+        // deletes the snapshot files too
         PersistentHashMap.deleteFilesStartingWith(storageFile)
         storage = null
     }
@@ -105,18 +148,105 @@ class LazyStorage<K, V>(
         }
         else {
             existingStorage.force()
+            if (useReadSnapshot && modifiedSinceSnapshot) {
+                writeSnapshot(existingStorage)
+            }
         }
     }
 
     @Synchronized
     fun close() {
+        snapshot = null
+        previousSnapshot = null
         storage?.close()
     }
 
+    @Synchronized
+    private fun invalidateSnapshot(key: K) {
+        if (previousSnapshot != null) {
+            changedKeys[ByteBuffer.wrap(MappedSnapshot.keyBytes(key, keyDescriptor))] = key
+        }
+
+        if (modifiedSinceSnapshot) return
+
+        snapshot = null
+        modifiedSinceSnapshot = true
+        // the snapshot file itself may be impossible to delete while it's mapped
+        snapshotMarkerFile.delete()
+    }
+
+    private fun writeSnapshot(existingStorage: PersistentHashMap<K, V>) {
+        try {
+            val file = newSnapshotFile()
+            val previous = previousSnapshot
+            if (previous != null) {
+                MappedSnapshot.write(file, previous, changedKeys, { existingStorage.get(it) }, keyDescriptor, valueExternalizer)
+            }
+            else {
+                MappedSnapshot.write(file, existingStorage.allKeysWithExistingMapping, { existingStorage.get(it) }, keyDescriptor, valueExternalizer)
+            }
+            writeSnapshotMarker(file)
+
+            snapshotFile = file
+            snapshot = MappedSnapshot.open(file, keyDescriptor, valueExternalizer)
+            previousSnapshot = snapshot
+            modifiedSinceSnapshot = false
+        }
+        catch (e: IOException) {
+            // reads will go to the map itself, and the next snapshot is written from it
+            snapshotMarkerFile.delete()
+            snapshotFile = null
+            previousSnapshot = null
+        }
+
+        changedKeys.clear()
+        deleteStaleSnapshots()
+    }
+
+    private fun newSnapshotFile(): File {
+        var generation = 1
+        while (File(storageFile.parentFile, "$snapshotFilePrefix.$generation").exists()) {
+            generation++
+        }
+        return File(storageFile.parentFile, "$snapshotFilePrefix.$generation")
+    }
+
+    private fun readSnapshotMarker(): File? {
+        try {
+            val name = snapshotMarkerFile.readText()
+            return if (name.startsWith(snapshotFilePrefix)) File(storageFile.parentFile, name) else null
+        }
+        catch (e: IOException) {
+            return null
+        }
+    }
+
+    // the marker is renamed into place, so that it's never seen with a partially written name
+    private fun writeSnapshotMarker(file: File) {
+        snapshotMarkerFile.delete()
+        val temp = File.createTempFile(snapshotMarkerFile.name, ".tmp", storageFile.absoluteFile.parentFile)
+        try {
+            temp.writeText(file.name)
+            FileUtil.rename(temp, snapshotMarkerFile)
+        }
+        finally {
+            temp.delete()
+        }
+    }
+
+    // files of previous snapshots which are still mapped on Windows are deleted by one of the next flushes
+    private fun deleteStaleSnapshots() {
+        val current = snapshotFile?.name
+        storageFile.absoluteFile.parentFile.listFiles { dir, name ->
+            name.startsWith(snapshotFilePrefix) && name != current && name != snapshotMarkerFile.name && !name.endsWith(".tmp")
+        }?.forEach { it.delete() }
+    }
+
     private fun createMap(): PersistentHashMap<K, V> =
             PersistentHashMap(storageFile, keyDescriptor, valueExternalizer)
 
-    private fun append(key: K, append: (DataOutput)->Unit) {
+    fun append(key: K, append: (DataOutput)->Unit) {
+        invalidateSnapshot(key)
         getStorageOrCreateNew().appendData(key, append)
     }
 }
@@ -18,13 +18,14 @@ package org.jetbrains.kotlin.incremental.storage
 
 import java.io.File
 
-internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntCollectionExternalizer) {
+internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntBatchesExternalizer) {
     override fun dumpKey(key: LookupSymbolKey): String = key.toString()
 
     override fun dumpValue(value: Collection<Int>): String = value.toString()
 
-    fun add(name: String, scope: String, fileId: Int) {
-        storage.append(LookupSymbolKey(name, scope), fileId)
+    // doesn't read the existing value: the ids are stored as a new batch, which is merged with the others when the value is read
+    fun append(key: LookupSymbolKey, fileIds: IntArray) {
+        storage.append(key) { out -> IntBatchesExternalizer.saveBatch(out, fileIds) }
     }
 
     operator fun get(key: LookupSymbolKey): Collection<Int>? = storage[key]
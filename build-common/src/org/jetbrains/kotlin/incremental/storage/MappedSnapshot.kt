@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.KeyDescriptor
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Immutable copy of a map, stored as a table of entries sorted by hash codes of their keys.
+ * The file is memory-mapped, so reads need no locking and allocate only the keys they compare and the value they return.
+ *
+ * Layout: entry count, hash codes of entries, offsets of entries, then each entry as key length, key, value length, value.
+ * The file is written to a temporary file first and then renamed, so it is never seen partially written.
+ * The target file must not be mapped, since a mapped file can't be replaced on Windows.
+ */
+internal class MappedSnapshot<K, V> private constructor(
+        private val buffer: ByteBuffer,
+        private val keyDescriptor: KeyDescriptor<K>,
+        private val valueExternalizer: DataExternalizer<V>
+) {
+    private val size = buffer.getInt(0)
+    private val hashesStart = 4
+    private val offsetsStart = hashesStart + 4 * size
+
+    operator fun get(key: K): V? {
+        val offset = findEntry(key)
+        if (offset < 0) return null
+
+        val valueOffset = offset + 4 + buffer.getInt(offset)
+        return valueExternalizer.read(stream(valueOffset + 4, buffer.getInt(valueOffset)))
+    }
+
+    operator fun contains(key: K): Boolean = findEntry(key) >= 0
+
+    val keys: Collection<K>
+        get() = (0..size - 1).map { readKey(offsetAt(it)) }
+
+    private fun hashAt(index: Int) = buffer.getInt(hashesStart + 4 * index)
+
+    private fun offsetAt(index: Int) = buffer.getInt(offsetsStart + 4 * index)
+
+    private fun readKey(offset: Int): K = keyDescriptor.read(stream(offset + 4, buffer.getInt(offset)))
+
+    // returns the offset of the entry or -1
+    private fun findEntry(key: K): Int {
+        val hash = keyDescriptor.getHashCode(key)
+
+        var low = 0
+        var high = size
+        while (low < high) {
+            val middle = (low + high).ushr(1)
+            if (hashAt(middle) < hash) {
+                low = middle + 1
+            }
+            else {
+                high = middle
+            }
+        }
+
+        for (index in low..size - 1) {
+            if (hashAt(index) != hash) break
+
+            val offset = offsetAt(index)
+            if (keyDescriptor.isEqual(readKey(offset), key)) return offset
+        }
+
+        return -1
+    }
+
+    // entries whose serialized keys are not in changedKeys, copied without deserializing them
+    private fun unchangedEntries(changedKeys: Set<ByteBuffer>): MutableList<Entry> {
+        val entries = arrayListOf<Entry>()
+        for (index in 0..size - 1) {
+            val offset = offsetAt(index)
+            val key = slice(offset + 4, buffer.getInt(offset))
+            if (key in changedKeys) continue
+
+            val valueOffset = offset + 4 + key.remaining()
+            entries.add(Entry(hashAt(index), key.toByteArray(), slice(valueOffset + 4, buffer.getInt(valueOffset)).toByteArray()))
+        }
+        return entries
+    }
+
+    private fun stream(start: Int, length: Int): DataInputStream = DataInputStream(ByteBufferInputStream(slice(start, length)))
+
+    private fun slice(start: Int, length: Int): ByteBuffer {
+        val slice = buffer.duplicate()
+        slice.limit(start + length)
+        slice.position(start)
+        return slice
+    }
+
+    private fun ByteBuffer.toByteArray(): ByteArray {
+        val bytes = ByteArray(remaining())
+        duplicate().get(bytes)
+        return bytes
+    }
+
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (!buffer.hasRemaining()) return -1
+
+            val count = Math.min(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun available(): Int = buffer.remaining()
+    }
+
+    private class Entry(val hash: Int, val key: ByteArray, val value: ByteArray)
+
+    companion object {
+        @Throws(IOException::class)
+        fun <K, V> write(
+                file: File,
+                keys: Collection<K>,
+                getValue: (K) -> V?,
+                keyDescriptor: KeyDescriptor<K>,
+                valueExternalizer: DataExternalizer<V>
+        ) {
+            val entries = arrayListOf<Entry>()
+            for (key in keys) {
+                val value = getValue(key) ?: continue
+                entries.add(Entry(keyDescriptor.getHashCode(key), keyBytes(key, keyDescriptor), toBytes { valueExternalizer.save(it, value) }))
+            }
+            writeSorted(file, entries)
+        }
+
+        /**
+         * Writes the entries of [previous] with the keys which are not in [changedKeys] as they are,
+         * and the current values of [changedKeys] (by their serialized form, see [keyBytes]), which are absent if removed.
+         */
+        @Throws(IOException::class)
+        fun <K, V> write(
+                file: File,
+                previous: MappedSnapshot<K, V>,
+                changedKeys: Map<ByteBuffer, K>,
+                getValue: (K) -> V?,
+                keyDescriptor: KeyDescriptor<K>,
+                valueExternalizer: DataExternalizer<V>
+        ) {
+            val entries = previous.unchangedEntries(changedKeys.keys)
+            for ((bytes, key) in changedKeys) {
+                val value = getValue(key) ?: continue
+                entries.add(Entry(keyDescriptor.getHashCode(key), bytes.array(), toBytes { valueExternalizer.save(it, value) }))
+            }
+            writeSorted(file, entries)
+        }
+
+        fun <K> keyBytes(key: K, keyDescriptor: KeyDescriptor<K>): ByteArray = toBytes { keyDescriptor.save(it, key) }
+
+        private fun writeSorted(file: File, entries: MutableList<Entry>) {
+            entries.sortBy { it.hash }
+
+            val temp = File.createTempFile(file.name, ".tmp", file.absoluteFile.parentFile)
+            try {
+                writeEntries(temp, entries)
+                FileUtil.rename(temp, file)
+            }
+            finally {
+                temp.delete()
+            }
+        }
+
+        private fun writeEntries(file: File, entries: List<Entry>) {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(file))).use { output ->
+                output.writeInt(entries.size)
+                for (entry in entries) {
+                    output.writeInt(entry.hash)
+                }
+
+                var offset = 4L + 8L * entries.size
+                for (entry in entries) {
+                    if (offset > Int.MAX_VALUE) throw IOException("Snapshot is too large: $file")
+                    output.writeInt(offset.toInt())
+                    offset += 8 + entry.key.size + entry.value.size
+                }
+
+                for (entry in entries) {
+                    output.writeInt(entry.key.size)
+                    output.write(entry.key)
+                    output.writeInt(entry.value.size)
+                    output.write(entry.value)
+                }
+            }
+        }
+
+        // returns null if the file can't be read or is corrupted, then reads should go to the map itself
+        fun <K, V> open(file: File, keyDescriptor: KeyDescriptor<K>, valueExternalizer: DataExternalizer<V>): MappedSnapshot<K, V>? {
+            try {
+                RandomAccessFile(file, "r").use { randomAccessFile ->
+                    val buffer = randomAccessFile.channel.map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length())
+                    if (!isValid(buffer)) return null
+                    return MappedSnapshot(buffer, keyDescriptor, valueExternalizer)
+                }
+            }
+            catch (e: IOException) {
+                return null
+            }
+            catch (e: RuntimeException) {
+                // e.g. a file which is too large to be mapped
+                return null
+            }
+        }
+
+        // checks that the table and all entries are within the file, so that reads never go out of the buffer
+        private fun isValid(buffer: ByteBuffer): Boolean {
+            val limit = buffer.limit().toLong()
+            if (limit < 4) return false
+
+            val size = buffer.getInt(0)
+            val entriesStart = 4L + 8L * size
+            if (size < 0 || entriesStart > limit) return false
+
+            for (index in 0..size - 1) {
+                val offset = buffer.getInt(4 + 4 * size + 4 * index).toLong()
+                if (offset < entriesStart || offset + 4 > limit) return false
+
+                val valueOffset = offset + 4 + buffer.getInt(offset.toInt())
+                if (valueOffset < offset + 4 || valueOffset + 4 > limit) return false
+
+                val end = valueOffset + 4 + buffer.getInt(valueOffset.toInt())
+                if (end < valueOffset + 4 || end > limit) return false
+            }
+            return true
+        }
+
+        private fun toBytes(write: (DataOutput) -> Unit): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use(write)
+            return bytes.toByteArray()
+        }
+    }
+}
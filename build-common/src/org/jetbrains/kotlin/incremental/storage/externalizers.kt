@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.incremental.storage
 
 import com.intellij.openapi.util.io.FileUtil
 import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.DataInputOutputUtil
 import com.intellij.util.io.EnumeratorStringDescriptor
 import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
@@ -214,3 +215,58 @@ open class CollectionExternalizer<T>(
 object StringCollectionExternalizer : CollectionExternalizer<String>(EnumeratorStringDescriptor(), { HashSet() })
 
 object IntCollectionExternalizer : CollectionExternalizer<Int>(IntExternalizer, { HashSet() })
+
+/**
+ * Stores ints as a sequence of batches, so that a new batch can be appended to a value without reading it.
+ * A batch is the number of its distinct elements followed by the differences between its sorted elements, all written as variable-length ints.
+ * The value that is read back contains the sorted distinct elements of all batches.
+ */
+object IntBatchesExternalizer : DataExternalizer<Collection<Int>> {
+    override fun read(input: DataInput): Collection<Int> {
+        val stream = input as DataInputStream
+        var result = IntArray(16)
+        var size = 0
+
+        while (stream.available() > 0) {
+            val batchSize = DataInputOutputUtil.readINT(stream)
+            var element = 0
+            repeat(batchSize) {
+                element += DataInputOutputUtil.readINT(stream)
+                if (size == result.size) {
+                    result = result.copyOf(size * 2)
+                }
+                result[size++] = element
+            }
+        }
+
+        return sortedDistinct(result, size).asList()
+    }
+
+    override fun save(output: DataOutput, value: Collection<Int>) {
+        saveBatch(output, value.toIntArray())
+    }
+
+    fun saveBatch(output: DataOutput, elements: IntArray) {
+        val sorted = sortedDistinct(elements.copyOf(), elements.size)
+
+        DataInputOutputUtil.writeINT(output, sorted.size)
+        var previous = 0
+        for (element in sorted) {
+            DataInputOutputUtil.writeINT(output, element - previous)
+            previous = element
+        }
+    }
+
+    // sorts the first size elements of the array in place
+    private fun sortedDistinct(elements: IntArray, size: Int): IntArray {
+        Arrays.sort(elements, 0, size)
+
+        var distinctCount = 0
+        for (i in 0..size - 1) {
+            if (i == 0 || elements[i] != elements[i - 1]) {
+                elements[distinctCount++] = elements[i]
+            }
+        }
+        return elements.copyOf(distinctCount)
+    }
+}
@@ -17,6 +17,9 @@
 package org.jetbrains.kotlin.codegen;
 
 import com.google.common.collect.Lists;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.PsiElementProcessor;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.ArrayUtil;
 import kotlin.Unit;
 import kotlin.collections.CollectionsKt;
@@ -25,6 +28,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.codegen.binding.CalculatedClosure;
 import org.jetbrains.kotlin.codegen.context.ClosureContext;
+import org.jetbrains.kotlin.codegen.context.CodegenContext;
+import org.jetbrains.kotlin.codegen.context.InlineLambdaContext;
 import org.jetbrains.kotlin.codegen.inline.InlineCodegenUtil;
 import org.jetbrains.kotlin.codegen.serialization.JvmSerializerExtension;
 import org.jetbrains.kotlin.codegen.signature.JvmSignatureWriter;
@@ -36,26 +41,30 @@ import org.jetbrains.kotlin.descriptors.impl.SimpleFunctionDescriptorImpl;
 import org.jetbrains.kotlin.incremental.components.NoLookupLocation;
 import org.jetbrains.kotlin.load.java.JvmAbi;
 import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader;
-import org.jetbrains.kotlin.psi.KtElement;
+import org.jetbrains.kotlin.psi.*;
 import org.jetbrains.kotlin.resolve.BindingContext;
 import org.jetbrains.kotlin.resolve.DescriptorUtils;
+import org.jetbrains.kotlin.resolve.calls.callUtil.CallUtilKt;
+import org.jetbrains.kotlin.resolve.calls.model.ResolvedCall;
 import org.jetbrains.kotlin.resolve.descriptorUtil.DescriptorUtilsKt;
+import org.jetbrains.kotlin.resolve.inline.InlineUtil;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOriginKt;
 import org.jetbrains.kotlin.resolve.scopes.MemberScope;
 import org.jetbrains.kotlin.serialization.DescriptorSerializer;
 import org.jetbrains.kotlin.serialization.ProtoBuf;
 import org.jetbrains.kotlin.types.KotlinType;
+import org.jetbrains.kotlin.types.TypeUtils;
 import org.jetbrains.kotlin.types.expressions.ExpressionTypingUtils;
 import org.jetbrains.kotlin.util.OperatorNameConventions;
 import org.jetbrains.org.objectweb.asm.AnnotationVisitor;
+import org.jetbrains.org.objectweb.asm.Handle;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Type;
 import org.jetbrains.org.objectweb.asm.commons.InstructionAdapter;
 import org.jetbrains.org.objectweb.asm.commons.Method;
+import org.jetbrains.org.objectweb.asm.tree.*;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 import static org.jetbrains.kotlin.codegen.AsmUtil.*;
 import static org.jetbrains.kotlin.codegen.ExpressionCodegen.generateClassLiteralReference;
@@ -67,6 +76,12 @@ import static org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin.
 import static org.jetbrains.org.objectweb.asm.Opcodes.*;
 
 public class ClosureCodegen extends MemberCodegen<KtElement> {
+    private static final Handle LAMBDA_METAFACTORY = new Handle(
+            H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;" +
+            "Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;"
+    );
+
     private final FunctionDescriptor funDescriptor;
     private final ClassDescriptor classDescriptor;
     private final SamType samType;
@@ -80,6 +95,18 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
 
     private Method constructor;
     private Type superClassAsmType;
+    private String[] superInterfaceAsmTypes;
+    private Method erasedInterfaceMethod;
+
+    // the lambda class which isn't written anywhere, if only the implementation of the lambda is generated,
+    // see generateWithLambdaMetafactory
+    private final ClassNode lambdaClass;
+    // method of the parent class the lambda is compiled to, if it's created with LambdaMetafactory instead of its class
+    private Handle lambdaImplementation;
+    private Type instantiatedMethodType;
+    // lambda classes are serializable if they extend kotlin.jvm.internal.Lambda or implement a serializable SAM interface,
+    // so are the lambdas created by LambdaMetafactory instead of them, see InvokeDynamicClassBuilderFactory
+    private boolean serializable;
 
     public ClosureCodegen(
             @NotNull GenerationState state,
@@ -90,9 +117,25 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
             @NotNull FunctionGenerationStrategy strategy,
             @NotNull MemberCodegen<?> parentCodegen,
             @NotNull ClassBuilder classBuilder
+    ) {
+        this(state, element, samType, context, functionReferenceTarget, strategy, parentCodegen, classBuilder, null);
+    }
+
+    private ClosureCodegen(
+            @NotNull GenerationState state,
+            @NotNull KtElement element,
+            @Nullable SamType samType,
+            @NotNull ClosureContext context,
+            @Nullable FunctionDescriptor functionReferenceTarget,
+            @NotNull FunctionGenerationStrategy strategy,
+            @NotNull MemberCodegen<?> parentCodegen,
+            @NotNull ClassBuilder classBuilder,
+            @Nullable ClassNode lambdaClass
     ) {
         super(state, parentCodegen, context, element, classBuilder);
 
+        this.lambdaClass = lambdaClass;
+
         this.funDescriptor = context.getFunctionDescriptor();
         this.classDescriptor = context.getContextDescriptor();
         this.samType = samType;
@@ -130,6 +173,32 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
         visibilityFlag = AsmUtil.getVisibilityAccessFlagForClass(classDescriptor);
     }
 
+    /**
+     * Generates the body of the lambda to a private static method of the parent class, the lambda is then created with
+     * invokedynamic and LambdaMetafactory instead of its class (-Xlambdas=indy). Returns null if the lambda needs its class,
+     * which should be generated with the public constructor then.
+     */
+    @Nullable
+    public static ClosureCodegen generateWithLambdaMetafactory(
+            @NotNull GenerationState state,
+            @NotNull KtElement element,
+            @Nullable SamType samType,
+            @NotNull ClosureContext context,
+            @NotNull FunctionGenerationStrategy strategy,
+            @NotNull MemberCodegen<?> parentCodegen
+    ) {
+        if (!state.isIndyLambdasEnabled() || state.getClassBuilderMode() != ClassBuilderMode.FULL) return null;
+
+        ClassNode lambdaClass = new ClassNode();
+        ClosureCodegen codegen = new ClosureCodegen(
+                state, element, samType, context, null, strategy, parentCodegen, new AbstractClassBuilder.Concrete(lambdaClass), lambdaClass
+        );
+        if (!codegen.canUseLambdaMetafactory()) return null;
+
+        codegen.generate();
+        return codegen.lambdaImplementation != null ? codegen : null;
+    }
+
     @Override
     protected void generateDeclaration() {
         JvmSignatureWriter sw = new BothSignatureWriter(BothSignatureWriter.Mode.CLASS);
@@ -139,7 +208,7 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
         sw.writeSuperclass();
         superClassAsmType = typeMapper.mapSupertype(superClassType, sw);
         sw.writeSuperclassEnd();
-        String[] superInterfaceAsmTypes = new String[superInterfaceTypes.size()];
+        superInterfaceAsmTypes = new String[superInterfaceTypes.size()];
         for (int i = 0; i < superInterfaceTypes.size(); i++) {
             KotlinType superInterfaceType = superInterfaceTypes.get(i);
             sw.writeInterface();
@@ -164,6 +233,7 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
     @Nullable
     @Override
     protected ClassDescriptor classForInnerClassRecord() {
+        if (lambdaClass != null) return null;
         return JvmCodegenUtil.isArgumentWhichWillBeInlined(bindingContext, funDescriptor) ? null : classDescriptor;
     }
 
@@ -177,10 +247,14 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
             erasedInterfaceFunction = samType.getAbstractMethod().getOriginal();
         }
 
-        generateBridge(
-                typeMapper.mapAsmMethod(erasedInterfaceFunction),
-                typeMapper.mapAsmMethod(funDescriptor)
-        );
+        erasedInterfaceMethod = typeMapper.mapAsmMethod(erasedInterfaceFunction);
+
+        if (lambdaClass != null) {
+            functionCodegen.generateMethod(JvmDeclarationOriginKt.OtherOrigin(element, funDescriptor), funDescriptor, strategy);
+            return;
+        }
+
+        generateBridge(erasedInterfaceMethod, typeMapper.mapAsmMethod(funDescriptor));
 
         functionCodegen.generateMethod(JvmDeclarationOriginKt.OtherOrigin(element, funDescriptor), funDescriptor, strategy);
 
@@ -219,6 +293,8 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
 
     @Override
     protected void generateKotlinMetadataAnnotation() {
+        if (lambdaClass != null) return;
+
         final DescriptorSerializer serializer =
                 DescriptorSerializer.createForLambda(new JvmSerializerExtension(v.getSerializationBindings(), state));
 
@@ -235,6 +311,12 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
 
     @Override
     protected void done() {
+        if (lambdaClass != null) {
+            super.done();
+            generateLambdaMetafactoryImplementation();
+            return;
+        }
+
         writeOuterClassAndEnclosingMethod();
         super.done();
     }
@@ -242,11 +324,26 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
     @NotNull
     public StackValue putInstanceOnStack(@NotNull final ExpressionCodegen codegen) {
         return StackValue.operation(
+                lambdaImplementation != null ? Type.getObjectType(superInterfaceAsmTypes[0]) :
                 functionReferenceTarget != null ? K_FUNCTION : asmType,
                 new Function1<InstructionAdapter, Unit>() {
                     @Override
                     public Unit invoke(InstructionAdapter v) {
-                        if (isConst(closure)) {
+                        if (lambdaImplementation != null) {
+                            Type samMethodType = Type.getMethodType(erasedInterfaceMethod.getDescriptor());
+                            v.invokedynamic(
+                                    erasedInterfaceMethod.getName(),
+                                    Type.getMethodDescriptor(Type.getObjectType(superInterfaceAsmTypes[0])),
+                                    serializable ? InvokeDynamicClassBuilderFactory.LAMBDA_ALT_METAFACTORY : LAMBDA_METAFACTORY,
+                                    serializable
+                                    ? new Object[] {
+                                            samMethodType, lambdaImplementation, instantiatedMethodType,
+                                            InvokeDynamicClassBuilderFactory.FLAG_SERIALIZABLE
+                                    }
+                                    : new Object[] {samMethodType, lambdaImplementation, instantiatedMethodType}
+                            );
+                        }
+                        else if (isConst(closure)) {
                             v.getstatic(asmType.getInternalName(), JvmAbi.INSTANCE_FIELD, asmType.getDescriptor());
                         }
                         else {
@@ -263,6 +360,200 @@ public class ClosureCodegen extends MemberCodegen<KtElement> {
         );
     }
 
+    /**
+     * Lambdas which are compiled to a static method of the parent class and created with invokedynamic and LambdaMetafactory
+     * instead of their own class in -Xlambdas=indy mode: only the ones which don't capture anything and whose class may be
+     * omitted without observable differences other than toString() and reflection on the lambda.
+     */
+    private boolean canUseLambdaMetafactory() {
+        // local functions are referenced by their classes, callable references need the methods of FunctionReference
+        if (!(element instanceof KtFunctionLiteral || (element instanceof KtNamedFunction && ((KtNamedFunction) element).getName() == null))) {
+            return false;
+        }
+        if (!isConst(closure) || superInterfaceTypes.size() != 1) return false;
+
+        // bytecode of inline functions and inlined lambdas is copied to call sites, where the implementation method isn't accessible
+        if (JvmCodegenUtil.isArgumentWhichWillBeInlined(bindingContext, funDescriptor)) return false;
+        for (CodegenContext<?> parent = context.getParentContext(); parent != null; parent = parent.getParentContext()) {
+            if (parent.isInlineMethodContext() || parent instanceof InlineLambdaContext) return false;
+        }
+
+        KtExpression bodyExpression = ((KtDeclarationWithBody) element).getBodyExpression();
+        return bodyExpression == null || PsiTreeUtil.processElements(bodyExpression, new PsiElementProcessor<PsiElement>() {
+            @Override
+            public boolean execute(@NotNull PsiElement descendant) {
+                return !generatesClassesOrInlinedCode(descendant);
+            }
+        });
+    }
+
+    /**
+     * Classes declared in the lambda would be generated as nested into the lambda class, and code inlined into it
+     * may regenerate anonymous objects named after the lambda class and needs the SMAP of the lambda class,
+     * so the body of such lambdas is only generated to their class.
+     */
+    private boolean generatesClassesOrInlinedCode(@NotNull PsiElement element) {
+        if (element instanceof KtDeclarationWithBody || element instanceof KtClassOrObject ||
+            element instanceof KtCallableReferenceExpression ||
+            element instanceof KtProperty && ((KtProperty) element).hasDelegate()) {
+            return true;
+        }
+        if (element instanceof KtElement && isInlined(CallUtilKt.getResolvedCall((KtElement) element, bindingContext))) {
+            return true;
+        }
+        if (element instanceof KtForExpression) {
+            KtExpression loopRange = ((KtForExpression) element).getLoopRange();
+            return loopRange != null && (isInlined(bindingContext.get(BindingContext.LOOP_RANGE_ITERATOR_RESOLVED_CALL, loopRange)) ||
+                                         isInlined(bindingContext.get(BindingContext.LOOP_RANGE_HAS_NEXT_RESOLVED_CALL, loopRange)) ||
+                                         isInlined(bindingContext.get(BindingContext.LOOP_RANGE_NEXT_RESOLVED_CALL, loopRange)));
+        }
+        if (element instanceof KtDestructuringDeclarationEntry) {
+            return isInlined(bindingContext.get(BindingContext.COMPONENT_RESOLVED_CALL, (KtDestructuringDeclarationEntry) element));
+        }
+        return false;
+    }
+
+    private static boolean isInlined(@Nullable ResolvedCall<?> call) {
+        if (call == null) return false;
+        CallableDescriptor descriptor = call.getResultingDescriptor();
+        return InlineUtil.isInline(descriptor) || InlineUtil.isArrayConstructorWithLambda(descriptor);
+    }
+
+    /**
+     * Moves the body of the lambda, which is the only method generated to its class in this case, to a private static method
+     * of the parent class, unless the body can't be moved because it uses the lambda class or its instance.
+     */
+    private void generateLambdaMetafactoryImplementation() {
+        Method typedMethod = typeMapper.mapAsmMethod(funDescriptor);
+        MethodNode body = null;
+        for (MethodNode method : lambdaClass.methods) {
+            if (method.name.equals(typedMethod.getName()) && method.desc.equals(typedMethod.getDescriptor())) {
+                body = method;
+            }
+        }
+        if (body == null || !canBeMovedToParent(body)) return;
+
+        Type returnType = typedMethod.getReturnType();
+        if (returnType.getSort() == Type.VOID && erasedInterfaceMethod.getReturnType().getSort() != Type.VOID) {
+            returnType = UNIT_TYPE;
+        }
+
+        for (AbstractInsnNode insn : body.instructions.toArray()) {
+            if (insn instanceof VarInsnNode) {
+                ((VarInsnNode) insn).var--;
+            }
+            else if (insn instanceof IincInsnNode) {
+                ((IincInsnNode) insn).var--;
+            }
+            else if (insn.getOpcode() == RETURN && returnType.getSort() != Type.VOID) {
+                body.instructions.insertBefore(
+                        insn, new FieldInsnNode(GETSTATIC, UNIT_TYPE.getInternalName(), JvmAbi.INSTANCE_FIELD, UNIT_TYPE.getDescriptor())
+                );
+                body.instructions.set(insn, new InsnNode(ARETURN));
+            }
+        }
+        for (Iterator<LocalVariableNode> iterator = body.localVariables.iterator(); iterator.hasNext(); ) {
+            LocalVariableNode variable = iterator.next();
+            if (variable.index == 0) {
+                iterator.remove();
+            }
+            else {
+                variable.index--;
+            }
+        }
+
+        MemberCodegen<?> parent = getParentCodegen();
+        String className = asmType.getInternalName();
+        String parentName = parent.v.getThisName();
+        String implementationName = "lambda$" + (className.startsWith(parentName + "$")
+                                                 ? className.substring(parentName.length() + 1)
+                                                 : className.substring(className.lastIndexOf('/') + 1));
+        String implementationDescriptor = Type.getMethodDescriptor(returnType, typedMethod.getArgumentTypes());
+
+        MethodVisitor mv = parent.v.newMethod(
+                JvmDeclarationOriginKt.OtherOrigin(element, funDescriptor), ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC,
+                implementationName, implementationDescriptor, null, null
+        );
+        // labels of the body are bound to the method of the lambda class it was written to
+        body.instructions.resetLabels();
+        body.accept(mv);
+
+        lambdaImplementation = new Handle(H_INVOKESTATIC, parentName, implementationName, implementationDescriptor);
+        serializable = samType == null || isSerializable(samType.getType());
+        instantiatedMethodType = Type.getMethodType(
+                instantiatedType(erasedInterfaceMethod.getReturnType(), returnType),
+                instantiatedTypes(erasedInterfaceMethod.getArgumentTypes(), typedMethod.getArgumentTypes())
+        );
+    }
+
+    private static boolean isSerializable(@NotNull KotlinType type) {
+        for (KotlinType supertype : TypeUtils.getAllSupertypes(type)) {
+            ClassifierDescriptor classifier = supertype.getConstructor().getDeclarationDescriptor();
+            if (classifier != null && "java.io.Serializable".equals(DescriptorUtils.getFqName(classifier).asString())) return true;
+        }
+        return false;
+    }
+
+    private boolean canBeMovedToParent(@NotNull MethodNode body) {
+        for (AbstractInsnNode insn : body.instructions.toArray()) {
+            if (insn instanceof VarInsnNode && ((VarInsnNode) insn).var == 0 ||
+                insn instanceof IincInsnNode && ((IincInsnNode) insn).var == 0) {
+                return false;
+            }
+            if (insn instanceof TypeInsnNode && usesThisClass(((TypeInsnNode) insn).desc) ||
+                insn instanceof FieldInsnNode && usesThisClass(((FieldInsnNode) insn).owner + ((FieldInsnNode) insn).desc) ||
+                insn instanceof MethodInsnNode && usesThisClass(((MethodInsnNode) insn).owner + ((MethodInsnNode) insn).desc) ||
+                insn instanceof MultiANewArrayInsnNode && usesThisClass(((MultiANewArrayInsnNode) insn).desc) ||
+                insn instanceof LdcInsnNode && usesThisClass(((LdcInsnNode) insn).cst) ||
+                insn instanceof InvokeDynamicInsnNode && usesThisClass((InvokeDynamicInsnNode) insn)) {
+                return false;
+            }
+        }
+
+        for (TryCatchBlockNode block : body.tryCatchBlocks) {
+            if (usesThisClass(block.type)) return false;
+        }
+        for (LocalVariableNode variable : body.localVariables) {
+            if (variable.index != 0 && usesThisClass(variable.desc)) return false;
+        }
+
+        return true;
+    }
+
+    private boolean usesThisClass(@NotNull InvokeDynamicInsnNode insn) {
+        if (usesThisClass(insn.desc) || usesThisClass(insn.bsm)) return true;
+        for (Object arg : insn.bsmArgs) {
+            if (usesThisClass(arg)) return true;
+        }
+        return false;
+    }
+
+    // also true for classes nested into the lambda class, which are named after it
+    private boolean usesThisClass(@Nullable Object value) {
+        if (value instanceof Handle) {
+            return usesThisClass(((Handle) value).getOwner() + ((Handle) value).getDesc());
+        }
+        if (value instanceof Type) {
+            return usesThisClass(((Type) value).getDescriptor());
+        }
+        return value instanceof String && ((String) value).contains(asmType.getInternalName());
+    }
+
+    @NotNull
+    private static Type[] instantiatedTypes(@NotNull Type[] erasedTypes, @NotNull Type[] types) {
+        Type[] result = new Type[types.length];
+        for (int i = 0; i < types.length; i++) {
+            result[i] = instantiatedType(erasedTypes[i], types[i]);
+        }
+        return result;
+    }
+
+    // LambdaMetafactory boxes and unboxes values of primitive types, but the types must be the same as in the interface method
+    @NotNull
+    private static Type instantiatedType(@NotNull Type erasedType, @NotNull Type type) {
+        return erasedType.getSort() == Type.OBJECT || erasedType.getSort() == Type.ARRAY ? boxType(type) : type;
+    }
+
     private void generateBridge(@NotNull Method bridge, @NotNull Method delegate) {
         if (bridge.equals(delegate)) return;
 
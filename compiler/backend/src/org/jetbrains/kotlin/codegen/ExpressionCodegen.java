@@ -1413,18 +1413,26 @@ public class ExpressionCodegen extends KtVisitor<StackValue, StackValue> impleme
             @Nullable SamType samType,
             @Nullable FunctionDescriptor functionReferenceTarget
     ) {
-        ClassBuilder cv = state.getFactory().newVisitor(
-                JvmDeclarationOriginKt.OtherOrigin(declaration, descriptor),
-                asmTypeForAnonymousClass(bindingContext, descriptor),
-                declaration.getContainingFile()
-        );
+        ClosureCodegen closureCodegen = functionReferenceTarget == null
+                                        ? ClosureCodegen.generateWithLambdaMetafactory(
+                                                state, declaration, samType, context.intoClosure(descriptor, this, typeMapper),
+                                                strategy, parentCodegen)
+                                        : null;
+
+        if (closureCodegen == null) {
+            ClassBuilder cv = state.getFactory().newVisitor(
+                    JvmDeclarationOriginKt.OtherOrigin(declaration, descriptor),
+                    asmTypeForAnonymousClass(bindingContext, descriptor),
+                    declaration.getContainingFile()
+            );
 
-        ClosureCodegen closureCodegen = new ClosureCodegen(
-                state, declaration, samType, context.intoClosure(descriptor, this, typeMapper),
-                functionReferenceTarget, strategy, parentCodegen, cv
-        );
+            closureCodegen = new ClosureCodegen(
+                    state, declaration, samType, context.intoClosure(descriptor, this, typeMapper),
+                    functionReferenceTarget, strategy, parentCodegen, cv
+            );
 
-        closureCodegen.generate();
+            closureCodegen.generate();
+        }
 
         if (closureCodegen.getReifiedTypeParametersUsages().wereUsedReifiedParameters()) {
             ReifiedTypeInliner.putNeedClassReificationMarker(v);
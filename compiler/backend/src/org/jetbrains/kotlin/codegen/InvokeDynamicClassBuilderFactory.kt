@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.kotlin.codegen.inline.InlineCodegenUtil
+import org.jetbrains.kotlin.resolve.jvm.AsmTypes
+import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin
+import org.jetbrains.org.objectweb.asm.Handle
+import org.jetbrains.org.objectweb.asm.Label
+import org.jetbrains.org.objectweb.asm.MethodVisitor
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.commons.InstructionAdapter
+import java.util.*
+
+/**
+ * Generates the `$deserializeLambda$` method in classes which create serializable lambdas with [LAMBDA_ALT_METAFACTORY]
+ * (see -Xlambdas=indy). It's called by `java.lang.invoke.SerializedLambda` to recreate such lambdas on deserialization, as in javac.
+ *
+ * Lambdas are created with invokedynamic only when targeting Java 8, when all classes are already defined with its version
+ * (see [JvmTargetClassBuilderFactory]).
+ */
+class InvokeDynamicClassBuilderFactory(delegate: ClassBuilderFactory) : DelegatingClassBuilderFactory(delegate) {
+    override fun newClassBuilder(origin: JvmDeclarationOrigin): DelegatingClassBuilder =
+            InvokeDynamicClassBuilder(delegate.newClassBuilder(origin))
+
+    private class SerializableLambda(val name: String, val desc: String, val bsmArgs: Array<out Any>) {
+        val implementation: Handle
+            get() = bsmArgs[1] as Handle
+    }
+
+    private class InvokeDynamicClassBuilder(private val classBuilder: ClassBuilder) : DelegatingClassBuilder() {
+        // methods may be transformed concurrently, see ParallelOptimizationClassBuilder
+        private val serializableLambdas = Collections.synchronizedList(ArrayList<SerializableLambda>())
+
+        override fun getDelegate() = classBuilder
+
+        override fun newMethod(
+                origin: JvmDeclarationOrigin,
+                access: Int,
+                name: String,
+                desc: String,
+                signature: String?,
+                exceptions: Array<out String>?
+        ): MethodVisitor {
+            return object : MethodVisitor(InlineCodegenUtil.API, super.newMethod(origin, access, name, desc, signature, exceptions)) {
+                override fun visitInvokeDynamicInsn(name: String, desc: String, bsm: Handle, vararg bsmArgs: Any) {
+                    if (bsm == LAMBDA_ALT_METAFACTORY && bsmArgs.size > 3 && (bsmArgs[3] as Int) and FLAG_SERIALIZABLE != 0) {
+                        serializableLambdas.add(SerializableLambda(name, desc, bsmArgs))
+                    }
+                    super.visitInvokeDynamicInsn(name, desc, bsm, *bsmArgs)
+                }
+            }
+        }
+
+        override fun done() {
+            if (serializableLambdas.isNotEmpty()) {
+                generateDeserializeLambda()
+            }
+            super.done()
+        }
+
+        private fun generateDeserializeLambda() {
+            val mv = classBuilder.newMethod(
+                    JvmDeclarationOrigin.NO_ORIGIN, Opcodes.ACC_PRIVATE or Opcodes.ACC_STATIC or Opcodes.ACC_SYNTHETIC,
+                    "\$deserializeLambda\$", "(L$SERIALIZED_LAMBDA;)Ljava/lang/Object;", null, null
+            )
+            val iv = InstructionAdapter(mv)
+            mv.visitCode()
+
+            // sorted, so that the method doesn't depend on the order methods were transformed in
+            for (lambda in serializableLambdas.distinctBy { it.implementation }.sortedBy { it.implementation.name }) {
+                val next = Label()
+                checkSerializedLambdaProperty(iv, "getImplMethodName", lambda.implementation.name, next)
+                checkSerializedLambdaProperty(iv, "getImplMethodSignature", lambda.implementation.desc, next)
+                iv.invokedynamic(lambda.name, lambda.desc, LAMBDA_ALT_METAFACTORY, lambda.bsmArgs)
+                iv.areturn(AsmTypes.OBJECT_TYPE)
+                iv.mark(next)
+            }
+
+            iv.anew(Type.getObjectType(ILLEGAL_ARGUMENT_EXCEPTION))
+            iv.dup()
+            iv.aconst("Invalid lambda deserialization")
+            iv.invokespecial(ILLEGAL_ARGUMENT_EXCEPTION, "<init>", "(Ljava/lang/String;)V", false)
+            iv.athrow()
+
+            FunctionCodegen.endVisit(mv, "\$deserializeLambda\$", null)
+        }
+
+        private fun checkSerializedLambdaProperty(iv: InstructionAdapter, getter: String, expected: String, otherwise: Label) {
+            iv.load(0, AsmTypes.OBJECT_TYPE)
+            iv.invokevirtual(SERIALIZED_LAMBDA, getter, "()Ljava/lang/String;", false)
+            iv.aconst(expected)
+            iv.invokevirtual("java/lang/String", "equals", "(Ljava/lang/Object;)Z", false)
+            iv.ifeq(otherwise)
+        }
+    }
+
+    companion object {
+        @JvmField
+        val LAMBDA_ALT_METAFACTORY = Handle(
+                Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "altMetafactory",
+                "(Ljava/lang/invoke/MethodHandles\$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;[Ljava/lang/Object;)" +
+                "Ljava/lang/invoke/CallSite;"
+        )
+
+        // LambdaMetafactory.FLAG_SERIALIZABLE
+        const val FLAG_SERIALIZABLE = 1
+
+        private val SERIALIZED_LAMBDA = "java/lang/invoke/SerializedLambda"
+        private val ILLEGAL_ARGUMENT_EXCEPTION = "java/lang/IllegalArgumentException"
+    }
+}
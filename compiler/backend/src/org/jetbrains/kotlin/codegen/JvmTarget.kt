@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.org.objectweb.asm.Opcodes
+
+/**
+ * Version of the JVM the generated classes are targeted at (see -Xjvm-target), which determines their class file version.
+ */
+enum class JvmTarget(val description: String, val bytecodeVersion: Int) {
+    JVM_1_6("1.6", Opcodes.V1_6),
+    JVM_1_8("1.8", Opcodes.V1_8);
+
+    companion object {
+        @JvmField
+        val DEFAULT: JvmTarget = JVM_1_6
+
+        @JvmStatic
+        fun fromString(string: String): JvmTarget? = values().firstOrNull { it.description == string }
+    }
+}
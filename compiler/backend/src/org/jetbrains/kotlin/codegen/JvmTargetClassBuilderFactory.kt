@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import com.intellij.psi.PsiElement
+import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin
+
+/**
+ * Defines all classes with the class file version of [jvmTarget], whatever version their codegens request,
+ * so that the whole class (including its stack map frames) is written for that version from the start.
+ */
+class JvmTargetClassBuilderFactory(delegate: ClassBuilderFactory, private val jvmTarget: JvmTarget) : DelegatingClassBuilderFactory(delegate) {
+    override fun newClassBuilder(origin: JvmDeclarationOrigin): DelegatingClassBuilder =
+            JvmTargetClassBuilder(delegate.newClassBuilder(origin))
+
+    private inner class JvmTargetClassBuilder(private val classBuilder: ClassBuilder) : DelegatingClassBuilder() {
+        override fun getDelegate() = classBuilder
+
+        override fun defineClass(
+                origin: PsiElement?,
+                version: Int,
+                access: Int,
+                name: String,
+                signature: String?,
+                superName: String,
+                interfaces: Array<out String>
+        ) {
+            super.defineClass(origin, jvmTarget.bytecodeVersion, access, name, signature, superName, interfaces)
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassInfo;
 import org.jetbrains.kotlin.name.FqName;
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus;
 import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 
 import java.util.Collection;
 import java.util.HashSet;
@@ -41,7 +42,13 @@ public class KotlinCodegenFacade {
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
 
-        doGenerateFiles(state.getFiles(), state, errorHandler);
+        PhaseProfiler.Measurement measurement = state.getPhaseProfiler().startPhase("codegen");
+        try {
+            doGenerateFiles(state.getFiles(), state, errorHandler);
+        }
+        finally {
+            measurement.finish();
+        }
     }
 
     public static void doGenerateFiles(
@@ -95,8 +102,14 @@ public class KotlinCodegenFacade {
     ) {
         // We do not really generate package class, but use old package fqName to identify package in module-info.
         //FqName packageClassFqName = PackageClassUtils.getPackageClassFqName(packageFqName);
-        PackageCodegen codegen = state.getFactory().forPackage(packageFqName, jetFiles);
-        codegen.generate(errorHandler);
+        PhaseProfiler.Measurement measurement = state.getPhaseProfiler().startPhase("codegen", packageFqName.asString());
+        try {
+            PackageCodegen codegen = state.getFactory().forPackage(packageFqName, jetFiles);
+            codegen.generate(errorHandler);
+        }
+        finally {
+            measurement.finish();
+        }
     }
 
     private static void generateMultifileClass(
@@ -105,8 +118,14 @@ public class KotlinCodegenFacade {
             @NotNull Collection<KtFile> files,
             @NotNull CompilationErrorHandler handler
     ) {
-        MultifileClassCodegen codegen = state.getFactory().forMultifileClass(multifileClassFqName, files);
-        codegen.generate(handler);
+        PhaseProfiler.Measurement measurement = state.getPhaseProfiler().startPhase("codegen", multifileClassFqName.asString());
+        try {
+            MultifileClassCodegen codegen = state.getFactory().forMultifileClass(multifileClassFqName, files);
+            codegen.generate(handler);
+        }
+        finally {
+            measurement.finish();
+        }
     }
 
     private KotlinCodegenFacade() {}
@@ -218,8 +218,8 @@ public class InlineCodegen extends CallGenerator {
                 throw new IllegalStateException("Couldn't find declaration file for " + containerId);
             }
 
-            nodeAndSMAP = InlineCodegenUtil.getMethodNode(
-                    file.contentsToByteArray(), asmMethod.getName(), asmMethod.getDescriptor(), containerId
+            nodeAndSMAP = state.getInlineMethodNodeCache().getMethodNode(
+                    containerId, asmMethod.getName(), asmMethod.getDescriptor(), file
             );
 
             if (nodeAndSMAP == null) {
@@ -95,7 +95,11 @@ public class InlineCodegenUtil {
         cr.accept(new ClassVisitor(API) {
             @Override
             public void visit(int version, int access, @NotNull String name, String signature, String superName, String[] interfaces) {
-                assertVersionNotGreaterThanJava6(version, name);
+                // classes with lambdas generated via invokedynamic (-Xlambdas=indy) have Java 8 version,
+                // inline functions in them are checked not to contain invokedynamic below
+                if (version != Opcodes.V1_8) {
+                    assertVersionNotGreaterThanJava6(version, name);
+                }
             }
 
             @Override
@@ -132,6 +136,15 @@ public class InlineCodegenUtil {
             return null;
         }
 
+        for (AbstractInsnNode insn : node[0].instructions.toArray()) {
+            if (insn.getOpcode() == Opcodes.INVOKEDYNAMIC) {
+                throw new UnsupportedOperationException(
+                        "Cannot inline method " + methodName + methodDescriptor + " of class " + classId.asString() +
+                        " which contains invokedynamic"
+                );
+            }
+        }
+
         if (classId.equals(IntrinsicArrayConstructorsKt.getClassId())) {
             // Don't load source map for intrinsic array constructors
             debugInfo[0] = null;
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.inline
+
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Caches bodies of compiled inline functions, so that the container class is read and parsed once and not on every call site.
+ *
+ * Cached nodes are never handed out: every call gets its own copy, because the inliner transforms the node it is given.
+ * The cache may outlive a single compilation (e.g. in the daemon): an entry is only reused while the class file it was read from
+ * has the same path, length and time stamp, or, for a class in a jar, while the jar has the same length and time stamp
+ * (entries of reproducible jars all have the same time stamp).
+ *
+ * Methods are loaded concurrently, only calls for the same method wait for each other.
+ */
+class InlineMethodNodeCache @JvmOverloads constructor(
+        private val maxTotalInstructions: Int = DEFAULT_MAX_TOTAL_INSTRUCTIONS
+) {
+    private data class Key(val containerId: ClassId, val methodName: String, val methodDescriptor: String)
+
+    private data class FileVersion(val path: String, val length: Long, val timeStamp: Long)
+
+    private class Entry(val template: SMAPAndMethodNode, val version: FileVersion) {
+        val size: Int = template.node.instructions.size()
+
+        @Volatile var lastUsed: Long = 0
+    }
+
+    // the monitor of a slot guards loading of its method and copying of its template, which resets the labels of the template
+    private class Slot {
+        @Volatile var entry: Entry? = null
+
+        // set when the slot is evicted, a call which got the slot before that doesn't put the method back to it
+        var removed = false
+    }
+
+    private val slots = ConcurrentHashMap<Key, Slot>()
+
+    private val totalInstructions = AtomicInteger()
+
+    private val clock = AtomicLong()
+
+    private val evictionLock = Any()
+
+    private val hitCount = AtomicInteger()
+    private val missCount = AtomicInteger()
+    private val evictionCount = AtomicInteger()
+
+    val hits: Int
+        get() = hitCount.get()
+
+    val misses: Int
+        get() = missCount.get()
+
+    val evictions: Int
+        get() = evictionCount.get()
+
+    @Throws(IOException::class)
+    fun getMethodNode(containerId: ClassId, methodName: String, methodDescriptor: String, file: VirtualFile): SMAPAndMethodNode? {
+        val key = Key(containerId, methodName, methodDescriptor)
+        val version = fileVersion(file)
+        val slot = slots[key] ?: Slot().let { slots.putIfAbsent(key, it) ?: it }
+
+        val result = synchronized (slot) {
+            val cached = slot.entry
+            if (cached != null && cached.version == version) {
+                hitCount.incrementAndGet()
+                cached.lastUsed = clock.incrementAndGet()
+                return copy(cached.template)
+            }
+
+            missCount.incrementAndGet()
+            val loaded = InlineCodegenUtil.getMethodNode(file.contentsToByteArray(), methodName, methodDescriptor, containerId) ?: return null
+            if (!slot.removed) {
+                val entry = Entry(loaded, version)
+                entry.lastUsed = clock.incrementAndGet()
+                slot.entry = entry
+                totalInstructions.addAndGet(entry.size - (cached?.size ?: 0))
+            }
+            copy(loaded)
+        }
+
+        evictIfNeeded()
+        return result
+    }
+
+    fun clear() {
+        synchronized (evictionLock) {
+            for (slot in slots.values) {
+                synchronized (slot) {
+                    slot.removed = true
+                    slot.entry = null
+                }
+            }
+            slots.clear()
+            totalInstructions.set(0)
+        }
+    }
+
+    override fun toString() = "$hits hits, $misses misses, $evictions evictions"
+
+    // evicts the least recently used methods until the cache fits into its bound
+    private fun evictIfNeeded() {
+        if (totalInstructions.get() <= maxTotalInstructions) return
+
+        synchronized (evictionLock) {
+            if (totalInstructions.get() <= maxTotalInstructions) return
+
+            // the time of last use is read once, it may change while the slots are sorted
+            val candidates = slots.entries.map { Triple(it.value.entry?.lastUsed ?: 0L, it.key, it.value) }.sortedBy { it.first }
+            for ((lastUsed, key, slot) in candidates) {
+                if (totalInstructions.get() <= maxTotalInstructions) break
+
+                synchronized (slot) {
+                    val entry = slot.entry
+                    if (entry != null) {
+                        slot.removed = true
+                        slot.entry = null
+                        slots.remove(key, slot)
+                        totalInstructions.addAndGet(-entry.size)
+                        evictionCount.incrementAndGet()
+                    }
+                }
+            }
+        }
+    }
+
+    private fun fileVersion(file: VirtualFile): FileVersion {
+        val path = file.path
+        val jarSeparator = path.indexOf(URLUtil.JAR_SEPARATOR)
+        if (jarSeparator >= 0) {
+            val jar = File(path.substring(0, jarSeparator))
+            return FileVersion(path, jar.length(), jar.lastModified())
+        }
+        return FileVersion(path, file.length, file.timeStamp)
+    }
+
+    private fun copy(template: SMAPAndMethodNode): SMAPAndMethodNode {
+        val original = template.node
+        val copy = MethodNode(InlineCodegenUtil.API, original.access, original.name, original.desc, original.signature,
+                              original.exceptions.toTypedArray())
+        // Labels are bound to the instructions they were last emitted for: reset them so that the copy gets its own
+        original.instructions.resetLabels()
+        original.accept(copy)
+        return SMAPAndMethodNode(copy, template.classSMAP)
+    }
+
+    companion object {
+        // Roughly tens of megabytes of instruction nodes
+        const val DEFAULT_MAX_TOTAL_INSTRUCTIONS = 500000
+    }
+}
@@ -20,20 +20,69 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.codegen.ClassBuilder;
 import org.jetbrains.kotlin.codegen.ClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.ClassBuilderMode;
+import org.jetbrains.kotlin.codegen.DelegatingClassBuilder;
 import org.jetbrains.kotlin.codegen.DelegatingClassBuilderFactory;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
+import org.jetbrains.kotlin.util.PhaseProfiler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class OptimizationClassBuilderFactory extends DelegatingClassBuilderFactory {
     private final boolean disableOptimization;
+    private final ExecutorService executor;
+    private final PhaseProfiler phaseProfiler;
 
     public OptimizationClassBuilderFactory(ClassBuilderFactory delegate, boolean disableOptimization) {
+        this(delegate, disableOptimization, 1, PhaseProfiler.DISABLED);
+    }
+
+    /**
+     * @param backendThreads number of threads to run method transformations on; with a value greater than 1 (and only in
+     *                       {@link ClassBuilderMode#FULL} mode) methods are transformed concurrently, see {@link ParallelOptimizationClassBuilder}
+     */
+    public OptimizationClassBuilderFactory(
+            ClassBuilderFactory delegate,
+            boolean disableOptimization,
+            int backendThreads,
+            @NotNull PhaseProfiler phaseProfiler
+    ) {
         super(delegate);
         this.disableOptimization = disableOptimization;
+        this.phaseProfiler = phaseProfiler;
+        this.executor = backendThreads > 1 && delegate.getClassBuilderMode() == ClassBuilderMode.FULL
+                        ? Executors.newFixedThreadPool(backendThreads, new BackendThreadFactory())
+                        : null;
     }
 
     @NotNull
     @Override
-    public OptimizationClassBuilder newClassBuilder(@NotNull JvmDeclarationOrigin origin) {
-        return new OptimizationClassBuilder(getDelegate().newClassBuilder(origin), disableOptimization);
+    public DelegatingClassBuilder newClassBuilder(@NotNull JvmDeclarationOrigin origin) {
+        ClassBuilder delegate = getDelegate().newClassBuilder(origin);
+        if (executor != null) {
+            return new ParallelOptimizationClassBuilder(delegate, disableOptimization, executor, phaseProfiler);
+        }
+        return new OptimizationClassBuilder(delegate, disableOptimization, phaseProfiler);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        super.close();
+    }
+
+    private static class BackendThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable r) {
+            Thread thread = new Thread(r, "Kotlin backend worker " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
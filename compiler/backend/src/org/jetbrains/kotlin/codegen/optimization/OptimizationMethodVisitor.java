@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.codegen.optimization.boxing.RedundantBoxingMethodTra
 import org.jetbrains.kotlin.codegen.optimization.boxing.RedundantNullCheckMethodTransformer;
 import org.jetbrains.kotlin.codegen.optimization.common.UtilKt;
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Opcodes;
 import org.jetbrains.org.objectweb.asm.tree.LocalVariableNode;
@@ -48,10 +49,12 @@ public class OptimizationMethodVisitor extends MethodVisitor {
     private final MethodNode methodNode;
     private final MethodVisitor delegate;
     private final boolean disableOptimization;
+    private final PhaseProfiler phaseProfiler;
 
     public OptimizationMethodVisitor(
             @NotNull MethodVisitor delegate,
             boolean disableOptimization,
+            @NotNull PhaseProfiler phaseProfiler,
             int access,
             @NotNull String name,
             @NotNull String desc,
@@ -64,6 +67,7 @@ public class OptimizationMethodVisitor extends MethodVisitor {
         this.methodNode.localVariables = new ArrayList<LocalVariableNode>(5);
         this.mv = InlineCodegenUtil.wrapWithMaxLocalCalc(methodNode);
         this.disableOptimization = disableOptimization;
+        this.phaseProfiler = phaseProfiler;
     }
 
     @Override
@@ -75,16 +79,47 @@ public class OptimizationMethodVisitor extends MethodVisitor {
 
         super.visitEnd();
 
+        transformAndEmit();
+    }
+
+    /**
+     * Runs the method transformations and writes the result into the delegate visitor.
+     * Subclasses may split these steps, e.g. to run {@link #transform()} on a different thread.
+     */
+    protected void transformAndEmit() {
+        transform(null);
+        emit();
+    }
+
+    /**
+     * @param parentPhase the phase the transformations run on behalf of, if they run on a thread other than the one that started it
+     */
+    protected final void transform(@Nullable PhaseProfiler.Measurement parentPhase) {
+        PhaseProfiler.Measurement measurement = phaseProfiler.startPhaseInside(parentPhase, "optimization");
+        try {
+            doTransform();
+        }
+        finally {
+            measurement.finish();
+        }
+    }
+
+    private void doTransform() {
         if (shouldBeTransformed(methodNode)) {
             MANDATORY_METHOD_TRANSFORMER.transform("fake", methodNode);
-            if (canBeOptimized(methodNode) && !disableOptimization) {
+            if (!disableOptimization) {
+                boolean framesFitInMemory = canComputeFrames(methodNode);
                 for (MethodTransformer transformer : OPTIMIZATION_TRANSFORMERS) {
-                    transformer.transform("fake", methodNode);
+                    if (framesFitInMemory || !transformer.requiresFrames()) {
+                        transformer.transform("fake", methodNode);
+                    }
                 }
             }
             UtilKt.prepareForEmitting(methodNode);
         }
+    }
 
+    protected final void emit() {
         methodNode.accept(new EndIgnoringMethodVisitorDecorator(Opcodes.ASM5, delegate));
 
 
@@ -133,7 +168,7 @@ public class OptimizationMethodVisitor extends MethodVisitor {
         return node.instructions.size() > 0;
     }
 
-    private static boolean canBeOptimized(@NotNull MethodNode node) {
+    private static boolean canComputeFrames(@NotNull MethodNode node) {
         int totalFramesSizeMb = node.instructions.size() * (node.maxLocals + node.maxStack) / (1024 * 1024);
         return totalFramesSizeMb < MEMORY_LIMIT_BY_METHOD_MB;
     }
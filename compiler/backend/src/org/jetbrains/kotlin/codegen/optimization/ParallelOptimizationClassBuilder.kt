@@ -0,0 +1,246 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import com.intellij.psi.PsiElement
+import org.jetbrains.kotlin.codegen.ClassBuilder
+import org.jetbrains.kotlin.codegen.DelegatingClassBuilder
+import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin
+import org.jetbrains.kotlin.util.PhaseProfiler
+import org.jetbrains.org.objectweb.asm.*
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+
+/**
+ * Runs bytecode transformations of the methods of a class on [executor] while the code generator goes on with the next method.
+ *
+ * Every event that would change the underlying class writer (including its constant pool) is recorded in the order it was issued
+ * and replayed in exactly that order in [done], so the resulting class file is identical to the one produced by [OptimizationClassBuilder].
+ */
+class ParallelOptimizationClassBuilder(
+        private val _delegate: ClassBuilder,
+        private val disableOptimization: Boolean,
+        private val executor: ExecutorService,
+        private val phaseProfiler: PhaseProfiler
+) : DelegatingClassBuilder() {
+
+    private val actions = arrayListOf<() -> Unit>()
+    private val recordingVisitor = RecordingClassVisitor()
+
+    private var thisName: String? = null
+
+    override fun getDelegate() = _delegate
+
+    private fun record(action: () -> Unit) {
+        actions.add(action)
+    }
+
+    override fun getVisitor(): ClassVisitor = recordingVisitor
+
+    override fun defineClass(origin: PsiElement?, version: Int, access: Int, name: String, signature: String?, superName: String, interfaces: Array<out String>) {
+        thisName = name
+        record { _delegate.defineClass(origin, version, access, name, signature, superName, interfaces) }
+    }
+
+    override fun getThisName(): String {
+        return thisName ?: throw IllegalStateException("This name isn't set")
+    }
+
+    override fun newField(origin: JvmDeclarationOrigin, access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor {
+        val field = RecordingFieldVisitor()
+        record { field.target = _delegate.newField(origin, access, name, desc, signature, value) }
+        return field
+    }
+
+    override fun newMethod(origin: JvmDeclarationOrigin, access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor {
+        val target = BindableMethodVisitor()
+        record { target.bind(_delegate.newMethod(origin, access, name, desc, signature, exceptions)) }
+        return DeferredOptimizationMethodVisitor(target, access, name, desc, signature, exceptions)
+    }
+
+    override fun newAnnotation(desc: String, visible: Boolean): AnnotationVisitor {
+        val annotation = RecordingAnnotationVisitor()
+        record { annotation.target = _delegate.newAnnotation(desc, visible) }
+        return annotation
+    }
+
+    override fun visitOuterClass(owner: String, name: String?, desc: String?) {
+        record { _delegate.visitOuterClass(owner, name, desc) }
+    }
+
+    override fun visitInnerClass(name: String, outerName: String?, innerName: String?, access: Int) {
+        record { _delegate.visitInnerClass(name, outerName, innerName, access) }
+    }
+
+    override fun done() {
+        try {
+            for (action in actions) {
+                action()
+            }
+        }
+        finally {
+            actions.clear()
+        }
+        super.done()
+    }
+
+    private fun waitFor(future: Future<*>) {
+        try {
+            future.get()
+        }
+        catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    private inner class DeferredOptimizationMethodVisitor(
+            delegate: MethodVisitor,
+            access: Int,
+            name: String,
+            desc: String,
+            signature: String?,
+            exceptions: Array<out String>?
+    ) : OptimizationMethodVisitor(delegate, disableOptimization, phaseProfiler, access, name, desc, signature, exceptions) {
+        override fun transformAndEmit() {
+            // the time spent in transformations is not counted in the phase which waits for them
+            val parentPhase = phaseProfiler.currentPhase()
+            val transformed = executor.submit(Runnable { transform(parentPhase) })
+            record {
+                waitFor(transformed)
+                emit()
+            }
+        }
+    }
+
+    private class BindableMethodVisitor : MethodVisitor(Opcodes.ASM5) {
+        fun bind(target: MethodVisitor) {
+            mv = target
+        }
+    }
+
+    private inner class RecordingClassVisitor : ClassVisitor(Opcodes.ASM5) {
+        private val target: ClassVisitor
+            get() = _delegate.visitor
+
+        override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?) {
+            record { target.visit(version, access, name, signature, superName, interfaces) }
+        }
+
+        override fun visitSource(source: String?, debug: String?) {
+            record { target.visitSource(source, debug) }
+        }
+
+        override fun visitOuterClass(owner: String, name: String?, desc: String?) {
+            record { target.visitOuterClass(owner, name, desc) }
+        }
+
+        override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor {
+            val annotation = RecordingAnnotationVisitor()
+            record { annotation.target = target.visitAnnotation(desc, visible) }
+            return annotation
+        }
+
+        override fun visitTypeAnnotation(typeRef: Int, typePath: TypePath?, desc: String, visible: Boolean): AnnotationVisitor {
+            val annotation = RecordingAnnotationVisitor()
+            record { annotation.target = target.visitTypeAnnotation(typeRef, typePath, desc, visible) }
+            return annotation
+        }
+
+        override fun visitAttribute(attr: Attribute) {
+            record { target.visitAttribute(attr) }
+        }
+
+        override fun visitInnerClass(name: String, outerName: String?, innerName: String?, access: Int) {
+            record { target.visitInnerClass(name, outerName, innerName, access) }
+        }
+
+        override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor {
+            val field = RecordingFieldVisitor()
+            record { field.target = target.visitField(access, name, desc, signature, value) }
+            return field
+        }
+
+        override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor {
+            val method = BindableMethodVisitor()
+            record { method.bind(target.visitMethod(access, name, desc, signature, exceptions) ?: MethodNode()) }
+            // Method bodies written directly to the class visitor are buffered and flushed at the point where they end
+            return object : MethodNode(Opcodes.ASM5, access, name, desc, signature, exceptions) {
+                override fun visitEnd() {
+                    record { accept(method) }
+                }
+            }
+        }
+
+        override fun visitEnd() {
+            record { target.visitEnd() }
+        }
+    }
+
+    private inner class RecordingFieldVisitor : FieldVisitor(Opcodes.ASM5) {
+        var target: FieldVisitor? = null
+
+        override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor {
+            val annotation = RecordingAnnotationVisitor()
+            record { annotation.target = target?.visitAnnotation(desc, visible) }
+            return annotation
+        }
+
+        override fun visitTypeAnnotation(typeRef: Int, typePath: TypePath?, desc: String, visible: Boolean): AnnotationVisitor {
+            val annotation = RecordingAnnotationVisitor()
+            record { annotation.target = target?.visitTypeAnnotation(typeRef, typePath, desc, visible) }
+            return annotation
+        }
+
+        override fun visitAttribute(attr: Attribute) {
+            record { target?.visitAttribute(attr) }
+        }
+
+        override fun visitEnd() {
+            record { target?.visitEnd() }
+        }
+    }
+
+    private inner class RecordingAnnotationVisitor : AnnotationVisitor(Opcodes.ASM5) {
+        var target: AnnotationVisitor? = null
+
+        override fun visit(name: String?, value: Any?) {
+            record { target?.visit(name, value) }
+        }
+
+        override fun visitEnum(name: String?, desc: String, value: String) {
+            record { target?.visitEnum(name, desc, value) }
+        }
+
+        override fun visitAnnotation(name: String?, desc: String): AnnotationVisitor {
+            val annotation = RecordingAnnotationVisitor()
+            record { annotation.target = target?.visitAnnotation(name, desc) }
+            return annotation
+        }
+
+        override fun visitArray(name: String?): AnnotationVisitor {
+            val array = RecordingAnnotationVisitor()
+            record { array.target = target?.visitArray(name) }
+            return array
+        }
+
+        override fun visitEnd() {
+            record { target?.visitEnd() }
+        }
+    }
+}
@@ -53,4 +53,6 @@ class RedundantGotoMethodTransformer : MethodTransformer() {
             methodNode.instructions.remove(insnToRemove)
         }
     }
+
+    override fun requiresFrames() = false
 }
@@ -28,6 +28,7 @@ import org.jetbrains.org.objectweb.asm.Type
 import org.jetbrains.org.objectweb.asm.tree.AbstractInsnNode
 import org.jetbrains.org.objectweb.asm.tree.InsnList
 import org.jetbrains.org.objectweb.asm.tree.MethodInsnNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
 import org.jetbrains.org.objectweb.asm.tree.analysis.AnalyzerException
 import org.jetbrains.org.objectweb.asm.tree.analysis.BasicValue
 import java.util.*
@@ -124,6 +125,17 @@ open class BoxingInterpreter(private val insnList: InsnList) : OptimizationBasic
         private val KCLASS_TO_JLCLASS = Type.getMethodDescriptor(AsmTypes.JAVA_CLASS_TYPE, AsmTypes.K_CLASS_TYPE)
         private val JLCLASS_TO_KCLASS = Type.getMethodDescriptor(AsmTypes.K_CLASS_TYPE, AsmTypes.JAVA_CLASS_TYPE)
 
+        // Boxed values are created either by boxing calls or by next() calls on iterators of progressions
+        @JvmStatic
+        fun mayCreateBoxedValues(node: MethodNode): Boolean {
+            var insn: AbstractInsnNode? = node.instructions.first
+            while (insn != null) {
+                if (insn.isBoxing() || insn.isMethodInsnWith(INVOKEINTERFACE) { name == "next" }) return true
+                insn = insn.next
+            }
+            return false
+        }
+
         private fun isWrapperClassNameOrNumber(internalClassName: String) =
                 isWrapperClassName(internalClassName) || internalClassName == Type.getInternalName(Number::class.java)
 
@@ -36,6 +36,9 @@ public class RedundantBoxingMethodTransformer extends MethodTransformer {
 
     @Override
     public void transform(@NotNull String internalClassName, @NotNull MethodNode node) {
+        // Don't analyze the method if no value in it can be boxed
+        if (!BoxingInterpreter.mayCreateBoxedValues(node)) return;
+
         RedundantBoxingInterpreter interpreter = new RedundantBoxingInterpreter(node.instructions);
         Frame<BasicValue>[] frames = analyze(
                 internalClassName, node, interpreter
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization.common
+
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.*
+
+/**
+ * Finds instructions reachable from the start of the method through fall-throughs, jumps, switches and exception handlers.
+ * Unlike a data flow analysis it keeps no frames, so it takes linear memory and is cheap enough for methods of any size.
+ * The result is indexed as [MethodNode.instructions].
+ */
+fun MethodNode.findReachableInsns(): BooleanArray {
+    val insnList = instructions
+    val size = insnList.size()
+    val reachable = BooleanArray(size)
+    if (size == 0) return reachable
+
+    val queue = IntArray(size)
+    var top = 0
+
+    fun visit(index: Int) {
+        if (index < size && !reachable[index]) {
+            reachable[index] = true
+            queue[top++] = index
+        }
+    }
+
+    visit(0)
+    do {
+        while (top > 0) {
+            val index = queue[--top]
+            val insn = insnList[index]
+            when (insn) {
+                is JumpInsnNode -> {
+                    if (insn.opcode != Opcodes.GOTO) visit(index + 1)
+                    visit(insnList.indexOf(insn.label))
+                }
+                is TableSwitchInsnNode -> {
+                    visit(insnList.indexOf(insn.dflt))
+                    insn.labels.forEach { visit(insnList.indexOf(it)) }
+                }
+                is LookupSwitchInsnNode -> {
+                    visit(insnList.indexOf(insn.dflt))
+                    insn.labels.forEach { visit(insnList.indexOf(it)) }
+                }
+                else -> {
+                    val opcode = insn.opcode
+                    if (opcode != Opcodes.ATHROW && (opcode < Opcodes.IRETURN || opcode > Opcodes.RETURN)) {
+                        visit(index + 1)
+                    }
+                }
+            }
+        }
+
+        // A handler is reachable if any instruction it covers is; handlers found here may make more handlers reachable
+        for (tcb in tryCatchBlocks) {
+            val handler = insnList.indexOf(tcb.handler)
+            if (reachable[handler]) continue
+
+            val start = insnList.indexOf(tcb.start)
+            val end = insnList.indexOf(tcb.end)
+            if ((start..end - 1).any { reachable[it] }) {
+                visit(handler)
+            }
+        }
+    }
+    while (top > 0)
+
+    return reachable
+}
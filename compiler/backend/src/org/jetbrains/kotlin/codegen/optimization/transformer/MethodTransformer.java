@@ -45,4 +45,12 @@ public abstract class MethodTransformer {
     }
 
     public abstract void transform(@NotNull String internalClassName, @NotNull MethodNode methodNode);
+
+    /**
+     * Whether the transformer runs a data flow analysis, which keeps a frame for every instruction of the method.
+     * Such transformers are skipped for methods whose frames would take too much memory.
+     */
+    public boolean requiresFrames() {
+        return true;
+    }
 }
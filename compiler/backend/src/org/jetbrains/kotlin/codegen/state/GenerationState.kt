@@ -26,6 +26,7 @@ import org.jetbrains.kotlin.codegen.binding.CodegenBinding
 import org.jetbrains.kotlin.codegen.context.CodegenContext
 import org.jetbrains.kotlin.codegen.context.RootContext
 import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension
+import org.jetbrains.kotlin.codegen.inline.InlineMethodNodeCache
 import org.jetbrains.kotlin.codegen.intrinsics.IntrinsicMethods
 import org.jetbrains.kotlin.codegen.optimization.OptimizationClassBuilderFactory
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
@@ -42,6 +43,7 @@ import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.BindingTrace
 import org.jetbrains.kotlin.resolve.DelegatingBindingTrace
 import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import org.jetbrains.kotlin.util.PhaseProfiler
 import java.io.File
 
 class GenerationState @JvmOverloads constructor(
@@ -68,7 +70,16 @@ class GenerationState @JvmOverloads constructor(
         val incrementalCompilationComponents: IncrementalCompilationComponents? = null,
         val generateOpenMultifileClasses: Boolean = false,
         val progress: Progress = Progress.DEAF,
-        private val onIndependentPartCompilationEnd: GenerationStateEventCallback = GenerationStateEventCallback.DO_NOTHING
+        private val onIndependentPartCompilationEnd: GenerationStateEventCallback = GenerationStateEventCallback.DO_NOTHING,
+        // number of threads to run bytecode transformations on, see ParallelOptimizationClassBuilder
+        backendThreads: Int = 1,
+        // may be shared between compilations, e.g. in the daemon
+        val inlineMethodNodeCache: InlineMethodNodeCache = InlineMethodNodeCache(),
+        // generate lambdas with invokedynamic and LambdaMetafactory where possible if targeting Java 8, see ClosureCodegen
+        indyLambdas: Boolean = false,
+        val jvmTarget: JvmTarget = JvmTarget.DEFAULT,
+        // collects the time spent in codegen and bytecode transformations if the compilation is profiled
+        val phaseProfiler: PhaseProfiler = PhaseProfiler.DISABLED
 ) {
     abstract class GenerateClassFilter {
         abstract fun shouldAnnotateClass(processingClassOrObject: KtClassOrObject): Boolean
@@ -142,11 +153,22 @@ class GenerationState @JvmOverloads constructor(
     val isInlineEnabled: Boolean = !disableInline
         @JvmName("isInlineEnabled") get
 
+    val isIndyLambdasEnabled: Boolean = indyLambdas && jvmTarget == JvmTarget.JVM_1_8
+        @JvmName("isIndyLambdasEnabled") get
+
 
     val rootContext: CodegenContext<*> = RootContext(this)
 
     init {
-        val optimizationClassBuilderFactory = OptimizationClassBuilderFactory(builderFactory, disableOptimization)
+        var targetClassBuilderFactory = builderFactory
+        if (jvmTarget != JvmTarget.DEFAULT) {
+            targetClassBuilderFactory = JvmTargetClassBuilderFactory(targetClassBuilderFactory, jvmTarget)
+        }
+        if (isIndyLambdasEnabled) {
+            targetClassBuilderFactory = InvokeDynamicClassBuilderFactory(targetClassBuilderFactory)
+        }
+        val optimizationClassBuilderFactory = OptimizationClassBuilderFactory(
+                targetClassBuilderFactory, disableOptimization, backendThreads, phaseProfiler)
         duplicateSignatureFactory = BuilderFactoryForDuplicateSignatureDiagnostics(
                 optimizationClassBuilderFactory, this.bindingContext, diagnostics, fileClassesProvider,
                 getIncrementalCacheForThisTarget(),
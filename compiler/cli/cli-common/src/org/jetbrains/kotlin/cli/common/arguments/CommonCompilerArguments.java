@@ -48,6 +48,10 @@ public abstract class CommonCompilerArguments {
     @ValueDescription("<count>")
     public String repeat;
 
+    @Argument(value = "Xprofile-phases", description = "Write time and memory spent in compiler phases to the given file in JSON format")
+    @ValueDescription("<path>")
+    public String profilePhases;
+
     @Argument(value = "Xplugin", description = "Load plugins from the given classpath")
     @ValueDescription("<path>")
     public String[] pluginClasspaths;
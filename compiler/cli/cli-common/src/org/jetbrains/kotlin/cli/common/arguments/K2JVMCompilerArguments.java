@@ -61,9 +61,32 @@ public class K2JVMCompilerArguments extends CommonCompilerArguments {
     @Argument(value = "Xno-optimize", description = "Disable optimizations")
     public boolean noOptimize;
 
+    @Argument(value = "Xjvm-target", description = "Version of the JVM to target, 1.6 (default) or 1.8, which sets the version of generated classes")
+    @ValueDescription("<version>")
+    public String jvmTarget;
+
+    @Argument(value = "Xlambdas", description = "Generate lambdas as classes (default) or with invokedynamic, which requires -Xjvm-target 1.8")
+    @ValueDescription("<class|indy>")
+    public String lambdas;
+
+    @Argument(value = "Xbackend-threads", description = "Run bytecode optimizations of generated methods on the given number of threads")
+    @ValueDescription("<count>")
+    public String backendThreads;
+
+    @Argument(value = "Xfrontend-threads", description = "Parse source files and resolve bodies of functions on the given number of threads")
+    @ValueDescription("<count>")
+    public String frontendThreads;
+
+    @Argument(value = "Xconcurrent-storage", description = "Compute lazy declarations without the global lock of the frontend")
+    public boolean concurrentStorage;
+
     @Argument(value = "Xreport-perf", description = "Report detailed performance statistics")
     public boolean reportPerf;
 
+    @Argument(value = "Xclasspath-index", description = "Store packages of classpath jars in the given file to speed up class lookup in subsequent compilations")
+    @ValueDescription("<path>")
+    public String classpathIndex;
+
     @Argument(value = "Xmultifile-facades-open", description = "Compile multifile facade classes as open")
     public boolean multifileFacadesOpen;
 
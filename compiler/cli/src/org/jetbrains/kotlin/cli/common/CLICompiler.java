@@ -34,7 +34,10 @@ import org.jetbrains.kotlin.config.Services;
 import org.jetbrains.kotlin.progress.CompilationCanceledException;
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus;
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
 import java.util.Properties;
@@ -182,6 +185,8 @@ public abstract class CLICompiler<A extends CommonCompilerArguments> {
                 }
             }
 
+            File profileFile = arguments.profilePhases != null ? new File(arguments.profilePhases) : null;
+
             CompilationCanceledStatus canceledStatus = services.get(CompilationCanceledStatus.class);
             ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(canceledStatus);
 
@@ -189,10 +194,11 @@ public abstract class CLICompiler<A extends CommonCompilerArguments> {
                 if (i > 0) {
                     K2JVMCompiler.Companion.resetInitStartTime();
                 }
+                PhaseProfiler phaseProfiler = profileFile != null ? PhaseProfiler.create() : PhaseProfiler.DISABLED;
                 Disposable rootDisposable = Disposer.newDisposable();
                 try {
                     MessageSeverityCollector severityCollector = new MessageSeverityCollector(groupingCollector);
-                    ExitCode code = doExecute(arguments, services, severityCollector, rootDisposable);
+                    ExitCode code = doExecute(arguments, services, severityCollector, rootDisposable, phaseProfiler);
                     exitCode = severityCollector.anyReported(CompilerMessageSeverity.ERROR) ? COMPILATION_ERROR : code;
                 }
                 catch (CompilationCanceledException e) {
@@ -212,6 +218,10 @@ public abstract class CLICompiler<A extends CommonCompilerArguments> {
                 }
                 finally {
                     Disposer.dispose(rootDisposable);
+                    if (profileFile != null) {
+                        // with -Xrepeat, the report describes the last run
+                        finishProfiling(phaseProfiler, profileFile, groupingCollector);
+                    }
                 }
             }
             return exitCode;
@@ -231,9 +241,26 @@ public abstract class CLICompiler<A extends CommonCompilerArguments> {
             @NotNull A arguments,
             @NotNull Services services,
             @NotNull MessageCollector messageCollector,
-            @NotNull Disposable rootDisposable
+            @NotNull Disposable rootDisposable,
+            @NotNull PhaseProfiler phaseProfiler
     );
 
+    private static void finishProfiling(
+            @NotNull PhaseProfiler phaseProfiler,
+            @NotNull File profileFile,
+            @NotNull MessageCollector messageCollector
+    ) {
+        phaseProfiler.stop();
+        try {
+            phaseProfiler.writeReport(profileFile);
+        }
+        catch (IOException e) {
+            messageCollector.report(CompilerMessageSeverity.WARNING,
+                                    "Could not write phase profile to " + profileFile + ": " + e.getMessage(),
+                                    CompilerMessageLocation.NO_LOCATION);
+        }
+    }
+
     private void printVersionIfNeeded(@NotNull MessageCollector messageCollector, @NotNull A arguments) {
         if (!arguments.version) return;
 
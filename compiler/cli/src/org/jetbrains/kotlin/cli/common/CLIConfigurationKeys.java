@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.cli.common;
 
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector;
 import org.jetbrains.kotlin.config.CompilerConfigurationKey;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 
 import java.util.List;
 
@@ -30,6 +31,8 @@ public class CLIConfigurationKeys {
             CompilerConfigurationKey.create("allow kotlin package");
     public static final CompilerConfigurationKey<Boolean> REPORT_PERF =
             CompilerConfigurationKey.create("report performance information");
+    public static final CompilerConfigurationKey<PhaseProfiler> PHASE_PROFILER =
+            CompilerConfigurationKey.create("phase profiler");
 
     private CLIConfigurationKeys() {
     }
@@ -43,7 +43,9 @@ import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
 import org.jetbrains.kotlin.cli.jvm.config.JVMConfigurationKeys;
 import org.jetbrains.kotlin.config.CompilerConfiguration;
 import org.jetbrains.kotlin.config.ContentRootsKt;
+import org.jetbrains.kotlin.config.IncrementalCompilation;
 import org.jetbrains.kotlin.config.Services;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
 import org.jetbrains.kotlin.js.analyze.TopDownAnalyzerFacadeForJS;
 import org.jetbrains.kotlin.js.analyzer.JsAnalysisResult;
 import org.jetbrains.kotlin.js.config.Config;
@@ -52,8 +54,10 @@ import org.jetbrains.kotlin.js.config.LibrarySourcesConfig;
 import org.jetbrains.kotlin.js.facade.K2JSTranslator;
 import org.jetbrains.kotlin.js.facade.MainCallParameters;
 import org.jetbrains.kotlin.js.facade.TranslationResult;
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents;
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus;
 import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.kotlin.utils.PathUtil;
 
 import java.io.File;
@@ -82,7 +86,8 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
             @NotNull K2JSCompilerArguments arguments,
             @NotNull Services services,
             @NotNull MessageCollector messageCollector,
-            @NotNull Disposable rootDisposable
+            @NotNull Disposable rootDisposable,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         final MessageSeverityCollector messageSeverityCollector = new MessageSeverityCollector(messageCollector);
 
@@ -96,15 +101,29 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
 
         CompilerConfiguration configuration = new CompilerConfiguration();
         configuration.put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, messageSeverityCollector);
+        configuration.put(CLIConfigurationKeys.PHASE_PROFILER, phaseProfiler);
 
         CompilerJarLocator locator = services.get(CompilerJarLocator.class);
         if (locator != null) {
             configuration.put(JVMConfigurationKeys.COMPILER_JAR_LOCATOR, locator);
         }
 
+        // incremental builds track lookups to find files affected by changed declarations
+        IncrementalCompilationComponents incrementalCompilationComponents =
+                IncrementalCompilation.isEnabled() ? services.get(IncrementalCompilationComponents.class) : null;
+        LookupTracker lookupTracker = incrementalCompilationComponents != null
+                                      ? incrementalCompilationComponents.getLookupTracker()
+                                      : LookupTracker.Companion.getDO_NOTHING();
+
         ContentRootsKt.addKotlinSourceRoots(configuration, arguments.freeArgs);
-        KotlinCoreEnvironment environmentForJS =
-                KotlinCoreEnvironment.createForProduction(rootDisposable, configuration, EnvironmentConfigFiles.JS_CONFIG_FILES);
+        KotlinCoreEnvironment environmentForJS;
+        PhaseProfiler.Measurement measurement = phaseProfiler.startPhase("environment");
+        try {
+            environmentForJS = KotlinCoreEnvironment.createForProduction(rootDisposable, configuration, EnvironmentConfigFiles.JS_CONFIG_FILES);
+        }
+        finally {
+            measurement.finish();
+        }
 
         Project project = environmentForJS.getProject();
         List<KtFile> sourcesFiles = environmentForJS.getSourceFiles();
@@ -140,7 +159,7 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
             return COMPILATION_ERROR;
         }
 
-        AnalyzerWithCompilerReport analyzerWithCompilerReport = analyzeAndReportErrors(messageSeverityCollector, sourcesFiles, config);
+        AnalyzerWithCompilerReport analyzerWithCompilerReport = analyzeAndReportErrors(messageSeverityCollector, sourcesFiles, config, lookupTracker, phaseProfiler);
         if (analyzerWithCompilerReport.hasErrors()) {
             return COMPILATION_ERROR;
         }
@@ -177,12 +196,16 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
         TranslationResult translationResult;
 
         K2JSTranslator translator = new K2JSTranslator(config);
+        measurement = phaseProfiler.startPhase("translation");
         try {
             //noinspection unchecked
             translationResult = translator.translate(sourcesFiles, mainCallParameters, jsAnalysisResult);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        finally {
+            measurement.finish();
+        }
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
 
@@ -207,7 +230,13 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
 
-        OutputUtilsKt.writeAll(outputFiles, outputDir, messageSeverityCollector);
+        measurement = phaseProfiler.startPhase("output writing");
+        try {
+            OutputUtilsKt.writeAll(outputFiles, outputDir, messageSeverityCollector);
+        }
+        finally {
+            measurement.finish();
+        }
 
         return OK;
     }
@@ -229,13 +258,20 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
     }
 
     private static AnalyzerWithCompilerReport analyzeAndReportErrors(@NotNull MessageCollector messageCollector,
-            @NotNull final List<KtFile> sources, @NotNull final Config config) {
+            @NotNull final List<KtFile> sources, @NotNull final Config config, @NotNull final LookupTracker lookupTracker,
+            @NotNull final PhaseProfiler phaseProfiler) {
         AnalyzerWithCompilerReport analyzerWithCompilerReport = new AnalyzerWithCompilerReport(messageCollector);
         analyzerWithCompilerReport.analyzeAndReport(sources, new AnalyzerWithCompilerReport.Analyzer() {
             @NotNull
             @Override
             public AnalysisResult analyze() {
-                return TopDownAnalyzerFacadeForJS.analyzeFiles(sources, config);
+                PhaseProfiler.Measurement measurement = phaseProfiler.startPhase("analysis");
+                try {
+                    return TopDownAnalyzerFacadeForJS.analyzeFiles(sources, config, lookupTracker, phaseProfiler);
+                }
+                finally {
+                    measurement.finish();
+                }
             }
 
             @Override
@@ -30,6 +30,7 @@ import org.jetbrains.kotlin.cli.jvm.config.addJavaSourceRoot
 import org.jetbrains.kotlin.cli.jvm.config.addJvmClasspathRoots
 import org.jetbrains.kotlin.cli.jvm.repl.ReplFromTerminal
 import org.jetbrains.kotlin.codegen.CompilationException
+import org.jetbrains.kotlin.codegen.JvmTarget
 import org.jetbrains.kotlin.compiler.plugin.CliOptionProcessingException
 import org.jetbrains.kotlin.compiler.plugin.PluginCliOptionProcessingException
 import org.jetbrains.kotlin.compiler.plugin.cliPluginUsageString
@@ -39,6 +40,7 @@ import org.jetbrains.kotlin.load.kotlin.JvmMetadataVersion
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
 import org.jetbrains.kotlin.script.StandardScriptDefinition
 import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.kotlin.util.PhaseProfiler
 import org.jetbrains.kotlin.utils.KotlinPaths
 import org.jetbrains.kotlin.utils.KotlinPathsFromHomeDir
 import org.jetbrains.kotlin.utils.PathUtil
@@ -48,7 +50,13 @@ import java.util.concurrent.TimeUnit
 
 open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
 
-    override fun doExecute(arguments: K2JVMCompilerArguments, services: Services, messageCollector: MessageCollector, rootDisposable: Disposable): ExitCode {
+    override fun doExecute(
+            arguments: K2JVMCompilerArguments,
+            services: Services,
+            messageCollector: MessageCollector,
+            rootDisposable: Disposable,
+            phaseProfiler: PhaseProfiler
+    ): ExitCode {
         val messageSeverityCollector = MessageSeverityCollector(messageCollector)
         val paths = if (arguments.kotlinHome != null)
             KotlinPathsFromHomeDir(File(arguments.kotlinHome))
@@ -60,6 +68,7 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
 
         val configuration = CompilerConfiguration()
         configuration.put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, messageSeverityCollector)
+        configuration.put(CLIConfigurationKeys.PHASE_PROFILER, phaseProfiler)
 
         if (IncrementalCompilation.isEnabled()) {
             val incrementalCompilationComponents = services.get(IncrementalCompilationComponents::class.java)
@@ -211,7 +220,9 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
     }
 
     private fun createCoreEnvironment(rootDisposable: Disposable, configuration: CompilerConfiguration): KotlinCoreEnvironment {
-        val result = KotlinCoreEnvironment.createForProduction(rootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+        val result = configuration.get(CLIConfigurationKeys.PHASE_PROFILER, PhaseProfiler.DISABLED).measure("environment") {
+            KotlinCoreEnvironment.createForProduction(rootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+        }
 
         if (initStartNanos != 0L) {
             val initNanos = System.nanoTime() - initStartNanos
@@ -279,6 +290,58 @@ open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             configuration.put(JVMConfigurationKeys.DISABLE_PARAM_ASSERTIONS, arguments.noParamAssertions)
             configuration.put(JVMConfigurationKeys.DISABLE_INLINE, arguments.noInline)
             configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
+            val jvmTarget = if (arguments.jvmTarget != null) JvmTarget.fromString(arguments.jvmTarget) else JvmTarget.DEFAULT
+            if (jvmTarget != null) {
+                configuration.put(JVMConfigurationKeys.JVM_TARGET, jvmTarget)
+            }
+            else {
+                configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]?.report(
+                        CompilerMessageSeverity.WARNING,
+                        "Unknown value of -Xjvm-target: ${arguments.jvmTarget}, classes are generated for JVM ${JvmTarget.DEFAULT.description}",
+                        CompilerMessageLocation.NO_LOCATION)
+            }
+            when (arguments.lambdas) {
+                null, "class" -> {}
+                "indy" -> {
+                    if (jvmTarget == JvmTarget.JVM_1_8) {
+                        configuration.put(JVMConfigurationKeys.INDY_LAMBDAS, true)
+                    }
+                    else {
+                        configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]?.report(
+                                CompilerMessageSeverity.WARNING, "-Xlambdas=indy requires -Xjvm-target 1.8, lambdas are generated as classes",
+                                CompilerMessageLocation.NO_LOCATION)
+                    }
+                }
+                else -> configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]?.report(
+                        CompilerMessageSeverity.WARNING, "Unknown value of -Xlambdas: ${arguments.lambdas}, lambdas are generated as classes",
+                        CompilerMessageLocation.NO_LOCATION)
+            }
+            if (arguments.backendThreads != null) {
+                try {
+                    configuration.put(JVMConfigurationKeys.BACKEND_THREADS, arguments.backendThreads.toInt())
+                }
+                catch (e: NumberFormatException) {
+                    configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]?.report(
+                            CompilerMessageSeverity.WARNING,
+                            "Invalid value of -Xbackend-threads: ${arguments.backendThreads}, optimizations are run on one thread",
+                            CompilerMessageLocation.NO_LOCATION)
+                }
+            }
+            if (arguments.frontendThreads != null) {
+                try {
+                    configuration.put(JVMConfigurationKeys.FRONTEND_THREADS, arguments.frontendThreads.toInt())
+                }
+                catch (e: NumberFormatException) {
+                    configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]?.report(
+                            CompilerMessageSeverity.WARNING,
+                            "Invalid value of -Xfrontend-threads: ${arguments.frontendThreads}, sources are parsed and resolved on one thread",
+                            CompilerMessageLocation.NO_LOCATION)
+                }
+            }
+            configuration.put(JVMConfigurationKeys.CONCURRENT_STORAGE, arguments.concurrentStorage)
+            if (arguments.classpathIndex != null) {
+                configuration.put(JVMConfigurationKeys.CLASSPATH_INDEX_FILE, File(arguments.classpathIndex))
+            }
             configuration.put(JVMConfigurationKeys.MULTIFILE_FACADES_OPEN, arguments.multifileFacadesOpen);
             configuration.put(CLIConfigurationKeys.ALLOW_KOTLIN_PACKAGE, arguments.allowKotlinPackage);
             configuration.put(CLIConfigurationKeys.REPORT_PERF, arguments.reportPerf);
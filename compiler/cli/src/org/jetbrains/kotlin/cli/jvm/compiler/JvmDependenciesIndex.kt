@@ -17,12 +17,51 @@
 package org.jetbrains.kotlin.cli.jvm.compiler
 
 import com.intellij.openapi.vfs.VirtualFile
-import com.intellij.util.containers.IntArrayList
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
+import java.io.File
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A classpath or java source root.
+ *
+ * The file of a root may be resolved lazily: a jar whose packages are known from [JvmDependenciesIndexStorage] is only opened when
+ * one of its packages is requested. [jarFile] is the jar on the local file system such a root was created for.
+ */
+class JavaRoot(
+        resolveFile: () -> VirtualFile?,
+        val type: JavaRoot.RootType,
+        val prefixFqName: FqName? = null,
+        val jarFile: File? = null
+) {
+    constructor(file: VirtualFile, type: JavaRoot.RootType, prefixFqName: FqName? = null) : this({ file }, type, prefixFqName)
+
+    private val lazyFile = lazy(resolveFile)
+
+    // null if the root turned out to be invalid when it was resolved
+    val file: VirtualFile?
+        get() = lazyFile.value
+
+    val isResolved: Boolean
+        get() = lazyFile.isInitialized()
+
+    // a deferred root is identified by its jar, so that comparing roots doesn't resolve them
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is JavaRoot || type != other.type || prefixFqName != other.prefixFqName || jarFile != other.jarFile) return false
+        return jarFile != null || file == other.file
+    }
+
+    override fun hashCode(): Int {
+        var result = jarFile?.hashCode() ?: file?.hashCode() ?: 0
+        result = 31 * result + type.hashCode()
+        result = 31 * result + (prefixFqName?.hashCode() ?: 0)
+        return result
+    }
+
+    override fun toString(): String = "JavaRoot(file=${jarFile ?: file}, type=$type, prefixFqName=$prefixFqName)"
 
-data class JavaRoot(val file: VirtualFile, val type: JavaRoot.RootType, val prefixFqName: FqName? = null) {
     enum class RootType {
         SOURCE,
         BINARY
@@ -35,9 +74,10 @@ data class JavaRoot(val file: VirtualFile, val type: JavaRoot.RootType, val pref
 }
 
 // speeds up finding files/classes in classpath/java source roots
-// NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
-class JvmDependenciesIndex(_roots: List<JavaRoot>) {
+// can be used from several threads: caches only grow and are updated atomically
+// if storage is given, packages of classpath jars are taken from it and a jar is only opened when it is known to contain the package
+class JvmDependenciesIndex(_roots: List<JavaRoot>, private val storage: JvmDependenciesIndexStorage? = null) {
 
     //these fields are computed based on _roots passed to constructor which are filled in later
     private val roots: List<JavaRoot> by lazy { _roots.toList() }
@@ -45,16 +85,36 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
     private val maxIndex: Int
         get() = roots.size
 
+    private val rootPackages: List<Lazy<Set<String>?>> by lazy {
+        roots.map { root -> lazy { storage?.getPackages(root) } }
+    }
+
     // each "Cache" object corresponds to a package
     private class Cache {
-        private val innerPackageCaches = HashMap<String, Cache>()
+        private val innerPackageCaches = ConcurrentHashMap<String, Cache>()
 
-        operator fun get(name: String) = innerPackageCaches.getOrPut(name) { Cache() }
+        operator fun get(name: String): Cache {
+            innerPackageCaches[name]?.let { return it }
+            val cache = Cache()
+            return innerPackageCaches.putIfAbsent(name, cache) ?: cache
+        }
 
         // indices of roots that are known to contain this package
         // if this list contains [1, 3, 5] then roots with indices 1, 3 and 5 are known to contain this package, 2 and 4 are known not to (no information about roots 6 or higher)
         // if this list contains maxIndex that means that all roots containing this package are known
-        val rootIndices = IntArrayList()
+        // the array is replaced on every update, so readers take a snapshot without locking
+        @Volatile var rootIndices = IntArray(0)
+            private set
+
+        @Synchronized fun addRootIndex(index: Int) {
+            val current = rootIndices
+            // another thread traversing the same package may have recorded this root (and maybe the following ones) already
+            if (current.isNotEmpty() && current[current.size - 1] >= index) return
+
+            val updated = current.copyOf(current.size + 1)
+            updated[current.size] = index
+            rootIndices = updated
+        }
     }
 
     // root "Cache" object corresponds to DefaultPackage which exists in every root. Roots with non-default fqname are also listed here but
@@ -62,17 +122,16 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
     private val rootCache: Cache by lazy {
         with(Cache()) {
             roots.indices.forEach {
-                rootIndices.add(it)
+                addRootIndex(it)
             }
-            rootIndices.add(maxIndex)
-            rootIndices.trimToSize()
+            addRootIndex(maxIndex)
             this
         }
     }
 
     // holds the request and the result last time we searched for class
     // helps improve several scenarios, LazyJavaResolverContext.findClassInJava being the most important
-    private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
+    @Volatile private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
 
 
     // findClassGivenDirectory MUST check whether the class with this classId exists in given package
@@ -126,11 +185,12 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         fun doSearch() = doSearch(request, handler)
 
         // make a decision based on information saved from last class search
-        if (request !is FindClassRequest || lastClassSearch == null) {
+        val lastSearch = lastClassSearch
+        if (request !is FindClassRequest || lastSearch == null) {
             return doSearch()
         }
         
-        val (cachedRequest, cachedResult) = lastClassSearch!!
+        val (cachedRequest, cachedResult) = lastSearch
         if (cachedRequest.classId != request.classId) {
             return doSearch()
         }
@@ -195,9 +255,8 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         val cachesLastIndex = caches.lastIndex
         for (cacheIndex in 0..cachesLastIndex) {
             val reverseCacheIndex = cachesLastIndex - cacheIndex
-            val cache = caches[reverseCacheIndex]
-            for (i in 0..cache.rootIndices.size() - 1) {
-                val rootIndex = cache.rootIndices[i]
+            val rootIndices = caches[reverseCacheIndex].rootIndices
+            for (rootIndex in rootIndices) {
                 if (rootIndex <= processedRootsUpTo) continue // roots with those indices have been processed by now
 
                 val directoryInRoot = travelPath(rootIndex, packagesPath, reverseCacheIndex, caches) ?: continue
@@ -207,7 +266,7 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
                     return found(directoryInRoot, root, result)
                 }
             }
-            processedRootsUpTo = cache.rootIndices.lastOrNull() ?: processedRootsUpTo
+            processedRootsUpTo = rootIndices.lastOrNull() ?: processedRootsUpTo
         }
         
         return notFound()
@@ -219,16 +278,19 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         if (rootIndex >= maxIndex) {
             for (i in (fillCachesAfter + 1)..(cachesPath.size - 1)) {
                 // we all know roots that contain this package by now
-                cachesPath[i].rootIndices.add(maxIndex)
-                cachesPath[i].rootIndices.trimToSize()
+                cachesPath[i].addRootIndex(maxIndex)
             }
             return null
         }
 
         val pathRoot = roots[rootIndex]
         val prefixPathSegments = pathRoot.prefixFqName?.pathSegments()
+        val knownPackages = if (storage != null) rootPackages[rootIndex].value else null
+        val packageName = StringBuilder()
 
-        var currentFile = pathRoot.file
+        // if packages of the root are known, directories are only looked up after the whole package is found among them,
+        // so that a lazily resolved root is not opened for packages it doesn't contain
+        var currentFile: VirtualFile? = if (knownPackages == null) pathRoot.file ?: return null else null
 
         for (pathIndex in packagesPath.indices) {
             val subPackageName = packagesPath[pathIndex]
@@ -238,18 +300,30 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
                     return null
                 }
             }
+            else if (knownPackages != null) {
+                if (pathIndex > 0) packageName.append('.')
+                packageName.append(subPackageName)
+                if (packageName.toString() !in knownPackages) return null
+            }
             else {
-                currentFile = currentFile.findChild(subPackageName) ?: return null
+                currentFile = currentFile!!.findChild(subPackageName) ?: return null
             }
 
             val correspondingCacheIndex = pathIndex + 1
             if (correspondingCacheIndex > fillCachesAfter) {
                 // subPackageName exists in this root
-                cachesPath[correspondingCacheIndex].rootIndices.add(rootIndex)
+                cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
             }
         }
 
-        return currentFile
+        if (knownPackages == null) return currentFile
+
+        // packages are only known for roots without a prefix
+        var directory = pathRoot.file ?: return null
+        for (subPackageName in packagesPath) {
+            directory = directory.findChild(subPackageName) ?: return null
+        }
+        return directory
     }
 
     private fun cachesPath(path: List<String>): List<Cache> {
@@ -284,6 +358,3 @@ class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         object NotFound : SearchResult
     }
 }
-
-private fun IntArrayList.lastOrNull() = if (isEmpty) null else get(size() - 1)
-private val IntArrayList.indices: IntRange get() = 0..(size() - 1)
\ No newline at end of file
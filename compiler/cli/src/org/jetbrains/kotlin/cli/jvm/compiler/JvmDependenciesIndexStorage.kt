@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.load.kotlin.ModuleMapping
+import java.io.*
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the packages of classpath jars in [file] between compilations, so that [JvmDependenciesIndex] does not need to open
+ * every jar on the classpath to find out which of them contain a package.
+ *
+ * A jar is identified by its path, and the stored packages are only used while its length and time stamp stay the same.
+ * Only binary jar roots are stored: contents of directories can change without their time stamp being updated.
+ * The file is only an optimization, so any problem with reading or writing it is ignored.
+ * Without a file the packages are only kept in memory, for as long as the storage is shared between compilations.
+ * Besides the packages, it is stored whether a jar has `.kotlin_module` files, so that jars without them are not opened at all.
+ */
+class JvmDependenciesIndexStorage(private val file: File?) {
+    private class JarPackages(val length: Long, val timeStamp: Long, val packages: Set<String>, val hasModuleMappings: Boolean)
+
+    private val jars = ConcurrentHashMap<String, JarPackages>(load())
+
+    @Volatile private var modified = false
+
+    // returns true if the packages of the jar are stored and the jar has not changed since, so there is no need to open it yet
+    fun isUpToDate(jarFile: File): Boolean = getUpToDate(jarFile) != null
+
+    // returns null if packages of the given root can't be stored
+    fun getPackages(root: JavaRoot): Set<String>? {
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null) return null
+        val jarFile = root.jarFile ?: getLocalJarFile(root.file ?: return null) ?: return null
+
+        getUpToDate(jarFile)?.let { return it.packages }
+
+        val length = jarFile.length()
+        val timeStamp = jarFile.lastModified()
+        val jar = collectPackages(root.file ?: return null, length, timeStamp)
+        jars[jarFile.key] = jar
+        modified = true
+        return jar.packages
+    }
+
+    // returns false only if the root is a jar known to have no .kotlin_module files
+    fun mayHaveModuleMappings(root: JavaRoot): Boolean {
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null) return true
+        val jarFile = root.jarFile ?: getLocalJarFile(root.file ?: return true) ?: return true
+        return getUpToDate(jarFile)?.hasModuleMappings ?: true
+    }
+
+    private fun getUpToDate(jarFile: File): JarPackages? {
+        val stored = jars[jarFile.key] ?: return null
+        return if (stored.length == jarFile.length() && stored.timeStamp == jarFile.lastModified()) stored else null
+    }
+
+    @Synchronized fun save() {
+        if (file == null || !modified) return
+        modified = false
+
+        var temp: File? = null
+        try {
+            val directory = file.absoluteFile.parentFile
+            directory.mkdirs()
+            temp = File.createTempFile(file.name, ".tmp", directory)
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+                val snapshot = HashMap(jars)
+                output.writeInt(VERSION)
+                output.writeInt(snapshot.size)
+                for ((path, jar) in snapshot) {
+                    output.writeUTF(path)
+                    output.writeLong(jar.length)
+                    output.writeLong(jar.timeStamp)
+                    output.writeBoolean(jar.hasModuleMappings)
+                    output.writeInt(jar.packages.size)
+                    for (packageName in jar.packages) {
+                        output.writeUTF(packageName)
+                    }
+                }
+            }
+            // several compilations may share the file: replace it at once, so that nobody reads a partially written one
+            FileUtil.rename(temp, file)
+        }
+        catch (e: IOException) {
+            temp?.delete()
+        }
+    }
+
+    private fun load(): Map<String, JarPackages> {
+        if (file == null || !file.exists()) return emptyMap()
+
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != VERSION) return emptyMap()
+
+                // every entry takes at least a few bytes, so a count above the file length means the file is corrupted
+                val maxCount = file.length()
+                val result = HashMap<String, JarPackages>()
+                repeat(readCount(input, maxCount)) {
+                    val path = input.readUTF()
+                    val length = input.readLong()
+                    val timeStamp = input.readLong()
+                    val hasModuleMappings = input.readBoolean()
+                    val packagesCount = readCount(input, maxCount)
+                    val packages = HashSet<String>(packagesCount)
+                    repeat(packagesCount) {
+                        packages.add(input.readUTF())
+                    }
+                    result[path] = JarPackages(length, timeStamp, packages, hasModuleMappings)
+                }
+                return result
+            }
+        }
+        catch (e: IOException) {
+            return emptyMap()
+        }
+        catch (e: RuntimeException) {
+            // a corrupted file may have sizes which can't be allocated, the index is rebuilt then
+            return emptyMap()
+        }
+    }
+
+    private fun readCount(input: DataInput, maxCount: Long): Int {
+        val count = input.readInt()
+        if (count < 0 || count > maxCount) throw IOException("Invalid count: $count")
+        return count
+    }
+
+    private fun getLocalJarFile(root: VirtualFile): File? {
+        // only the root of a jar itself, its subdirectories can't be roots of the classpath
+        if (root.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL || root.parent != null) return null
+        val path = root.path.substringBefore(URLUtil.JAR_SEPARATOR)
+        return File(path).let { if (it.isFile) it else null }
+    }
+
+    private fun collectPackages(root: VirtualFile, length: Long, timeStamp: Long): JarPackages {
+        val result = HashSet<String>()
+
+        fun collect(directory: VirtualFile, packageName: String) {
+            for (child in directory.children) {
+                if (!child.isDirectory) continue
+                val childPackageName = if (packageName.isEmpty()) child.name else packageName + "." + child.name
+                result.add(childPackageName)
+                collect(child, childPackageName)
+            }
+        }
+
+        collect(root, "")
+
+        val hasModuleMappings = root.findChild("META-INF")?.children?.any { it.name.endsWith(ModuleMapping.MAPPING_FILE_EXT) } ?: false
+        return JarPackages(length, timeStamp, result, hasModuleMappings)
+    }
+
+    private val File.key: String
+        get() = FileUtil.toSystemIndependentName(absolutePath)
+
+    companion object {
+        private const val VERSION = 2
+    }
+}
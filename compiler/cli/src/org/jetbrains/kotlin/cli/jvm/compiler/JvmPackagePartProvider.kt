@@ -17,57 +17,55 @@
 package org.jetbrains.kotlin.cli.jvm.compiler
 
 import com.intellij.openapi.vfs.VirtualFile
-import com.intellij.util.SmartList
-import org.jetbrains.kotlin.cli.jvm.config.JvmClasspathRoot
-import org.jetbrains.kotlin.config.CommonConfigurationKeys
 import org.jetbrains.kotlin.descriptors.PackagePartProvider
 import org.jetbrains.kotlin.load.kotlin.ModuleMapping
 import java.io.EOFException
 
+/**
+ * Finds package parts by an index over `.kotlin_module` files of all classpath roots.
+ *
+ * The index is built on the first lookup and is not modified afterwards, so lookups need neither locking nor merging of mappings.
+ */
 class JvmPackagePartProvider(val env: KotlinCoreEnvironment) : PackagePartProvider {
-    private val notLoadedRoots by lazy(LazyThreadSafetyMode.NONE) {
-        env.configuration.getList(CommonConfigurationKeys.CONTENT_ROOTS).
-                filterIsInstance<JvmClasspathRoot>().
-                mapNotNull {
-                    env.contentRootToVirtualFile(it);
-                }.filter { it.findChild("META-INF") != null }.toMutableList()
-    }
+    private val packageFqNameToParts: Map<String, List<String>> by lazy { buildIndex() }
 
-    private val loadedModules: MutableList<ModuleMapping> = SmartList()
+    override fun findPackageParts(packageFqName: String): List<String> = packageFqNameToParts[packageFqName] ?: emptyList()
 
-    @Synchronized
-    override fun findPackageParts(packageFqName: String): List<String> {
-        processNotLoadedRelevantRoots(packageFqName)
+    private fun buildIndex(): Map<String, List<String>> {
+        val roots = env.getRootsWithModuleMappings()
 
-        return loadedModules.flatMap { it.findPackageParts(packageFqName)?.parts ?: emptySet<String>() }.distinct()
-    }
+        // parts of a package may come from several modules, they are listed in classpath order without duplicates
+        val result = hashMapOf<String, MutableSet<String>>()
+        for (root in roots) {
+            val metaInf = root.findChild("META-INF") ?: continue
+            for (file in metaInf.children) {
+                if (!file.name.endsWith(ModuleMapping.MAPPING_FILE_EXT)) continue
 
-    private fun processNotLoadedRelevantRoots(packageFqName: String) {
-        if (notLoadedRoots.isEmpty()) return
+                val mapping = try {
+                    ModuleMapping.create(file.contentsToByteArray())
+                }
+                catch (e: EOFException) {
+                    throw RuntimeException("Error on reading package parts from '$file', roots: $roots", e)
+                }
 
-        val pathParts = packageFqName.split('.')
+                for ((packageFqName, packageParts) in mapping.packageFqName2Parts) {
+                    // parts are only taken from the roots which contain the directory of the package, as it was before the index
+                    if (!root.hasPackage(packageFqName)) continue
 
-        val relevantRoots = notLoadedRoots.filter {
-            //filter all roots by package path existing
-            pathParts.fold(it) {
-                parent, part ->
-                if (part.isEmpty()) parent
-                else  parent.findChild(part) ?: return@filter false
+                    result.getOrPut(packageFqName) { linkedSetOf() }.addAll(packageParts.parts)
+                }
             }
-            true
         }
-        notLoadedRoots.removeAll(relevantRoots)
 
-        loadedModules.addAll(relevantRoots.mapNotNull {
-            it.findChild("META-INF")
-        }.flatMap {
-            it.children.filter<VirtualFile> { it.name.endsWith(ModuleMapping.MAPPING_FILE_EXT) }
-        }.map {
-            try {
-                ModuleMapping.create(it.contentsToByteArray())
-            } catch (e: EOFException) {
-                throw RuntimeException("Error on reading package parts for '$packageFqName' package in '$it', roots: $notLoadedRoots", e)
-            }
-        })
+        return result.mapValues { it.value.toList() }
+    }
+
+    private fun VirtualFile.hasPackage(packageFqName: String): Boolean {
+        var directory = this
+        for (part in packageFqName.split('.')) {
+            if (part.isEmpty()) continue
+            directory = directory.findChild(part) ?: return false
+        }
+        return true
     }
-}
\ No newline at end of file
+}
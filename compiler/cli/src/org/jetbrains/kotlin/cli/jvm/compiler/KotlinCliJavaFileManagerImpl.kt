@@ -57,29 +57,29 @@ class KotlinCliJavaFileManagerImpl(private val myPsiManager: PsiManager)
         // which supposedly shouldn't have errors so the dependencies exist in general
         // Most classes are top level classes so we will try to find them fast
         // but we must sometimes fallback to support finding inner/nested classes
-        return qName.toSafeTopLevelClassId()?.let { classId -> findClass(classId, scope) } ?: super.findClass(qName, scope)
+        // (with the index as well: the classpath of the super class lists jars in the order they were opened in)
+        for (classId in qName.toSafeClassIds()) {
+            findClass(classId, scope)?.let { return it }
+        }
+        return null
     }
 
     override fun findClasses(qName: String, scope: GlobalSearchScope): Array<PsiClass> {
         return perfCounter.time {
-            val classIdAsTopLevelClass = qName.toSafeTopLevelClassId() ?: return@time super.findClasses(qName, scope)
-
             val result = ArrayList<PsiClass>()
-            val classNameWithInnerClasses = classIdAsTopLevelClass.relativeClassName.asString()
-            index.traverseDirectoriesInPackage(classIdAsTopLevelClass.packageFqName) { dir, rootType ->
-                val psiClass = findClassGivenPackage(scope, dir, classNameWithInnerClasses, rootType)
-                if (psiClass != null) {
-                    result.add(psiClass)
+            for (classId in qName.toSafeClassIds()) {
+                val classNameWithInnerClasses = classId.relativeClassName.asString()
+                index.traverseDirectoriesInPackage(classId.packageFqName) { dir, rootType ->
+                    val psiClass = findClassGivenPackage(scope, dir, classNameWithInnerClasses, rootType)
+                    if (psiClass != null) {
+                        result.add(psiClass)
+                    }
+                    // traverse all
+                    true
                 }
-                // traverse all
-                true
-            }
-            if (result.isEmpty()) {
-                super.findClasses(qName, scope)
-            }
-            else {
-                result.toTypedArray()
+                if (result.isNotEmpty()) break
             }
+            result.toTypedArray()
         }
     }
 
@@ -169,5 +169,14 @@ catch (e: AssertionError) {
     null
 }
 
-private fun String.toSafeFqName(): FqName? = safely { FqName(this) }
-private fun String.toSafeTopLevelClassId(): ClassId? = safely { ClassId.topLevel(FqName(this)) }
\ No newline at end of file
+internal fun String.toSafeFqName(): FqName? = safely { FqName(this) }
+
+// a top level class first, then classes nested into the classes which the name may denote
+private fun String.toSafeClassIds(): Sequence<ClassId> {
+    val segments = safely { FqName(this).pathSegments().map { it.asString() } } ?: return emptySequence()
+    return (segments.size - 1 downTo 0).asSequence().map { packageSize ->
+        ClassId(FqName.fromSegments(segments.subList(0, packageSize)),
+                FqName.fromSegments(segments.subList(packageSize, segments.size)),
+                false)
+    }
+}
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.core.CorePackageIndex
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.CollectionQuery
+import com.intellij.util.Query
+import java.util.*
+import kotlin.properties.Delegates
+
+// finds directories of packages with the index, in the order of the classpath roots in the configuration,
+// rather than in the order the roots were added to the project environment (jars of the index may be added on first use)
+class KotlinCliPackageIndex : CorePackageIndex() {
+    private var index: JvmDependenciesIndex by Delegates.notNull()
+
+    fun initIndex(index: JvmDependenciesIndex) {
+        this.index = index
+    }
+
+    override fun getDirectoriesByPackageName(packageName: String, includeLibrarySources: Boolean): Array<VirtualFile> =
+            findDirectories(packageName).toTypedArray()
+
+    override fun getDirsByPackageName(packageName: String, includeLibrarySources: Boolean): Query<VirtualFile> =
+            CollectionQuery(findDirectories(packageName))
+
+    private fun findDirectories(packageName: String): List<VirtualFile> {
+        val packageFqName = packageName.toSafeFqName() ?: return emptyList()
+
+        val result = ArrayList<VirtualFile>()
+        index.traverseDirectoriesInPackage(packageFqName) { dir, rootType ->
+            result.add(dir)
+            true
+        }
+        return result
+    }
+}
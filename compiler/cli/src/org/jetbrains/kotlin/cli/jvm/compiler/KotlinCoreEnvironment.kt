@@ -33,6 +33,7 @@ import com.intellij.openapi.extensions.ExtensionsArea
 import com.intellij.openapi.fileTypes.FileTypeExtensionPoint
 import com.intellij.openapi.fileTypes.PlainTextFileType
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.PackageIndex
 import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.io.FileUtil
 import com.intellij.openapi.util.io.FileUtilRt
@@ -70,6 +71,7 @@ import org.jetbrains.kotlin.cli.jvm.config.JvmClasspathRoot
 import org.jetbrains.kotlin.cli.jvm.config.JvmContentRoot
 import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension
 import org.jetbrains.kotlin.codegen.extensions.ExpressionCodegenExtension
+import org.jetbrains.kotlin.codegen.inline.InlineMethodNodeCache
 import org.jetbrains.kotlin.compiler.plugin.ComponentRegistrar
 import org.jetbrains.kotlin.config.CommonConfigurationKeys
 import org.jetbrains.kotlin.config.CompilerConfiguration
@@ -91,14 +93,20 @@ import org.jetbrains.kotlin.resolve.jvm.extensions.PackageFragmentProviderExtens
 import org.jetbrains.kotlin.resolve.lazy.declarations.CliDeclarationProviderFactoryService
 import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactoryService
 import org.jetbrains.kotlin.script.KotlinScriptDefinitionProvider
+import org.jetbrains.kotlin.util.PhaseProfiler
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
 import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
 
 class KotlinCoreEnvironment private constructor(
         parentDisposable: Disposable, 
         applicationEnvironment: JavaCoreApplicationEnvironment, 
-        configuration: CompilerConfiguration
+        configuration: CompilerConfiguration,
+        sharedIndexStorage: JvmDependenciesIndexStorage?,
+        sharedInlineMethodNodeCache: InlineMethodNodeCache?
 ) {
 
     private val projectEnvironment: JavaCoreProjectEnvironment = object : KotlinCoreProjectEnvironment(parentDisposable, applicationEnvironment) {
@@ -114,6 +122,18 @@ class KotlinCoreEnvironment private constructor(
         it
     }
 
+    // bodies of compiled inline functions, shared with the other compilations of the application environment in production
+    val inlineMethodNodeCache: InlineMethodNodeCache = sharedInlineMethodNodeCache ?: InlineMethodNodeCache()
+
+    private val indexStorage: JvmDependenciesIndexStorage? =
+            configuration.get(JVMConfigurationKeys.CLASSPATH_INDEX_FILE)?.let { JvmDependenciesIndexStorage(it) } ?: sharedIndexStorage
+
+    // threads which parse the sources and resolve function bodies, shared by all analyses run in this environment
+    val frontendExecutor: ExecutorService? = createFrontendExecutor(parentDisposable, configuration.get(JVMConfigurationKeys.FRONTEND_THREADS, 1))
+
+    // profiler of the compilation this environment is created for (see -Xprofile-phases)
+    val phaseProfiler: PhaseProfiler = configuration.get(CLIConfigurationKeys.PHASE_PROFILER, PhaseProfiler.DISABLED)
+
     init {
         PersistentFSConstants.setMaxIntellisenseFileSize(FileUtilRt.LARGE_FOR_CONTENT_LOADING)
     }
@@ -128,8 +148,12 @@ class KotlinCoreEnvironment private constructor(
 
         fillClasspath(configuration)
         val fileManager = ServiceManager.getService(project, CoreJavaFileManager::class.java)
-        val index = JvmDependenciesIndex(javaRoots)
+        if (indexStorage != null) {
+            Disposer.register(parentDisposable, Disposable { indexStorage.save() })
+        }
+        val index = JvmDependenciesIndex(javaRoots, indexStorage)
         (fileManager as KotlinCliJavaFileManagerImpl).initIndex(index)
+        (ServiceManager.getService(project, PackageIndex::class.java) as KotlinCliPackageIndex).initIndex(index)
 
         sourceFiles.addAll(CompileEnvironmentUtil.getKtFiles(project, getSourceRootsCheckingForDuplicates(), this.configuration, {
             message ->
@@ -141,6 +165,11 @@ class KotlinCoreEnvironment private constructor(
             }
         })
 
+        if (frontendExecutor != null || phaseProfiler.isEnabled) {
+            // Files are otherwise parsed on first access during resolve, and their parsing time would be attributed to it
+            SourceFilesParser.parse(sourceFiles, frontendExecutor, phaseProfiler)
+        }
+
         KotlinScriptDefinitionProvider.getInstance(project).setScriptDefinitions(configuration.getList(CommonConfigurationKeys.SCRIPT_DEFINITIONS_KEY))
 
         project.registerService(JvmVirtualFileFinderFactory::class.java, JvmCliVirtualFileFinderFactory(index))
@@ -177,6 +206,14 @@ class KotlinCoreEnvironment private constructor(
     private fun fillClasspath(configuration: CompilerConfiguration) {
         for (root in configuration.getList(CommonConfigurationKeys.CONTENT_ROOTS)) {
             val javaRoot = root as? JvmContentRoot ?: continue
+
+            if (javaRoot is JvmClasspathRoot && javaRoot.file.isFile && indexStorage?.isUpToDate(javaRoot.file) ?: false) {
+                // packages of the jar are known, so it is only opened when one of them is requested. Its place in the classpath
+                // is taken by the root of the index: classes and packages are found with the index, in the configuration order
+                javaRoots.add(JavaRoot({ addDeferredJarToClasspath(javaRoot) }, JavaRoot.RootType.BINARY, jarFile = javaRoot.file))
+                continue
+            }
+
             val virtualFile = contentRootToVirtualFile(javaRoot) ?: continue
 
             projectEnvironment.addSourcesToClasspath(virtualFile)
@@ -201,6 +238,34 @@ class KotlinCoreEnvironment private constructor(
         }
     }
 
+    private fun createFrontendExecutor(parentDisposable: Disposable, threads: Int): ExecutorService? {
+        if (threads <= 1) return null
+
+        val counter = AtomicInteger()
+        val executor = ForkJoinPool(threads, ForkJoinPool.ForkJoinWorkerThreadFactory { pool ->
+            val thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool)
+            thread.name = "Kotlin frontend " + counter.incrementAndGet()
+            thread
+        }, null, false)
+        Disposer.register(parentDisposable, Disposable { executor.shutdownNow() })
+        return executor
+    }
+
+    // the jar is added to the project environment so that its files are in the library scope,
+    // the order it's added in doesn't matter to lookups, which go through the index
+    private fun addDeferredJarToClasspath(root: JvmClasspathRoot): VirtualFile? {
+        val virtualFile = findJarRoot(root) ?: return null
+        synchronized (javaRoots) {
+            projectEnvironment.addSourcesToClasspath(virtualFile)
+        }
+        return virtualFile
+    }
+
+    // classpath roots which may contain .kotlin_module files, in the classpath order
+    // jars which are known to have none of them are not opened
+    fun getRootsWithModuleMappings(): List<VirtualFile> =
+            javaRoots.filter { it.type == JavaRoot.RootType.BINARY && indexStorage?.mayHaveModuleMappings(it) ?: true }.mapNotNull { it.file }
+
     fun contentRootToVirtualFile(root: JvmContentRoot): VirtualFile? {
         when (root) {
             is JvmClasspathRoot -> {
@@ -258,6 +323,10 @@ class KotlinCoreEnvironment private constructor(
         private val APPLICATION_LOCK = Object()
         private var ourApplicationEnvironment: JavaCoreApplicationEnvironment? = null
         private var ourProjectCount = 0
+        // packages of classpath jars, kept for the following compilations as long as the application environment lives
+        private var ourIndexStorage: JvmDependenciesIndexStorage? = null
+        // bodies of compiled inline functions, likewise (entries are only reused while their class files don't change)
+        private var ourInlineMethodNodeCache: InlineMethodNodeCache? = null
 
         @JvmStatic fun createForProduction(
                 parentDisposable: Disposable, configuration: CompilerConfiguration, configFilePaths: List<String>
@@ -278,7 +347,8 @@ class KotlinCoreEnvironment private constructor(
                     }
                 })
             }
-            val environment = KotlinCoreEnvironment(parentDisposable, appEnv, configuration)
+            val (indexStorage, inlineMethodNodeCache) = synchronized (APPLICATION_LOCK) { Pair(ourIndexStorage, ourInlineMethodNodeCache) }
+            val environment = KotlinCoreEnvironment(parentDisposable, appEnv, configuration, indexStorage, inlineMethodNodeCache)
 
             synchronized (APPLICATION_LOCK) {
                 ourProjectCount++
@@ -291,7 +361,7 @@ class KotlinCoreEnvironment private constructor(
                 parentDisposable: Disposable, configuration: CompilerConfiguration, extensionConfigs: List<String>
         ): KotlinCoreEnvironment {
             // Tests are supposed to create a single project and dispose it right after use
-            return KotlinCoreEnvironment(parentDisposable, createApplicationEnvironment(parentDisposable, configuration, extensionConfigs), configuration)
+            return KotlinCoreEnvironment(parentDisposable, createApplicationEnvironment(parentDisposable, configuration, extensionConfigs), configuration, null, null)
         }
 
         // used in the daemon for jar cache cleanup
@@ -305,10 +375,14 @@ class KotlinCoreEnvironment private constructor(
                 val parentDisposable = Disposer.newDisposable()
                 ourApplicationEnvironment = createApplicationEnvironment(parentDisposable, configuration, configFilePaths)
                 ourProjectCount = 0
+                ourIndexStorage = JvmDependenciesIndexStorage(null)
+                ourInlineMethodNodeCache = InlineMethodNodeCache()
                 Disposer.register(parentDisposable, object : Disposable {
                     override fun dispose() {
                         synchronized (APPLICATION_LOCK) {
                             ourApplicationEnvironment = null
+                            ourIndexStorage = null
+                            ourInlineMethodNodeCache = null
                         }
                     }
                 })
@@ -320,6 +394,8 @@ class KotlinCoreEnvironment private constructor(
             synchronized (APPLICATION_LOCK) {
                 val environment = ourApplicationEnvironment ?: return
                 ourApplicationEnvironment = null
+                ourIndexStorage = null
+                ourInlineMethodNodeCache = null
                 Disposer.dispose(environment.parentDisposable)
                 ZipHandler.clearFileAccessorCache()
             }
@@ -26,4 +26,6 @@ open class KotlinCoreProjectEnvironment(
         applicationEnvironment: JavaCoreApplicationEnvironment
 ) : JavaCoreProjectEnvironment(disposable, applicationEnvironment) {
     override fun createCoreFileManager() = KotlinCliJavaFileManagerImpl(PsiManager.getInstance(project))
+
+    override fun createCorePackageIndex() = KotlinCliPackageIndex()
 }
\ No newline at end of file
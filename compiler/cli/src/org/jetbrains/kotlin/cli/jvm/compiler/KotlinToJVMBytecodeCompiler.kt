@@ -46,6 +46,7 @@ import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.resolve.jvm.JvmClassName
 import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.kotlin.util.PhaseProfiler
 import org.jetbrains.kotlin.utils.KotlinPaths
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
@@ -75,12 +76,14 @@ object KotlinToJVMBytecodeCompiler {
             jarPath: File?,
             jarRuntime: Boolean,
             mainClass: FqName?) {
-        if (jarPath != null) {
-            CompileEnvironmentUtil.writeToJar(jarPath, jarRuntime, mainClass, outputFiles)
-        }
-        else {
-            val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
-            outputFiles.writeAll(outputDir ?: File("."), messageCollector)
+        configuration.get(CLIConfigurationKeys.PHASE_PROFILER, PhaseProfiler.DISABLED).measure("class writing") {
+            if (jarPath != null) {
+                CompileEnvironmentUtil.writeToJar(jarPath, jarRuntime, mainClass, outputFiles)
+            }
+            else {
+                val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
+                outputFiles.writeAll(outputDir ?: File("."), messageCollector)
+            }
         }
     }
 
@@ -308,26 +311,31 @@ object KotlinToJVMBytecodeCompiler {
 
         val analysisStart = PerformanceCounter.currentTime()
         val analyzerWithCompilerReport = AnalyzerWithCompilerReport(collector)
-        analyzerWithCompilerReport.analyzeAndReport(
-                environment.getSourceFiles(), object : AnalyzerWithCompilerReport.Analyzer {
-            override fun analyze(): AnalysisResult {
-                val sharedTrace = CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace()
-                val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.project,
-                                                                                              environment.getModuleName())
-
-                return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
-                        moduleContext,
-                        environment.getSourceFiles(),
-                        sharedTrace,
-                        environment.configuration.get(JVMConfigurationKeys.MODULES),
-                        environment.configuration.get(JVMConfigurationKeys.INCREMENTAL_COMPILATION_COMPONENTS),
-                        JvmPackagePartProvider(environment))
-            }
+        environment.phaseProfiler.measure("analysis") {
+            analyzerWithCompilerReport.analyzeAndReport(
+                    environment.getSourceFiles(), object : AnalyzerWithCompilerReport.Analyzer {
+                override fun analyze(): AnalysisResult {
+                    val sharedTrace = CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace()
+                    val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(
+                            environment.project, environment.getModuleName(),
+                            environment.configuration.get(JVMConfigurationKeys.CONCURRENT_STORAGE, false))
+
+                    return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                            moduleContext,
+                            environment.getSourceFiles(),
+                            sharedTrace,
+                            environment.configuration.get(JVMConfigurationKeys.MODULES),
+                            environment.configuration.get(JVMConfigurationKeys.INCREMENTAL_COMPILATION_COMPONENTS),
+                            JvmPackagePartProvider(environment),
+                            environment.frontendExecutor,
+                            environment.phaseProfiler)
+                }
 
-            override fun reportEnvironmentErrors() {
-                reportRuntimeConflicts(collector, environment.configuration.jvmClasspathRoots)
-            }
-        })
+                override fun reportEnvironmentErrors() {
+                    reportRuntimeConflicts(collector, environment.configuration.jvmClasspathRoots)
+                }
+            })
+        }
 
         val analysisNanos = PerformanceCounter.currentTime() - analysisStart
 
@@ -399,7 +407,12 @@ object KotlinToJVMBytecodeCompiler {
                 outputDirectory,
                 incrementalCompilationComponents,
                 configuration.get(JVMConfigurationKeys.MULTIFILE_FACADES_OPEN, false),
-                onIndependentPartCompilationEnd = onIndependentPartCompilationEnd)
+                onIndependentPartCompilationEnd = onIndependentPartCompilationEnd,
+                backendThreads = configuration.get(JVMConfigurationKeys.BACKEND_THREADS, 1),
+                inlineMethodNodeCache = environment.inlineMethodNodeCache,
+                indyLambdas = configuration.get(JVMConfigurationKeys.INDY_LAMBDAS, false),
+                jvmTarget = configuration.get(JVMConfigurationKeys.JVM_TARGET, JvmTarget.DEFAULT),
+                phaseProfiler = environment.phaseProfiler)
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
         val generationStart = PerformanceCounter.currentTime()
@@ -415,6 +428,7 @@ object KotlinToJVMBytecodeCompiler {
         val message = "GENERATE: $numberOfSourceFiles files ($numberOfLines lines) ${desc}in $time ms - ${"%.3f".format(speed)} loc/s"
 
         K2JVMCompiler.reportPerf(environment.configuration, message)
+        K2JVMCompiler.reportPerf(environment.configuration, "INLINE CACHE: ${generationState.inlineMethodNodeCache}")
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
         AnalyzerWithCompilerReport.reportDiagnostics(
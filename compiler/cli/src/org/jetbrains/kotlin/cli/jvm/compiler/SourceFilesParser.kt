@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.lang.ASTNode
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.util.Computable
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.util.PhaseProfiler
+import java.util.concurrent.*
+
+/**
+ * Loads the text of source files and builds their syntax trees before analysis, including lazily parsed function bodies.
+ * Otherwise files are parsed on first access during resolve, one at a time.
+ *
+ * Only the trees of the given files are built, so the files are still analyzed in the order they are passed to the analyzer.
+ */
+object SourceFilesParser {
+    /**
+     * Parses the files on the given [executor], which is owned by the caller, or on the current thread if it is `null`.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun parse(files: List<KtFile>, executor: ExecutorService?, phaseProfiler: PhaseProfiler = PhaseProfiler.DISABLED) {
+        if (executor == null || files.size <= 1) {
+            files.forEach { parse(it, phaseProfiler) }
+            return
+        }
+
+        val results = files.map { file ->
+            executor.submit(Callable {
+                // Each tree is built by one thread, files don't share any mutable state while they're parsed
+                ApplicationManager.getApplication().runReadAction(Computable { parse(file, phaseProfiler) })
+            })
+        }
+        try {
+            results.forEach { getResult(it) }
+        }
+        finally {
+            results.forEach { it.cancel(true) }
+        }
+    }
+
+    private fun parse(file: KtFile, phaseProfiler: PhaseProfiler) {
+        phaseProfiler.measure("parse", file.virtualFile?.path) { ensureParsed(file.node) }
+    }
+
+    // Walks the tree without recursion, because trees of long expressions may be very deep
+    private fun ensureParsed(root: ASTNode) {
+        var node = root
+        while (true) {
+            // this parses lazy elements
+            val child = node.firstChildNode
+            if (child != null) {
+                node = child
+                continue
+            }
+
+            while (node !== root && node.treeNext == null) {
+                node = node.treeParent
+            }
+            if (node === root) return
+            node = node.treeNext
+        }
+    }
+
+    private fun getResult(future: Future<*>) {
+        try {
+            future.get()
+        }
+        catch (e: ExecutionException) {
+            val cause = e.cause
+            if (cause is RuntimeException) throw cause
+            if (cause is Error) throw cause
+            throw IllegalStateException(cause)
+        }
+        catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw ProcessCanceledException()
+        }
+    }
+}
@@ -17,10 +17,12 @@
 package org.jetbrains.kotlin.cli.jvm.config;
 
 import org.jetbrains.kotlin.cli.jvm.compiler.CompilerJarLocator;
+import org.jetbrains.kotlin.codegen.JvmTarget;
 import org.jetbrains.kotlin.config.CompilerConfigurationKey;
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents;
 import org.jetbrains.kotlin.modules.Module;
 
+import java.io.File;
 import java.util.List;
 
 public class JVMConfigurationKeys {
@@ -35,6 +37,16 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("disable inline");
     public static final CompilerConfigurationKey<Boolean> DISABLE_OPTIMIZATION =
             CompilerConfigurationKey.create("disable optimization");
+    public static final CompilerConfigurationKey<JvmTarget> JVM_TARGET =
+            CompilerConfigurationKey.create("JVM target version");
+    public static final CompilerConfigurationKey<Boolean> INDY_LAMBDAS =
+            CompilerConfigurationKey.create("generate lambdas with invokedynamic");
+    public static final CompilerConfigurationKey<Integer> BACKEND_THREADS =
+            CompilerConfigurationKey.create("number of threads for bytecode transformations");
+    public static final CompilerConfigurationKey<Integer> FRONTEND_THREADS =
+            CompilerConfigurationKey.create("number of threads for parsing and function body resolution");
+    public static final CompilerConfigurationKey<Boolean> CONCURRENT_STORAGE =
+            CompilerConfigurationKey.create("compute lazy declarations without the global lock");
     public static final CompilerConfigurationKey<Boolean> MULTIFILE_FACADES_OPEN =
             CompilerConfigurationKey.create("compile multifile facade classes as open");
 
@@ -44,6 +56,9 @@ public class JVMConfigurationKeys {
     public static final CompilerConfigurationKey<CompilerJarLocator> COMPILER_JAR_LOCATOR =
             CompilerConfigurationKey.create("Compiler jar locator");
 
+    public static final CompilerConfigurationKey<File> CLASSPATH_INDEX_FILE =
+            CompilerConfigurationKey.create("file to store packages of classpath jars in");
+
     public static final CompilerConfigurationKey<String> MODULE_XML_FILE_PATH = CompilerConfigurationKey.create("path to module.xml");
 
     public static final CompilerConfigurationKey<List<Module>> MODULES =
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon.client
+
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.CommonCompilerArguments
+import org.jetbrains.kotlin.cli.common.arguments.K2JSCompilerArguments
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.compilerRunner.ArgumentUtils
+import org.jetbrains.kotlin.compilerRunner.CompilerOutputParser
+import org.jetbrains.kotlin.compilerRunner.OutputItemsCollector
+import org.jetbrains.kotlin.compilerRunner.OutputItemsCollectorImpl
+import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
+import org.jetbrains.kotlin.progress.CompilationCanceledStatus
+import java.io.BufferedReader
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.StringReader
+import java.rmi.ConnectException
+import java.rmi.ConnectIOException
+import java.rmi.NoSuchObjectException
+import java.util.*
+
+/**
+ * Runs compilations of the build tool plugins (Gradle, Maven) in the compile daemon instead of the build tool process,
+ * if the daemon is enabled with the [COMPILE_DAEMON_ENABLED_PROPERTY] system property, like in JPS.
+ *
+ * Incremental caches, the lookup tracker and the cancellation status from the services are called back through
+ * [CompilerCallbackServicesFacadeServer]. The connection and the compile session are kept for the lifetime of the
+ * build tool process. Paths in the arguments should be absolute, because the daemon has its own working directory.
+ */
+object DaemonCompilerRunner {
+    private class Connection(val compilerId: CompilerId, val daemon: CompileService, val sessionId: Int)
+
+    @Volatile
+    private var connection: Connection? = null
+
+    /**
+     * Returns null if the compilation wasn't run, because the daemon is disabled or unavailable:
+     * in this case the caller should compile in-process. A failure after the compilation has been sent to the daemon
+     * is reported as an error and is not retried in-process.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun compile(
+            arguments: CommonCompilerArguments,
+            services: Services,
+            messageCollector: MessageCollector,
+            outputItemsCollector: OutputItemsCollector = OutputItemsCollectorImpl(),
+            compilerClasspath: List<File> = findCompilerClasspath()
+    ): ExitCode? {
+        if (!isDaemonEnabled()) return null
+
+        val targetPlatform = when (arguments) {
+            is K2JVMCompilerArguments -> CompileService.TargetPlatform.JVM
+            is K2JSCompilerArguments -> CompileService.TargetPlatform.JS
+            else -> return null
+        }
+
+        val connection = getConnection(CompilerId.makeCompilerId(compilerClasspath), messageCollector) ?: return null
+
+        val compilationServices = CompilationServices(
+                incrementalCompilationComponents = services.get(IncrementalCompilationComponents::class.java),
+                compilationCanceledStatus = services.get(CompilationCanceledStatus::class.java))
+        val argsArray = ArgumentUtils.convertArgumentsToStringList(arguments).toTypedArray()
+        val compilerOut = ByteArrayOutputStream()
+        val daemonOut = ByteArrayOutputStream()
+
+        val result = try {
+            connection.daemon.remoteIncrementalCompile(
+                    connection.sessionId,
+                    targetPlatform,
+                    argsArray,
+                    CompilerCallbackServicesFacadeServer(incrementalCompilationComponents = compilationServices.incrementalCompilationComponents,
+                                                         compilationCancelledStatus = compilationServices.compilationCanceledStatus),
+                    RemoteOutputStreamServer(compilerOut),
+                    CompileService.OutputFormat.XML,
+                    RemoteOutputStreamServer(daemonOut),
+                    null)
+        }
+        catch (e: ConnectException) {
+            // the daemon has exited, the call hasn't reached it
+            return fallBack(e.toString(), messageCollector)
+        }
+        catch (e: ConnectIOException) {
+            return fallBack(e.toString(), messageCollector)
+        }
+        catch (e: NoSuchObjectException) {
+            return fallBack(e.toString(), messageCollector)
+        }
+        catch (e: Exception) {
+            // the compilation may have started, so it is not repeated in-process
+            this.connection = null
+            return reportFailure(e.toString(), messageCollector, compilerOut, daemonOut, outputItemsCollector)
+        }
+
+        return when (result) {
+            // the daemon is shutting down and hasn't started the compilation
+            is CompileService.CallResult.Dying -> fallBack("the daemon is shutting down", messageCollector)
+            is CompileService.CallResult.Good -> {
+                reportOutput(messageCollector, compilerOut, daemonOut, outputItemsCollector)
+                ExitCode.values().firstOrNull { it.code == result.result } ?: ExitCode.INTERNAL_ERROR
+            }
+            is CompileService.CallResult.Error -> reportFailure(result.message, messageCollector, compilerOut, daemonOut, outputItemsCollector)
+            else -> reportFailure("unexpected result $result", messageCollector, compilerOut, daemonOut, outputItemsCollector)
+        }
+    }
+
+    private fun fallBack(reason: String, messageCollector: MessageCollector): ExitCode? {
+        // a new daemon is looked for next time
+        connection = null
+        messageCollector.report(CompilerMessageSeverity.INFO, "Falling back to compilation without daemon due to error: $reason",
+                                CompilerMessageLocation.NO_LOCATION)
+        return null
+    }
+
+    private fun reportFailure(reason: String, messageCollector: MessageCollector,
+                              compilerOut: ByteArrayOutputStream, daemonOut: ByteArrayOutputStream,
+                              outputItemsCollector: OutputItemsCollector): ExitCode {
+        reportOutput(messageCollector, compilerOut, daemonOut, outputItemsCollector)
+        messageCollector.report(CompilerMessageSeverity.ERROR, "Compilation on the daemon failed: $reason", CompilerMessageLocation.NO_LOCATION)
+        return ExitCode.INTERNAL_ERROR
+    }
+
+    private fun reportOutput(messageCollector: MessageCollector,
+                             compilerOut: ByteArrayOutputStream, daemonOut: ByteArrayOutputStream,
+                             outputItemsCollector: OutputItemsCollector) {
+        CompilerOutputParser.parseCompilerMessagesFromReader(messageCollector, StringReader(compilerOut.toString()), outputItemsCollector)
+        BufferedReader(StringReader(daemonOut.toString())).forEachLine {
+            messageCollector.report(CompilerMessageSeverity.INFO, it, CompilerMessageLocation.NO_LOCATION)
+        }
+    }
+
+    /**
+     * Jars the compiler and the Kotlin runtime are loaded from in the current process: the daemon is started with the same ones.
+     */
+    @JvmStatic
+    fun findCompilerClasspath(): List<File> {
+        val classes = arrayListOf(K2JVMCompiler::class.java, Unit::class.java)
+        try {
+            classes.add(Class.forName("kotlin.reflect.jvm.ReflectJvmMapping"))
+        }
+        catch (e: ClassNotFoundException) {
+            // the compiler is used without kotlin-reflect
+        }
+
+        return classes.mapNotNull { it.protectionDomain?.codeSource?.location }.map { File(it.toURI()) }.distinct()
+    }
+
+    @Synchronized
+    private fun getConnection(compilerId: CompilerId, messageCollector: MessageCollector): Connection? {
+        connection?.let {
+            if (it.compilerId == compilerId) return it
+        }
+
+        val daemonReportMessages = ArrayList<DaemonReportMessage>()
+        val daemon = KotlinCompilerClient.connectToCompileService(
+                compilerId,
+                configureDaemonJVMOptions(inheritMemoryLimits = true, inheritAdditionalProperties = true),
+                configureDaemonOptions(),
+                DaemonReportingTargets(null, daemonReportMessages),
+                autostart = true,
+                checkId = true)
+
+        for (msg in daemonReportMessages) {
+            messageCollector.report(CompilerMessageSeverity.INFO,
+                                    (if (msg.category == DaemonReportCategory.EXCEPTION && daemon == null) "Falling back to compilation without daemon due to error: " else "") + msg.message,
+                                    CompilerMessageLocation.NO_LOCATION)
+        }
+
+        if (daemon == null) return null
+
+        val sessionFlagFile = File.createTempFile("kotlin-compiler-build-tool-session-", "-is-running")
+        sessionFlagFile.deleteOnExit()
+
+        val sessionId = try {
+            daemon.leaseCompileSession(sessionFlagFile.absolutePath).get()
+        }
+        catch (e: Exception) {
+            messageCollector.report(CompilerMessageSeverity.INFO, "Falling back to compilation without daemon due to error: $e",
+                                    CompilerMessageLocation.NO_LOCATION)
+            return null
+        }
+
+        val newConnection = Connection(compilerId, daemon, sessionId)
+        connection = newConnection
+        return newConnection
+    }
+}
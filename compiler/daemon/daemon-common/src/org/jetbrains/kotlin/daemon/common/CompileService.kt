@@ -71,6 +71,9 @@ interface CompileService : Remote {
     @Throws(RemoteException::class)
     fun getUsedMemory(): CallResult<Long>
 
+    @Throws(RemoteException::class)
+    fun getSessionMetrics(sessionId: Int): CallResult<CompileSessionMetrics>
+
     @Throws(RemoteException::class)
     fun getDaemonOptions(): CallResult<DaemonOptions>
 
@@ -123,3 +126,10 @@ interface CompileService : Remote {
             operationsTracer: RemoteOperationsTracer?
     ): CallResult<Int>
 }
+
+data class CompileSessionMetrics(
+        val compilations: Int,
+        val activeCompilations: Int,
+        val totalCompilationMillis: Long,
+        val maxUsedMemory: Long
+) : Serializable
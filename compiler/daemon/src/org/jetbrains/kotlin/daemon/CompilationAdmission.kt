@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.usedMemory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Logger
+import kotlin.concurrent.withLock
+
+private val MEMORY_LIMIT_RATIO = 0.9
+private val MEMORY_RECHECK_INTERVAL_MS = 500L
+
+/**
+ * Decides when a compilation may start, so that parallel compilations don't run the daemon out of memory.
+ *
+ * A compilation is admitted at once if nothing else is running. Otherwise it waits for a free slot and for the heap to have room
+ * for one more compilation, which is estimated as the biggest growth of used memory observed during a compilation so far.
+ * A compilation which needs to run alone holds back the new ones until the running compilations finish.
+ */
+class CompilationAdmission(
+        maxParallelCompilations: Int,
+        private val log: Logger,
+        private val currentUsedMemory: () -> Long = { usedMemory(withGC = false) },
+        private val maxMemory: () -> Long = { Runtime.getRuntime().maxMemory() }
+) {
+    private val maxParallel = if (maxParallelCompilations > 0) maxParallelCompilations else Runtime.getRuntime().availableProcessors()
+
+    private val lock = ReentrantLock()
+    private val stateChanged = lock.newCondition()
+
+    private var running = 0
+    private var idleWaiters = 0
+    private var memoryPerCompilation = 0L
+    private val whenIdleActions = arrayListOf<() -> Unit>()
+
+    val activeCompilations: Int
+        get() = lock.withLock { running }
+
+    // returns the used memory at the start of the compilation, to be passed to release;
+    // while needsIdle returns true, the compilation waits until nothing else is running and no new compilation is admitted meanwhile;
+    // onIdle runs before a compilation that starts when nothing else is running, no compilation starts while it runs
+    fun acquire(needsIdle: () -> Boolean = { false }, onIdle: () -> Unit = {}): Long {
+        lock.withLock {
+            var waitsForIdle = false
+            try {
+                var reported = false
+                while (running > 0) {
+                    val needs = needsIdle()
+                    if (needs != waitsForIdle) {
+                        idleWaiters += if (needs) 1 else -1
+                        waitsForIdle = needs
+                        stateChanged.signalAll()
+                    }
+                    if (!needs && canAdmit()) break
+
+                    if (!reported) {
+                        log.info("Compilation is waiting for admission, $running compilations are running" +
+                                 (if (needs) " and it needs to run alone" else ""))
+                        reported = true
+                    }
+                    // memory may be freed by GC without any compilation finishing
+                    stateChanged.await(MEMORY_RECHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                }
+            }
+            finally {
+                if (waitsForIdle) {
+                    idleWaiters--
+                    stateChanged.signalAll()
+                }
+            }
+            if (running == 0) {
+                onIdle()
+            }
+            running++
+        }
+        return currentUsedMemory()
+    }
+
+    fun release(memoryAtStart: Long) {
+        val memoryGrowth = currentUsedMemory() - memoryAtStart
+        lock.withLock {
+            running--
+            if (memoryGrowth > memoryPerCompilation) {
+                memoryPerCompilation = memoryGrowth
+            }
+            if (running == 0) {
+                whenIdleActions.forEach { it() }
+                whenIdleActions.clear()
+            }
+            stateChanged.signalAll()
+        }
+    }
+
+    // runs the action when no compilation is running; no compilation starts while it runs
+    fun whenIdle(action: () -> Unit) {
+        lock.withLock {
+            if (running == 0) {
+                action()
+            }
+            else {
+                whenIdleActions.add(action)
+            }
+        }
+    }
+
+    private fun canAdmit(): Boolean {
+        if (running == 0) return true
+        if (running >= maxParallel || idleWaiters > 0) return false
+
+        return currentUsedMemory() + memoryPerCompilation <= maxMemory() * MEMORY_LIMIT_RATIO
+    }
+}
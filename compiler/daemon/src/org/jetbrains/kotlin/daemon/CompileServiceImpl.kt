@@ -33,6 +33,7 @@ import java.rmi.NoSuchObjectException
 import java.rmi.registry.Registry
 import java.rmi.server.UnicastRemoteObject
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
@@ -88,6 +89,26 @@ class CompileServiceImpl(
         val isAlive: Boolean get() = aliveFlagPath?.let { File(it).exists() } ?: true // assuming that if no file was given, the client is alive
     }
 
+    private class SessionMetricsCounters {
+        private var compilations = 0
+        private var activeCompilations = 0
+        private var totalCompilationMillis = 0L
+        private var maxUsedMemory = 0L
+
+        @Synchronized fun started() {
+            compilations++
+            activeCompilations++
+        }
+
+        @Synchronized fun finished(millis: Long, usedMemory: Long) {
+            activeCompilations--
+            totalCompilationMillis += millis
+            maxUsedMemory = Math.max(maxUsedMemory, usedMemory)
+        }
+
+        @Synchronized fun toMetrics() = CompileSessionMetrics(compilations, activeCompilations, totalCompilationMillis, maxUsedMemory)
+    }
+
     private val sessionsIdCounter = AtomicInteger(0)
     private val compilationsCounter = AtomicInteger(0)
     private val internalRng = Random()
@@ -115,6 +136,14 @@ class CompileServiceImpl(
 
     private val log by lazy { Logger.getLogger("compiler") }
 
+    // compilations run in parallel, each one with its own environment, while the application environment and jar file system are shared
+    private val admission = CompilationAdmission(daemonOptions.maxParallelCompilations, log)
+    private val sessionMetrics = ConcurrentHashMap<Int, SessionMetricsCounters>()
+
+    private data class JarFingerprint(val length: Long, val timeStamp: Long)
+
+    private val jarFingerprints = hashMapOf<String, JarFingerprint>()
+
     private val rwlock = ReentrantReadWriteLock()
 
     private var runFile: File
@@ -176,8 +205,10 @@ class CompileServiceImpl(
     override fun releaseCompileSession(sessionId: Int) = ifAlive_Nothing(minAliveness = Aliveness.LastSession) {
         synchronized(state.sessions) {
             state.sessions.remove(sessionId)
+            sessionMetrics.remove(sessionId)
             log.info("cleaning after session $sessionId")
-            clearJarCache()
+            // jars may still be read by compilations of other sessions
+            admission.whenIdle { ZipHandler.clearFileAccessorCache() }
             if (state.sessions.isEmpty()) {
                 // TODO: and some goes here
             }
@@ -194,6 +225,10 @@ class CompileServiceImpl(
 
     override fun getUsedMemory(): CompileService.CallResult<Long> = ifAlive { usedMemory(withGC = true) }
 
+    override fun getSessionMetrics(sessionId: Int): CompileService.CallResult<CompileSessionMetrics> = ifAlive {
+        sessionMetrics[sessionId]?.toMetrics() ?: CompileSessionMetrics(0, 0, 0L, 0L)
+    }
+
     override fun shutdown(): CompileService.CallResult<Nothing> = ifAliveExclusive_Nothing(minAliveness = Aliveness.LastSession, ignoreCompilerChanged = true) {
         shutdownImpl()
     }
@@ -406,8 +441,12 @@ class CompileServiceImpl(
                           compilerMessagesStreamProxy: RemoteOutputStream,
                           serviceOutputStreamProxy: RemoteOutputStream,
                           operationsTracer: RemoteOperationsTracer?,
-                          body: (PrintStream, EventManger, Profiler) -> ExitCode): CompileService.CallResult<Int> =
-            ifAlive {
+                          body: (PrintStream, EventManger, Profiler) -> ExitCode): CompileService.CallResult<Int> {
+        // the permit is taken before the read lock, so that a compilation waiting for admission doesn't hold back exclusive operations;
+        // the jar file system is shared by the compilations, so it is changed only when nothing else is running
+        val memoryAtStart = admission.acquire(needsIdle = { knownJarsChanged() }, onIdle = { evictChangedJars() })
+        try {
+            return ifAlive {
 
                 operationsTracer?.before("compile")
                 compilationsCounter.incrementAndGet()
@@ -415,6 +454,10 @@ class CompileServiceImpl(
                 val eventManger = EventMangerImpl()
                 val compilerMessagesStream = PrintStream(BufferedOutputStream(RemoteOutputStreamClient(compilerMessagesStreamProxy, rpcProfiler), 4096))
                 val serviceOutputStream = PrintStream(BufferedOutputStream(RemoteOutputStreamClient(serviceOutputStreamProxy, rpcProfiler), 4096))
+                // compilations of the same session may start in parallel, so the counters are created atomically
+                val metrics = sessionMetrics[sessionId] ?: SessionMetricsCounters().let { sessionMetrics.putIfAbsent(sessionId, it) ?: it }
+                val startTime = System.nanoTime()
+                metrics.started()
                 try {
                     checkedCompile(args, serviceOutputStream, rpcProfiler) {
                         val res = body(compilerMessagesStream, eventManger, rpcProfiler).code
@@ -423,12 +466,18 @@ class CompileServiceImpl(
                     }
                 }
                 finally {
+                    metrics.finished(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), usedMemory(withGC = false))
                     serviceOutputStream.flush()
                     compilerMessagesStream.flush()
                     eventManger.fireCompilationFinished()
                     operationsTracer?.after("compile")
                 }
             }
+        }
+        finally {
+            admission.release(memoryAtStart)
+        }
+    }
 
     private fun createCompileServices(facade: CompilerCallbackServicesFacade, eventManger: EventManger, rpcProfiler: Profiler): Services {
         val builder = Services.Builder()
@@ -484,25 +533,35 @@ class CompileServiceImpl(
         }
     }
 
-    private fun clearJarCache() {
-        ZipHandler.clearFileAccessorCache()
+    // Opened jars are kept between compilations, so that an unchanged classpath is not read again by every compilation.
+    // A jar is evicted if it has changed since the previous check or if it was opened after it, because then it is not known
+    // in which state it was read; once it survives a check, it is kept until its length or time stamp changes.
+    // CoreJarFileSystem.myHandlers is not thread-safe, so this runs only when no compilation is running.
+    private fun evictChangedJars() = synchronized(jarFingerprints) {
         val classloader = javaClass.classLoader
         // TODO: replace the following code with direct call to CoreJarFileSystem.<clearCache> as soon as it will be available (hopefully in 15.02)
         try {
-            KotlinCoreEnvironment.applicationEnvironment?.jarFileSystem.let { jarfs ->
+            KotlinCoreEnvironment.applicationEnvironment?.jarFileSystem?.let { jarfs ->
                 val jarfsClass = classloader.loadClass("com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem")
                 val privateHandlersField = jarfsClass.getDeclaredField("myHandlers")
                 privateHandlersField.isAccessible = true
-                privateHandlersField.get(jarfs)?.let {
-                    val clearMethod = privateHandlersField.type.getMethod("clear")
-                    if (clearMethod != null) {
-                        clearMethod.invoke(it)
-                        log.info("successfully cleared com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem.myHandlers")
-                    }
-                    else {
-                        log.info("unable to access com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem.myHandlers.clear")
+                @Suppress("UNCHECKED_CAST")
+                val handlers = privateHandlersField.get(jarfs) as? MutableMap<Any?, Any?>
+                if (handlers != null) {
+                    val openedJars = handlers.keys.toList()
+                    val changedJars = openedJars.filter { path ->
+                        val jar = File(path.toString())
+                        val fingerprint = JarFingerprint(jar.length(), jar.lastModified())
+                        jarFingerprints.put(jar.path, fingerprint) != fingerprint
                     }
-                } ?: log.info("unable to access CoreJarFileSystem.myHandlers (${privateHandlersField.get(jarfs)})")
+                    changedJars.forEach { handlers.remove(it) }
+                    // an evicted jar is remembered in its current state, so that it is kept after the next check if it doesn't change
+                    jarFingerprints.keys.retainAll(openedJars.map { File(it.toString()).path })
+                    log.info("evicted ${changedJars.size} of ${openedJars.size} jars from com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem.myHandlers")
+                }
+                else {
+                    log.info("unable to access CoreJarFileSystem.myHandlers (${privateHandlersField.get(jarfs)})")
+                }
             }
         }
         catch (e: Exception) {
@@ -510,6 +569,14 @@ class CompileServiceImpl(
         }
     }
 
+    // checks only the jars remembered by the previous eviction, so that the jar file system is not read while compilations run
+    private fun knownJarsChanged(): Boolean = synchronized(jarFingerprints) {
+        jarFingerprints.any {
+            val jar = File(it.key)
+            JarFingerprint(jar.length(), jar.lastModified()) != it.value
+        }
+    }
+
     // copied (with edit) from gradle plugin
     private fun callVoidStaticMethod(classFqName: String, methodName: String) {
         // compiler classloader == current classloader for now
@@ -41,15 +41,19 @@ import org.jetbrains.kotlin.name.Name;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.resolve.BindingContext;
 import org.jetbrains.kotlin.resolve.BindingTrace;
+import org.jetbrains.kotlin.resolve.BodyResolveParallelism;
+import org.jetbrains.kotlin.resolve.LockingBindingTrace;
 import org.jetbrains.kotlin.resolve.TopDownAnalysisMode;
 import org.jetbrains.kotlin.resolve.jvm.extensions.AnalysisCompletedHandlerExtension;
 import org.jetbrains.kotlin.resolve.jvm.extensions.PackageFragmentProviderExtension;
 import org.jetbrains.kotlin.resolve.jvm.platform.JvmPlatform;
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 public enum TopDownAnalyzerFacadeForJVM {
 
@@ -63,7 +67,8 @@ public enum TopDownAnalyzerFacadeForJVM {
             @NotNull TopDownAnalysisMode topDownAnalysisMode,
             PackagePartProvider packagePartProvider
     ) {
-        return analyzeFilesWithJavaIntegration(moduleContext, files, trace, topDownAnalysisMode, null, null, packagePartProvider);
+        return analyzeFilesWithJavaIntegration(moduleContext, files, trace, topDownAnalysisMode, null, null, packagePartProvider, null,
+                                               PhaseProfiler.DISABLED);
     }
 
     @NotNull
@@ -74,10 +79,40 @@ public enum TopDownAnalyzerFacadeForJVM {
             @Nullable List<Module> modules,
             @Nullable IncrementalCompilationComponents incrementalCompilationComponents,
             @NotNull PackagePartProvider packagePartProvider
+    ) {
+        return analyzeFilesWithJavaIntegrationWithCustomContext(
+                moduleContext, files, trace, modules, incrementalCompilationComponents, packagePartProvider, null);
+    }
+
+    @NotNull
+    public static AnalysisResult analyzeFilesWithJavaIntegrationWithCustomContext(
+            @NotNull ModuleContext moduleContext,
+            @NotNull Collection<KtFile> files,
+            @NotNull BindingTrace trace,
+            @Nullable List<Module> modules,
+            @Nullable IncrementalCompilationComponents incrementalCompilationComponents,
+            @NotNull PackagePartProvider packagePartProvider,
+            @Nullable ExecutorService bodyResolveExecutor
+    ) {
+        return analyzeFilesWithJavaIntegrationWithCustomContext(
+                moduleContext, files, trace, modules, incrementalCompilationComponents, packagePartProvider, bodyResolveExecutor,
+                PhaseProfiler.DISABLED);
+    }
+
+    @NotNull
+    public static AnalysisResult analyzeFilesWithJavaIntegrationWithCustomContext(
+            @NotNull ModuleContext moduleContext,
+            @NotNull Collection<KtFile> files,
+            @NotNull BindingTrace trace,
+            @Nullable List<Module> modules,
+            @Nullable IncrementalCompilationComponents incrementalCompilationComponents,
+            @NotNull PackagePartProvider packagePartProvider,
+            @Nullable ExecutorService bodyResolveExecutor,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         return analyzeFilesWithJavaIntegration(
                 moduleContext, files, trace, TopDownAnalysisMode.TopLevelDeclarations, modules, incrementalCompilationComponents,
-                packagePartProvider);
+                packagePartProvider, bodyResolveExecutor, phaseProfiler);
     }
 
     @NotNull
@@ -88,7 +123,9 @@ public enum TopDownAnalyzerFacadeForJVM {
             @NotNull TopDownAnalysisMode topDownAnalysisMode,
             @Nullable List<Module> modules,
             @Nullable IncrementalCompilationComponents incrementalCompilationComponents,
-            @NotNull PackagePartProvider packagePartProvider
+            @NotNull PackagePartProvider packagePartProvider,
+            @Nullable ExecutorService bodyResolveExecutor,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         Project project = moduleContext.getProject();
         List<KtFile> allFiles = JvmAnalyzerFacade.getAllFilesToAnalyze(project, null, files);
@@ -110,13 +147,23 @@ public enum TopDownAnalyzerFacadeForJVM {
 
         packagePartProvider = IncrementalPackagePartProvider.create(packagePartProvider, files, targetIds, incrementalCompilationComponents, moduleContext.getStorageManager());
 
+        // Lookup trackers of incremental compilation are not thread-safe
+        BodyResolveParallelism bodyResolveParallelism = lookupTracker == LookupTracker.Companion.getDO_NOTHING()
+                                                        ? BodyResolveParallelism.withExecutor(bodyResolveExecutor)
+                                                        : new BodyResolveParallelism();
+        BindingTrace analysisTrace = bodyResolveParallelism.isParallel()
+                                     ? new LockingBindingTrace(trace, moduleContext.getStorageManager())
+                                     : trace;
+
         ContainerForTopDownAnalyzerForJvm container = InjectionKt.createContainerForTopDownAnalyzerForJvm(
                 moduleContext,
-                trace,
+                analysisTrace,
                 providerFactory,
                 GlobalSearchScope.allScope(project),
                 lookupTracker,
-                packagePartProvider
+                packagePartProvider,
+                bodyResolveParallelism,
+                phaseProfiler
         );
 
         List<PackageFragmentProvider> additionalProviders = new ArrayList<PackageFragmentProvider>();
@@ -138,7 +185,7 @@ public enum TopDownAnalyzerFacadeForJVM {
 
         for (PackageFragmentProviderExtension extension : PackageFragmentProviderExtension.Companion.getInstances(project)) {
             PackageFragmentProvider provider = extension.getPackageFragmentProvider(
-                    project, moduleContext.getModule(), moduleContext.getStorageManager(), trace, null);
+                    project, moduleContext.getModule(), moduleContext.getStorageManager(), analysisTrace, null);
             if (provider != null) additionalProviders.add(provider);
         }
 
@@ -160,8 +207,17 @@ public enum TopDownAnalyzerFacadeForJVM {
 
     @NotNull
     public static MutableModuleContext createContextWithSealedModule(@NotNull Project project, @NotNull String moduleName) {
+        return createContextWithSealedModule(project, moduleName, false);
+    }
+
+    // with concurrentStorage, lazy declarations are computed by ConcurrentStorageManager instead of under one lock
+    @NotNull
+    public static MutableModuleContext createContextWithSealedModule(
+            @NotNull Project project, @NotNull String moduleName, boolean concurrentStorage
+    ) {
         MutableModuleContext context = ContextKt.ContextForNewModule(
-                project, Name.special("<" + moduleName + ">"), JvmPlatform.INSTANCE
+                ContextKt.withProject(concurrentStorage ? ContextKt.ConcurrentGlobalContext() : ContextKt.GlobalContext(), project),
+                Name.special("<" + moduleName + ">"), JvmPlatform.INSTANCE
         );
         context.setDependencies(context.getModule(), JvmPlatform.INSTANCE.getBuiltIns().getBuiltInsModule());
         return context;
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.tree.ILazyParseableElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+import org.jetbrains.kotlin.parsing.KotlinParser;
+import org.jetbrains.kotlin.psi.KtBlockExpression;
+
+/**
+ * Type of block expressions. Function bodies are only tokenized when a file is parsed and collapsed into a lazy node of this type,
+ * their tree is built on the first access to the children. Other blocks (init, try, catch, etc.) are parsed eagerly as usual.
+ */
+public class BlockExpressionElementType extends ILazyParseableElementType {
+    public BlockExpressionElementType() {
+        super("BLOCK", KotlinLanguage.INSTANCE);
+    }
+
+    @Override
+    public ASTNode parseContents(ASTNode chameleon) {
+        Project project = chameleon.getTreeParent().getPsi().getProject();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(project, chameleon, new KotlinLexer(), getLanguage(),
+                                                                           chameleon.getText());
+        return KotlinParser.parseBlockExpression(builder).getFirstChildNode();
+    }
+
+    @NotNull
+    public KtBlockExpression createPsi(@NotNull ASTNode node) {
+        assert node.getElementType() == this;
+        return new KtBlockExpression(node);
+    }
+}
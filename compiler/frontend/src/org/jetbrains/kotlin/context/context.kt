@@ -26,6 +26,7 @@ import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.platform.PlatformToKotlinClassMap
 import org.jetbrains.kotlin.resolve.TargetPlatform
 import org.jetbrains.kotlin.resolve.createModule
+import org.jetbrains.kotlin.storage.ConcurrentStorageManager
 import org.jetbrains.kotlin.storage.ExceptionTracker
 import org.jetbrains.kotlin.storage.LockBasedStorageManager
 import org.jetbrains.kotlin.storage.StorageManager
@@ -97,6 +98,11 @@ fun GlobalContext(): GlobalContextImpl {
     return GlobalContextImpl(LockBasedStorageManager.createWithExceptionHandling(tracker), tracker)
 }
 
+fun ConcurrentGlobalContext(): GlobalContext {
+    val tracker = ExceptionTracker()
+    return SimpleGlobalContext(ConcurrentStorageManager(tracker), tracker)
+}
+
 fun ProjectContext(project: Project): ProjectContext = ProjectContextImpl(project, GlobalContext())
 fun ModuleContext(module: ModuleDescriptor, project: Project): ModuleContext =
         ModuleContextImpl(module, ProjectContext(project))
@@ -119,8 +125,13 @@ fun ContextForNewModule(
         project: Project,
         moduleName: Name,
         targetPlatform: TargetPlatform
+): MutableModuleContext = ContextForNewModule(ProjectContext(project), moduleName, targetPlatform)
+
+fun ContextForNewModule(
+        projectContext: ProjectContext,
+        moduleName: Name,
+        targetPlatform: TargetPlatform
 ): MutableModuleContext {
-    val projectContext = ProjectContext(project)
     val module = targetPlatform.createModule(moduleName, projectContext.storageManager)
     return MutableModuleContextImpl(module, projectContext)
 }
@@ -29,6 +29,7 @@ import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
 import com.intellij.psi.tree.IFileElementType
 import com.intellij.psi.tree.TokenSet
+import org.jetbrains.kotlin.BlockExpressionElementType
 import org.jetbrains.kotlin.KtNodeType
 import org.jetbrains.kotlin.KtNodeTypes
 import org.jetbrains.kotlin.idea.KotlinLanguage
@@ -64,6 +65,7 @@ class KotlinParserDefinition : ParserDefinition {
         return when (elementType) {
             is KtStubElementType<*, *> -> elementType.createPsiFromAst(astNode)
             KtNodeTypes.TYPE_CODE_FRAGMENT, KtNodeTypes.EXPRESSION_CODE_FRAGMENT, KtNodeTypes.BLOCK_CODE_FRAGMENT -> ASTWrapperPsiElement(astNode)
+            is BlockExpressionElementType -> elementType.createPsi(astNode)
             is KDocElementType -> elementType.createPsi(astNode)
             KDocTokens.MARKDOWN_LINK -> KDocLink(astNode)
             else -> (elementType as KtNodeType).createPsi(astNode)
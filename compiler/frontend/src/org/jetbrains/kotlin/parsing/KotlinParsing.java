@@ -1611,7 +1611,7 @@ public class KotlinParsing extends AbstractKotlinParsing {
      */
     private void parseFunctionBody() {
         if (at(LBRACE)) {
-            parseBlock();
+            parseLazyBlock();
         }
         else if (at(EQ)) {
             advance(); // EQ
@@ -1631,6 +1631,12 @@ public class KotlinParsing extends AbstractKotlinParsing {
     void parseBlock() {
         PsiBuilder.Marker block = mark();
 
+        parseBlockContents();
+
+        block.done(BLOCK);
+    }
+
+    private void parseBlockContents() {
         myBuilder.enableNewlines();
         expect(LBRACE, "Expecting '{' to open a block");
 
@@ -1638,6 +1644,43 @@ public class KotlinParsing extends AbstractKotlinParsing {
 
         expect(RBRACE, "Expecting '}'");
         myBuilder.restoreNewlinesState();
+    }
+
+    /*
+     * Only skips the tokens of a block with balanced braces, it is parsed on the first access, see BlockExpressionElementType
+     */
+    private void parseLazyBlock() {
+        PsiBuilder.Marker block = mark();
+
+        int depth = 0;
+        while (!eof()) {
+            IElementType tokenType = tt();
+            if (tokenType == LBRACE) {
+                depth++;
+            }
+            else if (tokenType == RBRACE) {
+                depth--;
+            }
+            advance();
+
+            if (depth == 0) {
+                block.collapse(BLOCK);
+                return;
+            }
+        }
+
+        block.rollbackTo();
+        parseBlock();
+    }
+
+    /*
+     * Contents of a lazy block, see parseLazyBlock()
+     */
+    void parseBlockExpression() {
+        PsiBuilder.Marker block = mark();
+
+        parseBlockContents();
+        checkForUnexpectedSymbols();
 
         block.done(BLOCK);
     }
@@ -215,20 +215,22 @@ public class BindingContextUtils {
 
     static void addOwnDataTo(
             @NotNull final BindingTrace trace, @Nullable final TraceEntryFilter filter, boolean commitDiagnostics,
-            @NotNull MutableSlicedMap map, MutableDiagnosticsWithSuppression diagnostics
+            @Nullable MutableSlicedMap map, @Nullable MutableDiagnosticsWithSuppression diagnostics
     ) {
-        map.forEach(new Function3<WritableSlice, Object, Object, Void>() {
-            @Override
-            public Void invoke(WritableSlice slice, Object key, Object value) {
-                if (filter == null || filter.accept(slice, key)) {
-                    trace.record(slice, key, value);
+        if (map != null) {
+            map.forEach(new Function3<WritableSlice, Object, Object, Void>() {
+                @Override
+                public Void invoke(WritableSlice slice, Object key, Object value) {
+                    if (filter == null || filter.accept(slice, key)) {
+                        trace.record(slice, key, value);
+                    }
+
+                    return null;
                 }
+            });
+        }
 
-                return null;
-            }
-        });
-
-        if (!commitDiagnostics) return;
+        if (!commitDiagnostics || diagnostics == null) return;
 
         for (Diagnostic diagnostic : diagnostics.getOwnDiagnostics()) {
             if (filter == null || filter.accept(null, diagnostic.getPsiElement())) {
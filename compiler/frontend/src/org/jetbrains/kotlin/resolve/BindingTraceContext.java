@@ -36,6 +36,9 @@ public class BindingTraceContext implements BindingTrace {
     /* package */ final static boolean TRACK_REWRITES = false;
     /* package */ final static boolean TRACK_WITH_STACK_TRACES = true;
 
+    // Keeps each slice in its own table instead of a holder per key, which takes less memory on large modules
+    private final static boolean COMPACT_SLICED_MAPS = Boolean.getBoolean("kotlin.compiler.compact.sliced.maps");
+
     private final MutableSlicedMap map;
     private final MutableDiagnosticsWithSuppression mutableDiagnostics;
 
@@ -78,8 +81,13 @@ public class BindingTraceContext implements BindingTrace {
     };
 
     public BindingTraceContext() {
+        this(createSlicedMap());
+    }
+
+    /* package */ static MutableSlicedMap createSlicedMap() {
         //noinspection ConstantConditions
-        this(TRACK_REWRITES ? new TrackingSlicedMap(TRACK_WITH_STACK_TRACES) : SlicedMapImpl.create());
+        if (TRACK_REWRITES) return new TrackingSlicedMap(TRACK_WITH_STACK_TRACES);
+        return COMPACT_SLICED_MAPS ? CompactSlicedMap.create() : SlicedMapImpl.create();
     }
 
 
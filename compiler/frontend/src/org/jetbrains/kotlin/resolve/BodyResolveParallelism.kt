@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import java.util.concurrent.ExecutorService
+
+/**
+ * Executor [BodyResolver] may use to resolve bodies of top-level and member functions in parallel.
+ *
+ * The executor is owned by the caller (e.g. the compiler environment) and is shared by all analyses it runs,
+ * so no threads are started or stopped per analysis.
+ * Parallel resolve is only safe if the trace of the container can be used concurrently (see [LockingBindingTrace]).
+ * Containers which don't register an instance resolve bodies sequentially.
+ */
+class BodyResolveParallelism private constructor(val executor: ExecutorService?) {
+    constructor() : this(null)
+
+    val isParallel: Boolean
+        get() = executor != null
+
+    companion object {
+        @JvmStatic
+        fun withExecutor(executor: ExecutorService?): BodyResolveParallelism = BodyResolveParallelism(executor)
+    }
+}
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.resolve;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.psi.PsiElement;
 import com.intellij.util.containers.Queue;
 import kotlin.Unit;
@@ -44,10 +45,12 @@ import org.jetbrains.kotlin.types.expressions.PreliminaryDeclarationVisitor;
 import org.jetbrains.kotlin.types.expressions.ValueParameterResolver;
 import org.jetbrains.kotlin.types.expressions.typeInfoFactory.TypeInfoFactoryKt;
 import org.jetbrains.kotlin.util.Box;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.kotlin.util.ReenteringLazyValueComputationException;
 import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.jetbrains.kotlin.diagnostics.Errors.*;
 import static org.jetbrains.kotlin.resolve.BindingContext.*;
@@ -66,6 +69,8 @@ public class BodyResolver {
     @NotNull private final ValueParameterResolver valueParameterResolver;
     @NotNull private final BodyResolveCache bodyResolveCache;
     @NotNull private final KotlinBuiltIns builtIns;
+    @NotNull private final BodyResolveParallelism parallelism;
+    @NotNull private final PhaseProfiler phaseProfiler;
 
     public BodyResolver(
             @NotNull AnnotationResolver annotationResolver,
@@ -79,7 +84,9 @@ public class BodyResolver {
             @NotNull BindingTrace trace,
             @NotNull ValueParameterResolver valueParameterResolver,
             @NotNull AnnotationChecker annotationChecker,
-            @NotNull KotlinBuiltIns builtIns
+            @NotNull KotlinBuiltIns builtIns,
+            @NotNull BodyResolveParallelism parallelism,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         this.annotationResolver = annotationResolver;
         this.bodyResolveCache = bodyResolveCache;
@@ -93,6 +100,8 @@ public class BodyResolver {
         this.trace = new ObservableBindingTrace(trace);
         this.valueParameterResolver = valueParameterResolver;
         this.builtIns = builtIns;
+        this.parallelism = parallelism;
+        this.phaseProfiler = phaseProfiler;
     }
 
     private void resolveBehaviorDeclarationBodies(@NotNull BodiesResolveContext c) {
@@ -226,10 +235,30 @@ public class BodyResolver {
     }
 
     public void resolveBodies(@NotNull BodiesResolveContext c) {
-        resolveBehaviorDeclarationBodies(c);
-        controlFlowAnalyzer.process(c);
-        declarationsChecker.process(c);
-        functionAnalyzerExtension.process(c);
+        PhaseProfiler.Measurement measurement = phaseProfiler.startPhase("resolve bodies");
+        try {
+            resolveBehaviorDeclarationBodies(c);
+        }
+        finally {
+            measurement.finish();
+        }
+
+        measurement = phaseProfiler.startPhase("control flow analysis");
+        try {
+            controlFlowAnalyzer.process(c);
+        }
+        finally {
+            measurement.finish();
+        }
+
+        measurement = phaseProfiler.startPhase("declaration checks");
+        try {
+            declarationsChecker.process(c);
+            functionAnalyzerExtension.process(c);
+        }
+        finally {
+            measurement.finish();
+        }
     }
 
     private void resolveSuperTypeEntryLists(@NotNull BodiesResolveContext c) {
@@ -751,6 +780,12 @@ public class BodyResolver {
     }
 
     private void resolveFunctionBodies(@NotNull BodiesResolveContext c) {
+        if (parallelism.isParallel() && c.getFunctions().size() > 1 && !c.getTopDownAnalysisMode().isLocalDeclarations() &&
+            (bodyResolveCache instanceof BodyResolveCache.ThrowException || expressionTypingServices.getStatementFilter() == StatementFilter.NONE)) {
+            resolveFunctionBodiesInParallel(c);
+            return;
+        }
+
         for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
             KtNamedFunction declaration = entry.getKey();
 
@@ -767,6 +802,60 @@ public class BodyResolver {
         }
     }
 
+    private void resolveFunctionBodiesInParallel(@NotNull final BodiesResolveContext c) {
+        ExecutorService executor = parallelism.getExecutor();
+        assert executor != null : "Bodies are resolved in parallel without an executor";
+
+        List<Future<DelegatingBindingTrace>> results = new ArrayList<Future<DelegatingBindingTrace>>(c.getFunctions().size());
+        try {
+            for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
+                final KtNamedFunction declaration = entry.getKey();
+                final SimpleFunctionDescriptor descriptor = entry.getValue();
+
+                final LexicalScope scope = c.getDeclaringScope(declaration);
+                assert scope != null : "Scope is null: " + PsiUtilsKt.getElementTextWithContext(declaration);
+
+                results.add(executor.submit(new Callable<DelegatingBindingTrace>() {
+                    @Override
+                    public DelegatingBindingTrace call() {
+                        // Bodies are independent, each one is resolved into its own buffer
+                        DelegatingBindingTrace buffer = new DelegatingBindingTrace(trace.getBindingContext(), "Body of " + descriptor);
+                        resolveFunctionBody(c.getOuterDataFlowInfo(), buffer, declaration, descriptor, scope);
+                        return buffer;
+                    }
+                }));
+            }
+
+            // Buffers are committed in declaration order, so that the result doesn't depend on scheduling
+            for (Future<DelegatingBindingTrace> result : results) {
+                getResult(result).addOwnDataTo(trace, true);
+            }
+        }
+        finally {
+            // the executor is shared, so only the bodies of this analysis are cancelled if it fails
+            for (Future<DelegatingBindingTrace> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    @NotNull
+    private static <T> T getResult(@NotNull Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException();
+        }
+    }
+
     public void resolveFunctionBody(
             @NotNull DataFlowInfo outerDataFlowInfo,
             @NotNull BindingTrace trace,
@@ -29,6 +29,7 @@ import org.jetbrains.kotlin.resolve.diagnostics.MutableDiagnosticsWithSuppressio
 import org.jetbrains.kotlin.types.KotlinType;
 import org.jetbrains.kotlin.types.expressions.KotlinTypeInfo;
 import org.jetbrains.kotlin.types.expressions.typeInfoFactory.TypeInfoFactoryKt;
+import org.jetbrains.kotlin.util.PerformanceCounter;
 import org.jetbrains.kotlin.util.slicedMap.*;
 
 import java.util.Collection;
@@ -36,18 +37,24 @@ import java.util.List;
 import java.util.Map;
 
 public class DelegatingBindingTrace implements BindingTrace {
-    @SuppressWarnings("ConstantConditions")
-    private final MutableSlicedMap map = BindingTraceContext.TRACK_REWRITES ? new TrackingSlicedMap(BindingTraceContext.TRACK_WITH_STACK_TRACES) : SlicedMapImpl.create();
+    private static final PerformanceCounter traceCounter = PerformanceCounter.Companion.create("Delegating binding trace");
+    private static final PerformanceCounter storageCounter = PerformanceCounter.Companion.create("Delegating binding trace storage");
+    private static final PerformanceCounter recordCounter = PerformanceCounter.Companion.create("Delegating binding trace record");
+
+    // Most traces are temporary ones for call candidates and speculative typing, and many of them are dropped
+    // without recording anything, so the storage is only allocated on first write
+    @Nullable private MutableSlicedMap map = null;
+    @Nullable private MutableDiagnosticsWithSuppression mutableDiagnostics = null;
 
     private final BindingContext parentContext;
     private final String name;
-    private final MutableDiagnosticsWithSuppression mutableDiagnostics;
+    private final boolean withParentDiagnostics;
 
     private final BindingContext bindingContext = new BindingContext() {
         @NotNull
         @Override
         public Diagnostics getDiagnostics() {
-            return mutableDiagnostics;
+            return getMutableDiagnostics();
         }
 
         @Override
@@ -79,7 +86,9 @@ public class DelegatingBindingTrace implements BindingTrace {
         public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
             Map<K, V> result = Maps.newHashMap();
             result.putAll(parentContext.getSliceContents(slice));
-            result.putAll(map.getSliceContents(slice));
+            if (map != null) {
+                result.putAll(map.getSliceContents(slice));
+            }
             return ImmutableMap.copyOf(result);
         }
     };
@@ -91,9 +100,8 @@ public class DelegatingBindingTrace implements BindingTrace {
     public DelegatingBindingTrace(BindingContext parentContext, boolean withParentDiagnostics, String debugName) {
         this.parentContext = parentContext;
         this.name = debugName;
-        this.mutableDiagnostics = withParentDiagnostics ?
-                                  new MutableDiagnosticsWithSuppression(bindingContext, parentContext.getDiagnostics()) :
-                                  new MutableDiagnosticsWithSuppression(bindingContext);
+        this.withParentDiagnostics = withParentDiagnostics;
+        traceCounter.increment();
     }
 
     public DelegatingBindingTrace(BindingContext parentContext, String debugName, @Nullable Object resolutionSubjectForMessage) {
@@ -106,9 +114,29 @@ public class DelegatingBindingTrace implements BindingTrace {
         return bindingContext;
     }
 
+    @NotNull
+    private MutableSlicedMap getMap() {
+        if (map == null) {
+            map = BindingTraceContext.createSlicedMap();
+            storageCounter.increment();
+        }
+        return map;
+    }
+
+    @NotNull
+    private MutableDiagnosticsWithSuppression getMutableDiagnostics() {
+        if (mutableDiagnostics == null) {
+            mutableDiagnostics = withParentDiagnostics ?
+                                 new MutableDiagnosticsWithSuppression(bindingContext, parentContext.getDiagnostics()) :
+                                 new MutableDiagnosticsWithSuppression(bindingContext);
+        }
+        return mutableDiagnostics;
+    }
+
     @Override
     public <K, V> void record(WritableSlice<K, V> slice, K key, V value) {
-        map.put(slice, key, value);
+        getMap().put(slice, key, value);
+        recordCounter.increment();
     }
 
     @Override
@@ -118,6 +146,8 @@ public class DelegatingBindingTrace implements BindingTrace {
 
     @Override
     public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        if (map == null) return parentContext.get(slice, key);
+
         V value = map.get(slice, key);
         if (slice instanceof SetSlice) {
             assert value != null;
@@ -133,8 +163,10 @@ public class DelegatingBindingTrace implements BindingTrace {
     @NotNull
     @Override
     public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
-        Collection<K> keys = map.getKeys(slice);
         Collection<K> fromParent = parentContext.getKeys(slice);
+        if (map == null) return fromParent;
+
+        Collection<K> keys = map.getKeys(slice);
         if (keys.isEmpty()) return fromParent;
         if (fromParent.isEmpty()) return keys;
 
@@ -176,13 +208,18 @@ public class DelegatingBindingTrace implements BindingTrace {
     }
 
     public void clear() {
-        map.clear();
-        mutableDiagnostics.clear();
+        // the storage is kept, temporary traces are often reused after a commit
+        if (map != null) {
+            map.clear();
+        }
+        if (mutableDiagnostics != null) {
+            mutableDiagnostics.clear();
+        }
     }
 
     @Override
     public void report(@NotNull Diagnostic diagnostic) {
-        mutableDiagnostics.report(diagnostic);
+        getMutableDiagnostics().report(diagnostic);
     }
 
     @Override
@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.psi.KtScript;
 import org.jetbrains.kotlin.resolve.calls.smartcasts.DataFlowInfoFactory;
 import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer;
 import org.jetbrains.kotlin.resolve.lazy.ImportResolver;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -36,13 +37,16 @@ public class LazyTopDownAnalyzerForTopLevel {
 
     @NotNull private final KotlinCodeAnalyzer codeAnalyzer;
     @NotNull private final LazyTopDownAnalyzer lazyTopDownAnalyzer;
+    @NotNull private final PhaseProfiler phaseProfiler;
 
     public LazyTopDownAnalyzerForTopLevel(
             @NotNull LazyTopDownAnalyzer lazyTopDownAnalyzer,
-            @NotNull KotlinCodeAnalyzer codeAnalyzer
+            @NotNull KotlinCodeAnalyzer codeAnalyzer,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         this.lazyTopDownAnalyzer = lazyTopDownAnalyzer;
         this.codeAnalyzer = codeAnalyzer;
+        this.phaseProfiler = phaseProfiler;
     }
 
     @NotNull
@@ -71,11 +75,17 @@ public class LazyTopDownAnalyzerForTopLevel {
             @NotNull TopDownAnalysisMode topDownAnalysisMode,
             @NotNull Collection<? extends PsiElement> elements
     ) {
-        TopDownAnalysisContext c = lazyTopDownAnalyzer.analyzeDeclarations(topDownAnalysisMode, elements, DataFlowInfoFactory.EMPTY);
+        PhaseProfiler.Measurement measurement = phaseProfiler.startPhase("resolve declarations");
+        try {
+            TopDownAnalysisContext c = lazyTopDownAnalyzer.analyzeDeclarations(topDownAnalysisMode, elements, DataFlowInfoFactory.EMPTY);
 
-        resolveImportsInAllFiles(c, codeAnalyzer);
+            resolveImportsInAllFiles(c, codeAnalyzer);
 
-        return c;
+            return c;
+        }
+        finally {
+            measurement.finish();
+        }
     }
 
     private static void resolveImportsInAllFiles(TopDownAnalysisContext c, KotlinCodeAnalyzer resolveSession) {
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import com.google.common.collect.ImmutableMap
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import org.jetbrains.kotlin.storage.StorageManager
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice
+
+/**
+ * Makes a trace safe to use from several threads (see [BodyResolveParallelism]).
+ *
+ * Accesses are done under the lock of the storage manager: lazy computations write to the trace while holding it anyway,
+ * so a separate lock could be taken in the opposite order by another thread.
+ * The price is that body resolve scales sublinearly with the number of threads;
+ * run `ParallelBodyResolveBenchmark` from the compiler tests to see how much time is spent under the lock.
+ */
+class LockingBindingTrace(private val delegate: BindingTrace, private val storageManager: StorageManager) : BindingTrace {
+    private val bindingContext = object : BindingContext {
+        override fun getDiagnostics(): Diagnostics = storageManager.compute { delegate.bindingContext.diagnostics }
+
+        override fun <K, V> get(slice: ReadOnlySlice<K, V>, key: K): V? = storageManager.compute { delegate.bindingContext.get(slice, key) }
+
+        override fun <K, V> getKeys(slice: WritableSlice<K, V>): Collection<K> =
+                storageManager.compute { delegate.bindingContext.getKeys(slice) }
+
+        override fun <K, V> getSliceContents(slice: ReadOnlySlice<K, V>): ImmutableMap<K, V> =
+                storageManager.compute { delegate.bindingContext.getSliceContents(slice) }
+
+        override fun getType(expression: KtExpression): KotlinType? = storageManager.compute { delegate.bindingContext.getType(expression) }
+
+        override fun addOwnDataTo(trace: BindingTrace, commitDiagnostics: Boolean) {
+            storageManager.compute { delegate.bindingContext.addOwnDataTo(trace, commitDiagnostics) }
+        }
+    }
+
+    override fun getBindingContext(): BindingContext = bindingContext
+
+    override fun <K, V> record(slice: WritableSlice<K, V>, key: K, value: V) {
+        storageManager.compute { delegate.record(slice, key, value) }
+    }
+
+    override fun <K> record(slice: WritableSlice<K, Boolean>, key: K) {
+        storageManager.compute { delegate.record(slice, key) }
+    }
+
+    override fun <K, V> get(slice: ReadOnlySlice<K, V>, key: K): V? = storageManager.compute { delegate.get(slice, key) }
+
+    override fun <K, V> getKeys(slice: WritableSlice<K, V>): Collection<K> = storageManager.compute { delegate.getKeys(slice) }
+
+    override fun getType(expression: KtExpression): KotlinType? = storageManager.compute { delegate.getType(expression) }
+
+    override fun recordType(expression: KtExpression, type: KotlinType?) {
+        storageManager.compute { delegate.recordType(expression, type) }
+    }
+
+    override fun report(diagnostic: Diagnostic) {
+        storageManager.compute { delegate.report(diagnostic) }
+    }
+}
@@ -48,9 +48,14 @@ import org.jetbrains.kotlin.types.DeferredType
 import org.jetbrains.kotlin.types.ErrorUtils
 import org.jetbrains.kotlin.types.isDynamic
 import org.jetbrains.kotlin.util.OperatorNameConventions
+import org.jetbrains.kotlin.util.PerformanceCounter
 import org.jetbrains.kotlin.utils.addToStdlib.check
 import org.jetbrains.kotlin.utils.sure
 
+// ratio of these counters is the average number of candidates per call
+private val callCounter = PerformanceCounter.create("Call resolution")
+private val candidateCounter = PerformanceCounter.create("Call resolution candidate")
+
 class NewResolveOldInference(
         private val candidateResolver: CandidateResolver,
         private val towerResolver: TowerResolver,
@@ -65,6 +70,7 @@ class NewResolveOldInference(
             kind: CallResolver.ResolveKind,
             tracing: TracingStrategy
     ): OverloadResolutionResultsImpl<*> {
+        callCounter.increment()
         val explicitReceiver = context.call.explicitReceiver
 
         val dynamicScope = dynamicCallableDescriptors.createDynamicDescriptorScope(context.call, context.scope.ownerDescriptor)
@@ -97,7 +103,9 @@ class NewResolveOldInference(
             tracing: TracingStrategy,
             candidates: Collection<ResolutionCandidate<D>>
     ): OverloadResolutionResultsImpl<D> {
+        callCounter.increment()
         val resolvedCandidates = candidates.mapNotNull { candidate ->
+            candidateCounter.increment()
             val candidateTrace = TemporaryBindingTrace.create(basicCallContext.trace, "Context for resolve candidate")
             val resolvedCall = ResolvedCallImpl.create(candidate, candidateTrace, tracing, basicCallContext.dataFlowInfoForArguments)
 
@@ -241,6 +249,7 @@ class NewResolveOldInference(
                 explicitReceiverKind: ExplicitReceiverKind,
                 extensionReceiver: ReceiverValue?
         ): Candidate {
+            candidateCounter.increment()
             val candidateTrace = TemporaryBindingTrace.create(basicCallContext.trace, "Context for resolve candidate")
             val candidateCall = ResolvedCallImpl(
                     basicCallContext.call, towerCandidate.descriptor,
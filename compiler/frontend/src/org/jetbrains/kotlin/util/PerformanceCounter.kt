@@ -30,8 +30,17 @@ abstract class PerformanceCounter protected constructor(val name: String) {
     companion object {
         private val allCounters = arrayListOf<PerformanceCounter>()
 
+        @Volatile
         private var enabled = false
 
+        /**
+         * Counters only count runs and measure time if they are enabled (see -Xreport-perf), so that hot paths
+         * which are counted, e.g. records into binding traces, don't pay for it otherwise.
+         */
+        @JvmStatic
+        val isEnabled: Boolean
+            get() = enabled
+
         fun currentTime(): Long = System.nanoTime()
 
         fun report(consumer: (String) -> Unit) {
@@ -74,7 +83,8 @@ abstract class PerformanceCounter protected constructor(val name: String) {
 
     internal val excludedFrom: MutableList<CounterWithExclude> = ArrayList()
 
-    private var count: Int = 0
+    // may be incremented concurrently, e.g. with parallel resolution of function bodies (-Xfrontend-threads)
+    private val count = AtomicInteger()
     private var totalTimeNanos: Long = 0
 
     init {
@@ -84,13 +94,16 @@ abstract class PerformanceCounter protected constructor(val name: String) {
     }
 
     final fun increment() {
-        count++
+        if (enabled) {
+            count.incrementAndGet()
+        }
     }
 
     final fun <T> time(block: () -> T): T {
-        count++
         if (!enabled) return block()
 
+        count.incrementAndGet()
+
         excludedFrom.forEach { it.enterExcludedMethod() }
         try {
             return countTime(block)
@@ -101,7 +114,7 @@ abstract class PerformanceCounter protected constructor(val name: String) {
     }
 
     fun reset() {
-        count = 0
+        count.set(0)
         totalTimeNanos = 0
     }
 
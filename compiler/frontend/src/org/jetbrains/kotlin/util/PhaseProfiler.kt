@@ -0,0 +1,249 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util
+
+import java.io.File
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import java.util.*
+
+/**
+ * Collects wall time, CPU time and allocated memory of the phases of a compilation, overall and per file or package (see -Xprofile-phases).
+ *
+ * Every profiled compilation has its own profiler (see [create]), passed to the phases through the compiler environment,
+ * the generation state and the containers of the frontend. Containers which don't register a profiler get a disabled one.
+ *
+ * Phases may be nested: only the time spent in a phase itself, not in the phases started inside it, is attributed to it,
+ * so the numbers of all phases add up. This includes phases run on other threads on behalf of a phase (see [startPhaseInside]),
+ * whose wall time is subtracted from it. A phase started inside the same phase (e.g. codegen of a package inside codegen
+ * of the module) is only counted for its target. CPU time and allocations are measured for the thread which runs a phase.
+ */
+class PhaseProfiler private constructor(enabled: Boolean) {
+    constructor() : this(false)
+
+    interface Measurement {
+        fun finish()
+    }
+
+    private val currentMeasurement = ThreadLocal<ActiveMeasurement?>()
+
+    // (phase, null) keeps the totals of a phase, (phase, target) the part of them spent on the given file or package
+    private val results = LinkedHashMap<Pair<String, String?>, PhaseResult>()
+
+    @Volatile
+    var isEnabled: Boolean = enabled
+        private set
+
+    /**
+     * Stops collecting results, e.g. from threads which outlive the compilation.
+     */
+    fun stop() {
+        isEnabled = false
+    }
+
+    @JvmOverloads
+    fun startPhase(phase: String, target: String? = null): Measurement {
+        if (!isEnabled) return DisabledMeasurement
+
+        return start(phase, target, currentMeasurement.get())
+    }
+
+    /**
+     * The innermost phase running on the current thread, to pass to [startPhaseInside] on other threads.
+     */
+    fun currentPhase(): Measurement? = currentMeasurement.get()
+
+    /**
+     * Starts a phase on the current thread which runs on behalf of [parent] started on another thread,
+     * e.g. a bytecode transformation run on a worker thread during codegen.
+     */
+    @JvmOverloads
+    fun startPhaseInside(parent: Measurement?, phase: String, target: String? = null): Measurement {
+        if (!isEnabled) return DisabledMeasurement
+
+        return start(phase, target, parent as? ActiveMeasurement ?: currentMeasurement.get())
+    }
+
+    private fun start(phase: String, target: String?, parent: ActiveMeasurement?): Measurement {
+        val insideSamePhase = generateSequence(parent) { it.parent }.any { it.phase == phase }
+        register(phase, target, insideSamePhase)
+        val measurement = ActiveMeasurement(phase, target, parent, insideSamePhase, currentMeasurement.get())
+        currentMeasurement.set(measurement)
+        return measurement
+    }
+
+    inline fun <T> measure(phase: String, target: String? = null, block: () -> T): T {
+        val measurement = startPhase(phase, target)
+        try {
+            return block()
+        }
+        finally {
+            measurement.finish()
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeReport(file: File) {
+        file.absoluteFile.parentFile?.mkdirs()
+        file.writeText(renderReport())
+    }
+
+    /**
+     * {"phases": [{"phase", "count", "wallNanos", "cpuNanos", "allocatedBytes"}, ...], "targets": [{"phase", "target", ...}, ...]}
+     * Phases and targets are listed in the order they were started for the first time.
+     */
+    fun renderReport(): String {
+        val entries = synchronized(results) { results.entries.map { it.key to it.value.copy() } }
+
+        val phases = entries.filter { it.first.second == null }.map { render(it.first.first, null, it.second) }
+        val targets = entries.filter { it.first.second != null }.map { render(it.first.first, it.first.second, it.second) }
+
+        return "{\n" +
+               "  \"phases\": [" + phases.joinToString(",") { "\n    $it" } + "\n  ],\n" +
+               "  \"targets\": [" + targets.joinToString(",") { "\n    $it" } + "\n  ]\n" +
+               "}\n"
+    }
+
+    private fun render(phase: String, target: String?, result: PhaseResult): String {
+        val targetEntry = if (target != null) ", \"target\": ${quote(target)}" else ""
+        return "{\"phase\": ${quote(phase)}$targetEntry, \"count\": ${result.count}, \"wallNanos\": ${result.wallNanos}, " +
+               "\"cpuNanos\": ${result.cpuNanos}, \"allocatedBytes\": ${result.allocatedBytes}}"
+    }
+
+    private fun quote(s: String): String {
+        val result = StringBuilder(s.length + 2)
+        result.append('"')
+        for (c in s) {
+            when {
+                c == '"' || c == '\\' -> result.append('\\').append(c)
+                c < ' ' -> result.append(String.format("\\u%04x", c.toInt()))
+                else -> result.append(c)
+            }
+        }
+        result.append('"')
+        return result.toString()
+    }
+
+    // entries are created when a phase starts to keep the order of the report
+    private fun register(phase: String, target: String?, insideSamePhase: Boolean) {
+        synchronized(results) {
+            if (!insideSamePhase) {
+                results.getOrPut(phase to null) { PhaseResult() }
+            }
+            if (target != null) {
+                results.getOrPut(phase to target) { PhaseResult() }
+            }
+        }
+    }
+
+    private fun record(phase: String, target: String?, insideSamePhase: Boolean, wallNanos: Long, cpuNanos: Long, allocatedBytes: Long) {
+        synchronized(results) {
+            if (!insideSamePhase) {
+                results[phase to null]?.add(wallNanos, cpuNanos, allocatedBytes)
+            }
+            if (target != null) {
+                results[phase to target]?.add(wallNanos, cpuNanos, allocatedBytes)
+            }
+        }
+    }
+
+    private data class PhaseResult(var count: Int = 0, var wallNanos: Long = 0, var cpuNanos: Long = 0, var allocatedBytes: Long = 0) {
+        fun add(wall: Long, cpu: Long, allocated: Long) {
+            count++
+            wallNanos += wall
+            cpuNanos += cpu
+            allocatedBytes += allocated
+        }
+    }
+
+    private object DisabledMeasurement : Measurement {
+        override fun finish() {}
+    }
+
+    private inner class ActiveMeasurement(
+            val phase: String,
+            val target: String?,
+            val parent: ActiveMeasurement?,
+            private val insideSamePhase: Boolean,
+            // the measurement to restore on this thread, which differs from the parent for phases run on behalf of another thread
+            private val previousOnThread: ActiveMeasurement?
+    ) : Measurement {
+        private val thread = Thread.currentThread()
+        private val startWall = System.nanoTime()
+        private val startCpu = ThreadCounters.cpuTime()
+        private val startAllocated = ThreadCounters.allocatedBytes()
+
+        // spent in the phases nested into this one
+        private var nestedWall = 0L
+        private var nestedCpu = 0L
+        private var nestedAllocated = 0L
+
+        @Synchronized
+        fun addNested(wall: Long, cpu: Long, allocated: Long) {
+            nestedWall += wall
+            nestedCpu += cpu
+            nestedAllocated += allocated
+        }
+
+        override fun finish() {
+            val wall = System.nanoTime() - startWall
+            val cpu = ThreadCounters.cpuTime() - startCpu
+            val allocated = ThreadCounters.allocatedBytes() - startAllocated
+
+            val (childWall, childCpu, childAllocated) = synchronized(this) { Triple(nestedWall, nestedCpu, nestedAllocated) }
+            // phases on other threads may overlap, so their wall time may exceed the wall time of the parent
+            record(phase, target, insideSamePhase, Math.max(0L, wall - childWall), cpu - childCpu, allocated - childAllocated)
+
+            if (parent != null) {
+                // the time of this phase itself stays with the enclosing phase of the same name
+                val (parentWall, parentCpu, parentAllocated) =
+                        if (insideSamePhase) Triple(childWall, childCpu, childAllocated) else Triple(wall, cpu, allocated)
+                if (parent.thread == thread) {
+                    parent.addNested(parentWall, parentCpu, parentAllocated)
+                }
+                else {
+                    // CPU time and allocations of other threads are not included in those of the parent
+                    parent.addNested(parentWall, 0L, 0L)
+                }
+            }
+            currentMeasurement.set(previousOnThread)
+        }
+    }
+
+    companion object {
+        @JvmField
+        val DISABLED: PhaseProfiler = PhaseProfiler()
+
+        /**
+         * Creates a profiler which collects results until it is stopped.
+         */
+        @JvmStatic
+        fun create(): PhaseProfiler = PhaseProfiler(true)
+    }
+
+    // initialized by the first measurement, so that compilations without profiling don't touch the management beans
+    private object ThreadCounters {
+        private val threadMXBean = ManagementFactory.getThreadMXBean()
+        private val allocationMXBean = (threadMXBean as? com.sun.management.ThreadMXBean)?.let {
+            if (it.isThreadAllocatedMemorySupported && it.isThreadAllocatedMemoryEnabled) it else null
+        }
+
+        fun cpuTime(): Long = if (threadMXBean.isCurrentThreadCpuTimeSupported) threadMXBean.currentThreadCpuTime else 0L
+
+        fun allocatedBytes(): Long = allocationMXBean?.getThreadAllocatedBytes(Thread.currentThread().id) ?: 0L
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ImmutableMap;
+import gnu.trove.THashMap;
+import kotlin.jvm.functions.Function3;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Same contract as {@link SlicedMapImpl}, but entries of each slice are kept in a separate open-addressing table with keys and values
+ * stored side by side in one array. There is no holder object per key, so an entry costs about two array slots instead of
+ * a map entry, a holder and the key map inside it. Entries are iterated slice by slice rather than key by key.
+ */
+public class CompactSlicedMap implements MutableSlicedMap {
+
+    public static CompactSlicedMap create() {
+        return new CompactSlicedMap();
+    }
+
+    // Slices are few compared to keys, so one more lookup per access is cheaper than per key holders
+    private final Map<KeyWithSlice<?, ?, ?>, SliceTable> tables = new THashMap<KeyWithSlice<?, ?, ?>, SliceTable>(0);
+
+    @Override
+    public <K, V> void put(WritableSlice<K, V> slice, K key, V value) {
+        if (!slice.check(key, value)) {
+            return;
+        }
+
+        KeyWithSlice<K, V, WritableSlice<K, V>> sliceKey = slice.getKey();
+        SliceTable table = tables.get(sliceKey);
+
+        RewritePolicy rewritePolicy = slice.getRewritePolicy();
+        if (table != null && rewritePolicy.rewriteProcessingNeeded(key)) {
+            //noinspection unchecked
+            V oldValue = (V) table.get(key);
+            if (oldValue != null) {
+                //noinspection unchecked
+                if (!rewritePolicy.processRewrite(slice, key, oldValue, value)) {
+                    return;
+                }
+            }
+        }
+
+        if (table == null) {
+            table = new SliceTable(sliceKey.getSlice());
+            tables.put(sliceKey, table);
+        }
+
+        if (slice.isCollective()) {
+            if (table.collectiveKeys == null) {
+                table.collectiveKeys = new ArrayList<Object>(2);
+            }
+
+            table.collectiveKeys.add(key);
+        }
+
+        if (value == null) {
+            table.remove(key);
+        }
+        else {
+            table.put(key, value);
+        }
+        slice.afterPut(this, key, value);
+    }
+
+    @Override
+    public void clear() {
+        tables.clear();
+    }
+
+    @Override
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        SliceTable table = tables.get(slice.getKey());
+
+        //noinspection unchecked
+        V value = table == null ? null : (V) table.get(key);
+
+        return slice.computeValue(this, key, value, value == null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        assert slice.isCollective() : "Keys are not collected for slice " + slice;
+
+        SliceTable table = tables.get(slice.getKey());
+        if (table == null || table.collectiveKeys == null) return Collections.emptyList();
+        return (Collection<K>) table.collectiveKeys;
+    }
+
+    @Override
+    public void forEach(@NotNull Function3<WritableSlice, Object, Object, Void> f) {
+        for (SliceTable table : tables.values()) {
+            Object[] entries = table.entries;
+            for (int i = 0; i < entries.length; i += 2) {
+                Object key = entries[i];
+                if (key == null) continue;
+
+                f.invoke(table.slice, unmaskNull(key), entries[i + 1]);
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+
+        SliceTable table = tables.get(slice.getKey());
+        if (table != null) {
+            Object[] entries = table.entries;
+            for (int i = 0; i < entries.length; i += 2) {
+                Object key = entries[i];
+                if (key == null) continue;
+
+                //noinspection unchecked
+                builder.put((K) unmaskNull(key), (V) entries[i + 1]);
+            }
+        }
+        return builder.build();
+    }
+
+    private static final Object NULL_KEY = new Object();
+
+    private static Object maskNull(@Nullable Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @Nullable
+    private static Object unmaskNull(@NotNull Object key) {
+        return key == NULL_KEY ? null : key;
+    }
+
+    // Linear probing over [key0, value0, key1, value1, ...], an empty slot has a null key
+    private static class SliceTable {
+        private static final int INITIAL_CAPACITY = 4;
+
+        final WritableSlice<?, ?> slice;
+        Object[] entries = new Object[2 * INITIAL_CAPACITY];
+        int size = 0;
+        List<Object> collectiveKeys = null;
+
+        SliceTable(@NotNull WritableSlice<?, ?> slice) {
+            this.slice = slice;
+        }
+
+        @Nullable
+        Object get(@Nullable Object key) {
+            int index = indexOf(maskNull(key));
+            return index < 0 ? null : entries[index + 1];
+        }
+
+        void put(@Nullable Object key, @NotNull Object value) {
+            Object maskedKey = maskNull(key);
+            int mask = entries.length - 2;
+            int index = slotOf(maskedKey, mask);
+            while (true) {
+                Object current = entries[index];
+                if (current == null) break;
+                if (current.equals(maskedKey)) {
+                    entries[index + 1] = value;
+                    return;
+                }
+                index = (index + 2) & mask;
+            }
+
+            entries[index] = maskedKey;
+            entries[index + 1] = value;
+            size++;
+            // keep the table at most 3/4 full, so that probe sequences stay short
+            if (4 * size > 3 * (entries.length / 2)) {
+                rehash(entries.length * 2);
+            }
+        }
+
+        void remove(@Nullable Object key) {
+            int index = indexOf(maskNull(key));
+            if (index < 0) return;
+
+            int mask = entries.length - 2;
+            // move the following entries of the cluster back, so that lookups never stop at the freed slot too early
+            int free = index;
+            int next = (free + 2) & mask;
+            while (entries[next] != null) {
+                int home = slotOf(entries[next], mask);
+                boolean reachable = free <= next ? (home <= free || home > next) : (home <= free && home > next);
+                if (reachable) {
+                    entries[free] = entries[next];
+                    entries[free + 1] = entries[next + 1];
+                    free = next;
+                }
+                next = (next + 2) & mask;
+            }
+            entries[free] = null;
+            entries[free + 1] = null;
+            size--;
+        }
+
+        private int indexOf(@NotNull Object maskedKey) {
+            int mask = entries.length - 2;
+            int index = slotOf(maskedKey, mask);
+            while (true) {
+                Object current = entries[index];
+                if (current == null) return -1;
+                if (current.equals(maskedKey)) return index;
+                index = (index + 2) & mask;
+            }
+        }
+
+        private void rehash(int newLength) {
+            Object[] oldEntries = entries;
+            entries = new Object[newLength];
+            int mask = newLength - 2;
+            for (int i = 0; i < oldEntries.length; i += 2) {
+                Object key = oldEntries[i];
+                if (key == null) continue;
+
+                int index = slotOf(key, mask);
+                while (entries[index] != null) {
+                    index = (index + 2) & mask;
+                }
+                entries[index] = key;
+                entries[index + 1] = oldEntries[i + 1];
+            }
+        }
+
+        // returns an even index of the key slot
+        private static int slotOf(@NotNull Object maskedKey, int mask) {
+            int hash = maskedKey.hashCode();
+            hash ^= hash >>> 16;
+            return (hash << 1) & mask;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmPackagePartProvider
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.codegen.state.GenerationState
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.org.objectweb.asm.Opcodes
+import java.io.*
+
+class IndyLambdasTest : CodegenTestCase() {
+    fun testNonCapturingLambdasHaveNoClasses() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+        myFiles = CodegenTestFiles.create("file.kt", """
+            var counter = 0
+
+            inline fun <T> inlined(f: () -> T): T = f()
+
+            fun box(): String {
+                val inc: (Int) -> Int = { it + 1 }
+                val unit: (String) -> Unit = { counter += it.length }
+                val anonymous = fun(s: String): String = s + s
+                val runnable = Runnable { counter++ }
+                val comparator = java.util.Comparator<String> { a, b -> a.length - b.length }
+                val nested = { { x: Int -> x * 2 } }
+
+                unit("abc")
+                runnable.run()
+                if (inc(counter) != 5) return "Fail inc: ${'$'}counter"
+                if (anonymous("a") != "aa") return "Fail anonymous"
+                if (comparator.compare("a", "bb") >= 0) return "Fail comparator"
+                if (nested()(21) != 42) return "Fail nested"
+                if (inlined { 1 } != 1) return "Fail inlined"
+
+                val branches: (Int) -> String = { x -> if (x > 0) "pos" else if (x < 0) "neg" else "zero" }
+                val whens: (Int) -> Int = { x -> when (x) { 1 -> 10; 2 -> 20; else -> 0 } }
+                val loops: (Int) -> Int = { n ->
+                    var sum = 0
+                    for (i in 0..n) {
+                        if (i % 2 == 0) continue
+                        sum += i
+                    }
+                    var j = 0
+                    while (j < 3) j++
+                    do { j-- } while (j > 1)
+                    sum * 10 + j
+                }
+                val tries: (String) -> Int = { s ->
+                    try {
+                        Integer.parseInt(s)
+                    }
+                    catch (e: NumberFormatException) {
+                        -1
+                    }
+                    finally {
+                        counter++
+                    }
+                }
+                if (branches(1) + branches(-1) + branches(0) != "posnegzero") return "Fail branches"
+                if (whens(1) + whens(2) + whens(3) != 30) return "Fail whens"
+                if (loops(5) != 91) return "Fail loops: ${'$'}{loops(5)}"
+                if (tries("42") != 42 || tries("x") != -1) return "Fail tries"
+
+                val o = "O"
+                val capturing = { o + "K" }
+                return capturing()
+            }
+        """, myEnvironment!!.project)
+
+        val classes = generate(indyLambdas = false, jvmTarget = JvmTarget.JVM_1_8)
+        val indyClasses = generate(indyLambdas = true, jvmTarget = JvmTarget.JVM_1_8)
+        try {
+            val paths = indyClasses.factory.asList().map { it.relativePath }
+            TestCase.assertTrue(paths.toString(), "FileKt\$box\$capturing\$1.class" in paths)
+            for (lambda in listOf("inc", "unit", "branches", "whens", "loops", "tries")) {
+                TestCase.assertFalse(paths.toString(), "FileKt\$box\$$lambda\$1.class" in paths)
+            }
+            TestCase.assertTrue(paths.size < classes.factory.asList().size)
+
+            for (file in indyClasses.factory.asList()) {
+                TestCase.assertEquals(file.relativePath, Opcodes.V1_8, classVersion(file.asByteArray()))
+            }
+
+            val classLoader = GeneratedClassLoader(indyClasses.factory, ForTestCompileRuntime.runtimeJarClassLoader())
+            try {
+                TestCase.assertEquals("OK", classLoader.loadClass("FileKt").getMethod("box").invoke(null))
+            }
+            finally {
+                classLoader.dispose()
+            }
+        }
+        finally {
+            classes.destroy()
+            indyClasses.destroy()
+        }
+    }
+
+    fun testLambdasStaySerializable() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+        myFiles = CodegenTestFiles.create("file.kt", """
+            fun function(): (Int) -> Int = { it + 1 }
+
+            fun samLambda(): Runnable = Runnable { }
+        """, myEnvironment!!.project)
+
+        val state = generate(indyLambdas = true, jvmTarget = JvmTarget.JVM_1_8)
+        try {
+            val classLoader = GeneratedClassLoader(state.factory, ForTestCompileRuntime.runtimeJarClassLoader())
+            try {
+                val facade = classLoader.loadClass("FileKt")
+                val function = facade.getMethod("function").invoke(null)
+                TestCase.assertTrue(function.javaClass.name, function.javaClass.name.startsWith("FileKt\$\$Lambda"))
+                TestCase.assertFalse(facade.getMethod("samLambda").invoke(null) is Serializable)
+
+                val bytes = ByteArrayOutputStream()
+                ObjectOutputStream(bytes).use { it.writeObject(function) }
+                val deserialized = object : ObjectInputStream(ByteArrayInputStream(bytes.toByteArray())) {
+                    override fun resolveClass(desc: ObjectStreamClass): Class<*> = Class.forName(desc.name, false, classLoader)
+                }.use { it.readObject() }
+
+                val invoke = classLoader.loadClass("kotlin.jvm.functions.Function1").getMethod("invoke", Any::class.java)
+                TestCase.assertEquals(42, invoke.invoke(deserialized, 41))
+            }
+            finally {
+                classLoader.dispose()
+            }
+        }
+        finally {
+            state.destroy()
+        }
+    }
+
+    fun testLambdasAreClassesWhenNotTargetingJava8() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+        myFiles = CodegenTestFiles.create("file.kt", """
+            fun box(): String {
+                val k: (String) -> String = { it + "K" }
+                return k("O")
+            }
+        """, myEnvironment!!.project)
+
+        val state = generate(indyLambdas = true, jvmTarget = JvmTarget.JVM_1_6)
+        try {
+            TestCase.assertNotNull(state.factory.get("FileKt\$box\$k\$1.class"))
+            for (file in state.factory.asList()) {
+                TestCase.assertEquals(file.relativePath, Opcodes.V1_6, classVersion(file.asByteArray()))
+            }
+        }
+        finally {
+            state.destroy()
+        }
+    }
+
+    private fun classVersion(bytes: ByteArray): Int = ((bytes[6].toInt() and 0xFF) shl 8) or (bytes[7].toInt() and 0xFF)
+
+    private fun generate(indyLambdas: Boolean, jvmTarget: JvmTarget): GenerationState {
+        val analysisResult = JvmResolveUtil.analyzeFilesWithJavaIntegrationAndCheckForErrors(
+                myEnvironment!!.project, myFiles.psiFiles, JvmPackagePartProvider(myEnvironment!!)
+        )
+        analysisResult.throwIfError()
+
+        val state = GenerationState(
+                myEnvironment!!.project, ClassBuilderFactories.BINARIES, analysisResult.moduleDescriptor,
+                analysisResult.bindingContext, myFiles.psiFiles, indyLambdas = indyLambdas, jvmTarget = jvmTarget
+        )
+        KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION)
+        return state
+    }
+}
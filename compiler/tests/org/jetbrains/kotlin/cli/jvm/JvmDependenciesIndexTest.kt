@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndex
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndexStorage
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class JvmDependenciesIndexTest : TestCaseWithTmpdir() {
+    private val classNames = listOf(
+            "java.lang.String", "java.lang.Object", "java.util.List", "java.util.ArrayList", "java.io.File", "java.lang.annotation.Retention"
+    )
+
+    private fun findRtJarRoot(): VirtualFile =
+            CoreJarFileSystem().findFileByPath(KotlinTestUtils.findMockJdkRtJar().path + URLUtil.JAR_SEPARATOR)!!
+
+    private fun createRoots(): List<JavaRoot> = listOf(JavaRoot(findRtJarRoot(), JavaRoot.RootType.BINARY))
+
+    private fun JvmDependenciesIndex.findClassFile(fqName: String): VirtualFile? {
+        val classId = ClassId.topLevel(FqName(fqName))
+        return findClass(classId) { dir, type -> dir.findChild(classId.shortClassName.asString() + ".class") }
+    }
+
+    fun testFindClassesWithStorage() {
+        val storageFile = File(tmpdir, "index")
+        val storage = JvmDependenciesIndexStorage(storageFile)
+        val index = JvmDependenciesIndex(createRoots(), storage)
+        for (className in classNames) {
+            assertNotNull(className, index.findClassFile(className))
+        }
+        assertNull(index.findClassFile("java.lang.NoSuchClass"))
+        assertNull(index.findClassFile("no.such.pkg.NoSuchClass"))
+
+        storage.save()
+        assertTrue(storageFile.exists())
+
+        val loadedStorage = JvmDependenciesIndexStorage(storageFile)
+        val loadedIndex = JvmDependenciesIndex(createRoots(), loadedStorage)
+        for (className in classNames) {
+            assertNotNull(className, loadedIndex.findClassFile(className))
+        }
+        assertNull(loadedIndex.findClassFile("no.such.pkg.NoSuchClass"))
+
+        // Packages of the jar were read from the file, so there is nothing to write back
+        storageFile.delete()
+        loadedStorage.save()
+        assertFalse(storageFile.exists())
+    }
+
+    fun testInMemoryStorageIsSharedBetweenIndices() {
+        val storage = JvmDependenciesIndexStorage(null)
+        for (i in 1..2) {
+            val index = JvmDependenciesIndex(createRoots(), storage)
+            for (className in classNames) {
+                assertNotNull(className, index.findClassFile(className))
+            }
+            assertNull(index.findClassFile("no.such.pkg.NoSuchClass"))
+        }
+        storage.save()
+        assertEquals(0, tmpdir.listFiles().size)
+    }
+
+    fun testCorruptedStorageIsIgnored() {
+        val storageFile = File(tmpdir, "index")
+        storageFile.writeText("garbage")
+
+        val index = JvmDependenciesIndex(createRoots(), JvmDependenciesIndexStorage(storageFile))
+        assertNotNull(index.findClassFile("java.lang.String"))
+    }
+
+    fun testCorruptedCountsAreIgnored() {
+        val storageFile = File(tmpdir, "index")
+        val storage = JvmDependenciesIndexStorage(storageFile)
+        JvmDependenciesIndex(createRoots(), storage).findClassFile("java.lang.String")
+        storage.save()
+        val version = DataInputStream(storageFile.inputStream()).use { it.readInt() }
+
+        val corruptions = listOf<(DataOutputStream) -> Unit>(
+                { it.writeInt(-1) },
+                { it.writeInt(Int.MAX_VALUE) },
+                {
+                    it.writeInt(1)
+                    it.writeUTF(KotlinTestUtils.findMockJdkRtJar().absolutePath)
+                    it.writeLong(0)
+                    it.writeLong(0)
+                    it.writeBoolean(false)
+                    it.writeInt(-1)
+                }
+        )
+        for (corruption in corruptions) {
+            DataOutputStream(storageFile.outputStream()).use { output ->
+                output.writeInt(version)
+                corruption(output)
+            }
+            val loadedStorage = JvmDependenciesIndexStorage(storageFile)
+            assertFalse(loadedStorage.isUpToDate(KotlinTestUtils.findMockJdkRtJar()))
+
+            val index = JvmDependenciesIndex(createRoots(), loadedStorage)
+            assertNotNull(index.findClassFile("java.lang.String"))
+        }
+    }
+
+    fun testUpToDateJarIsNotOpenedUntilItsPackageIsRequested() {
+        val storageFile = File(tmpdir, "index")
+        val storage = JvmDependenciesIndexStorage(storageFile)
+        JvmDependenciesIndex(createRoots(), storage).findClassFile("java.lang.String")
+        storage.save()
+
+        val rtJar = KotlinTestUtils.findMockJdkRtJar()
+        val loadedStorage = JvmDependenciesIndexStorage(storageFile)
+        assertTrue(loadedStorage.isUpToDate(rtJar))
+
+        var resolved = 0
+        val root = JavaRoot({ resolved++; findRtJarRoot() }, JavaRoot.RootType.BINARY, jarFile = rtJar)
+        assertFalse(loadedStorage.mayHaveModuleMappings(root))
+
+        val index = JvmDependenciesIndex(listOf(root), loadedStorage)
+        assertNull(index.findClassFile("no.such.pkg.NoSuchClass"))
+        assertNull(index.findClassFile("java.lang.no.such.NoSuchClass"))
+        assertFalse(root.isResolved)
+
+        assertNotNull(index.findClassFile("java.util.List"))
+        assertTrue(root.isResolved)
+        assertEquals(1, resolved)
+    }
+
+    fun testRootsAreEqualByValue() {
+        val rtJar = KotlinTestUtils.findMockJdkRtJar()
+        assertEquals(JavaRoot(findRtJarRoot(), JavaRoot.RootType.BINARY), JavaRoot(findRtJarRoot(), JavaRoot.RootType.BINARY))
+        assertFalse(JavaRoot(findRtJarRoot(), JavaRoot.RootType.BINARY) == JavaRoot(findRtJarRoot(), JavaRoot.RootType.SOURCE))
+
+        val deferred = JavaRoot({ findRtJarRoot() }, JavaRoot.RootType.BINARY, jarFile = rtJar)
+        val other = JavaRoot({ findRtJarRoot() }, JavaRoot.RootType.BINARY, jarFile = rtJar)
+        assertEquals(deferred, other)
+        assertEquals(deferred.hashCode(), other.hashCode())
+        assertFalse(deferred.isResolved || other.isResolved)
+    }
+
+    fun testConcurrentLookups() {
+        val index = JvmDependenciesIndex(createRoots())
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = (1..64).map { i ->
+                executor.submit(Callable {
+                    val className = classNames[i % classNames.size]
+                    index.findClassFile(className)?.let { className }
+                })
+            }
+            for ((i, result) in results.withIndex()) {
+                assertEquals(classNames[(i + 1) % classNames.size], result.get(10, TimeUnit.SECONDS))
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmPackagePartProvider
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.config.addJvmClasspathRoot
+import org.jetbrains.kotlin.load.kotlin.JvmMetadataVersion
+import org.jetbrains.kotlin.load.kotlin.ModuleMapping
+import org.jetbrains.kotlin.serialization.jvm.JvmPackageTable
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironmentManagement
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.io.DataOutputStream
+import java.io.File
+
+class JvmPackagePartProviderTest : KotlinTestWithEnvironmentManagement() {
+    fun testPackageSplitAcrossRoots() {
+        val first = KotlinTestUtils.tmpDir("first")
+        writeModule(first, "first", "foo.bar" to listOf("foo/bar/AKt"), "baz" to listOf("baz/BazKt"))
+        File(first, "foo/bar").mkdirs()
+        File(first, "baz").mkdirs()
+
+        val second = KotlinTestUtils.tmpDir("second")
+        writeModule(second, "second", "foo.bar" to listOf("foo/bar/BKt", "foo/bar/AKt"))
+        File(second, "foo/bar").mkdirs()
+
+        // the mapping lists the package, but the root doesn't contain it
+        val third = KotlinTestUtils.tmpDir("third")
+        writeModule(third, "third", "foo.bar" to listOf("foo/bar/CKt"), "baz" to listOf("baz/OtherKt"))
+        File(third, "foo").mkdirs()
+
+        val configuration = KotlinTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.MOCK_JDK)
+        for (root in listOf(first, second, third)) {
+            configuration.addJvmClasspathRoot(root)
+        }
+        val environment = KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+        val provider = JvmPackagePartProvider(environment)
+
+        assertEquals(listOf("foo/bar/AKt", "foo/bar/BKt"), provider.findPackageParts("foo.bar"))
+        assertEquals(listOf("baz/BazKt"), provider.findPackageParts("baz"))
+        assertEmpty(provider.findPackageParts("foo"))
+    }
+
+    private fun writeModule(root: File, name: String, vararg packages: Pair<String, List<String>>) {
+        val table = JvmPackageTable.PackageTable.newBuilder()
+        for ((packageFqName, parts) in packages) {
+            table.addPackageParts(JvmPackageTable.PackageParts.newBuilder().setPackageFqName(packageFqName).addAllClassName(parts))
+        }
+
+        val file = File(root, "META-INF/$name.${ModuleMapping.MAPPING_FILE_EXT}")
+        file.parentFile.mkdirs()
+        DataOutputStream(file.outputStream()).use { output ->
+            val version = JvmMetadataVersion.INSTANCE.toArray()
+            output.writeInt(version.size)
+            version.forEach { output.writeInt(it) }
+            table.build().writeTo(output)
+        }
+    }
+}
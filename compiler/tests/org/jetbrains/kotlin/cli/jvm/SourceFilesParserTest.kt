@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import com.intellij.psi.impl.source.tree.LazyParseableElement
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.config.addKotlinSourceRoot
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironmentManagement
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.io.File
+
+class SourceFilesParserTest : KotlinTestWithEnvironmentManagement() {
+    fun testFilesAreParsedInParallelAndKeepTheirOrder() {
+        val sources = KotlinTestUtils.tmpDir("sources")
+        for (i in 1..20) {
+            File(sources, "dir${i % 3}/file$i.kt").apply { parentFile.mkdirs() }.writeText("""
+                package test$i
+
+                fun f$i(x: Int): Int {
+                    val g = { y: Int -> y + $i }
+                    return g(x)
+                }
+            """)
+        }
+
+        val disposable = Disposer.newDisposable()
+        Disposer.register(testRootDisposable, disposable)
+        val environment = createEnvironment(sources, threads = 4, disposable = disposable)
+        val executor = environment.frontendExecutor!!
+        val files = environment.getSourceFiles()
+
+        assertEquals(sources.walkTopDown().filter { it.isFile }.map { it.name }.toList(), files.map { it.name })
+        for (file in files) {
+            val body = (file.declarations.single() as KtNamedFunction).bodyExpression!!
+            assertTrue(file.name, (body.node as LazyParseableElement).isParsed)
+        }
+
+        // the executor is owned by the environment, and is only shut down with it
+        assertFalse(executor.isShutdown)
+        Disposer.dispose(disposable)
+        assertTrue(executor.isShutdown)
+    }
+
+    fun testNoExecutorForSingleThread() {
+        assertNull(createEnvironment(KotlinTestUtils.tmpDir("sources"), threads = 1).frontendExecutor)
+    }
+
+    private fun createEnvironment(sources: File, threads: Int, disposable: Disposable = testRootDisposable): KotlinCoreEnvironment {
+        val configuration = KotlinTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.MOCK_JDK)
+        configuration.addKotlinSourceRoot(sources.path)
+        configuration.put(JVMConfigurationKeys.FRONTEND_THREADS, threads)
+        return KotlinCoreEnvironment.createForTests(disposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import com.intellij.testFramework.LightVirtualFile
+import com.intellij.util.io.URLUtil
+import junit.framework.TestCase
+import org.jetbrains.kotlin.codegen.inline.InlineMethodNodeCache
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Label
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.InsnNode
+import org.jetbrains.org.objectweb.asm.tree.LabelNode
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class InlineMethodNodeCacheTest : TestCase() {
+    private val containerId = ClassId.topLevel(FqName("test.Container"))
+
+    private class ClassFile(
+            private val bytes: ByteArray,
+            private val timeStamp: Long,
+            private val path: String = "/test/Container.class"
+    ) : LightVirtualFile("Container.class") {
+        override fun contentsToByteArray() = bytes
+
+        override fun getTimeStamp() = timeStamp
+
+        override fun getPath() = path
+    }
+
+    // every method is a loop of the given number of NOPs, so that its body has a label referenced by a jump
+    private fun generateContainer(vararg methods: Pair<String, Int>): ByteArray {
+        val writer = ClassWriter(0)
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "test/Container", null, "java/lang/Object", null)
+        for ((name, nops) in methods) {
+            val mv = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, name, "(Z)V", null, null)
+            mv.visitCode()
+            val start = Label()
+            mv.visitLabel(start)
+            mv.visitLineNumber(1, start)
+            repeat(nops) { mv.visitInsn(Opcodes.NOP) }
+            mv.visitVarInsn(Opcodes.ILOAD, 0)
+            mv.visitJumpInsn(Opcodes.IFNE, start)
+            mv.visitInsn(Opcodes.RETURN)
+            mv.visitMaxs(1, 1)
+            mv.visitEnd()
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    fun testHitsAndMisses() {
+        val cache = InlineMethodNodeCache()
+        val file = ClassFile(generateContainer("a" to 1, "b" to 1), 1)
+
+        assertNotNull(cache.getMethodNode(containerId, "a", "(Z)V", file))
+        assertNotNull(cache.getMethodNode(containerId, "a", "(Z)V", file))
+        assertNotNull(cache.getMethodNode(containerId, "b", "(Z)V", file))
+        assertNull(cache.getMethodNode(containerId, "c", "(Z)V", file))
+        assertEquals(1, cache.hits)
+        assertEquals(3, cache.misses)
+
+        // the class file has changed since the method was cached
+        assertNotNull(cache.getMethodNode(containerId, "a", "(Z)V", ClassFile(generateContainer("a" to 2), 2)))
+        assertEquals(1, cache.hits)
+        assertEquals(4, cache.misses)
+        assertEquals(0, cache.evictions)
+    }
+
+    fun testEvictionUnderMemoryBound() {
+        val file = ClassFile(generateContainer("a" to 10, "b" to 10, "c" to 10), 1)
+        val size = InlineMethodNodeCache().getMethodNode(containerId, "a", "(Z)V", file)!!.node.instructions.size()
+
+        // only two of the methods fit
+        val cache = InlineMethodNodeCache(2 * size)
+        cache.getMethodNode(containerId, "a", "(Z)V", file)
+        cache.getMethodNode(containerId, "b", "(Z)V", file)
+        cache.getMethodNode(containerId, "a", "(Z)V", file)
+        assertEquals(0, cache.evictions)
+
+        // "b" is the least recently used one
+        cache.getMethodNode(containerId, "c", "(Z)V", file)
+        assertEquals(1, cache.evictions)
+
+        cache.getMethodNode(containerId, "a", "(Z)V", file)
+        assertEquals(2, cache.hits)
+        cache.getMethodNode(containerId, "b", "(Z)V", file)
+        assertEquals(2, cache.hits)
+        assertEquals(4, cache.misses)
+        assertEquals(2, cache.evictions)
+    }
+
+    fun testClassInJarIsReloadedWhenTheJarChanges() {
+        val cache = InlineMethodNodeCache()
+        val jar = File.createTempFile("container", ".jar")
+        try {
+            jar.writeBytes(ByteArray(1))
+            // entries of reproducible jars have the same time stamp whatever their contents
+            val path = jar.path + URLUtil.JAR_SEPARATOR + "test/Container.class"
+            assertNotNull(cache.getMethodNode(containerId, "a", "(Z)V", ClassFile(generateContainer("a" to 1), 0, path)))
+            assertNotNull(cache.getMethodNode(containerId, "a", "(Z)V", ClassFile(generateContainer("a" to 1), 0, path)))
+            assertEquals(1, cache.hits)
+
+            jar.writeBytes(ByteArray(2))
+            val node = cache.getMethodNode(containerId, "a", "(Z)V", ClassFile(generateContainer("a" to 2), 0, path))!!.node
+            assertEquals(1, cache.hits)
+            assertEquals(2, cache.misses)
+            assertEquals(2, node.instructions.toArray().count { it.opcode == Opcodes.NOP })
+        }
+        finally {
+            jar.delete()
+        }
+    }
+
+    fun testEachMethodIsLoadedOnceByConcurrentCalls() {
+        val cache = InlineMethodNodeCache()
+        val file = ClassFile(generateContainer("a" to 10, "b" to 10, "c" to 10), 1)
+        val methods = listOf("a", "b", "c")
+
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = (1..96).map { i ->
+                executor.submit(Callable { cache.getMethodNode(containerId, methods[i % methods.size], "(Z)V", file) })
+            }
+            for (result in results) {
+                assertNotNull(result.get(10, TimeUnit.SECONDS))
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+
+        assertEquals(methods.size, cache.misses)
+        assertEquals(96 - methods.size, cache.hits)
+    }
+
+    fun testReturnedNodesAreIsolatedFromTheCachedOne() {
+        val cache = InlineMethodNodeCache()
+        val file = ClassFile(generateContainer("a" to 3), 1)
+
+        val first = cache.getMethodNode(containerId, "a", "(Z)V", file)!!.node
+        val second = cache.getMethodNode(containerId, "a", "(Z)V", file)!!.node
+        assertNotSame(first, second)
+        val originalSize = second.instructions.size()
+
+        val firstLabels = first.instructions.toArray().filterIsInstance<LabelNode>()
+        val secondLabels = second.instructions.toArray().filterIsInstance<LabelNode>()
+        assertFalse(firstLabels.isEmpty())
+        for (label in firstLabels) {
+            assertFalse(secondLabels.any { it === label || it.label === label.label })
+        }
+
+        // the inliner transforms the nodes it is given
+        first.instructions.clear()
+        first.instructions.add(InsnNode(Opcodes.RETURN))
+
+        val third = cache.getMethodNode(containerId, "a", "(Z)V", file)!!.node
+        assertEquals(originalSize, third.instructions.size())
+        assertEquals(originalSize, second.instructions.size())
+        assertEquals(2, cache.hits)
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmPackagePartProvider
+import org.jetbrains.kotlin.codegen.state.GenerationState
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import java.util.*
+
+class ParallelBackendTest : CodegenTestCase() {
+    fun testSameBytecodeAsSerialBackend() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+        myFiles = CodegenTestFiles.create("file.kt", """
+            annotation class Ann(val value: String)
+
+            @Ann("klass")
+            class Klass(@field:Ann("field") val x: Int) {
+                fun boxing(list: List<Int>): Int {
+                    var sum = 0
+                    for (element in list) {
+                        val boxed: Int? = element
+                        if (boxed != null) sum += boxed
+                    }
+                    return sum
+                }
+
+                fun lambda(s: String) = { s + x }
+
+                inline fun <T> inlined(f: () -> T): T = try { f() } finally { x }
+
+                fun callsInline() = inlined { object : Runnable { override fun run() { x } } }
+
+                companion object {
+                    @JvmStatic fun static() = Klass(42).boxing(listOf(1, 2, 3))
+                }
+            }
+
+            fun topLevel(a: Any?): String = when (a) {
+                is String -> a
+                null -> "null"
+                else -> a.toString()
+            }
+        """, myEnvironment!!.project)
+
+        val serial = generate(backendThreads = 1)
+        val parallel = generate(backendThreads = 4)
+
+        TestCase.assertEquals(serial.keys, parallel.keys)
+        for ((path, bytes) in serial) {
+            TestCase.assertTrue("Class file $path differs in parallel mode", Arrays.equals(bytes, parallel[path]))
+        }
+    }
+
+    private fun generate(backendThreads: Int): Map<String, ByteArray> {
+        val analysisResult = JvmResolveUtil.analyzeFilesWithJavaIntegrationAndCheckForErrors(
+                myEnvironment!!.project, myFiles.psiFiles, JvmPackagePartProvider(myEnvironment!!)
+        )
+        analysisResult.throwIfError()
+
+        val state = GenerationState(
+                myEnvironment!!.project, ClassBuilderFactories.BINARIES, analysisResult.moduleDescriptor,
+                analysisResult.bindingContext, myFiles.psiFiles, backendThreads = backendThreads
+        )
+        try {
+            KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION)
+            return state.factory.asList().associateBy({ it.relativePath }, { it.asByteArray() })
+        }
+        finally {
+            state.destroy()
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.codegen.optimization.common.findReachableInsns
+import org.jetbrains.org.objectweb.asm.Label
+import org.jetbrains.org.objectweb.asm.Opcodes.*
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.tree.analysis.Analyzer
+import org.jetbrains.org.objectweb.asm.tree.analysis.BasicInterpreter
+
+class ReachabilityTest : TestCase() {
+    private fun assertSameAsAnalyzer(node: MethodNode) {
+        val frames = Analyzer(BasicInterpreter()).analyze("Test", node)
+        val reachable = node.findReachableInsns()
+        assertEquals(frames.map { it != null }, reachable.toList())
+    }
+
+    fun testDeadCodeAfterGotoAndReturn() {
+        val node = MethodNode(ACC_STATIC, "test", "(I)I", null, null)
+        val end = Label()
+        val dead = Label()
+        node.visitCode()
+        node.visitVarInsn(ILOAD, 0)
+        node.visitJumpInsn(IFEQ, end)
+        node.visitInsn(ICONST_1)
+        node.visitInsn(IRETURN)
+        node.visitLabel(dead)
+        node.visitInsn(ICONST_2)
+        node.visitInsn(IRETURN)
+        node.visitLabel(end)
+        node.visitInsn(ICONST_0)
+        node.visitInsn(IRETURN)
+        node.visitMaxs(1, 1)
+        node.visitEnd()
+
+        assertSameAsAnalyzer(node)
+        // the label, ICONST_2 and IRETURN after the first return
+        assertEquals(3, node.findReachableInsns().count { !it })
+    }
+
+    fun testExceptionHandlers() {
+        val node = MethodNode(ACC_STATIC, "test", "()V", null, null)
+        val start = Label()
+        val end = Label()
+        val handler = Label()
+        val deadStart = Label()
+        val deadEnd = Label()
+        val deadHandler = Label()
+        node.visitCode()
+        node.visitTryCatchBlock(start, end, handler, null)
+        node.visitTryCatchBlock(deadStart, deadEnd, deadHandler, null)
+        node.visitLabel(start)
+        node.visitMethodInsn(INVOKESTATIC, "Test", "foo", "()V", false)
+        node.visitLabel(end)
+        node.visitInsn(RETURN)
+        node.visitLabel(handler)
+        node.visitInsn(POP)
+        node.visitInsn(RETURN)
+        node.visitLabel(deadStart)
+        node.visitMethodInsn(INVOKESTATIC, "Test", "foo", "()V", false)
+        node.visitLabel(deadEnd)
+        node.visitInsn(RETURN)
+        node.visitLabel(deadHandler)
+        node.visitInsn(POP)
+        node.visitInsn(RETURN)
+        node.visitMaxs(1, 0)
+        node.visitEnd()
+
+        assertSameAsAnalyzer(node)
+    }
+
+    fun testSwitch() {
+        val node = MethodNode(ACC_STATIC, "test", "(I)I", null, null)
+        val first = Label()
+        val second = Label()
+        val default = Label()
+        node.visitCode()
+        node.visitVarInsn(ILOAD, 0)
+        node.visitTableSwitchInsn(0, 1, default, first, second)
+        node.visitLabel(first)
+        node.visitInsn(ICONST_1)
+        node.visitInsn(IRETURN)
+        node.visitLabel(second)
+        node.visitInsn(ICONST_2)
+        node.visitInsn(IRETURN)
+        node.visitInsn(ICONST_3)
+        node.visitInsn(IRETURN)
+        node.visitLabel(default)
+        node.visitInsn(ICONST_0)
+        node.visitInsn(IRETURN)
+        node.visitMaxs(1, 1)
+        node.visitEnd()
+
+        assertSameAsAnalyzer(node)
+    }
+}
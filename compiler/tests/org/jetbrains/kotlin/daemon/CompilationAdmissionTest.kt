@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import java.util.concurrent.*
+import java.util.logging.Logger
+
+class CompilationAdmissionTest : TestCase() {
+    private val log = Logger.getLogger(CompilationAdmissionTest::class.java.name)
+
+    @Volatile private var usedMemory = 0L
+
+    private val executor = Executors.newCachedThreadPool()
+
+    override fun tearDown() {
+        executor.shutdownNow()
+        super.tearDown()
+    }
+
+    private fun createAdmission(maxParallelCompilations: Int) =
+            CompilationAdmission(maxParallelCompilations, log, { usedMemory }, { MAX_MEMORY })
+
+    private fun CompilationAdmission.acquireInBackground(): Future<Long> = executor.submit(Callable { acquire() })
+
+    private fun assertWaiting(future: Future<*>) {
+        try {
+            future.get(WAIT_MS, TimeUnit.MILLISECONDS)
+            fail("Compilation should not have been admitted")
+        }
+        catch (e: TimeoutException) {
+            // expected
+        }
+    }
+
+    fun testCompilationsRunInParallel() {
+        val admission = createAdmission(2)
+        val first = admission.acquire()
+        val second = admission.acquireInBackground().get(TIMEOUT_S, TimeUnit.SECONDS)
+        assertEquals(2, admission.activeCompilations)
+
+        admission.release(first)
+        admission.release(second)
+        assertEquals(0, admission.activeCompilations)
+    }
+
+    fun testCompilationWaitsForFreeSlot() {
+        val admission = createAdmission(1)
+        val first = admission.acquire()
+        val second = admission.acquireInBackground()
+        assertWaiting(second)
+
+        admission.release(first)
+        admission.release(second.get(TIMEOUT_S, TimeUnit.SECONDS))
+        assertEquals(0, admission.activeCompilations)
+    }
+
+    fun testCompilationWaitsForMemory() {
+        val admission = createAdmission(4)
+
+        // a compilation which took 600 of the 1000 bytes of the heap
+        usedMemory = 100
+        val previous = admission.acquire()
+        usedMemory = 700
+        admission.release(previous)
+
+        usedMemory = 400
+        val first = admission.acquire()
+        val second = admission.acquireInBackground()
+        assertWaiting(second)
+        assertEquals(1, admission.activeCompilations)
+
+        // memory is freed by GC without the first compilation finishing
+        usedMemory = 250
+        val secondStart = second.get(TIMEOUT_S, TimeUnit.SECONDS)
+        assertEquals(2, admission.activeCompilations)
+
+        admission.release(first)
+        admission.release(secondStart)
+    }
+
+    fun testIdleActionWaitsForRunningCompilations() {
+        val admission = createAdmission(2)
+        var runs = 0
+        val memoryAtStart = admission.acquire()
+        admission.whenIdle { runs++ }
+        assertEquals(0, runs)
+
+        admission.release(memoryAtStart)
+        assertEquals(1, runs)
+    }
+
+    fun testOnIdleRunsOnlyWhenNothingElseIsRunning() {
+        val admission = createAdmission(2)
+        var runs = 0
+        val first = admission.acquire(onIdle = { runs++ })
+        assertEquals(1, runs)
+
+        val second = admission.acquire(onIdle = { runs++ })
+        assertEquals(1, runs)
+
+        admission.release(first)
+        admission.release(second)
+    }
+
+    fun testCompilationNeedingIdleWaitsAndHoldsBackNewCompilations() {
+        val admission = createAdmission(4)
+        // both lambdas run under the lock of the admission
+        var changed = true
+        var idleRuns = 0
+        val onIdle = { idleRuns++; changed = false }
+        val first = admission.acquire()
+
+        val alone = executor.submit(Callable { admission.acquire(needsIdle = { changed }, onIdle = onIdle) })
+        assertWaiting(alone)
+        val other = executor.submit(Callable { admission.acquire(onIdle = onIdle) })
+        assertWaiting(other)
+        assertEquals(1, admission.activeCompilations)
+
+        admission.release(first)
+        val aloneStart = alone.get(TIMEOUT_S, TimeUnit.SECONDS)
+        val otherStart = other.get(TIMEOUT_S, TimeUnit.SECONDS)
+        assertEquals(1, idleRuns)
+        assertEquals(2, admission.activeCompilations)
+
+        admission.release(aloneStart)
+        admission.release(otherStart)
+    }
+
+    companion object {
+        private val MAX_MEMORY = 1000L
+        private val WAIT_MS = 300L
+        private val TIMEOUT_S = 10L
+    }
+}
@@ -388,6 +388,39 @@ class CompilerDaemonTest : KotlinIntegrationTestBase() {
             }
         }
     }
+
+    fun testParallelCompilationsOfTwoSessions() {
+        withFlagFile(getTestName(true), ".alive") { flagFile ->
+            val daemonOptions = DaemonOptions(runFilesPath = File(tmpdir, getTestName(true)).absolutePath, maxParallelCompilations = 2)
+            val daemonJVMOptions = configureDaemonJVMOptions(inheritMemoryLimits = false, inheritAdditionalProperties = false)
+            val daemon = KotlinCompilerClient.connectToCompileService(compilerId, flagFile, daemonJVMOptions, daemonOptions, DaemonReportingTargets(out = System.err), autostart = true)
+            assertNotNull("failed to connect daemon", daemon)
+
+            val sessions = (1..2).map { daemon!!.leaseCompileSession(flagFile.absolutePath).get() }
+            val resultCodes = arrayOfNulls<Int>(sessions.size)
+            val outStreams = Array(sessions.size, { ByteArrayOutputStream() })
+
+            val threads = sessions.mapIndexed { i, sessionId ->
+                thread {
+                    val jar = tmpdir.absolutePath + File.separator + "hello.session$i.jar"
+                    resultCodes[i] = KotlinCompilerClient.compile(
+                            daemon!!, sessionId, CompileService.TargetPlatform.JVM,
+                            arrayOf("-include-runtime", File(getHelloAppBaseDir(), "hello.kt").absolutePath, "-d", jar),
+                            outStreams[i])
+                }
+            }
+            threads.forEach { it.join(PARALLEL_WAIT_TIMEOUT_S * 1000) }
+
+            for ((i, sessionId) in sessions.withIndex()) {
+                assertEquals("Compilation in session $sessionId failed:\n${outStreams[i]}", 0, resultCodes[i])
+
+                val metrics = daemon!!.getSessionMetrics(sessionId).get()
+                assertEquals(1, metrics.compilations)
+                assertEquals(0, metrics.activeCompilations)
+                daemon.releaseCompileSession(sessionId)
+            }
+        }
+    }
 }
 
 
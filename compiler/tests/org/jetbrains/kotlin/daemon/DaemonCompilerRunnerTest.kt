@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.compilerRunner.OutputItemsCollectorImpl
+import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.daemon.client.DaemonCompilerRunner
+import org.jetbrains.kotlin.daemon.client.KotlinCompilerClient
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.integration.KotlinIntegrationTestBase
+import java.io.File
+import java.util.*
+
+class DaemonCompilerRunnerTest : KotlinIntegrationTestBase() {
+    private class Message(val severity: CompilerMessageSeverity, val message: String, val location: CompilerMessageLocation)
+
+    private class CollectingMessageCollector : MessageCollector {
+        val messages = ArrayList<Message>()
+
+        override fun report(severity: CompilerMessageSeverity, message: String, location: CompilerMessageLocation) {
+            messages.add(Message(severity, message, location))
+        }
+    }
+
+    private val compilerClassPath = listOf(File(KotlinIntegrationTestBase.getCompilerLib(), "kotlin-compiler.jar"))
+
+    private var backupEnabled: String? = null
+    private var backupOptions: String? = null
+    private var backupStartupTimeout: String? = null
+
+    override fun setUp() {
+        super.setUp()
+        backupEnabled = System.getProperty(COMPILE_DAEMON_ENABLED_PROPERTY)
+        backupOptions = System.getProperty(COMPILE_DAEMON_OPTIONS_PROPERTY)
+        backupStartupTimeout = System.getProperty(COMPILE_DAEMON_STARTUP_TIMEOUT_PROPERTY)
+
+        // daemons started by the tests don't interfere with the ones of the developer
+        System.setProperty(COMPILE_DAEMON_OPTIONS_PROPERTY, "runFilesPath=" + File(tmpdir, getTestName(true)).absolutePath)
+    }
+
+    override fun tearDown() {
+        restoreSystemProperty(COMPILE_DAEMON_ENABLED_PROPERTY, backupEnabled)
+        restoreSystemProperty(COMPILE_DAEMON_OPTIONS_PROPERTY, backupOptions)
+        restoreSystemProperty(COMPILE_DAEMON_STARTUP_TIMEOUT_PROPERTY, backupStartupTimeout)
+        super.tearDown()
+    }
+
+    private fun compile(source: String, messageCollector: MessageCollector, outputItemsCollector: OutputItemsCollectorImpl,
+                        compilerClassPath: List<File>): ExitCode? {
+        val sourceFile = File(tmpdir, "main.kt")
+        sourceFile.writeText(source)
+
+        val arguments = K2JVMCompilerArguments()
+        arguments.freeArgs = listOf(sourceFile.absolutePath)
+        arguments.destination = File(tmpdir, "out").absolutePath
+        arguments.noStdlib = true
+
+        return DaemonCompilerRunner.compile(arguments, Services.EMPTY, messageCollector, outputItemsCollector, compilerClassPath)
+    }
+
+    fun testNotRunWhenDaemonIsDisabled() {
+        System.clearProperty(COMPILE_DAEMON_ENABLED_PROPERTY)
+        val messageCollector = CollectingMessageCollector()
+
+        assertNull(compile("fun foo() {}", messageCollector, OutputItemsCollectorImpl(), compilerClassPath))
+        assertEmpty(messageCollector.messages)
+    }
+
+    fun testFallbackWhenDaemonIsUnavailable() {
+        System.setProperty(COMPILE_DAEMON_ENABLED_PROPERTY, "")
+        // the daemon process can't find its main class and exits
+        System.setProperty(COMPILE_DAEMON_STARTUP_TIMEOUT_PROPERTY, "3000")
+        val messageCollector = CollectingMessageCollector()
+
+        val exitCode = compile("fun foo() {}", messageCollector, OutputItemsCollectorImpl(), listOf(File(tmpdir, "no-compiler.jar")))
+
+        assertNull(exitCode)
+        assertTrue(messageCollector.messages.joinToString("\n") { it.message },
+                   messageCollector.messages.any {
+                       it.severity == CompilerMessageSeverity.INFO && it.message.startsWith("Falling back to compilation without daemon")
+                   })
+        assertFalse(messageCollector.messages.any { it.severity == CompilerMessageSeverity.ERROR })
+    }
+
+    fun testMessagesAndOutputsOfDaemonAreReported() {
+        System.setProperty(COMPILE_DAEMON_ENABLED_PROPERTY, "")
+        val daemonOptions = configureDaemonOptions()
+        try {
+            val messageCollector = CollectingMessageCollector()
+            val outputItemsCollector = OutputItemsCollectorImpl()
+            val exitCode = compile("package foo\n\nfun foo(): Int = \"\"\n", messageCollector, outputItemsCollector, compilerClassPath)
+
+            assertEquals(ExitCode.COMPILATION_ERROR, exitCode)
+            val error = messageCollector.messages.single { it.severity == CompilerMessageSeverity.ERROR }
+            assertEquals(File(tmpdir, "main.kt").absolutePath, File(error.location.path).absolutePath)
+            assertEquals(3, error.location.line)
+            assertEmpty(outputItemsCollector.outputs)
+
+            val successCollector = CollectingMessageCollector()
+            val successOutputs = OutputItemsCollectorImpl()
+            assertEquals(ExitCode.OK, compile("package foo\n\nfun foo(): Int = 1\n", successCollector, successOutputs, compilerClassPath))
+            assertFalse(successCollector.messages.any { it.severity == CompilerMessageSeverity.ERROR })
+
+            val output = successOutputs.outputs.single { it.outputFile.name == "MainKt.class" }
+            assertEquals(listOf(File(tmpdir, "main.kt").absolutePath), output.sourceFiles.map { it.absolutePath })
+        }
+        finally {
+            KotlinCompilerClient.shutdownCompileService(CompilerId.makeCompilerId(compilerClassPath), daemonOptions)
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest
+
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns
+
+/**
+ * Measures the creation of built-ins, which every compiler process and every use of reflection starts with.
+ *
+ * Built-in packages are read on first access (see BuiltinsPackageFragment): "startup" only reads the packages needed
+ * to create [KotlinBuiltIns], "all packages" also reads every other one, which is what creation used to cost.
+ * The first creation in the process is printed separately, since it includes class loading and runs in the interpreter.
+ *
+ * Usage: BuiltInsStartupBenchmark [runs]
+ */
+object BuiltInsStartupBenchmark {
+    private val WARMUP_RUNS = 3
+
+    private class BenchmarkBuiltIns : KotlinBuiltIns()
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val runs = args.getOrNull(0)?.toInt() ?: 50
+
+        val firstStart = System.nanoTime()
+        BenchmarkBuiltIns()
+        println("first startup: ${(System.nanoTime() - firstStart) / 1000} us")
+
+        println("startup: ${measure(runs) { BenchmarkBuiltIns() }} us")
+        println("all packages: ${measure(runs) { readAllPackages(BenchmarkBuiltIns()) }} us")
+    }
+
+    private fun readAllPackages(builtIns: KotlinBuiltIns) {
+        for (fqName in KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES) {
+            builtIns.builtInsModule.getPackage(fqName).memberScope.getContributedDescriptors()
+        }
+    }
+
+    // the median time of several runs after warming up, in microseconds
+    private fun measure(runs: Int, run: () -> Unit): Long {
+        repeat(WARMUP_RUNS) { run() }
+        val times = (1..runs).map {
+            val start = System.nanoTime()
+            run()
+            (System.nanoTime() - start) / 1000
+        }
+        return times.sorted()[runs / 2]
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest
+
+import com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmPackagePartProvider
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtPsiFactory
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Measures how body resolve scales with the number of frontend threads.
+ *
+ * All threads record their results to a [org.jetbrains.kotlin.resolve.LockingBindingTrace], which takes the lock of the storage manager,
+ * so the serial fraction printed for each thread count (estimated from Amdahl's law) shows how much time is spent under that lock.
+ *
+ * Usage: ParallelBodyResolveBenchmark [functions] [max threads]
+ */
+object ParallelBodyResolveBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val functions = args.getOrNull(0)?.toInt() ?: 2000
+        val maxThreads = args.getOrNull(1)?.toInt() ?: Runtime.getRuntime().availableProcessors()
+
+        val disposable = Disposer.newDisposable()
+        try {
+            val configuration = KotlinTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.FULL_JDK)
+            val environment = KotlinCoreEnvironment.createForTests(disposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+            val files = generateFiles(environment, functions)
+
+            println("Resolving bodies of $functions functions")
+            val sequential = measure(environment, files, null)
+            println("sequential: $sequential ms")
+
+            var threads = 2
+            while (threads <= maxThreads) {
+                val executor = ForkJoinPool(threads)
+                try {
+                    val time = measure(environment, files, executor)
+                    val speedup = sequential.toDouble() / time
+                    val serialFraction = (1.0 / speedup - 1.0 / threads) / (1.0 - 1.0 / threads)
+                    println(String.format("%2d threads: %d ms, speedup %.2f, serial fraction %.2f", threads, time, speedup, serialFraction))
+                }
+                finally {
+                    executor.shutdownNow()
+                }
+                threads *= 2
+            }
+        }
+        finally {
+            Disposer.dispose(disposable)
+        }
+    }
+
+    private fun generateFiles(environment: KotlinCoreEnvironment, functions: Int): List<KtFile> {
+        val factory = KtPsiFactory(environment.project)
+        return (0..functions / 100).map { fileIndex ->
+            val text = StringBuilder("package test$fileIndex\n\n")
+            for (i in 0..Math.min(100, functions - fileIndex * 100) - 1) {
+                text.append("""
+                    fun f$i(list: List<Int>): Map<Int, String> {
+                        val filtered = list.filter { it % ${i + 2} == 0 }.map { it * $i }
+                        var sum = 0
+                        for (element in filtered) sum += element
+                        return filtered.associate { it to (it + sum).toString() + "$i" }
+                    }
+                """)
+            }
+            factory.createFile("file$fileIndex.kt", text.toString())
+        }
+    }
+
+    // the median time of several analyses after warming up, in milliseconds
+    private fun measure(environment: KotlinCoreEnvironment, files: List<KtFile>, executor: ExecutorService?): Long {
+        repeat(WARMUP_RUNS) { analyze(environment, files, executor) }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            analyze(environment, files, executor)
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+
+    private fun analyze(environment: KotlinCoreEnvironment, files: List<KtFile>, executor: ExecutorService?) {
+        val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.project, JvmResolveUtil.TEST_MODULE_NAME)
+        TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                moduleContext, files, CliLightClassGenerationSupport.CliBindingTrace(), null, null,
+                JvmPackagePartProvider(environment), executor
+        )
+    }
+}
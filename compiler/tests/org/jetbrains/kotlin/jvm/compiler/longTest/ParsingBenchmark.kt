@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest
+
+import com.intellij.openapi.util.Disposer
+import com.intellij.psi.PsiRecursiveElementVisitor
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtPsiFactory
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.io.File
+
+/**
+ * Measures parsing throughput over the sources of the standard library and the parser test data.
+ *
+ * "declarations" only builds the tree of declarations, leaving function bodies collapsed (see BlockExpressionElementType),
+ * which is what a compilation needs for the files it doesn't resolve completely; "full tree" also parses every body.
+ *
+ * Usage: ParsingBenchmark [source directories...]
+ */
+object ParsingBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val roots = if (args.isNotEmpty()) args.map { File(it) } else listOf(File("libraries/stdlib/src"), File("compiler/testData/psi"))
+        val sources = roots.flatMap { root -> root.walkTopDown().filter { it.isFile && it.extension == "kt" }.toList() }
+                .map { it.name to it.readText() }
+        val megabytes = sources.sumBy { it.second.length } / (1024.0 * 1024.0)
+
+        val disposable = Disposer.newDisposable()
+        try {
+            val configuration = KotlinTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.FULL_JDK)
+            val environment = KotlinCoreEnvironment.createForTests(disposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+            val factory = KtPsiFactory(environment.project)
+
+            println(String.format("Parsing %d files, %.1f MB", sources.size, megabytes))
+            report("declarations", measure(factory, sources) { it.declarations }, megabytes)
+            report("full tree", measure(factory, sources) { it.accept(object : PsiRecursiveElementVisitor() {}) }, megabytes)
+        }
+        finally {
+            Disposer.dispose(disposable)
+        }
+    }
+
+    private fun report(mode: String, millis: Long, megabytes: Double) {
+        println(String.format("%s: %d ms, %.2f MB/s", mode, millis, megabytes * 1000 / Math.max(millis, 1L)))
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measure(factory: KtPsiFactory, sources: List<Pair<String, String>>, access: (KtFile) -> Unit): Long {
+        repeat(WARMUP_RUNS) { parse(factory, sources, access) }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            parse(factory, sources, access)
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+
+    private fun parse(factory: KtPsiFactory, sources: List<Pair<String, String>>, access: (KtFile) -> Unit) {
+        for ((name, text) in sources) {
+            access(factory.createFile(name, text))
+        }
+    }
+}
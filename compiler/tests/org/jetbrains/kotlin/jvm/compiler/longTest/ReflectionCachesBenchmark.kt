@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest
+
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import java.lang.reflect.Method
+import java.net.URLClassLoader
+import java.util.zip.ZipFile
+
+/**
+ * Measures the KClass cache of kotlin-reflect built from this repository: lookups of cached classes, which are done
+ * by every reflective call, and misses on classes of class loaders which are created and discarded over and over,
+ * like in applications which reload their code. The latter also prints how much heap is retained after that.
+ *
+ * The cache is called through kotlin.jvm.internal.Reflection with java.lang.reflect, whose overhead is included in the times.
+ *
+ * Usage: ReflectionCachesBenchmark [lookups] [class loaders]
+ */
+object ReflectionCachesBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val lookups = args.getOrNull(0)?.toInt() ?: 10000000
+        val classLoaders = args.getOrNull(1)?.toInt() ?: 1000
+
+        val reflectionClassLoader = ForTestCompileRuntime.runtimeAndReflectJarClassLoader()
+        val getOrCreateKotlinClass = reflectionClassLoader.loadClass("kotlin.jvm.internal.Reflection")
+                .getMethod("getOrCreateKotlinClass", Class::class.java)
+
+        val classes = runtimeClassNames().take(100).map { reflectionClassLoader.loadClass(it) }
+        val hits = measure { lookUp(getOrCreateKotlinClass, classes, lookups) }
+        println(String.format("%d lookups of %d cached classes: %d ms, %.1f ns per lookup",
+                              lookups, classes.size, hits, hits * 1000000.0 / lookups))
+
+        val before = usedMemoryAfterGC()
+        val misses = measure { loadInNewClassLoaders(getOrCreateKotlinClass, classLoaders) }
+        val retained = usedMemoryAfterGC() - before
+        println(String.format("%d class loaders: %d ms, %.1f MB retained", classLoaders, misses, retained / (1024.0 * 1024.0)))
+    }
+
+    private fun runtimeClassNames(): List<String> =
+            ZipFile(ForTestCompileRuntime.runtimeJarForTests()).use { jar ->
+                jar.entries().toList()
+                        .map { it.name }
+                        .filter { it.endsWith(".class") && !it.contains('$') }
+                        .map { it.removeSuffix(".class").replace('/', '.') }
+            }
+
+    private fun lookUp(getOrCreateKotlinClass: Method, classes: List<Class<*>>, lookups: Int) {
+        for (i in 0..lookups - 1) {
+            getOrCreateKotlinClass.invoke(null, classes[i % classes.size])
+        }
+    }
+
+    private fun loadInNewClassLoaders(getOrCreateKotlinClass: Method, classLoaders: Int) {
+        val runtimeJar = ForTestCompileRuntime.runtimeJarForTests().toURI().toURL()
+        repeat(classLoaders) {
+            getOrCreateKotlinClass.invoke(null, URLClassLoader(arrayOf(runtimeJar), null).loadClass("kotlin.Pair"))
+        }
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measure(run: () -> Unit): Long {
+        repeat(WARMUP_RUNS) { run() }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            run()
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+
+    private fun usedMemoryAfterGC(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) { System.gc() }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest
+
+import org.jetbrains.kotlin.util.slicedMap.*
+
+/**
+ * Compares the heap footprint and the speed of [SlicedMapImpl] and [CompactSlicedMap]
+ * (see kotlin.compiler.compact.sliced.maps in BindingTraceContext).
+ *
+ * Like in a binding context, every key has values in a few of many slices.
+ *
+ * Usage: SlicedMapBenchmark [keys]
+ */
+object SlicedMapBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+    private val SLICE_COUNT = 20
+    private val SLICES_PER_KEY = 3
+
+    private val slices = (1..SLICE_COUNT).map { Slices.sliceBuilder<Any, Any>().setDebugName("SLICE$it").build() }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val keyCount = args.getOrNull(0)?.toInt() ?: 200000
+        val keys = (1..keyCount).map { Any() }
+
+        println("$keyCount keys with values in $SLICES_PER_KEY of $SLICE_COUNT slices")
+        report("SlicedMapImpl", keys) { SlicedMapImpl.create() }
+        report("CompactSlicedMap", keys) { CompactSlicedMap.create() }
+    }
+
+    private fun report(name: String, keys: List<Any>, create: () -> MutableSlicedMap) {
+        val footprint = measureFootprint(keys, create)
+        val time = measureTime(keys, create)
+        println(String.format("%s: %.1f MB retained, %d ms to fill and read", name, footprint / (1024.0 * 1024.0), time))
+    }
+
+    private fun fill(map: MutableSlicedMap, keys: List<Any>) {
+        keys.forEachIndexed { i, key ->
+            for (s in 0..SLICES_PER_KEY - 1) {
+                map.put(slices[(i + s * 7) % SLICE_COUNT], key, key)
+            }
+        }
+    }
+
+    private fun read(map: MutableSlicedMap, keys: List<Any>): Int {
+        var found = 0
+        keys.forEachIndexed { i, key ->
+            // one of the slices has no value for the key, like most lookups in a binding context
+            for (s in 0..SLICES_PER_KEY) {
+                if (map.get(slices[(i + s * 7) % SLICE_COUNT], key) != null) found++
+            }
+        }
+        return found
+    }
+
+    private fun measureFootprint(keys: List<Any>, create: () -> MutableSlicedMap): Long {
+        val before = usedMemoryAfterGC()
+        val map = create()
+        fill(map, keys)
+        val after = usedMemoryAfterGC()
+        // keeps the map reachable until it is measured
+        if (map.get(slices[0], keys[0]) == null) println()
+        return after - before
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measureTime(keys: List<Any>, create: () -> MutableSlicedMap): Long {
+        repeat(WARMUP_RUNS) { read(create().apply { fill(this, keys) }, keys) }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            read(create().apply { fill(this, keys) }, keys)
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+
+    private fun usedMemoryAfterGC(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) { System.gc() }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest
+
+import org.jetbrains.kotlin.storage.ConcurrentStorageManager
+import org.jetbrains.kotlin.storage.LockBasedStorageManager
+import org.jetbrains.kotlin.storage.MemoizedFunctionToNotNull
+import org.jetbrains.kotlin.storage.StorageManager
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Compares [LockBasedStorageManager] with [ConcurrentStorageManager] (see -Xconcurrent-storage) on 1, 4 and 16 threads.
+ *
+ * Every thread requests all values of a memoized function in its own order. Like a lazy declaration, a value depends on the values
+ * of smaller keys and takes some work to compute, so threads both compute values and wait for the ones computed by others.
+ *
+ * Usage: StorageManagerBenchmark [keys] [work per value]
+ */
+object StorageManagerBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+    private val THREAD_COUNTS = listOf(1, 4, 16)
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val keys = args.getOrNull(0)?.toInt() ?: 20000
+        val work = args.getOrNull(1)?.toInt() ?: 2000
+
+        println("Computing $keys values, $work iterations each")
+        for (threads in THREAD_COUNTS) {
+            val lockBased = measure(threads, keys, work) { LockBasedStorageManager() }
+            val concurrent = measure(threads, keys, work) { ConcurrentStorageManager() }
+            println(String.format("%2d threads: lock-based %d ms, concurrent %d ms", threads, lockBased, concurrent))
+        }
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measure(threads: Int, keys: Int, work: Int, createStorageManager: () -> StorageManager): Long {
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            repeat(WARMUP_RUNS) { run(createStorageManager(), executor, threads, keys, work) }
+            val times = (1..MEASURED_RUNS).map {
+                val start = System.nanoTime()
+                run(createStorageManager(), executor, threads, keys, work)
+                (System.nanoTime() - start) / 1000000
+            }
+            return times.sorted()[MEASURED_RUNS / 2]
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun run(storageManager: StorageManager, executor: ExecutorService, threads: Int, keys: Int, work: Int) {
+        var values: MemoizedFunctionToNotNull<Int, Long>? = null
+        values = storageManager.createMemoizedFunction { key: Int ->
+            var result = if (key < 3) key.toLong() else values!!(key / 2) + values!!(key / 3)
+            for (i in 1..work) {
+                result = result * 31 + i
+            }
+            result
+        }
+
+        val tasks = (0..threads - 1).map { thread ->
+            Callable {
+                val order = (0..keys - 1).toMutableList()
+                Collections.shuffle(order, Random(thread.toLong()))
+                order.sumByLong { values!!(it) }
+            }
+        }
+        executor.invokeAll(tasks).forEach { it.get() }
+    }
+
+    private fun Iterable<Int>.sumByLong(selector: (Int) -> Long): Long {
+        var sum = 0L
+        for (element in this) sum += selector(element)
+        return sum
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.runtime
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import java.net.URLClassLoader
+
+// Checks that the caches of kotlin-reflect don't keep entries of classes and class loaders which were collected
+class ReflectionCachesTest : TestCase() {
+    private val reflectionClassLoader = ForTestCompileRuntime.runtimeAndReflectJarClassLoader()
+
+    private fun getOrCreateKotlinClass(jClass: Class<*>): Any =
+            reflectionClassLoader.loadClass("kotlin.jvm.internal.Reflection")
+                    .getMethod("getOrCreateKotlinClass", Class::class.java).invoke(null, jClass)
+
+    // a class whose class loader is not referenced by anything but the class
+    private fun classOfNewClassLoader(): Class<*> =
+            URLClassLoader(arrayOf(ForTestCompileRuntime.runtimeJarForTests().toURI().toURL()), null).loadClass(CLASS_NAME)
+
+    private fun cache(facadeClassName: String, fieldName: String): Map<*, *> {
+        val field = reflectionClassLoader.loadClass("kotlin.reflect.jvm.internal.$facadeClassName").getDeclaredField(fieldName)
+        field.isAccessible = true
+        return field.get(null) as Map<*, *>
+    }
+
+    // classes with the same name loaded by different class loaders share an entry of the cache
+    private fun cachedKClasses(): Int {
+        val cached = cache("KClassCacheKt", "K_CLASS_CACHE")[CLASS_NAME]
+        return when (cached) {
+            null -> 0
+            is Array<*> -> cached.size
+            else -> 1
+        }
+    }
+
+    private fun cachedModules(): Int = cache("ModuleByClassLoaderKt", "moduleByClassLoader").size
+
+    // cleared references are removed on cache misses, so every attempt misses the cache with a class of a new class loader
+    private fun assertPrunedAfterGC(size: () -> Int, limit: Int, miss: () -> Unit) {
+        for (attempt in 1..GC_ATTEMPTS) {
+            System.gc()
+            miss()
+            if (size() <= limit) return
+        }
+        fail("The cache still has ${size()} entries after $GC_ATTEMPTS garbage collections, expected at most $limit")
+    }
+
+    fun testKClassesOfCollectedClassLoadersAreRemoved() {
+        repeat(CLASS_LOADERS) { getOrCreateKotlinClass(classOfNewClassLoader()) }
+
+        assertPrunedAfterGC({ cachedKClasses() }, CLASS_LOADERS / 2) { getOrCreateKotlinClass(classOfNewClassLoader()) }
+    }
+
+    fun testModulesOfCollectedClassLoadersAreRemoved() {
+        fun loadMembers() {
+            val kClass = getOrCreateKotlinClass(classOfNewClassLoader())
+            kClass.javaClass.getMethod("getMembers").invoke(kClass)
+        }
+
+        val before = cachedModules()
+        repeat(CLASS_LOADERS) { loadMembers() }
+
+        assertPrunedAfterGC({ cachedModules() }, before + CLASS_LOADERS / 2) { loadMembers() }
+    }
+
+    companion object {
+        private val CLASS_NAME = "kotlin.Pair"
+        private val CLASS_LOADERS = 20
+        private val GC_ATTEMPTS = 10
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.parsing
+
+import com.intellij.psi.PsiErrorElement
+import com.intellij.psi.impl.source.tree.LazyParseableElement
+import com.intellij.psi.util.PsiTreeUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.psi.*
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+
+class LazyBlockParsingTest : KotlinTestWithEnvironment() {
+    fun testFunctionBodiesAreParsedOnAccess() {
+        val text = """
+            class A {
+                init { foo() }
+
+                val x: Int
+                    get() { return "${'$'}{ 1 }".length }
+
+                fun f(): Int {
+                    val g = { y: Int -> y + 1 }
+                    fun h() { g(2) }
+                    return g(1)
+                }
+            }
+        """
+        val file = KtPsiFactory(project).createFile(text)
+        val klass = file.declarations.single() as KtClass
+        val function = klass.declarations.filterIsInstance<KtNamedFunction>().single()
+        val getter = klass.getProperties().single().getter!!
+
+        val body = function.bodyExpression!!.node as LazyParseableElement
+        assertFalse(body.isParsed)
+        assertFalse((getter.bodyExpression!!.node as LazyParseableElement).isParsed)
+        assertTrue((klass.getAnonymousInitializers().single().body!!.node as LazyParseableElement).isParsed)
+
+        val statements = (function.bodyExpression as KtBlockExpression).statements
+        assertTrue(body.isParsed)
+        assertEquals(listOf("val g = { y: Int -> y + 1 }", "fun h() { g(2) }", "return g(1)"), statements.map { it.text })
+        assertEquals(text, file.text)
+        assertNull(PsiTreeUtil.findChildOfType(file, PsiErrorElement::class.java))
+    }
+
+    fun testUnbalancedBodyIsParsedEagerly() {
+        val file = KtPsiFactory(project).createFile("fun f() { if (true) { foo() }")
+        val function = file.declarations.single() as KtNamedFunction
+
+        assertTrue((function.bodyExpression!!.node as LazyParseableElement).isParsed)
+        assertNotNull(PsiTreeUtil.findChildOfType(file, PsiErrorElement::class.java))
+    }
+
+    fun testExtraClosingBraceInBody() {
+        val file = KtPsiFactory(project).createFile("fun f() { val x = (1 + } }")
+        val function = file.declarations.single() as KtNamedFunction
+
+        assertEquals("{ val x = (1 + }", function.bodyExpression!!.text)
+        assertNotNull(PsiTreeUtil.findChildOfType(function.bodyExpression, PsiErrorElement::class.java))
+    }
+
+    override fun createEnvironment(): KotlinCoreEnvironment {
+        return KotlinCoreEnvironment.createForTests(testRootDisposable!!, CompilerConfiguration(), EnvironmentConfigFiles.JVM_CONFIG_FILES)
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmPackagePartProvider
+import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtPsiFactory
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+
+class ParallelBodyResolveTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment() = createEnvironmentWithMockJdk(ConfigurationKind.JDK_ONLY)
+
+    fun testSameResultsAsSequentialResolve() {
+        val file = KtPsiFactory(project).createFile("file.kt", """
+            class Klass(val x: Int) {
+                fun inferred() = helper(x) + 1
+
+                fun explicit(list: List<Int>): Int {
+                    var sum = 0
+                    for (element in list) sum += element
+                    return sum
+                }
+
+                fun local(): Any {
+                    class Local { fun get() = inferred() }
+                    return object : Runnable { override fun run() { Local().get() } }
+                }
+
+                fun error(): String = x
+            }
+
+            fun helper(i: Int) = i * 2
+
+            fun recursive(n: Int): Int = if (n > 0) recursive(n - 1) else unresolved
+
+            fun lambda(s: String) = { t: String -> s + t }
+        """)
+
+        val sequential = analyze(file, executor = null)
+
+        val executor = ForkJoinPool(4)
+        try {
+            // the executor is shared by the analyses and isn't shut down by them
+            for (i in 1..2) {
+                val parallel = analyze(file, executor)
+                assertEquals(renderDiagnostics(sequential), renderDiagnostics(parallel))
+                assertEquals(renderTypes(sequential), renderTypes(parallel))
+                assertFalse(executor.isShutdown)
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun analyze(file: KtFile, executor: ExecutorService?): BindingContext {
+        val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(project, JvmResolveUtil.TEST_MODULE_NAME)
+        return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                moduleContext, listOf(file), CliLightClassGenerationSupport.CliBindingTrace(), null, null,
+                JvmPackagePartProvider(environment), executor
+        ).bindingContext
+    }
+
+    private fun renderDiagnostics(bindingContext: BindingContext): List<String> =
+            bindingContext.diagnostics.map { "${it.psiElement.textOffset}: ${DefaultErrorMessages.render(it)}" }.sorted()
+
+    private fun renderTypes(bindingContext: BindingContext): List<String> =
+            bindingContext.getSliceContents(BindingContext.EXPRESSION_TYPE_INFO).entries
+                    .map { "${it.key.textOffset} ${it.key.text}: ${it.value.type}" }
+                    .sorted()
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.serialization.builtins
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.builtins.BuiltInSerializerProtocol
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns
+import org.jetbrains.kotlin.builtins.createBuiltInPackageFragmentProvider
+import org.jetbrains.kotlin.incremental.components.NoLookupLocation
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.resolve.TargetPlatform
+import org.jetbrains.kotlin.serialization.deserialization.ClassDescriptorFactory
+import org.jetbrains.kotlin.storage.LockBasedStorageManager
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.util.*
+
+class LazyBuiltInsPackagesTest : TestCase() {
+    fun testPackageIsReadOnFirstAccess() {
+        val loadedResources = ArrayList<String>()
+        val module = KotlinTestUtils.createEmptyModule("<module>", TargetPlatform.Default)
+        val packageFragmentProvider = createBuiltInPackageFragmentProvider(
+                LockBasedStorageManager(), module, KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES, ClassDescriptorFactory.EMPTY
+        ) {
+            loadedResources.add(it)
+            KotlinBuiltIns::class.java.classLoader.getResourceAsStream(it)
+        }
+        module.initialize(packageFragmentProvider)
+        module.setDependencies(module)
+
+        val fragments = KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES.map { packageFragmentProvider.getPackageFragments(it).single() }
+        assertEquals(KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES.size, fragments.size)
+        assertEquals(emptyList<String>(), loadedResources)
+
+        val collections = KotlinBuiltIns.COLLECTIONS_PACKAGE_FQ_NAME
+        val list = packageFragmentProvider.getPackageFragments(collections).single().getMemberScope()
+                .getContributedClassifier(Name.identifier("List"), NoLookupLocation.FROM_TEST)
+        assertNotNull(list)
+        assertEquals(listOf(BuiltInSerializerProtocol.getBuiltInsFilePath(collections)), loadedResources)
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs all tests of StorageManagerTest against ConcurrentStorageManager, plus the multi-threaded ones
+public class ConcurrentStorageManagerTest extends StorageManagerTest {
+    private static final int THREADS = 16;
+
+    private ExecutorService executor;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        m = new ConcurrentStorageManager();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testLazyValueComputedOnceByManyThreads() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final NotNullLazyValue<Integer> value = m.createLazyValue(new Function0<Integer>() {
+            @Override
+            public Integer invoke() {
+                try {
+                    started.await();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return counter.incrementAndGet();
+            }
+        });
+
+        List<Future<Integer>> results = invokeFromAllThreads(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return value.invoke();
+            }
+        });
+        started.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(1, result.get(10, TimeUnit.SECONDS).intValue());
+        }
+        assertEquals(1, counter.get());
+    }
+
+    public void testMemoizedFunctionComputedOncePerKeyByManyThreads() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final MemoizedFunctionToNotNull<Integer, String> function = m.createMemoizedFunction(new Function1<Integer, String>() {
+            @Override
+            public String invoke(Integer key) {
+                counter.incrementAndGet();
+                return "v" + key;
+            }
+        });
+
+        List<Future<String>> results = invokeFromAllThreads(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                StringBuilder result = new StringBuilder();
+                for (int i = 0; i < 100; i++) {
+                    result.append(function.invoke(i));
+                }
+                return result.toString();
+            }
+        });
+
+        String expected = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<String> result : results) {
+            assertEquals(expected, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(100, counter.get());
+    }
+
+    public void testCycleAcrossThreadsIsReportedAsRecursion() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+
+        class C {
+            final NotNullLazyValue<String> first = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    awaitBarrier(barrier);
+                    return "first(" + second.invoke() + ")";
+                }
+            }, "rec");
+
+            final NotNullLazyValue<String> second = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    awaitBarrier(barrier);
+                    return "second(" + first.invoke() + ")";
+                }
+            }, "rec");
+        }
+
+        final C c = new C();
+        Future<String> first = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return c.first.invoke();
+            }
+        });
+        Future<String> second = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return c.second.invoke();
+            }
+        });
+
+        // Without cycle detection both threads would wait for each other forever
+        String firstResult = first.get(10, TimeUnit.SECONDS);
+        String secondResult = second.get(10, TimeUnit.SECONDS);
+        // Depending on which thread closes the cycle, one or both of them see the recursion
+        assertTrue(firstResult, firstResult.equals("first(rec)") || firstResult.equals("first(second(rec))"));
+        assertTrue(secondResult, secondResult.equals("second(rec)") || secondResult.equals("second(first(rec))"));
+    }
+
+    private <T> List<Future<T>> invokeFromAllThreads(Callable<T> callable) {
+        List<Future<T>> results = new ArrayList<Future<T>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(callable));
+        }
+        return results;
+    }
+
+    private static void awaitBarrier(CyclicBarrier barrier) {
+        try {
+            barrier.await(10, TimeUnit.SECONDS);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util
+
+import junit.framework.TestCase
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class PhaseProfilerTest : TestCase() {
+    fun testNestedPhasesAndTargets() {
+        val profiler = PhaseProfiler.create()
+
+        profiler.measure("codegen") {
+            profiler.measure("codegen", "a.b") {
+                profiler.measure("optimization") {}
+            }
+            profiler.measure("codegen", "a.\"c\"") {}
+        }
+        profiler.stop()
+        profiler.measure("ignored") {}
+
+        val report = profiler.renderReport()
+        // the codegen of packages is part of the codegen of the module
+        assertTrue(report, report.contains("{\"phase\": \"codegen\", \"count\": 1, "))
+        assertTrue(report, report.contains("{\"phase\": \"optimization\", \"count\": 1, "))
+        assertTrue(report, report.contains("{\"phase\": \"codegen\", \"target\": \"a.b\", \"count\": 1, "))
+        assertTrue(report, report.contains("{\"phase\": \"codegen\", \"target\": \"a.\\\"c\\\"\", \"count\": 1, "))
+        assertFalse(report, report.contains("ignored"))
+        assertTrue(report.indexOf("\"codegen\"") < report.indexOf("\"optimization\""))
+    }
+
+    fun testNestedPhaseIsExcludedFromEnclosingPhase() {
+        val profiler = PhaseProfiler.create()
+
+        profiler.measure("codegen") {
+            profiler.measure("codegen", "a") {
+                profiler.measure("optimization") { Thread.sleep(SLEEP_MS) }
+            }
+        }
+
+        val report = profiler.renderReport()
+        assertTrue(report, wallNanos(report, "optimization") >= TimeUnit.MILLISECONDS.toNanos(SLEEP_MS))
+        assertTrue(report, wallNanos(report, "codegen") < wallNanos(report, "optimization"))
+    }
+
+    fun testPhaseOnOtherThreadIsExcludedFromParent() {
+        val profiler = PhaseProfiler.create()
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            profiler.measure("codegen") {
+                val parent = profiler.currentPhase()
+                executor.submit(Runnable {
+                    val measurement = profiler.startPhaseInside(parent, "optimization")
+                    try {
+                        Thread.sleep(SLEEP_MS)
+                    }
+                    finally {
+                        measurement.finish()
+                    }
+                }).get()
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+
+        val report = profiler.renderReport()
+        assertTrue(report, wallNanos(report, "optimization") >= TimeUnit.MILLISECONDS.toNanos(SLEEP_MS))
+        assertTrue(report, wallNanos(report, "codegen") < wallNanos(report, "optimization"))
+    }
+
+    fun testProfilersDoNotShareResults() {
+        val first = PhaseProfiler.create()
+        val second = PhaseProfiler.create()
+
+        first.measure("parse", "a.kt") {
+            second.measure("analysis") {}
+        }
+
+        assertFalse(first.renderReport().contains("analysis"))
+        assertFalse(second.renderReport().contains("parse"))
+    }
+
+    fun testDisabledProfilerRecordsNothing() {
+        PhaseProfiler.DISABLED.measure("parse", "a.kt") {}
+
+        assertNull(PhaseProfiler.DISABLED.currentPhase())
+        assertEquals("{\n  \"phases\": [\n  ],\n  \"targets\": [\n  ]\n}\n", PhaseProfiler.DISABLED.renderReport())
+    }
+
+    private fun wallNanos(report: String, phase: String): Long {
+        val match = Regex("\\{\"phase\": \"$phase\", \"count\": \\d+, \"wallNanos\": (\\d+),").find(report)
+        assertNotNull(report, match)
+        return match!!.groupValues[1].toLong()
+    }
+
+    companion object {
+        private val SLEEP_MS = 200L
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import junit.framework.TestCase;
+import kotlin.jvm.functions.Function3;
+
+import java.util.*;
+
+public class CompactSlicedMapTest extends TestCase {
+    private final WritableSlice<Object, Integer> NUMBER = Slices.<Object, Integer>sliceBuilder().setDebugName("NUMBER").build();
+    private final WritableSlice<Object, String> NAME = Slices.<Object, String>sliceBuilder().setDebugName("NAME").build();
+    private final WritableSlice<Object, Boolean> MARKED = new BasicWritableSlice<Object, Boolean>(RewritePolicy.DO_NOTHING) {
+        // null removes the value
+        @Override
+        public boolean check(Object key, Boolean value) {
+            return true;
+        }
+    };
+    private final WritableSlice<Object, String> COLLECTED = Slices.createCollectiveSlice();
+
+    // all instances collide, so that probing and removal are exercised
+    private static class CollidingKey {
+        private final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+    }
+
+    public void testPutAndGet() {
+        CompactSlicedMap map = CompactSlicedMap.create();
+        map.put(NUMBER, "a", 1);
+        map.put(NAME, "a", "first");
+        map.put(NUMBER, "b", 2);
+
+        assertEquals(1, (int) map.get(NUMBER, "a"));
+        assertEquals(2, (int) map.get(NUMBER, "b"));
+        assertEquals("first", map.get(NAME, "a"));
+        assertNull(map.get(NAME, "b"));
+        assertNull(map.get(MARKED, "a"));
+
+        map.clear();
+        assertNull(map.get(NUMBER, "a"));
+    }
+
+    public void testSameContentsAsSlicedMapImpl() {
+        CompactSlicedMap compact = CompactSlicedMap.create();
+        SlicedMapImpl reference = SlicedMapImpl.create();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 10000; i++) {
+            Object key = random.nextBoolean() ? new CollidingKey(random.nextInt(100)) : random.nextInt(1000);
+            Boolean value = random.nextInt(3) == 0 ? null : Boolean.TRUE;
+            compact.put(MARKED, key, value);
+            reference.put(MARKED, key, value);
+            compact.put(NUMBER, key, 7);
+            reference.put(NUMBER, key, 7);
+        }
+
+        assertEquals(reference.getSliceContents(MARKED), compact.getSliceContents(MARKED));
+        assertEquals(reference.getSliceContents(NUMBER), compact.getSliceContents(NUMBER));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(reference.get(MARKED, new CollidingKey(i)), compact.get(MARKED, new CollidingKey(i)));
+        }
+    }
+
+    public void testCollectiveKeys() {
+        CompactSlicedMap map = CompactSlicedMap.create();
+        assertTrue(map.getKeys(COLLECTED).isEmpty());
+
+        map.put(COLLECTED, "a", "1");
+        map.put(COLLECTED, "b", "2");
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<Object>(map.getKeys(COLLECTED)));
+    }
+
+    public void testNullKey() {
+        CompactSlicedMap map = CompactSlicedMap.create();
+        map.put(NAME, null, "null");
+        assertEquals("null", map.get(NAME, null));
+        assertEquals(Collections.singletonMap(null, "null"), collect(map).get(NAME));
+    }
+
+    public void testForEach() {
+        CompactSlicedMap map = CompactSlicedMap.create();
+        for (int i = 0; i < 100; i++) {
+            map.put(NUMBER, i, i);
+            map.put(NAME, i, String.valueOf(i));
+        }
+
+        Map<WritableSlice, Map<Object, Object>> contents = collect(map);
+        assertEquals(2, contents.size());
+        assertEquals(100, contents.get(NUMBER).size());
+        assertEquals("99", contents.get(NAME).get(99));
+    }
+
+    private static Map<WritableSlice, Map<Object, Object>> collect(CompactSlicedMap map) {
+        final Map<WritableSlice, Map<Object, Object>> result = new HashMap<WritableSlice, Map<Object, Object>>();
+        map.forEach(new Function3<WritableSlice, Object, Object, Void>() {
+            @Override
+            public Void invoke(WritableSlice slice, Object key, Object value) {
+                Map<Object, Object> sliceContents = result.get(slice);
+                if (sliceContents == null) {
+                    sliceContents = new HashMap<Object, Object>();
+                    result.put(slice, sliceContents);
+                }
+                sliceContents.put(key, value);
+                return null;
+            }
+        });
+        return result;
+    }
+}
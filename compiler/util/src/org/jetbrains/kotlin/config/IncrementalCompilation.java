@@ -21,6 +21,7 @@ import org.jetbrains.annotations.TestOnly;
 public class IncrementalCompilation {
     private static final String INCREMENTAL_COMPILATION_PROPERTY = "kotlin.incremental.compilation";
     private static final String IS_EXPERIMENTAL_PROPERTY = "kotlin.incremental.compilation.experimental";
+    private static final String READ_SNAPSHOTS_PROPERTY = "kotlin.incremental.compilation.read.snapshots";
 
     public static boolean isExperimental() {
         return isEnabled() && "true".equals(System.getProperty(IS_EXPERIMENTAL_PROPERTY));
@@ -30,6 +31,11 @@ public class IncrementalCompilation {
         return !"false".equals(System.getProperty(INCREMENTAL_COMPILATION_PROPERTY));
     }
 
+    // Serve reads of the biggest caches from memory-mapped snapshots written on flush
+    public static boolean useReadSnapshots() {
+        return isEnabled() && "true".equals(System.getProperty(READ_SNAPSHOTS_PROPERTY));
+    }
+
     @TestOnly
     public static void setIsEnabled(boolean value) {
         System.setProperty(INCREMENTAL_COMPILATION_PROPERTY, String.valueOf(value));
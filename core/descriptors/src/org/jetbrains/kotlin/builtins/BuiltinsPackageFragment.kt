@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.serialization.deserialization.DeserializedPackageFra
 import org.jetbrains.kotlin.serialization.deserialization.NameResolverImpl
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedPackageMemberScope
 import org.jetbrains.kotlin.storage.StorageManager
+import org.jetbrains.kotlin.storage.getValue
 import java.io.InputStream
 
 class BuiltinsPackageFragment(
@@ -31,29 +32,38 @@ class BuiltinsPackageFragment(
         module: ModuleDescriptor,
         loadResource: (path: String) -> InputStream?
 ) : DeserializedPackageFragment(fqName, storageManager, module, loadResource) {
-    private val proto = run {
-        val stream = loadResourceSure(BuiltInSerializerProtocol.getBuiltInsFilePath(fqName))
-        val version = BuiltInsBinaryVersion.readFrom(stream)
-
-        if (!version.isCompatible()) {
-            // TODO: report a proper diagnostic
-            throw UnsupportedOperationException(
-                    "Kotlin built-in definition format version is not supported: " +
-                    "expected ${BuiltInsBinaryVersion.INSTANCE}, actual $version. " +
-                    "Please update Kotlin"
-            )
-        }
+    // Packages are read on first access, so that startup of the compiler and of reflection doesn't pay for packages
+    // such as kotlin.reflect or kotlin.internal that most code never uses
+    private val proto by storageManager.createLazyValue { loadProto() }
 
-        BuiltInsProtoBuf.BuiltIns.parseFrom(stream, BuiltInSerializerProtocol.extensionRegistry)
-    }
-
-    private val nameResolver = NameResolverImpl(proto.strings, proto.qualifiedNames)
+    private val nameResolver by storageManager.createLazyValue { NameResolverImpl(proto.strings, proto.qualifiedNames) }
 
-    override val classDataFinder = BuiltInsClassDataFinder(proto, nameResolver)
+    override val classDataFinder by storageManager.createLazyValue { BuiltInsClassDataFinder(proto, nameResolver) }
 
     override fun computeMemberScope() =
             DeserializedPackageMemberScope(
                     this, proto.`package`, nameResolver, packagePartSource = null, components = components,
                     classNames = { classDataFinder.allClassIds.filter { classId -> !classId.isNestedClass }.map { it.shortClassName } }
             )
+
+    private fun loadProto(): BuiltInsProtoBuf.BuiltIns {
+        val stream = loadResourceSure(BuiltInSerializerProtocol.getBuiltInsFilePath(fqName))
+        try {
+            val version = BuiltInsBinaryVersion.readFrom(stream)
+
+            if (!version.isCompatible()) {
+                // TODO: report a proper diagnostic
+                throw UnsupportedOperationException(
+                        "Kotlin built-in definition format version is not supported: " +
+                        "expected ${BuiltInsBinaryVersion.INSTANCE}, actual $version. " +
+                        "Please update Kotlin"
+                )
+            }
+
+            return BuiltInsProtoBuf.BuiltIns.parseFrom(stream, BuiltInSerializerProtocol.extensionRegistry)
+        }
+        finally {
+            stream.close()
+        }
+    }
 }
@@ -16,52 +16,121 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
-import kotlin.reflect.jvm.internal.pcollections.HashPMap
+import java.util.concurrent.ConcurrentHashMap
 
-// TODO: collect nulls periodically
-// Key of the map is Class.getName(), each value is either a WeakReference<KClassImpl<*>> or an Array<WeakReference<KClassImpl<*>>>.
+// Key of the map is Class.getName(), each value is either a KClassReference or an Array<KClassReference>.
 // Arrays are needed because the same class can be loaded by different class loaders, which results in different Class instances.
-// This variable is not volatile intentionally: we don't care if there's a data race on it and some KClass instances will be lost.
-// We do care however about general performance on read access to it, thus no synchronization is done here whatsoever
-private var K_CLASS_CACHE = HashPMap.empty<String, Any>()
+// Reads take no locks. References cleared by GC are enqueued and their entries are removed on the following cache misses,
+// so that classes which are no longer used (e.g. those of discarded class loaders) don't stay in the cache forever
+private val K_CLASS_CACHE = ConcurrentHashMap<String, Any>()
+private val CLEARED_K_CLASSES = ReferenceQueue<KClassImpl<*>>()
+
+private class KClassReference(kClass: KClassImpl<*>, val name: String) : WeakReference<KClassImpl<*>>(kClass, CLEARED_K_CLASSES)
 
 // This function is invoked on each reflection access to Java classes, properties, etc. Performance is critical here.
 internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
     val name = jClass.name
-    val cached = K_CLASS_CACHE[name]
-    if (cached is WeakReference<*>) {
-        @Suppress("UNCHECKED_CAST")
-        val kClass = cached.get() as KClassImpl<T>?
+    findCached(K_CLASS_CACHE[name], jClass)?.let { return it }
+
+    removeClearedReferences()
+
+    val newKClass = KClassImpl(jClass)
+    val newReference = KClassReference(newKClass, name)
+    while (true) {
+        val cached = K_CLASS_CACHE.putIfAbsent(name, newReference) ?: return newKClass
+
+        // Another thread may have created the class in the meantime
+        findCached(cached, jClass)?.let { return it }
+
+        // This is the most unlikely case: the class with the same name is cached, but it was loaded by another class loader
+        val updated = withoutCleared(cached)
+        val added = if (updated == null) newReference else append(updated, newReference)
+        if (K_CLASS_CACHE.replace(name, cached, added)) return newKClass
+    }
+}
+
+private fun <T : Any> findCached(cached: Any?, jClass: Class<T>): KClassImpl<T>? {
+    if (cached is KClassReference) {
+        val kClass = cached.get()
         if (kClass?.jClass == jClass) {
-            return kClass!!
+            @Suppress("UNCHECKED_CAST")
+            return kClass as KClassImpl<T>
         }
     }
     else if (cached != null) {
-        // If the cached value is not a weak reference, it's an array of weak references
+        // If the cached value is not a reference, it's an array of references
         @Suppress("UNCHECKED_CAST")
-        (cached as Array<WeakReference<KClassImpl<T>>>)
+        (cached as Array<KClassReference>)
         for (ref in cached) {
             val kClass = ref.get()
             if (kClass?.jClass == jClass) {
-                return kClass
+                @Suppress("UNCHECKED_CAST")
+                return kClass as KClassImpl<T>
             }
         }
+    }
+    return null
+}
+
+private fun removeClearedReferences() {
+    while (true) {
+        val reference = CLEARED_K_CLASSES.poll() as KClassReference? ?: return
+        while (true) {
+            val cached = K_CLASS_CACHE[reference.name] ?: break
+            val updated = withoutCleared(cached)
+            if (updated === cached) break
 
-        // This is the most unlikely case: we found a cached array of references of length at least 2 (can't be 1 because
-        // the single element would be cached instead), and none of those classes is the one we're looking for
-        val size = cached.size
-        // Don't use Array constructor because it creates a lambda
-        val newArray = arrayOfNulls<WeakReference<KClassImpl<*>>>(size + 1)
-        // Don't use Arrays.copyOf because it works reflectively
-        System.arraycopy(cached, 0, newArray, 0, size)
-        val newKClass = KClassImpl(jClass)
-        newArray[size] = WeakReference(newKClass)
-        K_CLASS_CACHE = K_CLASS_CACHE.plus(name, newArray)
-        return newKClass
+            val replaced = if (updated == null) K_CLASS_CACHE.remove(reference.name, cached) else K_CLASS_CACHE.replace(reference.name, cached, updated)
+            if (replaced) break
+        }
     }
+}
 
-    val newKClass = KClassImpl(jClass)
-    K_CLASS_CACHE = K_CLASS_CACHE.plus(name, WeakReference(newKClass))
-    return newKClass
+// Returns the same value if none of its references are cleared, or null if all of them are
+private fun withoutCleared(cached: Any): Any? {
+    if (cached is KClassReference) {
+        return if (cached.get() == null) null else cached
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    (cached as Array<KClassReference>)
+    var alive = 0
+    for (ref in cached) {
+        if (ref.get() != null) alive++
+    }
+    if (alive == cached.size) return cached
+
+    // Don't use Array constructor or filter because they create lambdas
+    val result = arrayOfNulls<KClassReference>(alive)
+    var index = 0
+    for (ref in cached) {
+        if (index < alive && ref.get() != null) {
+            result[index++] = ref
+        }
+    }
+    // More references may have been cleared while copying
+    if (index == 0) return null
+    if (index == 1) return result[0]
+    if (index == alive) return result
+
+    val shrunk = arrayOfNulls<KClassReference>(index)
+    System.arraycopy(result, 0, shrunk, 0, index)
+    return shrunk
+}
+
+private fun append(cached: Any, reference: KClassReference): Any {
+    if (cached is KClassReference) {
+        return arrayOf(cached, reference)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    (cached as Array<KClassReference>)
+    val size = cached.size
+    val newArray = arrayOfNulls<KClassReference>(size + 1)
+    // Don't use Arrays.copyOf because it works reflectively
+    System.arraycopy(cached, 0, newArray, 0, size)
+    newArray[size] = reference
+    return newArray
 }
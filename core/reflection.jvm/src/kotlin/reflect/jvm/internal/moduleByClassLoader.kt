@@ -18,15 +18,22 @@ package kotlin.reflect.jvm.internal
 
 import org.jetbrains.kotlin.load.java.structure.reflect.safeClassLoader
 import org.jetbrains.kotlin.load.kotlin.reflect.RuntimeModuleData
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
 
-// TODO: collect nulls periodically
-private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, WeakReference<RuntimeModuleData>> = ConcurrentHashMap()
+private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, ModuleReference> = ConcurrentHashMap()
+
+// Both class loaders and modules are referenced weakly, when either of them is collected, the entry is removed on the next cache miss
+private val clearedReferences = ReferenceQueue<Any>()
+
+private class ClassLoaderReference(classLoader: ClassLoader, val box: WeakClassLoaderBox) : WeakReference<ClassLoader>(classLoader, clearedReferences)
+
+private class ModuleReference(module: RuntimeModuleData, val key: WeakClassLoaderBox) : WeakReference<RuntimeModuleData>(module, clearedReferences)
 
 private class WeakClassLoaderBox(classLoader: ClassLoader) {
-    val ref: WeakReference<ClassLoader> = WeakReference(classLoader)
+    val ref: WeakReference<ClassLoader> = ClassLoaderReference(classLoader, this)
 
     // Identity hash code is saved because otherwise once the weak reference is GC'd we cannot compute it anymore
     val identityHashCode: Int = System.identityHashCode(classLoader)
@@ -34,8 +41,13 @@ private class WeakClassLoaderBox(classLoader: ClassLoader) {
     // Temporary strong reference to the class loader to ensure it won't get GC'd while we're inserting this box into the map
     var temporaryStrongRef: ClassLoader? = classLoader
 
-    override fun equals(other: Any?) =
-            other is WeakClassLoaderBox && ref.get() === other.ref.get()
+    // Boxes of collected class loaders are only equal to themselves, so that removing one of them doesn't remove another
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is WeakClassLoaderBox) return false
+        val classLoader = ref.get()
+        return classLoader != null && classLoader === other.ref.get()
+    }
 
     override fun hashCode() =
             identityHashCode
@@ -55,10 +67,12 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
         moduleByClassLoader.remove(key, cached)
     }
 
+    removeClearedReferences()
+
     val module = RuntimeModuleData.create(classLoader)
     try {
         while (true) {
-            val ref = moduleByClassLoader.putIfAbsent(key, WeakReference(module))
+            val ref = moduleByClassLoader.putIfAbsent(key, ModuleReference(module, key))
             if (ref == null) return module
 
             val result = ref.get()
@@ -70,3 +84,13 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
         key.temporaryStrongRef = null
     }
 }
+
+private fun removeClearedReferences() {
+    while (true) {
+        val reference = clearedReferences.poll() ?: return
+        when (reference) {
+            is ClassLoaderReference -> moduleByClassLoader.remove(reference.box)
+            is ModuleReference -> moduleByClassLoader.remove(reference.key, reference)
+        }
+    }
+}
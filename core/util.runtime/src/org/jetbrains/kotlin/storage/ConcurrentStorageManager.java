@@ -0,0 +1,532 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.utils.WrappedValues;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A storage manager that lets independent lazy values and memoized functions be computed by different threads at the same time.
+ *
+ * Unlike {@link LockBasedStorageManager}, there is no global lock: every lazy value (every key of a memoized function) is computed
+ * at most once by the thread that requested it first, other threads wait for that computation only. Computed values are published
+ * through volatile fields (or the concurrent map) and read without locking.
+ *
+ * Recursion detection follows {@link LockBasedStorageManager}: a computation that requests itself is handled by the
+ * recursion-detection callbacks. A cycle of computations spread across several threads (which would be a recursion if it happened
+ * in a single thread) is detected through the wait-for graph and handled the same way in the thread that closes the cycle.
+ *
+ * {@link #compute} is still guarded by a lock, which is released while the thread waits for a value computed by another thread.
+ */
+public class ConcurrentStorageManager implements StorageManager {
+    // Thread -> a computation it waits for, shared by all instances since computations may span several storage managers
+    private static final ConcurrentMap<Thread, Computation> WAITING_FOR = new ConcurrentHashMap<Thread, Computation>();
+
+    private final ReentrantLock computeLock = new ReentrantLock();
+    private final LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy;
+    private final String debugText;
+
+    public ConcurrentStorageManager() {
+        this(getPointOfConstruction(), LockBasedStorageManager.ExceptionHandlingStrategy.THROW);
+    }
+
+    public ConcurrentStorageManager(@NotNull LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        this(getPointOfConstruction(), exceptionHandlingStrategy);
+    }
+
+    private ConcurrentStorageManager(
+            @NotNull String debugText,
+            @NotNull LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy
+    ) {
+        this.debugText = debugText;
+        this.exceptionHandlingStrategy = exceptionHandlingStrategy;
+    }
+
+    private static String getPointOfConstruction() {
+        StackTraceElement[] trace = Thread.currentThread().getStackTrace();
+        // we need to skip frames for getStackTrace(), this method and the constructor that's calling it
+        if (trace.length <= 3) return "<unknown creating class>";
+        return trace[3].toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " (" + debugText + ")";
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunction(compute, ConcurrentStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MapBasedMemoizedFunctionToNotNull<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunctionWithNullableValues(compute, ConcurrentStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MapBasedMemoizedFunction<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValue(@NotNull Function0<? extends T> computable) {
+        return new ConcurrentNotNullLazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createRecursionTolerantLazyValue(
+            @NotNull Function0<? extends T> computable, @NotNull final T onRecursiveCall
+    ) {
+        return new ConcurrentNotNullLazyValue<T>(computable) {
+            @Override
+            protected boolean handleRecursion(boolean firstTime, @NotNull Object[] result) {
+                result[0] = onRecursiveCall;
+                return true;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable,
+            final Function1<? super Boolean, ? extends T> onRecursiveCall,
+            @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new ConcurrentNotNullLazyValue<T>(computable) {
+            @Override
+            protected boolean handleRecursion(boolean firstTime, @NotNull Object[] result) {
+                if (onRecursiveCall == null) {
+                    return super.handleRecursion(firstTime, result);
+                }
+                result[0] = onRecursiveCall.invoke(firstTime);
+                return true;
+            }
+
+            @Override
+            protected void postCompute(@NotNull T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValue(@NotNull Function0<? extends T> computable) {
+        return new ConcurrentLazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createRecursionTolerantNullableLazyValue(@NotNull Function0<? extends T> computable, final T onRecursiveCall) {
+        return new ConcurrentLazyValue<T>(computable) {
+            @Override
+            protected boolean handleRecursion(boolean firstTime, @NotNull Object[] result) {
+                result[0] = onRecursiveCall;
+                return true;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable, @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new ConcurrentLazyValue<T>(computable) {
+            @Override
+            protected void postCompute(@Nullable T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @Override
+    public <T> T compute(@NotNull Function0<? extends T> computable) {
+        computeLock.lock();
+        try {
+            return computable.invoke();
+        }
+        catch (Throwable throwable) {
+            throw exceptionHandlingStrategy.handleException(throwable);
+        }
+        finally {
+            computeLock.unlock();
+        }
+    }
+
+    @NotNull
+    private static <K> ConcurrentMap<K, Object> createConcurrentHashMap() {
+        // memory optimization: fewer segments and entries stored
+        return new ConcurrentHashMap<K, Object>(3, 1, 2);
+    }
+
+    /**
+     * A single computation in progress, owned by the thread that performs it.
+     */
+    private static final class Computation {
+        final Thread owner = Thread.currentThread();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Set by the owner when the value is computed but not published yet (e.g. during post-compute)
+        boolean hasResult = false;
+        Object result = null;
+
+        @Override
+        public String toString() {
+            return "Computation in " + owner.getName();
+        }
+    }
+
+    /**
+     * @return {@code true} if waiting for {@code computation} in the current thread would close a cycle of threads waiting for each other
+     */
+    private static boolean isDeadlock(@NotNull Computation computation) {
+        Thread current = Thread.currentThread();
+        Computation next = computation;
+        // The length of any cycle is bounded by the number of waiting threads
+        for (int i = 0, size = WAITING_FOR.size(); next != null && i <= size; i++) {
+            if (next.owner == current) return true;
+            next = WAITING_FOR.get(next.owner);
+        }
+        return false;
+    }
+
+    /**
+     * Waits until {@code computation} finishes, releasing the {@link #compute} lock for this time if it's held by the current thread.
+     *
+     * @return {@code false} if the computation can't be waited for because of a cycle, which should be handled as a recursion
+     */
+    private boolean await(@NotNull Computation computation) {
+        Thread current = Thread.currentThread();
+        // Register first and only then look for a cycle: if two threads close a cycle simultaneously, at least one of them sees it
+        WAITING_FOR.put(current, computation);
+        try {
+            if (isDeadlock(computation)) return false;
+
+            int holdCount = computeLock.getHoldCount();
+            for (int i = 0; i < holdCount; i++) {
+                computeLock.unlock();
+            }
+            try {
+                computation.done.await();
+            }
+            catch (InterruptedException e) {
+                current.interrupt();
+                throw exceptionHandlingStrategy.handleException(e);
+            }
+            finally {
+                for (int i = 0; i < holdCount; i++) {
+                    computeLock.lock();
+                }
+            }
+            return true;
+        }
+        finally {
+            WAITING_FOR.remove(current);
+        }
+    }
+
+    private enum NotValue {
+        NOT_COMPUTED,
+        COMPUTING,
+        RECURSION_WAS_DETECTED
+    }
+
+    private class ConcurrentLazyValue<T> implements NullableLazyValue<T> {
+        private final Function0<? extends T> computable;
+
+        @Nullable
+        private volatile Object value = NotValue.NOT_COMPUTED;
+
+        // Guarded by this, not null while some thread computes the value
+        @Nullable
+        private Computation computation = null;
+
+        public ConcurrentLazyValue(@NotNull Function0<? extends T> computable) {
+            this.computable = computable;
+        }
+
+        @Override
+        public boolean isComputed() {
+            return !(value instanceof NotValue);
+        }
+
+        @Override
+        public boolean isComputing() {
+            return value == NotValue.COMPUTING;
+        }
+
+        @Override
+        public T invoke() {
+            Thread currentThread = Thread.currentThread();
+            while (true) {
+                Object _value = value;
+                if (!(_value instanceof NotValue)) return WrappedValues.unescapeThrowable(_value);
+
+                Computation running;
+                Computation claimed = null;
+                synchronized (this) {
+                    _value = value;
+                    if (!(_value instanceof NotValue)) return WrappedValues.unescapeThrowable(_value);
+
+                    running = computation;
+                    if (running == null) {
+                        if (_value != NotValue.RECURSION_WAS_DETECTED) {
+                            claimed = claim();
+                        }
+                    }
+                    else if (running.owner == currentThread) {
+                        if (running.hasResult) {
+                            // The value is requested from post-compute
+                            //noinspection unchecked
+                            return (T) running.result;
+                        }
+                        value = NotValue.RECURSION_WAS_DETECTED;
+                    }
+                }
+
+                if (claimed != null) return computeValue(claimed);
+
+                if (running != null && running.owner != currentThread && await(running)) continue;
+
+                // Recursion in this thread, a cycle across threads or a recursion detected by an earlier computation
+                Object[] result = new Object[1];
+                if (handleRecursion(/* firstTime = */ _value == NotValue.COMPUTING, result)) {
+                    //noinspection unchecked
+                    return (T) result[0];
+                }
+
+                synchronized (this) {
+                    claimed = claim();
+                }
+                return computeValue(claimed);
+            }
+        }
+
+        // Guarded by this
+        @NotNull
+        private Computation claim() {
+            Computation claimed = new Computation();
+            computation = claimed;
+            value = NotValue.COMPUTING;
+            return claimed;
+        }
+
+        private T computeValue(@NotNull Computation current) {
+            try {
+                T typedValue = computable.invoke();
+                synchronized (this) {
+                    current.result = typedValue;
+                    current.hasResult = true;
+                }
+                postCompute(typedValue);
+                synchronized (this) {
+                    value = typedValue;
+                    finish(current);
+                }
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                synchronized (this) {
+                    if (current.hasResult) {
+                        // Post-compute failed, the value itself has been computed
+                        value = current.result;
+                    }
+                    else if (value == NotValue.COMPUTING) {
+                        // Store only if it's a genuine result, not something thrown through handleRecursion()
+                        value = WrappedValues.escapeThrowable(throwable);
+                    }
+                    finish(current);
+                }
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+        }
+
+        // Guarded by this
+        private void finish(@NotNull Computation current) {
+            if (computation == current) {
+                computation = null;
+            }
+            current.done.countDown();
+        }
+
+        /**
+         * @param firstTime {@code true} when recursion has been just detected, {@code false} otherwise
+         * @param result the value to be returned on a recursive call is stored to its first element
+         * @return {@code false} if the value should be computed again
+         */
+        protected boolean handleRecursion(boolean firstTime, @NotNull Object[] result) {
+            throw sanitizeStackTrace(new IllegalStateException("Recursive call in a lazy value under " + ConcurrentStorageManager.this));
+        }
+
+        protected void postCompute(T value) {
+            // Doing something in post-compute helps prevent infinite recursion
+        }
+    }
+
+    private class ConcurrentNotNullLazyValue<T> extends ConcurrentLazyValue<T> implements NotNullLazyValue<T> {
+        public ConcurrentNotNullLazyValue(@NotNull Function0<? extends T> computable) {
+            super(computable);
+        }
+
+        @Override
+        @NotNull
+        public T invoke() {
+            T result = super.invoke();
+            assert result != null : "compute() returned null";
+            return result;
+        }
+    }
+
+    private class MapBasedMemoizedFunction<K, V> implements MemoizedFunctionToNullable<K, V> {
+        private final ConcurrentMap<K, Object> cache;
+        private final Function1<? super K, ? extends V> compute;
+
+        public MapBasedMemoizedFunction(@NotNull ConcurrentMap<K, Object> map, @NotNull Function1<? super K, ? extends V> compute) {
+            this.cache = map;
+            this.compute = compute;
+        }
+
+        @Override
+        @Nullable
+        public V invoke(K input) {
+            while (true) {
+                Object value = cache.get(input);
+                if (value == null) {
+                    Computation current = new Computation();
+                    value = cache.putIfAbsent(input, current);
+                    if (value == null) {
+                        return computeValue(input, current);
+                    }
+                }
+
+                if (!(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+                Computation running = (Computation) value;
+                if (running.owner == Thread.currentThread() || !await(running)) {
+                    throw recursionDetected(input);
+                }
+            }
+        }
+
+        private V computeValue(K input, @NotNull Computation current) {
+            try {
+                V typedValue = compute.invoke(input);
+                if (!cache.replace(input, current, WrappedValues.escapeNull(typedValue))) {
+                    throw raceCondition(input, cache.get(input));
+                }
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                cache.replace(input, current, WrappedValues.escapeThrowable(throwable));
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                current.done.countDown();
+            }
+        }
+
+        @NotNull
+        private AssertionError recursionDetected(K input) {
+            return sanitizeStackTrace(
+                    new AssertionError("Recursion detected on input: " + input + " under " + ConcurrentStorageManager.this)
+            );
+        }
+
+        @NotNull
+        private AssertionError raceCondition(K input, Object oldValue) {
+            return sanitizeStackTrace(
+                    new AssertionError("Race condition detected on input " + input + ". Old value is " + oldValue +
+                                       " under " + ConcurrentStorageManager.this)
+            );
+        }
+
+        @Override
+        public boolean isComputed(K key) {
+            Object value = cache.get(key);
+            return value != null && !(value instanceof Computation);
+        }
+    }
+
+    private class MapBasedMemoizedFunctionToNotNull<K, V> extends MapBasedMemoizedFunction<K, V> implements MemoizedFunctionToNotNull<K, V> {
+        public MapBasedMemoizedFunctionToNotNull(
+                @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            super(map, compute);
+        }
+
+        @NotNull
+        @Override
+        public V invoke(K input) {
+            V result = super.invoke(input);
+            assert result != null : "compute() returned null under " + ConcurrentStorageManager.this;
+            return result;
+        }
+    }
+
+    @NotNull
+    private static <T extends Throwable> T sanitizeStackTrace(@NotNull T throwable) {
+        String storagePackageName = ConcurrentStorageManager.class.getPackage().getName();
+        StackTraceElement[] stackTrace = throwable.getStackTrace();
+        int size = stackTrace.length;
+
+        int firstNonStorage = -1;
+        for (int i = 0; i < size; i++) {
+            // Skip everything (memoized functions and lazy values) from package org.jetbrains.kotlin.storage
+            if (!stackTrace[i].getClassName().startsWith(storagePackageName)) {
+                firstNonStorage = i;
+                break;
+            }
+        }
+        assert firstNonStorage >= 0 : "This method should only be called on exceptions created in ConcurrentStorageManager";
+
+        List<StackTraceElement> list = Arrays.asList(stackTrace).subList(firstNonStorage, size);
+        throwable.setStackTrace(list.toArray(new StackTraceElement[list.size()]));
+        return throwable;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.eval4j
+
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.AbstractInsnNode
+import org.jetbrains.org.objectweb.asm.tree.JumpInsnNode
+import org.jetbrains.org.objectweb.asm.tree.LabelNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.*
+
+/**
+ * A method prepared for [interpreterLoop]: instructions are kept in an array, and jump targets and catch blocks are resolved
+ * to indices in it, so that nothing is searched in the instruction list while interpreting.
+ *
+ * The method node must not be changed afterwards. An instance may be interpreted any number of times.
+ */
+class DecodedMethod(val method: MethodNode) {
+    class CatchBlock(val exceptionType: Type?, val handlerIndex: Int)
+
+    val instructions: Array<AbstractInsnNode> = method.instructions.toArray()
+
+    val returnType: Type = Type.getReturnType(method.desc)
+
+    private val labelIndices = HashMap<LabelNode, Int>()
+
+    // for jump instructions, index of the target label, -1 otherwise
+    private val jumpTargets = IntArray(instructions.size)
+
+    // catch blocks covering each instruction, in the order of the exception table
+    private val catchBlocks = arrayOfNulls<MutableList<CatchBlock>>(instructions.size)
+
+    init {
+        for ((i, insn) in instructions.withIndex()) {
+            if (insn is LabelNode) {
+                labelIndices[insn] = i
+            }
+        }
+
+        for ((i, insn) in instructions.withIndex()) {
+            jumpTargets[i] = if (insn is JumpInsnNode) labelIndex(insn.label) else -1
+        }
+
+        for (tcb in method.tryCatchBlocks) {
+            val catchBlock = CatchBlock(tcb.type?.let { Type.getObjectType(it) }, labelIndex(tcb.handler))
+            for (i in labelIndex(tcb.start)..labelIndex(tcb.end) - 1) {
+                val insnCatchBlocks = catchBlocks[i] ?: ArrayList<CatchBlock>(1)
+                catchBlocks[i] = insnCatchBlocks
+
+                insnCatchBlocks.add(catchBlock)
+            }
+        }
+    }
+
+    fun labelIndex(label: LabelNode): Int = labelIndices[label] ?: throw IllegalArgumentException("Label is not in the method: $label")
+
+    fun jumpTarget(index: Int): Int = jumpTargets[index]
+
+    fun catchBlocks(index: Int): List<CatchBlock> = catchBlocks[index] ?: emptyList()
+}
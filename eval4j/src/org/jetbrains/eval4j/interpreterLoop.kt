@@ -22,7 +22,6 @@ import org.jetbrains.org.objectweb.asm.Type
 import org.jetbrains.org.objectweb.asm.tree.*
 import org.jetbrains.org.objectweb.asm.tree.analysis.Frame
 import org.jetbrains.org.objectweb.asm.util.Printer
-import java.util.*
 
 interface InterpreterResult {
     override fun toString(): String
@@ -76,35 +75,41 @@ fun interpreterLoop(
         initialState: Frame<Value>,
         eval: Eval,
         handler: InterpretationEventHandler = InterpretationEventHandler.NONE
+): InterpreterResult = interpreterLoop(DecodedMethod(m), initialState, eval, handler)
+
+fun interpreterLoop(
+        method: DecodedMethod,
+        initialState: Frame<Value>,
+        eval: Eval,
+        handler: InterpretationEventHandler = InterpretationEventHandler.NONE
 ): InterpreterResult {
-    val firstInsn = m.instructions.first
-    if (firstInsn == null) throw IllegalArgumentException("Empty method")
+    val instructions = method.instructions
+    if (instructions.isEmpty()) throw IllegalArgumentException("Empty method")
 
-    var currentInsn = firstInsn
+    var currentIndex = 0
+    var currentInsn = instructions[0]
 
-    fun goto(nextInsn: AbstractInsnNode?) {
-        if (nextInsn == null) throw IllegalArgumentException("Instruction flow ended with no RETURN")
-        currentInsn = nextInsn
+    fun goto(nextIndex: Int) {
+        if (nextIndex >= instructions.size) throw IllegalArgumentException("Instruction flow ended with no RETURN")
+        currentIndex = nextIndex
+        currentInsn = instructions[nextIndex]
     }
 
     val interpreter = SingleInstructionInterpreter(eval)
     val frame = Frame(initialState)
-    val handlers = computeHandlers(m)
 
     class ResultException(val result: InterpreterResult): RuntimeException()
 
     fun exceptionCaught(exceptionValue: Value, instanceOf: (Type) -> Boolean): Boolean {
-        val catchBlocks = handlers[m.instructions.indexOf(currentInsn)] ?: listOf()
-        for (catch in catchBlocks) {
-            val exceptionTypeInternalName = catch.type
-            if (exceptionTypeInternalName != null) {
-                val exceptionType = Type.getObjectType(exceptionTypeInternalName)
+        for (catch in method.catchBlocks(currentIndex)) {
+            val exceptionType = catch.exceptionType
+            if (exceptionType != null) {
                 if (instanceOf(exceptionType)) {
                     val handled = handler.exceptionCaught(frame, currentInsn, exceptionValue)
                     if (handled != null) throw ResultException(handled)
                     frame.clearStack()
                     frame.push(exceptionValue)
-                    goto(catch.handler)
+                    goto(catch.handlerIndex)
                     return true
                 }
             }
@@ -150,14 +155,14 @@ fun interpreterLoop(
                 else -> {
                     when (insnOpcode) {
                         GOTO -> {
-                            goto((currentInsn as JumpInsnNode).label)
+                            goto(method.jumpTarget(currentIndex))
                             continue@loop
                         }
 
                         RET -> {
                             val varNode = currentInsn as VarInsnNode
                             val address = frame.getLocal(varNode.`var`)
-                            goto((address as LabelValue).value)
+                            goto(method.labelIndex((address as LabelValue).value))
                             continue@loop
                         }
 
@@ -167,7 +172,7 @@ fun interpreterLoop(
 
                         IRETURN, LRETURN, FRETURN, DRETURN, ARETURN -> {
                             val value = frame.getStackTop()
-                            val expectedType = Type.getReturnType(m.desc)
+                            val expectedType = method.returnType
                             if (expectedType.sort == Type.OBJECT || expectedType.sort == Type.ARRAY) {
                                 val coerced = if (value != NULL_VALUE && value.asmType != expectedType)
                                                     ObjectValue(value.obj(), expectedType)
@@ -193,14 +198,14 @@ fun interpreterLoop(
                         IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IFNULL, IFNONNULL -> {
                             if (interpreter.checkUnaryCondition(frame.getStackTop(), insnOpcode)) {
                                 frame.execute(currentInsn, interpreter)
-                                goto((currentInsn as JumpInsnNode).label)
+                                goto(method.jumpTarget(currentIndex))
                                 continue@loop
                             }
                         }
                         IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE -> {
                             if (interpreter.checkBinaryCondition(frame.getStackTop(1), frame.getStackTop(0), insnOpcode)) {
                                 frame.execute(currentInsn, interpreter)
-                                goto((currentInsn as JumpInsnNode).label)
+                                goto(method.jumpTarget(currentIndex))
                                 continue@loop
                             }
                         }
@@ -243,7 +248,7 @@ fun interpreterLoop(
             val handled = handler.instructionProcessed(currentInsn)
             if (handled != null) return handled
 
-            goto(currentInsn.next)
+            goto(currentIndex + 1)
         }
     }
     catch(e: ResultException) {
@@ -252,21 +257,3 @@ fun interpreterLoop(
 }
 
 private fun <T: Value> Frame<T>.getStackTop(i: Int = 0) = this.getStack(this.stackSize - 1 - i) ?: throwBrokenCodeException(IllegalArgumentException("Couldn't get value with index = $i from top of stack"))
-
-// Copied from org.jetbrains.org.objectweb.asm.tree.analysis.Analyzer.analyze()
-fun computeHandlers(m: MethodNode): Array<out List<TryCatchBlockNode>?> {
-    val insns = m.instructions
-    val handlers = Array<MutableList<TryCatchBlockNode>?>(insns.size()) {null}
-    for (tcb in m.tryCatchBlocks) {
-        val begin = insns.indexOf(tcb.start)
-        val end = insns.indexOf(tcb.end)
-        for (i in begin..end - 1) {
-            val insnHandlers = handlers[i] ?: ArrayList<TryCatchBlockNode>()
-            handlers[i] = insnHandlers
-
-            insnHandlers.add(tcb)
-        }
-    }
-
-    return handlers
-}
\ No newline at end of file
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.eval4j.test
+
+import org.jetbrains.eval4j.DecodedMethod
+import org.jetbrains.eval4j.interpreterLoop
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.tree.ClassNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+
+/**
+ * Measures repeated interpretation of short methods of [TestData], like evaluations of the same expression in the debugger:
+ * "decoded per run" decodes the method every time, "decoded once" reuses one [DecodedMethod].
+ *
+ * Usage: InterpreterBenchmark [runs]
+ */
+object InterpreterBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+    private val METHODS = listOf("variable", "ifElse", "loop", "loopWithBreak", "simpleFinallyWithContinueInLoop", "call")
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val runs = args.getOrNull(0)?.toInt() ?: 100000
+
+        val owner = TestData::class.java.getInternalName()
+        val methods = readMethods().filter { it.name in METHODS }
+        val decodedMethods = methods.map { DecodedMethod(it) }
+
+        println("decoded per run: ${measure {
+            repeat(runs) {
+                for (method in methods) {
+                    interpreterLoop(method, initFrame(owner, method), REFLECTION_EVAL)
+                }
+            }
+        }} ms")
+        println("decoded once: ${measure {
+            repeat(runs) {
+                for (method in decodedMethods) {
+                    interpreterLoop(method, initFrame(owner, method.method), REFLECTION_EVAL)
+                }
+            }
+        }} ms")
+    }
+
+    private fun readMethods(): List<MethodNode> {
+        val classNode = ClassNode()
+        val ownerClass = TestData::class.java
+        ClassReader(ownerClass.classLoader!!.getResourceAsStream(ownerClass.getInternalName() + ".class")!!).accept(classNode, 0)
+        return classNode.methods
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measure(run: () -> Unit): Long {
+        repeat(WARMUP_RUNS) { run() }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            run()
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+}
@@ -219,6 +219,19 @@ class TestData extends BaseTestData {
         }
     }
 
+    static int catchInLongLoop() {
+        int caught = 0;
+        for (int i = 0; i < 5000; i++) {
+            try {
+                if (i % 100 == 0) throw new MyEx(i);
+            }
+            catch (MyEx e) {
+                caught += e.x;
+            }
+        }
+        return caught;
+    }
+
     static int simpleFinally() {
         int i = 5;
         try {
@@ -29,6 +29,7 @@ import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.containers.MultiMap
 import org.apache.log4j.Logger
 import org.jetbrains.annotations.TestOnly
+import org.jetbrains.eval4j.DecodedMethod
 import org.jetbrains.eval4j.Value
 import org.jetbrains.kotlin.codegen.ClassBuilderFactories
 import org.jetbrains.kotlin.codegen.state.GenerationState
@@ -42,6 +43,9 @@ import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.resolve.DescriptorUtils
 import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.tree.ClassNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
 import java.util.*
 
 class KotlinDebuggerCaches(private val project: Project) {
@@ -198,7 +202,10 @@ class KotlinDebuggerCaches(private val project: Project) {
             val additionalClasses: List<Pair<String, ByteArray>>,
             val sourcePosition: SourcePosition,
             val parameters: ParametersDescriptor
-    )
+    ) {
+        // the generated function is decoded once and interpreted by every evaluation of the fragment
+        val decodedMethod: DecodedMethod by lazy { DecodedMethod(readGeneratedMethod(bytecodes)) }
+    }
 
     class ParametersDescriptor : Iterable<Parameter> {
         private val list = ArrayList<Parameter>()
@@ -224,3 +231,10 @@ class KotlinDebuggerCaches(private val project: Project) {
 }
 
 private fun String?.toList() = if (this == null) emptyList() else listOf(this)
+
+private fun readGeneratedMethod(bytecodes: ByteArray): MethodNode {
+    val classNode = ClassNode()
+    ClassReader(bytecodes).accept(classNode, 0)
+    return classNode.methods.firstOrNull { it.name == GENERATED_FUNCTION_NAME }
+           ?: throw IllegalStateException("Cannot find method $GENERATED_FUNCTION_NAME")
+}
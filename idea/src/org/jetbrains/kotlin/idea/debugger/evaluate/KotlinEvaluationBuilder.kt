@@ -73,10 +73,7 @@ import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.BindingTrace
 import org.jetbrains.kotlin.resolve.jvm.JvmClassName
 import org.jetbrains.kotlin.types.Flexibility
-import org.jetbrains.org.objectweb.asm.*
-import org.jetbrains.org.objectweb.asm.Opcodes.ASM5
 import org.jetbrains.org.objectweb.asm.Type
-import org.jetbrains.org.objectweb.asm.tree.MethodNode
 import java.util.*
 
 internal val RECEIVER_NAME = "\$receiver"
@@ -235,40 +232,28 @@ class KotlinEvaluator(val codeFragment: KtCodeFragment, val sourcePosition: Sour
                 loadClasses(context, compiledData.additionalClasses)
             }
 
-            var resultValue: InterpreterResult? = null
-            ClassReader(compiledData.bytecodes).accept(object : ClassVisitor(ASM5) {
-                override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
-                    if (name == GENERATED_FUNCTION_NAME) {
-                        val argumentTypes = Type.getArgumentTypes(desc)
-                        val args = context.getArgumentsForEval4j(compiledData.parameters, argumentTypes)
-
-                        return object : MethodNode(Opcodes.ASM5, access, name, desc, signature, exceptions) {
-                            override fun visitEnd() {
-                                val allRequests = virtualMachine.eventRequestManager().breakpointRequests() +
-                                                  virtualMachine.eventRequestManager().classPrepareRequests()
-                                allRequests.forEach { it.disable() }
-
-                                val eval = JDIEval(virtualMachine,
-                                                   context.classLoader,
-                                                   context.suspendContext.thread?.threadReference!!,
-                                                   context.suspendContext.getInvokePolicy())
-
-                                resultValue = interpreterLoop(
-                                        this,
-                                        makeInitialFrame(this, args.zip(argumentTypes).map { boxOrUnboxArgumentIfNeeded(eval, it.first, it.second) }),
-                                        eval
-                                )
-
-                                allRequests.forEach { it.enable() }
-                            }
-                        }
-                    }
+            val method = compiledData.decodedMethod
+            val argumentTypes = Type.getArgumentTypes(method.method.desc)
+            val args = context.getArgumentsForEval4j(compiledData.parameters, argumentTypes)
 
-                    return super.visitMethod(access, name, desc, signature, exceptions)
-                }
-            }, 0)
+            val allRequests = virtualMachine.eventRequestManager().breakpointRequests() +
+                              virtualMachine.eventRequestManager().classPrepareRequests()
+            allRequests.forEach { it.disable() }
+
+            val eval = JDIEval(virtualMachine,
+                               context.classLoader,
+                               context.suspendContext.thread?.threadReference!!,
+                               context.suspendContext.getInvokePolicy())
+
+            val result = interpreterLoop(
+                    method,
+                    makeInitialFrame(method.method, args.zip(argumentTypes).map { boxOrUnboxArgumentIfNeeded(eval, it.first, it.second) }),
+                    eval
+            )
+
+            allRequests.forEach { it.enable() }
 
-            return resultValue ?: throw IllegalStateException("resultValue is null: cannot find method " + GENERATED_FUNCTION_NAME)
+            return result
         }
 
         private fun boxOrUnboxArgumentIfNeeded(eval: JDIEval, argumentValue: Value, parameterType: Type): Value {
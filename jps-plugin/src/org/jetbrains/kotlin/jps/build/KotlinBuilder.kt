@@ -573,7 +573,11 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
         val removedFiles = chunk.targets.flatMap { KotlinSourceFileCollector.getRemovedKotlinFiles(dirtyFilesHolder, it) }
         lookupStorage.removeLookupsFrom(filesToCompile.values().asSequence() + removedFiles.asSequence())
 
-        lookupStorage.addAll(lookupTracker.lookups.entrySet(), lookupTracker.pathInterner.values)
+        // the lookups are written on another thread, so they are copied from the tracker, which may still be changed
+        val lookups = lookupTracker.lookups.entrySet().mapTo(HashSet<Map.Entry<LookupSymbol, Collection<String>>>()) {
+            AbstractMap.SimpleImmutableEntry(it.key, it.value.toList())
+        }
+        lookupStorage.addAll(lookups, HashSet(lookupTracker.pathInterner.values))
     }
 
     // if null is returned, nothing was done
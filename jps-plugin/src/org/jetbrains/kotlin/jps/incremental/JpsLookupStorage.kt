@@ -25,4 +25,4 @@ object JpsLookupStorageProvider : StorageProvider<JpsLookupStorage>() {
     override fun createStorage(targetDataDir: File): JpsLookupStorage = JpsLookupStorage(targetDataDir)
 }
 
-class JpsLookupStorage(targetDataDir: File) : StorageOwner, LookupStorage(targetDataDir)
+class JpsLookupStorage(targetDataDir: File) : StorageOwner, LookupStorage(targetDataDir, writeBehind = true)
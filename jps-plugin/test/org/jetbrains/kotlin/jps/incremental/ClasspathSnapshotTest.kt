@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.testFramework.UsefulTestCase
+import com.intellij.util.io.IOUtil
+import org.jetbrains.kotlin.incremental.ClasspathSnapshot
+import org.jetbrains.kotlin.incremental.getChanges
+import org.jetbrains.kotlin.incremental.snapshotClasspath
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.MockLibraryUtil
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Opcodes
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class ClasspathSnapshotTest : UsefulTestCase() {
+    fun testChangedMembersOfJavaClass() {
+        val classes = KotlinTestUtils.tmpDir("classes")
+        writeClass(classes, "foo/A", "f" to "()V", "g" to "()V")
+        writeClass(classes, "foo/B", "h" to "()V")
+        val old = snapshotClasspath(listOf(classes), null)
+
+        writeClass(classes, "foo/A", "f" to "(I)V", "g" to "()V")
+        File(classes, "foo/B.class").delete()
+        writeClass(classes, "foo/C")
+
+        assertEquals(
+                listOf("MembersChanged(fqName = foo.A, names = [f])",
+                       "SignatureChanged(fqName = foo.B)",
+                       "SignatureChanged(fqName = foo.C)"),
+                snapshotClasspath(listOf(classes), old).getChanges(old).changes.map { it.toString() }.sorted().toList()
+        )
+    }
+
+    fun testUnchangedJarIsReused() {
+        val dir = KotlinTestUtils.tmpDir("jar")
+        val jar = File(dir, "lib.jar")
+        writeJar(jar, "foo/A" to classBytes("foo/A", "f" to "()V"))
+
+        val snapshotFile = File(dir, "snapshot.bin")
+        snapshotClasspath(listOf(jar), null).write(snapshotFile)
+        val old = ClasspathSnapshot.read(snapshotFile)!!
+
+        val new = snapshotClasspath(listOf(jar), old)
+        assertSame(old.entries.single(), new.entries.single())
+        assertEmpty(new.getChanges(old).changes.toList())
+    }
+
+    fun testFirstClasspathEntryWins() {
+        val first = KotlinTestUtils.tmpDir("first")
+        val second = KotlinTestUtils.tmpDir("second")
+        writeClass(first, "foo/A", "f" to "()V")
+        writeClass(second, "foo/A", "f" to "()V")
+        val old = snapshotClasspath(listOf(first, second), null)
+
+        writeClass(second, "foo/A", "g" to "()V")
+        assertEmpty(snapshotClasspath(listOf(first, second), old).getChanges(old).changes.toList())
+    }
+
+    fun testChangedProtoOfKotlinClass() {
+        val classes = KotlinTestUtils.tmpDir("classes")
+        compileKotlin(classes, "package foo\n\nclass A {\n    fun f() {}\n    fun g() {}\n}\n")
+        val old = snapshotClasspath(listOf(classes), null)
+
+        compileKotlin(classes, "package foo\n\nclass A {\n    fun f(x: Int) {}\n    fun g() {}\n}\n")
+        assertEquals(listOf("MembersChanged(fqName = foo.A, names = [f])"), changesSince(old, classes))
+    }
+
+    fun testChangedConstant() {
+        val classes = KotlinTestUtils.tmpDir("classes")
+        compileKotlin(classes, "package foo\n\nconst val X = 1\nconst val Y = 1\n")
+        val old = snapshotClasspath(listOf(classes), null)
+
+        compileKotlin(classes, "package foo\n\nconst val X = 2\nconst val Y = 1\n")
+        assertEquals(listOf("MembersChanged(fqName = foo, names = [X])"), changesSince(old, classes))
+    }
+
+    fun testChangedBodyOfInlineFunction() {
+        val classes = KotlinTestUtils.tmpDir("classes")
+        compileKotlin(classes, "package foo\n\ninline fun f() = 1\ninline fun g() = 1\n")
+        val old = snapshotClasspath(listOf(classes), null)
+
+        compileKotlin(classes, "package foo\n\ninline fun f() = 2\ninline fun g() = 1\n")
+        assertEquals(listOf("MembersChanged(fqName = foo, names = [f])"), changesSince(old, classes))
+    }
+
+    fun testCorruptedSnapshotIsIgnored() {
+        val dir = KotlinTestUtils.tmpDir("snapshot")
+        val classes = File(dir, "classes")
+        writeClass(classes, "foo/A", "f" to "()V")
+
+        val snapshotFile = File(dir, "snapshot.bin")
+        snapshotClasspath(listOf(classes), null).write(snapshotFile)
+        val bytes = snapshotFile.readBytes()
+        assertEquals(listOf(snapshotFile.name), dir.list().filter { it.startsWith(snapshotFile.name) })
+
+        fun assertIgnored(corrupted: ByteArray) {
+            snapshotFile.writeBytes(corrupted)
+            assertNull(ClasspathSnapshot.read(snapshotFile))
+        }
+
+        // the number of entries
+        assertIgnored(bytes.copyOf().apply { putInt(4, -1) })
+        assertIgnored(bytes.copyOf().apply { putInt(4, Int.MAX_VALUE) })
+        // the number of classes of the entry, after the version, the number of entries, the path and the stamp
+        val pathSize = ByteArrayOutputStream().apply { IOUtil.writeString(classes.absolutePath, DataOutputStream(this)) }.size()
+        val classesCountOffset = 8 + pathSize + 8
+        assertIgnored(bytes.copyOf().apply { putInt(classesCountOffset, Int.MAX_VALUE) })
+        assertIgnored(bytes.copyOf(bytes.size / 2))
+    }
+
+    private fun compileKotlin(classes: File, source: String) {
+        val sources = KotlinTestUtils.tmpDir("sources")
+        File(sources, "main.kt").writeText(source)
+        MockLibraryUtil.compileKotlin(sources.path, classes)
+    }
+
+    private fun ByteArray.putInt(offset: Int, value: Int) {
+        ByteBuffer.wrap(this).putInt(offset, value)
+    }
+
+    private fun changesSince(old: ClasspathSnapshot, classes: File): List<String> =
+            snapshotClasspath(listOf(classes), old).getChanges(old).changes.map { it.toString() }.sorted().toList()
+
+    private fun writeClass(dir: File, internalName: String, vararg methods: Pair<String, String>) {
+        val file = File(dir, "$internalName.class")
+        file.parentFile.mkdirs()
+        file.writeBytes(classBytes(internalName, *methods))
+    }
+
+    private fun writeJar(jar: File, vararg classes: Pair<String, ByteArray>) {
+        ZipOutputStream(jar.outputStream()).use { zip ->
+            for ((internalName, bytes) in classes) {
+                zip.putNextEntry(ZipEntry("$internalName.class"))
+                zip.write(bytes)
+                zip.closeEntry()
+            }
+        }
+    }
+
+    private fun classBytes(internalName: String, vararg methods: Pair<String, String>): ByteArray {
+        val writer = ClassWriter(0)
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null)
+        for ((name, desc) in methods) {
+            writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT, name, desc, null, null).visitEnd()
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+}
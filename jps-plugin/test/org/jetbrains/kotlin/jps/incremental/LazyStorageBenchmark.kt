@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.io.EnumeratorStringDescriptor
+import org.jetbrains.kotlin.incremental.storage.LazyStorage
+import java.io.File
+
+/**
+ * Measures the flush of a [LazyStorage] with a read snapshot after a few of its entries were changed, like a build
+ * which recompiles a few classes, and after all of them were changed, which is what every flush used to cost.
+ * The times include changing the entries.
+ *
+ * Usage: LazyStorageBenchmark [entries] [changed entries]
+ */
+object LazyStorageBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val entries = args.getOrNull(0)?.toInt() ?: 100000
+        val changedEntries = args.getOrNull(1)?.toInt() ?: 100
+
+        val dir = FileUtil.createTempDirectory("lazyStorage", null)
+        try {
+            val storage = LazyStorage(File(dir, "map.tab"), EnumeratorStringDescriptor(), EnumeratorStringDescriptor(), useReadSnapshot = true)
+            val value = "x".repeat(100)
+            for (i in 0..entries - 1) {
+                storage["key$i"] = value
+            }
+            storage.flush(false)
+
+            var run = 0
+            fun changeAndFlush(count: Int) {
+                run++
+                for (i in 0..count - 1) {
+                    storage["key${(run * count + i) % entries}"] = value + run
+                }
+                storage.flush(false)
+            }
+
+            println("$entries entries")
+            println("flush after $changedEntries changed: ${measure { changeAndFlush(changedEntries) }} ms")
+            println("flush after all changed: ${measure { changeAndFlush(entries) }} ms")
+            storage.close()
+        }
+        finally {
+            FileUtil.delete(dir)
+        }
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measure(run: () -> Unit): Long {
+        repeat(WARMUP_RUNS) { run() }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            run()
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.testFramework.UsefulTestCase
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.IOUtil
+import org.jetbrains.kotlin.incremental.storage.LazyStorage
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataOutputStream
+import java.io.File
+
+class LazyStorageSnapshotTest : UsefulTestCase() {
+    private lateinit var dir: File
+    private lateinit var storageFile: File
+
+    override fun setUp() {
+        super.setUp()
+        dir = KotlinTestUtils.tmpDir("storage")
+        storageFile = File(dir, "map.tab")
+
+        val storage = createStorage()
+        storage["a"] = "1"
+        storage["b"] = "2"
+        storage.flush(false)
+        storage.close()
+    }
+
+    // the current snapshot, whose name is in the marker
+    private val snapshotFile: File
+        get() = File(dir, snapshotMarkerFile.readText())
+
+    private val snapshotMarkerFile: File
+        get() = File(storageFile.path + ".snapshot.valid")
+
+    private fun createStorage(valueDescriptor: EnumeratorStringDescriptor = EnumeratorStringDescriptor()) =
+            LazyStorage(storageFile, EnumeratorStringDescriptor(), valueDescriptor, useReadSnapshot = true)
+
+    fun testRoundTrip() {
+        assertTrue(snapshotFile.exists())
+        assertTrue(snapshotMarkerFile.exists())
+        assertEmpty(dir.listFiles { file -> file.name.endsWith(".tmp") })
+
+        val storage = createStorage()
+        assertEquals("1", storage["a"])
+        assertEquals("2", storage["b"])
+        assertNull(storage["c"])
+        assertTrue("a" in storage)
+        assertEquals(setOf("a", "b"), storage.keys.toSet())
+        storage.close()
+    }
+
+    fun testReadsAreServedFromSnapshot() {
+        snapshotFile.writeBytes(snapshot("a" to "from snapshot"))
+
+        val storage = createStorage()
+        assertEquals("from snapshot", storage["a"])
+        assertNull(storage["b"])
+        storage.close()
+    }
+
+    fun testFallbackToMapWithoutMarker() {
+        snapshotFile.writeBytes(snapshot("a" to "from snapshot"))
+        snapshotMarkerFile.delete()
+
+        val storage = createStorage()
+        assertEquals("1", storage["a"])
+        assertEquals("2", storage["b"])
+        storage.close()
+    }
+
+    fun testCorruptedSnapshotFallsBackToMap() {
+        val corruptedSnapshots = listOf(
+                ByteArray(2),
+                ints(-1),
+                ints(Int.MAX_VALUE),
+                // an entry offset beyond the end of the file
+                ints(1, "a".hashCode(), 1000),
+                // a value length beyond the end of the file
+                snapshot("a" to "1").copyOf(20)
+        )
+
+        for (bytes in corruptedSnapshots) {
+            snapshotFile.writeBytes(bytes)
+            assertTrue(snapshotMarkerFile.exists())
+
+            val storage = createStorage()
+            assertEquals("1", storage["a"])
+            assertEquals(setOf("a", "b"), storage.keys.toSet())
+            storage.close()
+        }
+    }
+
+    fun testEverySnapshotIsWrittenToNewFile() {
+        val firstSnapshotFile = snapshotFile
+
+        val storage = createStorage()
+        storage["a"] = "3"
+        storage.remove("b")
+        storage["c"] = "4"
+        storage.flush(false)
+
+        assertFalse(snapshotFile == firstSnapshotFile)
+        assertEquals("3", storage["a"])
+        assertNull(storage["b"])
+        assertEquals("4", storage["c"])
+        assertEquals(setOf("a", "c"), storage.keys.toSet())
+        storage.close()
+
+        val reopened = createStorage()
+        assertEquals(setOf("a", "c"), reopened.keys.toSet())
+        assertEquals("3", reopened["a"])
+        reopened.close()
+    }
+
+    fun testOnlyChangedValuesAreReadFromMap() {
+        var valueReads = 0
+        val countingDescriptor = object : EnumeratorStringDescriptor() {
+            override fun read(input: DataInput): String {
+                valueReads++
+                return super.read(input)
+            }
+        }
+
+        val storage = createStorage(countingDescriptor)
+        for (i in 1..100) {
+            storage["key$i"] = "value$i"
+        }
+        storage.flush(false)
+
+        storage["key1"] = "changed"
+        valueReads = 0
+        storage.flush(false)
+
+        assertTrue("Values read from the map: $valueReads", valueReads <= 1)
+        assertEquals("changed", storage["key1"])
+        assertEquals("value2", storage["key2"])
+        assertEquals("1", storage["a"])
+        storage.close()
+    }
+
+    private fun ints(vararg values: Int): ByteArray = bytes { output -> values.forEach { output.writeInt(it) } }
+
+    // the layout written by MappedSnapshot, for keys with distinct hash codes
+    private fun snapshot(vararg entries: Pair<String, String>): ByteArray {
+        val sorted = entries.sortedBy { it.first.hashCode() }
+        val keys = sorted.map { entry -> bytes { IOUtil.writeUTF(it, entry.first) } }
+        val values = sorted.map { entry -> bytes { IOUtil.writeUTF(it, entry.second) } }
+
+        return bytes { output ->
+            output.writeInt(sorted.size)
+            sorted.forEach { output.writeInt(it.first.hashCode()) }
+            var offset = 4 + 8 * sorted.size
+            for (i in sorted.indices) {
+                output.writeInt(offset)
+                offset += 8 + keys[i].size + values[i].size
+            }
+            for (i in sorted.indices) {
+                output.writeInt(keys[i].size)
+                output.write(keys[i])
+                output.writeInt(values[i].size)
+                output.write(values[i])
+            }
+        }
+    }
+
+    private fun bytes(write: (DataOutputStream) -> Unit): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use(write)
+        return bytes.toByteArray()
+    }
+}
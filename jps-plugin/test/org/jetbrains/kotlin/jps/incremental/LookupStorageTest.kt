@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.config.IncrementalCompilation
+import org.jetbrains.kotlin.incremental.CacheVersion
+import org.jetbrains.kotlin.incremental.LookupStorage
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.incremental.dataContainerCacheVersion
+import org.jetbrains.kotlin.incremental.storage.IntBatchesExternalizer
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.*
+
+class LookupStorageTest : UsefulTestCase() {
+    fun testIntBatchesRoundTrip() {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { IntBatchesExternalizer.save(it, listOf(300, 1, 70000, 1, 0)) }
+
+        assertEquals(listOf(0, 1, 300, 70000), read(bytes.toByteArray()))
+        assertEquals(emptyList<Int>(), read(ByteArray(0)))
+    }
+
+    fun testAppendedBatchesAreMerged() {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            IntBatchesExternalizer.saveBatch(output, intArrayOf(5, 3))
+            IntBatchesExternalizer.saveBatch(output, intArrayOf(4, 3, 1000))
+            IntBatchesExternalizer.saveBatch(output, intArrayOf())
+        }
+
+        assertEquals(listOf(3, 4, 5, 1000), read(bytes.toByteArray()))
+    }
+
+    fun testWrittenBehindLookupsAreMerged() {
+        val dir = KotlinTestUtils.tmpDir("lookups")
+        val foo = LookupSymbol("foo", "a")
+        val bar = LookupSymbol("bar", "a")
+
+        val storage = LookupStorage(dir, writeBehind = true)
+        storage.addAll(mapOf(foo to listOf("/A.kt", "/B.kt")).entries, setOf("/A.kt", "/B.kt"))
+        storage.addAll(mapOf(foo to listOf("/B.kt", "/C.kt"), bar to listOf("/C.kt")).entries, setOf("/B.kt", "/C.kt"))
+        assertEquals(setOf("/A.kt", "/B.kt", "/C.kt"), storage.get(foo).toSet())
+        storage.flush(false)
+        storage.close()
+
+        val reopened = LookupStorage(dir, writeBehind = true)
+        assertEquals(setOf("/A.kt", "/B.kt", "/C.kt"), reopened.get(foo).toSet())
+        assertEquals(setOf("/C.kt"), reopened.get(bar).toSet())
+
+        // garbage collection rewrites the merged batches without the removed files
+        reopened.removeLookupsFrom(sequenceOf(File("/B.kt")))
+        reopened.forceGC()
+        assertEquals(setOf("/A.kt", "/C.kt"), reopened.get(foo).toSet())
+        reopened.close()
+    }
+
+    fun testWriteFailureIsThrownByFlush() {
+        val dir = KotlinTestUtils.tmpDir("lookups")
+        val foo = LookupSymbol("foo", "a")
+
+        val storage = LookupStorage(dir, writeBehind = true)
+        // the path of the lookup is not among all paths, so the write fails
+        storage.addAll(mapOf(foo to listOf("/A.kt")).entries, emptySet())
+
+        storage.get(foo)
+        storage.removeLookupsFrom(sequenceOf(File("/B.kt")))
+        storage.addAll(mapOf(foo to listOf("/B.kt")).entries, setOf("/B.kt"))
+
+        try {
+            storage.flush(false)
+            fail("The failure of the write is expected to be thrown")
+        }
+        catch (e: NullPointerException) {
+        }
+
+        storage.close()
+    }
+
+    fun testLookupFormatChangeRebuildsDataContainer() {
+        val wasExperimental = IncrementalCompilation.isExperimental()
+        IncrementalCompilation.setIsExperimental(true)
+        try {
+            val dir = KotlinTestUtils.tmpDir("data-container")
+            val versionFile = dataContainerCacheVersion(dir).formatVersionFile
+
+            // the data container written before the lookups were stored in batches
+            CacheVersion(ownVersion = 1,
+                         versionFile = versionFile,
+                         whenVersionChanged = CacheVersion.Action.REBUILD_ALL_KOTLIN,
+                         whenTurnedOn = CacheVersion.Action.REBUILD_ALL_KOTLIN,
+                         whenTurnedOff = CacheVersion.Action.CLEAN_DATA_CONTAINER,
+                         isEnabled = { true }).saveIfNeeded()
+            assertEquals(CacheVersion.Action.REBUILD_ALL_KOTLIN, dataContainerCacheVersion(dir).checkVersion())
+
+            dataContainerCacheVersion(dir).saveIfNeeded()
+            assertEquals(CacheVersion.Action.DO_NOTHING, dataContainerCacheVersion(dir).checkVersion())
+        }
+        finally {
+            IncrementalCompilation.setIsExperimental(wasExperimental)
+        }
+    }
+
+    private fun read(bytes: ByteArray): List<Int> =
+            DataInputStream(ByteArrayInputStream(bytes)).use { IntBatchesExternalizer.read(it).toList() }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.google.protobuf.MessageLite
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.incremental.LocalFileKotlinClass
+import org.jetbrains.kotlin.incremental.MemberHashing
+import org.jetbrains.kotlin.incremental.difference
+import org.jetbrains.kotlin.incremental.memberFingerprints
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.serialization.deserialization.NameResolver
+import org.jetbrains.kotlin.serialization.jvm.BitEncoding
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.MockLibraryUtil
+import java.io.File
+
+// Members whose fingerprints are equal are not reported as changed, so their usages are not marked dirty
+class MemberFingerprintsTest : UsefulTestCase() {
+    // "added" precedes the other members, so the indices of their names in the string table change
+    private val oldSource = """
+        package test
+
+        class A {
+            fun unchanged(s: String): List<String> = listOf(s)
+            fun changed(): Int = 0
+            val property: String = ""
+        }
+    """
+
+    private val newSource = """
+        package test
+
+        class A {
+            fun added(a: Any) {}
+            fun unchanged(s: String): List<String> = listOf(s, s)
+            fun changed(): Long = 0
+            val property: String = "property"
+        }
+    """
+
+    fun testUnchangedMembersAreNotReported() {
+        val oldProto = compileClassA(oldSource)
+        val newProto = compileClassA(newSource)
+
+        assertEquals(oldProto.memberFingerprints()["unchanged"], newProto.memberFingerprints()["unchanged"])
+
+        val difference = difference(oldProto, newProto)
+        assertFalse(difference.isClassAffected)
+        assertEquals(setOf("added", "changed"), difference.changedMembersNames)
+    }
+
+    fun testStoredFingerprintsAreComparedWithTheNewOnes() {
+        val oldProto = compileClassA(oldSource)
+        val newProto = compileClassA(newSource)
+
+        val oldFingerprints = oldProto.memberFingerprints().filterKeys { it != "changed" }
+        val difference = difference(oldProto, newProto, oldFingerprints = oldFingerprints)
+        assertEquals(setOf("added", "changed"), difference.changedMembersNames)
+    }
+
+    fun testHashingIsPluggable() {
+        val sameHashForAll = object : MemberHashing {
+            override fun hash(member: MessageLite, nameResolver: NameResolver): Long = 0L
+        }
+
+        val difference = difference(compileClassA(oldSource), compileClassA(newSource), hashing = sameHashForAll)
+        assertEquals(setOf("added"), difference.changedMembersNames)
+    }
+
+    private fun compileClassA(source: String): ProtoMapValue {
+        val testDir = KotlinTestUtils.tmpDir("memberFingerprints")
+        val sourcesDirectory = File(testDir, "sources")
+        sourcesDirectory.mkdirs()
+        File(sourcesDirectory, "A.kt").writeText(source.trimIndent())
+
+        val classesDirectory = File(testDir, "classes")
+        MockLibraryUtil.compileKotlin(sourcesDirectory.path, classesDirectory)
+
+        val header = LocalFileKotlinClass.create(File(classesDirectory, "test/A.class"))!!.classHeader
+        return ProtoMapValue(false, BitEncoding.decodeBytes(header.data!!), header.strings!!)
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.incremental.LocalFileKotlinClass
+import org.jetbrains.kotlin.incremental.difference
+import org.jetbrains.kotlin.incremental.memberFingerprints
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.serialization.ProtoBuf
+import org.jetbrains.kotlin.serialization.jvm.BitEncoding
+import org.jetbrains.kotlin.serialization.jvm.JvmProtoBuf
+import org.jetbrains.kotlin.serialization.jvm.JvmProtoBufUtil
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.zip.ZipFile
+
+/**
+ * Measures the comparison of the classes of the runtime with their versions without the first function,
+ * like IncrementalCacheImpl does for every recompiled class whose metadata changed:
+ * "computed" hashes the members of both versions, "stored" takes the fingerprints of the old version from the cache.
+ *
+ * Usage: ProtoDifferenceBenchmark
+ */
+object ProtoDifferenceBenchmark {
+    private val WARMUP_RUNS = 3
+    private val MEASURED_RUNS = 5
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val oldProtos = runtimeClassProtos().filter {
+            JvmProtoBufUtil.readClassDataFrom(it.bytes, it.strings).classProto.functionCount > 0
+        }
+        val newProtos = oldProtos.map { withoutFirstFunction(it) }
+        val storedFingerprints = oldProtos.map { it.memberFingerprints() }
+
+        println("${oldProtos.size} classes")
+        println("fingerprints: ${measure { oldProtos.forEach { it.memberFingerprints() } }} ms")
+        println("difference, computed: ${measure {
+            for (i in oldProtos.indices) {
+                difference(oldProtos[i], newProtos[i])
+            }
+        }} ms")
+        println("difference, stored: ${measure {
+            for (i in oldProtos.indices) {
+                difference(oldProtos[i], newProtos[i], storedFingerprints[i], newProtos[i].memberFingerprints())
+            }
+        }} ms")
+    }
+
+    private fun runtimeClassProtos(): List<ProtoMapValue> =
+            ZipFile(ForTestCompileRuntime.runtimeJarForTests()).use { jar ->
+                jar.entries().toList()
+                        .filter { it.name.endsWith(".class") }
+                        .mapNotNull { entry ->
+                            val kotlinClass = LocalFileKotlinClass.create(File(entry.name), jar.getInputStream(entry).readBytes())
+                            val header = kotlinClass?.classHeader
+                            if (header != null && header.kind == KotlinClassHeader.Kind.CLASS)
+                                ProtoMapValue(false, BitEncoding.decodeBytes(header.data!!), header.strings!!)
+                            else null
+                        }
+            }
+
+    private fun withoutFirstFunction(value: ProtoMapValue): ProtoMapValue {
+        val input = ByteArrayInputStream(value.bytes)
+        val stringTable = JvmProtoBuf.StringTableTypes.parseDelimitedFrom(input, JvmProtoBufUtil.EXTENSION_REGISTRY)
+        val classProto = ProtoBuf.Class.parseFrom(input, JvmProtoBufUtil.EXTENSION_REGISTRY)
+
+        val output = ByteArrayOutputStream()
+        stringTable.writeDelimitedTo(output)
+        classProto.toBuilder().clearFunction().addAllFunction(classProto.functionList.drop(1)).build().writeTo(output)
+        return ProtoMapValue(false, output.toByteArray(), value.strings)
+    }
+
+    // the median time of several runs after warming up, in milliseconds
+    private fun measure(run: () -> Unit): Long {
+        repeat(WARMUP_RUNS) { run() }
+        val times = (1..MEASURED_RUNS).map {
+            val start = System.nanoTime()
+            run()
+            (System.nanoTime() - start) / 1000000
+        }
+        return times.sorted()[MEASURED_RUNS / 2]
+    }
+}
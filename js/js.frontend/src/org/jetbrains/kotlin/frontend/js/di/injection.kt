@@ -32,11 +32,14 @@ import org.jetbrains.kotlin.resolve.lazy.FileScopeProviderImpl
 import org.jetbrains.kotlin.resolve.lazy.ResolveSession
 import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.types.DynamicTypesAllowed
+import org.jetbrains.kotlin.util.PhaseProfiler
 
 fun createTopDownAnalyzerForJs(
         moduleContext: ModuleContext,
         bindingTrace: BindingTrace,
-        declarationProviderFactory: DeclarationProviderFactory
+        declarationProviderFactory: DeclarationProviderFactory,
+        lookupTracker: LookupTracker = LookupTracker.DO_NOTHING,
+        phaseProfiler: PhaseProfiler = PhaseProfiler.DISABLED
 ): LazyTopDownAnalyzerForTopLevel {
     val storageComponentContainer = createContainer("TopDownAnalyzerForJs") {
         configureModule(moduleContext, JsPlatform, bindingTrace)
@@ -46,7 +49,8 @@ fun createTopDownAnalyzerForJs(
 
         CompilerEnvironment.configure(this)
 
-        useInstance(LookupTracker.DO_NOTHING)
+        useInstance(lookupTracker)
+        useInstance(phaseProfiler)
         useImpl<ResolveSession>()
         useImpl<LazyTopDownAnalyzerForTopLevel>()
     }
@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.context.MutableModuleContext;
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider;
 import org.jetbrains.kotlin.descriptors.impl.ModuleDescriptorImpl;
 import org.jetbrains.kotlin.frontend.js.di.InjectionKt;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
 import org.jetbrains.kotlin.js.analyzer.JsAnalysisResult;
 import org.jetbrains.kotlin.js.config.Config;
 import org.jetbrains.kotlin.js.resolve.JsPlatform;
@@ -30,6 +31,7 @@ import org.jetbrains.kotlin.name.Name;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.resolve.*;
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -44,6 +46,16 @@ public final class TopDownAnalyzerFacadeForJS {
     public static JsAnalysisResult analyzeFiles(
             @NotNull Collection<KtFile> files,
             @NotNull Config config
+    ) {
+        return analyzeFiles(files, config, LookupTracker.Companion.getDO_NOTHING(), PhaseProfiler.DISABLED);
+    }
+
+    @NotNull
+    public static JsAnalysisResult analyzeFiles(
+            @NotNull Collection<KtFile> files,
+            @NotNull Config config,
+            @NotNull LookupTracker lookupTracker,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         BindingTrace trace = new BindingTraceContext();
 
@@ -51,7 +63,7 @@ public final class TopDownAnalyzerFacadeForJS {
                 config.getProject(), Name.special("<" + config.getModuleId() + ">"), JsPlatform.INSTANCE
         );
         newModuleContext.setDependencies(computeDependencies(newModuleContext.getModule(), config));
-        return analyzeFilesWithGivenTrace(files, trace, newModuleContext, config);
+        return analyzeFilesWithGivenTrace(files, trace, newModuleContext, config, lookupTracker, phaseProfiler);
     }
 
     @NotNull
@@ -69,12 +81,27 @@ public final class TopDownAnalyzerFacadeForJS {
             @NotNull BindingTrace trace,
             @NotNull ModuleContext moduleContext,
             @NotNull Config config
+    ) {
+        return analyzeFilesWithGivenTrace(files, trace, moduleContext, config, LookupTracker.Companion.getDO_NOTHING(),
+                                          PhaseProfiler.DISABLED);
+    }
+
+    @NotNull
+    public static JsAnalysisResult analyzeFilesWithGivenTrace(
+            @NotNull Collection<KtFile> files,
+            @NotNull BindingTrace trace,
+            @NotNull ModuleContext moduleContext,
+            @NotNull Config config,
+            @NotNull LookupTracker lookupTracker,
+            @NotNull PhaseProfiler phaseProfiler
     ) {
         Collection<KtFile> allFiles = Config.withJsLibAdded(files, config);
 
         LazyTopDownAnalyzerForTopLevel analyzerForJs = InjectionKt.createTopDownAnalyzerForJs(
                 moduleContext, trace,
-                new FileBasedDeclarationProviderFactory(moduleContext.getStorageManager(), allFiles)
+                new FileBasedDeclarationProviderFactory(moduleContext.getStorageManager(), allFiles),
+                lookupTracker,
+                phaseProfiler
         );
         analyzerForJs.analyzeFiles(TopDownAnalysisMode.TopLevelDeclarations, files, Collections.<PackageFragmentProvider>emptyList());
         return JsAnalysisResult.success(trace, moduleContext.getModule());
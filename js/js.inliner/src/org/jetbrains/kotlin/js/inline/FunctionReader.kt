@@ -19,6 +19,7 @@ package org.jetbrains.kotlin.js.inline
 import com.google.dart.compiler.backend.js.ast.*
 import com.google.dart.compiler.backend.js.ast.metadata.inlineStrategy
 import com.google.gwt.dev.js.ThrowExceptionOnErrorReporter
+import com.intellij.util.containers.ContainerUtil
 import com.intellij.util.containers.SLRUCache
 import org.jetbrains.kotlin.builtins.KotlinBuiltIns
 import org.jetbrains.kotlin.descriptors.CallableDescriptor
@@ -35,6 +36,7 @@ import org.jetbrains.kotlin.resolve.inline.InlineStrategy
 import org.jetbrains.kotlin.utils.JsLibraryUtils
 import org.jetbrains.kotlin.utils.sure
 import java.io.File
+import java.security.MessageDigest
 
 // TODO: add hash checksum to defineModule?
 /**
@@ -62,6 +64,12 @@ class FunctionReader(private val context: TranslationContext) {
      */
     private val moduleKotlinVariable = hashMapOf<String, String>()
 
+    /**
+     * Maps module name to digest of .js file content, that contains this module definition.
+     * Computed on first read of a function from the module.
+     */
+    private val moduleContentDigest = hashMapOf<String, String>()
+
     init {
         val config = context.config as LibrarySourcesConfig
         val libs = config.libraries.map { File(it) }
@@ -105,18 +113,18 @@ class FunctionReader(private val context: TranslationContext) {
     }
 
     private fun readFunctionFromSource(descriptor: CallableDescriptor, source: String): JsFunction? {
+        val moduleName = getExternalModuleName(descriptor)!!
         val tag = Namer.getFunctionTag(descriptor)
-        val index = source.indexOf(tag)
-        if (index < 0) return null
 
-        // + 1 for closing quote
-        var offset = index + tag.length + 1
-        while (offset < source.length && source[offset].isWhitespaceOrComma) {
-            offset++
+        val digest = moduleContentDigest.getOrPut(moduleName) { computeDigest(source) }
+        val key = ParsedFunctionKey(digest, tag)
+        val parsedFunction = parsedFunctions[key] ?: run {
+            val function = parseFunctionFromSource(source, tag) ?: return null
+            parsedFunctions.putIfAbsent(key, function) ?: function
         }
 
-        val function = parseFunction(source, offset, ThrowExceptionOnErrorReporter, JsRootScope(JsProgram("<inline>")))
-        val moduleName = getExternalModuleName(descriptor)!!
+        // parsed functions are shared, and the inliner modifies the functions it reads
+        val function = parsedFunction.deepCopy()
         val moduleNameLiteral = context.program().getStringLiteral(moduleName)
         val moduleReference =  context.namer().getModuleReference(moduleNameLiteral)
 
@@ -127,6 +135,32 @@ class FunctionReader(private val context: TranslationContext) {
     }
 }
 
+/**
+ * Functions parsed from library sources, shared by all translations in this JVM, e.g. in the compile daemon.
+ * A key contains digest of the library file, so a changed library is parsed again. Values are never modified.
+ */
+private val parsedFunctions = ContainerUtil.createConcurrentSoftValueMap<ParsedFunctionKey, JsFunction>()
+
+private fun parseFunctionFromSource(source: String, tag: String): JsFunction? {
+    val index = source.indexOf(tag)
+    if (index < 0) return null
+
+    // + 1 for closing quote
+    var offset = index + tag.length + 1
+    while (offset < source.length && source[offset].isWhitespaceOrComma) {
+        offset++
+    }
+
+    return parseFunction(source, offset, ThrowExceptionOnErrorReporter, JsRootScope(JsProgram("<inline>")))
+}
+
+private fun computeDigest(source: String): String {
+    val digest = MessageDigest.getInstance("MD5").digest(source.toByteArray(Charsets.UTF_8))
+    return digest.joinToString("") { String.format("%02x", it) }
+}
+
+private data class ParsedFunctionKey(val contentDigest: String, val tag: String)
+
 private val Char.isWhitespaceOrComma: Boolean
     get() = this == ',' || this.isWhitespace()
 
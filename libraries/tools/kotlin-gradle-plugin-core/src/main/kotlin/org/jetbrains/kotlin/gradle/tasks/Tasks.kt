@@ -41,6 +41,7 @@ import org.jetbrains.kotlin.compilerRunner.OutputItemsCollector
 import org.jetbrains.kotlin.compilerRunner.OutputItemsCollectorImpl
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.daemon.client.DaemonCompilerRunner
 import org.jetbrains.kotlin.incremental.*
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.modules.TargetId
@@ -53,6 +54,7 @@ const val DEFAULT_ANNOTATIONS = "org.jebrains.kotlin.gradle.defaultAnnotations"
 const val ANNOTATIONS_PLUGIN_NAME = "org.jetbrains.kotlin.kapt"
 const val KOTLIN_CACHES_DIR_NAME = "kotlin-caches"
 const val DIRTY_SOURCES_FILE_NAME = "dirty-sources.txt"
+const val CLASSPATH_SNAPSHOT_FILE_NAME = "classpath-snapshot.bin"
 
 val AbstractTask.kotlinCachesDir: File
     get() = File(project.buildDir, KOTLIN_CACHES_DIR_NAME)
@@ -136,7 +138,7 @@ abstract class AbstractKotlinCompile<T : CommonCompilerArguments>() : AbstractCo
 
         val messageCollector = GradleMessageCollector(logger)
         logger.debug("Calling compiler")
-        val exitCode = compiler.exec(messageCollector, Services.EMPTY, args)
+        val exitCode = execCompiler(messageCollector, Services.EMPTY, args)
 
         when (exitCode) {
             ExitCode.COMPILATION_ERROR -> throw GradleException("Compilation error. See log for more details")
@@ -144,6 +146,10 @@ abstract class AbstractKotlinCompile<T : CommonCompilerArguments>() : AbstractCo
         }
     }
 
+    // the compile daemon is used if it's enabled with the kotlin.daemon.enabled system property of the build
+    protected fun execCompiler(messageCollector: GradleMessageCollector, services: Services, args: T): ExitCode =
+            DaemonCompilerRunner.compile(args, services, messageCollector, messageCollector.outputCollector ?: OutputItemsCollectorImpl())
+            ?: compiler.exec(messageCollector, services, args)
 }
 
 
@@ -238,6 +244,11 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
         val allGeneratedFiles = hashSetOf<GeneratedFile<TargetId>>()
         val logAction = { logStr: String -> logger.kotlinInfo(logStr) }
         val dirtySourcesSinceLastTimeFile = File(cachesBaseDir, DIRTY_SOURCES_FILE_NAME)
+        val classpathSnapshotFile = File(cachesBaseDir, CLASSPATH_SNAPSHOT_FILE_NAME)
+        val previousClasspathSnapshot = lazy { ClasspathSnapshot.read(classpathSnapshotFile) }
+        // TODO: that doesn't look to wise - join it first and then split here, consider storing it somewhere in between
+        val classpathFiles = args.classpath.split(File.pathSeparator).filter { it.isNotEmpty() }.map { File(it) }
+        val classpathSnapshot = lazy { snapshotClasspath(classpathFiles, previousClasspathSnapshot.value) }
 
         fun getOrCreateIncrementalCache(target: TargetId): GradleIncrementalCacheImpl {
             val cacheDir = File(cachesBaseDir, "increCache.${target.name}")
@@ -272,8 +283,18 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
             } else listOf())
         }
 
+        fun dirtyKotlinSourcesFromClasspath(): Set<File> {
+            val classpathChanges = classpathSnapshot.value.getChanges(previousClasspathSnapshot.value!!)
+            if (!classpathChanges.changes.any()) return emptySet()
+
+            logger.kotlinInfo("classpath changed, looking for affected kotlin files")
+            val cachesList = targets.map { getIncrementalCache(it) }
+            val (dirtyLookupSymbols, dirtyClassFqNames) = classpathChanges.getDirtyData(cachesList, logAction)
+            return mapLookupSymbolsToFiles(lookupStorage, dirtyLookupSymbols, logAction, ::projectRelativePath) +
+                   mapClassesFqNamesToFiles(cachesList, dirtyClassFqNames, logAction, ::projectRelativePath)
+        }
+
         fun dirtyKotlinSourcesFromGradle(): MutableSet<File> {
-            // TODO: handle classpath changes similarly - compare with cashed version (likely a big change, may be costly, some heuristics could be considered)
             val modifiedKotlinFiles = modified.filter { it.isKotlinFile() }.toMutableSet()
             val lookupSymbols = dirtyLookupSymbolsFromModifiedJavaFiles()
                     // TODO: add dirty lookups from modified kotlin files to reduce number of steps needed
@@ -284,14 +305,9 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
                 modifiedKotlinFiles.addAll(dirtyFilesFromLookups)
             }
 
-            return modifiedKotlinFiles
-        }
+            modifiedKotlinFiles.addAll(dirtyKotlinSourcesFromClasspath())
 
-        fun isClassPathChanged(): Boolean {
-            // TODO: that doesn't look to wise - join it first and then split here, consider storing it somewhere in between
-            val classpath = args.classpath.split(File.pathSeparator).map { File(it) }.toHashSet()
-            val changedClasspath = modified.filter { classpath.contains(it) }
-            return changedClasspath.any()
+            return modifiedKotlinFiles
         }
 
         fun allCachesVersions() = allCachesVersions(cachesBaseDir, listOf(cachesBaseDir))
@@ -300,12 +316,12 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
 
             if (!experimentalIncremental ||
                     !isIncrementalRequested ||
-                    // TODO: more precise will be not to rebuild unconditionally on classpath changes, but retrieve lookup info and try to find out which sources are affected by cp changes
-                    isClassPathChanged() ||
+                    // without the classpath of the previous build its changes are unknown
+                    previousClasspathSnapshot.value == null ||
                     // so far considering it not incremental TODO: store java files in the cache and extract removed symbols from it here
                     removed.any { it.isJavaFile() }
             ) {
-                logger.kotlinInfo(if (!isIncrementalRequested) "clean caches on rebuild" else "classpath changed, rebuilding all kotlin files")
+                logger.kotlinInfo(if (!isIncrementalRequested) "clean caches on rebuild" else "classpath snapshot is missing or java files were removed, rebuilding all kotlin files")
                 targets.forEach { getIncrementalCache(it).clean() }
                 lookupStorage.clean()
                 return Pair(sources.toSet(), false)
@@ -439,6 +455,7 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
                 currentRemoved = listOf()
             }
         }
+        classpathSnapshot.value.write(classpathSnapshotFile)
         lookupStorage.flush(false)
         lookupStorage.close()
         caches.values.forEach { it.flush(false); it.close() }
@@ -470,7 +487,7 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
             }
 
             logger.kotlinDebug("compiling with args ${ArgumentUtils.convertArgumentsToStringList(args)}")
-            val exitCode = compiler.exec(messageCollector, makeCompileServices(incrementalCaches, lookupTracker, compilationCanceledStatus), args)
+            val exitCode = execCompiler(messageCollector, makeCompileServices(incrementalCaches, lookupTracker, compilationCanceledStatus), args)
             return CompileChangedResults(
                     exitCode,
                     outputItemCollector.generatedFiles(
@@ -495,7 +512,7 @@ open class KotlinCompile() : AbstractKotlinCompile<K2JVMCompilerArguments>() {
 
         try {
             logger.kotlinDebug("compiling with args ${ArgumentUtils.convertArgumentsToStringList(args)}")
-            return compiler.exec(messageCollector, Services.EMPTY, args)
+            return execCompiler(messageCollector, Services.EMPTY, args)
         }
         finally {
             moduleFile.delete()
@@ -35,6 +35,7 @@ import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation;
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity;
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector;
 import org.jetbrains.kotlin.config.Services;
+import org.jetbrains.kotlin.daemon.client.DaemonCompilerRunner;
 
 import java.io.File;
 import java.lang.reflect.Field;
@@ -210,12 +211,18 @@ public abstract class KotlinCompileMojoBase<A extends CommonCompilerArguments> e
     @NotNull
     protected abstract A createCompilerArguments();
 
+    /**
+     * Compiles in the compile daemon if it's enabled with the kotlin.daemon.enabled system property, otherwise in-process
+     */
     @NotNull
     protected ExitCode executeCompiler(
             @NotNull CLICompiler<A> compiler,
             @NotNull A arguments,
             @NotNull MessageCollector messageCollector
     ) {
+        ExitCode daemonExitCode = DaemonCompilerRunner.compile(arguments, Services.EMPTY, messageCollector);
+        if (daemonExitCode != null) return daemonExitCode;
+
         return compiler.exec(messageCollector, Services.EMPTY, arguments);
     }
 